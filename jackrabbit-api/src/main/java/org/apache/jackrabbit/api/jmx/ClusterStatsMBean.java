@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.api.jmx;
+
+import javax.management.openmbean.TabularData;
+
+/**
+ * JMX Bindings for the statistics of a cluster node.
+ */
+public interface ClusterStatsMBean {
+
+    String NAME = "org.apache.jackrabbit:type=ClusterStats";
+
+    /**
+     * @return the id of this cluster node
+     */
+    String getClusterNodeId();
+
+    /**
+     * @return the revision of the cluster journal this cluster node has
+     *         synchronized to
+     */
+    long getLocalRevision();
+
+    /**
+     * @return the latest revision of the cluster journal as stored by the
+     *         journal, or <code>-1</code> if the journal does not provide it
+     */
+    long getGlobalRevision();
+
+    /**
+     * The revisions of a file based journal are byte offsets, so the lag
+     * of such a journal is a number of bytes rather than of records.
+     *
+     * @return the number of revisions this cluster node is behind the
+     *         latest revision of the journal, or <code>-1</code> if unknown
+     */
+    long getRevisionLag();
+
+    /**
+     * @return the time in milliseconds since another cluster node announced
+     *         the oldest change that is not yet synchronized
+     */
+    long getReplicationLag();
+
+    /**
+     * @return the number of records in the cluster journal when it was last
+     *         sampled, or <code>-1</code> if the journal does not report it
+     */
+    long getJournalSize();
+
+    /**
+     * @return the oldest revision in the cluster journal when it was last
+     *         sampled, or <code>-1</code> if the journal does not report it
+     */
+    long getOldestRevision();
+
+    /**
+     * @return the number of synchronizations with the cluster journal
+     */
+    long getSyncCount();
+
+    /**
+     * @return the average duration of a synchronization in milliseconds
+     */
+    double getAverageSyncDuration();
+
+    /**
+     * @return the number and total size of the records applied per cluster
+     *         node that produced them
+     */
+    TabularData getProducerStats();
+
+    /**
+     * @return the number and average apply duration of the records applied
+     *         per record type
+     */
+    TabularData getRecordTypeStats();
+
+    /**
+     * @return the number of waits for the global journal lock per duration
+     *         range
+     */
+    TabularData getLockWaitHistogram();
+
+    /**
+     * Resets all counters of this cluster node.
+     */
+    void reset();
+
+}
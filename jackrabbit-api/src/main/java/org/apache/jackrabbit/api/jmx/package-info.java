@@ -18,5 +18,5 @@
 /**
  * JMX management interfaces for JCR.
  */
-@org.osgi.annotation.versioning.Version("2.3.0")
+@org.osgi.annotation.versioning.Version("2.4.0")
 package org.apache.jackrabbit.api.jmx;
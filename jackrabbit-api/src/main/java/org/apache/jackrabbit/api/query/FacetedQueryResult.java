@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.api.query;
+
+import java.util.Map;
+
+import javax.jcr.RepositoryException;
+
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * A query result that is able to count the values of properties of all
+ * result nodes. The counts are computed from the search index, the nodes
+ * of the result do not have to be loaded.
+ *
+ * @since Jackrabbit 2.20
+ */
+@ProviderType
+public interface FacetedQueryResult extends JackrabbitQueryResult {
+
+    /**
+     * Returns the number of result nodes per value of the given property.
+     * All nodes that match the query and that are readable by the session
+     * are counted, regardless of the limit and offset of the query. A node
+     * with a multi-valued property is counted once for each of its distinct
+     * values. If the result has more than one selector, the nodes of the
+     * first selector are counted.
+     * <p>
+     * The returned map is ordered by descending count. Values with the same
+     * count are ordered by their string representation. The keys are the
+     * string representations of the values as returned by
+     * {@link javax.jcr.Value#getString()}.
+     *
+     * @param propertyName the JCR name of a property.
+     * @param maxValues    the maximum number of values to return, or a
+     *                     negative number to return all values.
+     * @return the number of result nodes per property value.
+     * @throws RepositoryException if the values cannot be counted.
+     */
+    Map<String, Integer> getFacet(String propertyName, int maxValues)
+            throws RepositoryException;
+
+}
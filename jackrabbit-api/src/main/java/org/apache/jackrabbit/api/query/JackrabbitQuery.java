@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.api.query;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.query.Query;
+
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * The Jackrabbit query interface. This interface contains the
+ * Jackrabbit-specific extensions to the JCR {@link Query} interface.
+ *
+ * @since Jackrabbit 2.20
+ */
+@ProviderType
+public interface JackrabbitQuery extends Query {
+
+    /**
+     * Executes this query, reads the complete result and returns a
+     * description of how the query was evaluated. The description contains
+     * the queries run against the search index, the estimated and actual
+     * number of hits and the time spent in each phase of the query
+     * execution. The format of the description is implementation specific
+     * and intended for humans.
+     *
+     * @return a description of the query execution.
+     * @throws RepositoryException if the query cannot be executed.
+     */
+    String explain() throws RepositoryException;
+
+    /**
+     * Sets the maximum time {@link #execute()} waits until all changes that
+     * were saved in the repository before the call are visible to the
+     * query. This is only relevant for repositories that update their
+     * search index asynchronously. If the changes are not visible within
+     * the timeout, the query is executed anyway. The default is zero, which
+     * executes the query without waiting.
+     *
+     * @param timeout the maximum time to wait in milliseconds.
+     */
+    void setWaitForIndex(long timeout);
+
+}
@@ -120,7 +120,84 @@ public interface RepositoryStatistics {
          * This is the sum of all observation durations divided by the number
          * of observation events in the respective time period.
          */
-        OBSERVATION_EVENT_AVERAGE(true);
+        OBSERVATION_EVENT_AVERAGE(true),
+
+        /**
+         * Number of journal records of other cluster nodes applied by this
+         * cluster node.
+         */
+        CLUSTER_RECORD_COUNTER(true),
+
+        /**
+         * Total size of the journal records of other cluster nodes applied
+         * by this cluster node in bytes.
+         */
+        CLUSTER_RECORD_SIZE_COUNTER(true),
+
+        /**
+         * Total time spent applying journal records of other cluster nodes
+         * in nano seconds.
+         */
+        CLUSTER_RECORD_DURATION(true),
+
+        /**
+         * Average time spent applying a journal record of another cluster
+         * node in nano seconds.
+         */
+        CLUSTER_RECORD_AVERAGE(false),
+
+        /**
+         * Number of synchronizations with the cluster journal.
+         */
+        CLUSTER_SYNC_COUNTER(true),
+
+        /**
+         * Total time spent synchronizing with the cluster journal in nano
+         * seconds.
+         */
+        CLUSTER_SYNC_DURATION(true),
+
+        /**
+         * Average time spent on a synchronization with the cluster journal
+         * in nano seconds.
+         */
+        CLUSTER_SYNC_AVERAGE(false),
+
+        /**
+         * Number of times the global cluster journal lock was acquired.
+         */
+        CLUSTER_LOCK_WAIT_COUNTER(true),
+
+        /**
+         * Total time spent waiting for the global cluster journal lock in
+         * nano seconds.
+         */
+        CLUSTER_LOCK_WAIT_DURATION(true),
+
+        /**
+         * Average time spent waiting for the global cluster journal lock in
+         * nano seconds.
+         */
+        CLUSTER_LOCK_WAIT_AVERAGE(false),
+
+        /**
+         * Number of revisions this cluster node is behind the latest
+         * revision of the cluster journal, or -1 if unknown. The lag of a
+         * file based journal is in bytes.
+         */
+        CLUSTER_REVISION_LAG(false),
+
+        /**
+         * Number of records in the cluster journal, as last sampled by the
+         * journal.
+         */
+        CLUSTER_JOURNAL_SIZE(false),
+
+        /**
+         * Oldest revision that is still in the cluster journal, as last
+         * sampled by the journal.
+         */
+        CLUSTER_JOURNAL_OLDEST_REVISION(false);
 
         private final boolean resetValueEachSecond;
 
@@ -18,5 +18,5 @@
 /**
  * Jackrabbit repository statistics
  */
-@org.osgi.annotation.versioning.Version("1.2.0")
+@org.osgi.annotation.versioning.Version("1.3.0")
 package org.apache.jackrabbit.api.stats;
@@ -51,6 +51,7 @@ import javax.jcr.observation.ObservationManager;
 import javax.security.auth.Subject;
 
 import org.apache.commons.collections.map.ReferenceMap;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.jackrabbit.api.JackrabbitRepository;
 import org.apache.jackrabbit.api.management.RepositoryManager;
@@ -91,6 +92,7 @@ import org.apache.jackrabbit.core.persistence.IterablePersistenceManager;
 import org.apache.jackrabbit.core.persistence.PMContext;
 import org.apache.jackrabbit.core.persistence.PersistenceManager;
 import org.apache.jackrabbit.core.persistence.check.ConsistencyChecker;
+import org.apache.jackrabbit.core.query.lucene.SearchIndex;
 import org.apache.jackrabbit.core.retention.RetentionRegistry;
 import org.apache.jackrabbit.core.retention.RetentionRegistryImpl;
 import org.apache.jackrabbit.core.security.JackrabbitSecurityManager;
@@ -302,6 +304,8 @@ public class RepositoryImpl extends AbstractRepository
             if (repConfig.getClusterConfig() != null) {
                 clusterNode = createClusterNode();
                 context.setClusterNode(clusterNode);
+                clusterNode.getStatistics().setRepositoryStatistics(
+                        context.getRepositoryStatistics());
                 context.getNamespaceRegistry().setEventChannel(clusterNode);
                 context.getNodeTypeRegistry().setEventChannel(clusterNode);
                 context.getPrivilegeRegistry().setEventChannel(clusterNode);
@@ -1459,6 +1463,90 @@ public class RepositoryImpl extends AbstractRepository
         return gc;
     }
 
+    /**
+     * Creates a snapshot of the search indexes of this repository in the
+     * <code>target</code> directory, which must not exist yet. Each index is
+     * placed at the path it has relative to the repository home. In a
+     * cluster, the file {@link ClusterNode#SNAPSHOT_REVISION_FILE} contains
+     * the revision of this cluster node, all changes up to this revision are
+     * contained in the snapshot.
+     * <p>
+     * A new cluster node is started from the snapshot by copying the contents
+     * of <code>target</code> into its repository home. It then only replays
+     * the journal records after the snapshot revision and does not create
+     * its search indexes from scratch.
+     *
+     * @param target the directory of the snapshot.
+     * @throws RepositoryException if the snapshot cannot be created.
+     */
+    public void createIndexSnapshot(File target) throws RepositoryException {
+        sanityCheck();
+
+        if (target.exists()) {
+            throw new RepositoryException(
+                    "Snapshot directory already exists: " + target);
+        }
+        File home = new File(repConfig.getHomeDir());
+        ClusterNode clusterNode = context.getClusterNode();
+        long revision = 0;
+        if (clusterNode != null) {
+            revision = clusterNode.getRevision();
+        }
+        try {
+            // updates with a revision up to the one above are in the
+            // indexes once the updates in progress are done
+            String[] wspNames = getWorkspaceNames();
+            for (String wspName : wspNames) {
+                getWorkspaceInfo(wspName).getItemStateProvider().waitForUpdates();
+            }
+            context.getInternalVersionManager().waitForUpdates();
+            for (String wspName : wspNames) {
+                createIndexSnapshot(
+                        getWorkspaceInfo(wspName).getSearchManager(),
+                        home, target);
+            }
+            createIndexSnapshot(systemSearchMgr, home, target);
+            if (clusterNode != null) {
+                FileUtils.writeStringToFile(
+                        new File(target, ClusterNode.SNAPSHOT_REVISION_FILE),
+                        Long.toString(revision), "UTF-8");
+            }
+        } catch (ItemStateException e) {
+            throw new RepositoryException(
+                    "Interrupted while waiting for updates", e);
+        } catch (IOException e) {
+            throw new RepositoryException(
+                    "Unable to create index snapshot in " + target, e);
+        }
+        log.info("Created index snapshot at revision {} in {}", revision, target);
+    }
+
+    /**
+     * Creates the snapshot of a search index in the snapshot directory.
+     *
+     * @param searchMgr the search manager or <code>null</code>.
+     * @param home the repository home.
+     * @param target the snapshot directory.
+     * @throws IOException if an error occurs while creating the snapshot.
+     * @throws RepositoryException if the index is not in the repository home.
+     */
+    private void createIndexSnapshot(
+            SearchManager searchMgr, File home, File target)
+            throws IOException, RepositoryException {
+        if (searchMgr == null
+                || !(searchMgr.getQueryHandler() instanceof SearchIndex)) {
+            return;
+        }
+        SearchIndex index = (SearchIndex) searchMgr.getQueryHandler();
+        String homePath = home.getCanonicalPath() + File.separator;
+        String path = new File(index.getPath()).getCanonicalPath();
+        if (!path.startsWith(homePath)) {
+            throw new RepositoryException(
+                    "Index is not located in the repository home: " + path);
+        }
+        index.createSnapshot(new File(target, path.substring(homePath.length())));
+    }
+
     //-----------------------------------------------------------< Repository >
     /**
      * {@inheritDoc}
@@ -0,0 +1,287 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.core.journal.Record;
+import org.apache.jackrabbit.core.state.ChangeLog;
+import org.apache.jackrabbit.core.state.ItemState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>CatchUpApplier</code> applies the updates of other cluster nodes while
+ * a cluster node catches up with the journal on startup. The updates of
+ * different workspaces and of the version storage are applied concurrently,
+ * each by its own thread in the order of the journal. The changes of
+ * consecutive updates of a workspace are coalesced, so the caches of the
+ * workspace are invalidated once for all of them. The events are still
+ * dispatched as one bundle per update, with the timestamp and user data of
+ * that update.
+ * <p>
+ * Records other than updates must only be processed after the pending updates
+ * are applied, see {@link #drain()}.
+ * <p>
+ * The updates are recorded in the {@link ClusterStatistics} once they are
+ * applied. As coalesced updates are applied together, each of their records
+ * is recorded with an equal share of the apply duration.
+ */
+class CatchUpApplier {
+
+    /**
+     * Logger instance.
+     */
+    private static final Logger log = LoggerFactory.getLogger(CatchUpApplier.class);
+
+    /**
+     * The maximum number of records coalesced into a single update.
+     */
+    private static final int MAX_BATCH_RECORDS = 1000;
+
+    /**
+     * Name prefix of the threads that apply the updates.
+     */
+    private final String threadName;
+
+    /**
+     * The statistics the applied updates are recorded in.
+     */
+    private final ClusterStatistics statistics;
+
+    /**
+     * The update queues by workspace name, the version storage is the
+     * <code>null</code> key.
+     */
+    private final Map<String, UpdateQueue> queues = new HashMap<String, UpdateQueue>();
+
+    /**
+     * Set to <code>true</code> when an update cannot be applied because the
+     * workspace is no longer available.
+     */
+    private volatile boolean failed;
+
+    /**
+     * Creates a new applier.
+     *
+     * @param threadName name prefix of the threads that apply the updates.
+     * @param statistics the statistics the applied updates are recorded in.
+     */
+    CatchUpApplier(String threadName, ClusterStatistics statistics) {
+        this.threadName = threadName;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Adds an update of another cluster node.
+     *
+     * @param workspace the workspace name or <code>null</code> for the version
+     *                  storage.
+     * @param listener  the listener that applies the update.
+     * @param record    the update.
+     */
+    void add(String workspace, UpdateEventListener listener, ChangeLogRecord record) {
+        UpdateQueue queue = queues.get(workspace);
+        if (queue == null) {
+            queue = new UpdateQueue(workspace, listener);
+            queues.put(workspace, queue);
+        }
+        queue.add(record);
+    }
+
+    /**
+     * Waits until all updates added so far are applied.
+     *
+     * @return <code>false</code> if an update could not be applied.
+     */
+    boolean drain() {
+        for (UpdateQueue queue : queues.values()) {
+            queue.flush();
+        }
+        for (UpdateQueue queue : queues.values()) {
+            queue.await();
+        }
+        return !failed;
+    }
+
+    /**
+     * Waits until all updates are applied and stops the threads.
+     *
+     * @return <code>false</code> if an update could not be applied.
+     */
+    boolean close() {
+        try {
+            return drain();
+        } finally {
+            for (UpdateQueue queue : queues.values()) {
+                queue.executor.shutdown();
+            }
+            queues.clear();
+        }
+    }
+
+    /**
+     * Coalesced updates of a workspace.
+     */
+    private static final class Batch {
+
+        private final ChangeLog changes = new ChangeLog();
+
+        private final List<ChangeLogRecord> records = new ArrayList<ChangeLogRecord>();
+
+        /**
+         * Adds an update to this batch if it can be coalesced with the
+         * updates in this batch. An item that is deleted in this batch must
+         * not be added again, because the merged change log would contain
+         * the item as deleted and added at the same time.
+         *
+         * @param record the update.
+         * @return <code>true</code> if the update was added.
+         */
+        private boolean add(ChangeLogRecord record) {
+            if (records.size() >= MAX_BATCH_RECORDS) {
+                return false;
+            }
+            for (ItemState state : record.getChanges().addedStates()) {
+                if (changes.deleted(state.getId())) {
+                    return false;
+                }
+            }
+            changes.merge(record.getChanges());
+            records.add(record);
+            return true;
+        }
+    }
+
+    /**
+     * The updates of a workspace, applied by a single thread.
+     */
+    private final class UpdateQueue {
+
+        private final String workspace;
+
+        private final UpdateEventListener listener;
+
+        private final ExecutorService executor;
+
+        private Batch batch;
+
+        private Future<?> last;
+
+        private UpdateQueue(String workspace, UpdateEventListener listener) {
+            this.workspace = workspace;
+            this.listener = listener;
+            final String name = threadName + "-" + (workspace != null ? workspace : "versions");
+            this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, name);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+
+        private void add(ChangeLogRecord record) {
+            if (batch != null && batch.add(record)) {
+                return;
+            }
+            flush();
+            batch = new Batch();
+            batch.add(record);
+        }
+
+        /**
+         * Submits the current batch.
+         */
+        private void flush() {
+            if (batch == null) {
+                return;
+            }
+            final Batch b = batch;
+            batch = null;
+            last = executor.submit(new Runnable() {
+                public void run() {
+                    apply(b);
+                }
+            });
+        }
+
+        /**
+         * Waits until the submitted batches are applied.
+         */
+        private void await() {
+            if (last == null) {
+                return;
+            }
+            try {
+                last.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed = true;
+            } catch (ExecutionException e) {
+                log.error("Unable to apply updates of workspace " + workspace,
+                        e.getCause());
+                failed = true;
+            }
+            last = null;
+        }
+
+        /**
+         * Applies a batch. The merged changes are passed along with the
+         * events of the first update, the other updates only dispatch their
+         * events.
+         *
+         * @param b the batch.
+         */
+        private void apply(Batch b) {
+            long time = System.nanoTime();
+            ChangeLog changes = b.changes;
+            for (ChangeLogRecord record : b.records) {
+                try {
+                    listener.externalUpdate(changes, record.getEvents(),
+                            record.getTimestamp(), record.getUserData());
+                } catch (RepositoryException e) {
+                    String msg = "Unable to deliver update events: " + e.getMessage();
+                    log.error(msg);
+                    if (e.getCause() instanceof IllegalStateException) {
+                        failed = true;
+                    }
+                }
+                changes = new ChangeLog();
+            }
+            time = System.nanoTime() - time;
+            int count = b.records.size();
+            for (ChangeLogRecord record : b.records) {
+                Record source = record.record;
+                statistics.recordApplied(source.getJournalId(),
+                        ClusterStatistics.getSize(source),
+                        ChangeLogRecord.class.getSimpleName(), time / count);
+            }
+            log.debug("Applied {} updates of workspace {}", count, workspace);
+        }
+    }
+}
@@ -16,6 +16,8 @@
  */
 package org.apache.jackrabbit.core.cluster;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -23,6 +25,7 @@ import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.jcr.RepositoryException;
+import org.apache.commons.io.FileUtils;
 
 import org.apache.jackrabbit.core.cluster.WorkspaceRecord.CreateWorkspaceAction;
 import org.apache.jackrabbit.core.config.ClusterConfig;
@@ -30,6 +33,8 @@ import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.journal.AbstractJournal;
 import org.apache.jackrabbit.core.journal.InstanceRevision;
 import org.apache.jackrabbit.core.journal.Journal;
+import org.apache.jackrabbit.core.journal.JournalChangeListener;
+import org.apache.jackrabbit.core.journal.JournalChangeNotifier;
 import org.apache.jackrabbit.core.journal.JournalException;
 import org.apache.jackrabbit.core.journal.Record;
 import org.apache.jackrabbit.core.journal.RecordConsumer;
@@ -52,13 +57,20 @@ import EDU.oswego.cs.dl.util.concurrent.Mutex;
  */
 public class ClusterNode implements Runnable,
         NamespaceEventChannel, NodeTypeEventChannel, RecordConsumer,
-        ClusterRecordProcessor, WorkspaceEventChannel, PrivilegeEventChannel  {
+        ClusterRecordProcessor, WorkspaceEventChannel, PrivilegeEventChannel,
+        JournalChangeListener {
 
     /**
      * System property specifying a node id to use.
      */
     public static final String SYSTEM_PROPERTY_NODE_ID = "org.apache.jackrabbit.core.cluster.node_id";
 
+    /**
+     * Name of the file in the repository home with the revision of an index
+     * snapshot, see {@link org.apache.jackrabbit.core.RepositoryImpl#createIndexSnapshot(File)}.
+     */
+    public static final String SNAPSHOT_REVISION_FILE = "snapshot.revision";
+
     /**
      * Producer identifier.
      */
@@ -197,12 +209,46 @@ public class ClusterNode implements Runnable,
      * Record deserializer.
      */
     private ClusterRecordDeserializer deserializer = new ClusterRecordDeserializer();
+
+    /**
+     * Applies the updates of other cluster nodes while this node catches up
+     * with the journal on startup, <code>null</code> otherwise.
+     */
+    private CatchUpApplier catchUp;
     
     /**
      * Flag indicating whether sync is manual.
      */
     private boolean disableAutoSync;
 
+    /**
+     * The notifier of the journal that announces appended records, or
+     * <code>null</code> if this node only synchronizes periodically.
+     */
+    private JournalChangeNotifier changeNotifier;
+
+    /**
+     * Monitor the synchronization thread waits on between two syncs.
+     */
+    private final Object syncSignal = new Object();
+
+    /**
+     * Set when another node announced a change that was not yet
+     * synchronized. Guarded by {@link #syncSignal}.
+     */
+    private boolean changesAnnounced;
+
+    /**
+     * The time of the oldest announced change that was not yet synchronized,
+     * or <code>0</code>. Guarded by {@link #syncSignal}.
+     */
+    private long announcedSince;
+
+    /**
+     * The statistics of this cluster node.
+     */
+    private final ClusterStatistics statistics = new ClusterStatistics(this);
+
     /**
      * Initialize this cluster node.
      *
@@ -229,8 +275,13 @@ public class ClusterNode implements Runnable,
         try {
             journal = cc.getJournal(clusterContext.getNamespaceResolver());
             instanceRevision = journal.getInstanceRevision();
+            applySnapshotRevision();
             journal.register(this);
             producer = journal.getProducer(PRODUCER_ID);
+            if (journal instanceof AbstractJournal) {
+                changeNotifier = ((AbstractJournal) journal).getChangeNotifier();
+                ((AbstractJournal) journal).setLockListener(statistics);
+            }
         } catch (RepositoryException e) {
             throw new ClusterException(
                     "Cluster initialization failed: " + this, e);
@@ -240,6 +291,45 @@ public class ClusterNode implements Runnable,
         }
     }
 
+    /**
+     * Skips the journal records that are contained in an index snapshot. If
+     * the repository home contains the file {@link #SNAPSHOT_REVISION_FILE},
+     * the search indexes were copied from the snapshot of another cluster
+     * node. The instance revision is set to the revision of the snapshot,
+     * also if it was more recent, because the records after the snapshot
+     * revision are not contained in the copied indexes. The file is removed
+     * afterwards.
+     *
+     * @throws JournalException if the revision cannot be read or set
+     */
+    private void applySnapshotRevision() throws JournalException {
+        File home = clusterContext.getRepositoryHome();
+        if (home == null) {
+            return;
+        }
+        File file = new File(home, SNAPSHOT_REVISION_FILE);
+        if (!file.exists()) {
+            return;
+        }
+        long revision;
+        try {
+            revision = Long.parseLong(
+                    FileUtils.readFileToString(file, "UTF-8").trim());
+        } catch (IOException e) {
+            throw new JournalException(
+                    "Unable to read snapshot revision: " + file, e);
+        } catch (NumberFormatException e) {
+            throw new JournalException(
+                    "Invalid snapshot revision: " + file, e);
+        }
+        log.info("Starting from index snapshot at revision {}, was {}",
+                revision, instanceRevision.get());
+        instanceRevision.set(revision);
+        if (!file.delete()) {
+            log.warn("Unable to delete snapshot revision file: {}", file);
+        }
+    }
+
     /**
      * Set the stop delay, i.e. number of millseconds to wait for the
      * synchronization thread to stop.
@@ -276,6 +366,17 @@ public class ClusterNode implements Runnable,
         if (status == NONE) {
             syncOnStartup();
 
+            if (changeNotifier != null) {
+                try {
+                    changeNotifier.start(
+                            ((AbstractJournal) journal).getId(), this);
+                } catch (JournalException e) {
+                    log.warn("Unable to start change notifier, changes of "
+                            + "other nodes are synchronized periodically.", e);
+                    changeNotifier = null;
+                }
+            }
+
             if (!disableAutoSync) {
                 Thread t = new Thread(this, "ClusterNode-" + clusterNodeId);
                 t.setDaemon(true);
@@ -287,12 +388,13 @@ public class ClusterNode implements Runnable,
     }
 
     /**
-     * Run loop that will sync this node after some delay.
+     * Run loop that will sync this node after some delay, or as soon as
+     * another node announces a change.
      */
     public void run() {
         for (;;) {
             try {
-                if (stopLatch.attempt(syncDelay)) {
+                if (waitForChanges()) {
                     break;
                 }
             } catch (InterruptedException e) {
@@ -315,6 +417,27 @@ public class ClusterNode implements Runnable,
         }
     }
 
+    /**
+     * Waits until the sync delay elapsed, another node announced a change or
+     * this node is stopped.
+     *
+     * @return <code>true</code> if this node was stopped.
+     * @throws InterruptedException if the thread was interrupted.
+     */
+    private boolean waitForChanges() throws InterruptedException {
+        synchronized (syncSignal) {
+            long deadline = System.currentTimeMillis() + syncDelay;
+            long remaining = syncDelay;
+            while (!changesAnnounced && remaining > 0
+                    && !stopLatch.attempt(0)) {
+                syncSignal.wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+            changesAnnounced = false;
+        }
+        return stopLatch.attempt(0);
+    }
+
     /** 
      * Synchronize contents from journal.
      * 
@@ -336,8 +459,7 @@ public class ClusterNode implements Runnable,
             // JCR-1753: Only synchronize if no other thread already did so
             // while we were waiting to acquire the syncLock.
             if (count == syncCount.get()) {
-                syncCount.incrementAndGet();
-                journal.sync(startup);
+                syncJournal(startup);
             }
         } catch (JournalException e) {
             throw new ClusterException(e.getMessage(), e.getCause());
@@ -347,6 +469,54 @@ public class ClusterNode implements Runnable,
 
     }
 
+    /**
+     * Synchronizes with the journal before an update takes the global journal
+     * lock. The records of other nodes are then consumed without holding the
+     * global lock, and the sync under the lock only has to consume the
+     * records appended in the meantime. Nothing is done if another thread is
+     * currently synchronizing, this method never waits for the sync lock
+     * because the current thread may already hold the journal lock.
+     */
+    private void syncBeforeLock() {
+        try {
+            if (!syncLock.attempt(0)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            syncJournal(false);
+        } catch (JournalException e) {
+            // the sync under the global lock fails as well if this persists
+            log.debug("Unable to sync before locking the journal", e);
+        } finally {
+            syncLock.release();
+        }
+    }
+
+    /**
+     * Synchronizes with the journal. The caller must hold the sync lock.
+     *
+     * @param startup indicates if the cluster node is syncing on startup
+     *        or does a normal sync.
+     * @throws JournalException if an error occurs
+     */
+    private void syncJournal(boolean startup) throws JournalException {
+        syncCount.incrementAndGet();
+        long time = System.currentTimeMillis();
+        long start = System.nanoTime();
+        journal.sync(startup);
+        statistics.syncCompleted(System.nanoTime() - start);
+        synchronized (syncSignal) {
+            // changes announced before this sync started are synced
+            if (announcedSince != 0 && announcedSince <= time) {
+                announcedSince = 0;
+            }
+        }
+    }
+
     /**
      * Synchronize contents from journal.
      *
@@ -362,7 +532,14 @@ public class ClusterNode implements Runnable,
      * @throws ClusterException if an error occurs
      */
     public void syncOnStartup() throws ClusterException {
-        internalSync(true);
+        catchUp = new CatchUpApplier("ClusterNode-" + clusterNodeId, statistics);
+        try {
+            internalSync(true);
+        } finally {
+            CatchUpApplier applier = catchUp;
+            catchUp = null;
+            applier.close();
+        }
     }
 
     /**
@@ -373,6 +550,12 @@ public class ClusterNode implements Runnable,
             status = STOPPED;
 
             stopLatch.release();
+            synchronized (syncSignal) {
+                syncSignal.notifyAll();
+            }
+            if (changeNotifier != null) {
+                changeNotifier.close();
+            }
 
             // Give synchronization thread some time to finish properly before
             // closing down the journal (see JCR-1553)
@@ -413,6 +596,41 @@ public class ClusterNode implements Runnable,
         return new WorkspaceLockChannel(workspace);
     }
 
+    /**
+     * Returns the replication lag of this node, that is the time since
+     * another node announced the oldest change that is not yet synchronized.
+     * Without a {@link JournalChangeNotifier} changes are never announced and
+     * this method always returns <code>0</code>.
+     *
+     * @return the replication lag in milliseconds.
+     */
+    public long getReplicationLag() {
+        synchronized (syncSignal) {
+            if (announcedSince == 0) {
+                return 0;
+            }
+            return Math.max(System.currentTimeMillis() - announcedSince, 0);
+        }
+    }
+
+    /**
+     * Returns the statistics of this cluster node.
+     *
+     * @return the statistics.
+     */
+    public ClusterStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Returns the id of this cluster node.
+     *
+     * @return the cluster node id.
+     */
+    public String getClusterNodeId() {
+        return clusterNodeId;
+    }
+
     /**
      * Return the journal created by this cluster node.
      *
@@ -422,6 +640,23 @@ public class ClusterNode implements Runnable,
         return journal;
     }
 
+    //------------------------------------------------< JournalChangeListener >
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Wakes up the synchronization thread.
+     */
+    public void changed(String journalId, long revision) {
+        synchronized (syncSignal) {
+            if (announcedSince == 0) {
+                announcedSince = System.currentTimeMillis();
+            }
+            changesAnnounced = true;
+            syncSignal.notifyAll();
+        }
+    }
+
     //-----------------------------------------------< NamespaceEventListener >
 
     /**
@@ -631,6 +866,7 @@ public class ClusterNode implements Runnable,
                 log.info("not started: update create ignored.");
                 return;
             }
+            syncBeforeLock();
             try {
                 Record record = producer.append();
                 update.setAttribute(ATTRIBUTE_RECORD, record);
@@ -858,7 +1094,21 @@ public class ClusterNode implements Runnable,
         log.info("Processing revision: " + record.getRevision());
 
         try {
-            deserializer.deserialize(record).process(this);
+            long time = System.nanoTime();
+            ClusterRecord clusterRecord = deserializer.deserialize(record);
+            if (catchUp != null && !(clusterRecord instanceof ChangeLogRecord)) {
+                // other records may depend on the pending updates
+                catchUp.drain();
+            }
+            clusterRecord.process(this);
+            if (catchUp != null && clusterRecord instanceof ChangeLogRecord) {
+                // recorded by the applier once the update is applied
+                return;
+            }
+            statistics.recordApplied(record.getJournalId(),
+                    ClusterStatistics.getSize(record),
+                    clusterRecord.getClass().getSimpleName(),
+                    System.nanoTime() - time);
         } catch (JournalException e) {
             String msg = "Unable to read revision '" + record.getRevision() + "'.";
             log.error(msg, e);
@@ -869,6 +1119,11 @@ public class ClusterNode implements Runnable,
      * {@inheritDoc}
      */
     public void setRevision(long revision) {
+        if (catchUp != null && !catchUp.drain()) {
+            log.error("Unable to apply all updates up to revision " + revision
+                    + ", they are applied again on the next sync.");
+            return;
+        }
         try {
             instanceRevision.set(revision);
         } catch (JournalException e) {
@@ -922,6 +1177,10 @@ public class ClusterNode implements Runnable,
            	auditLogger.info("[{}] {} {}", new Object[]{updateCount.incrementAndGet(), 
                     record.getRevision(), path});
 
+            if (catchUp != null) {
+                catchUp.add(workspace, listener, record);
+                return;
+            }
             listener.externalUpdate(record.getChanges(), eventStates,
                     record.getTimestamp(), record.getUserData());
         } catch (RepositoryException e) {
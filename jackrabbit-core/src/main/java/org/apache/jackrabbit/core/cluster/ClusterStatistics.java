@@ -0,0 +1,356 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
+import org.apache.jackrabbit.api.jmx.ClusterStatsMBean;
+import org.apache.jackrabbit.api.stats.RepositoryStatistics.Type;
+import org.apache.jackrabbit.core.journal.AbstractJournal;
+import org.apache.jackrabbit.core.journal.DatabaseJournal;
+import org.apache.jackrabbit.core.journal.Journal;
+import org.apache.jackrabbit.core.journal.JournalException;
+import org.apache.jackrabbit.core.journal.JournalLockListener;
+import org.apache.jackrabbit.core.journal.ReadRecord;
+import org.apache.jackrabbit.core.journal.Record;
+import org.apache.jackrabbit.stats.RepositoryStatisticsImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Statistics of a {@link ClusterNode}. The counters are updated by the
+ * cluster node and, if set, also recorded in the
+ * {@link RepositoryStatisticsImpl repository statistics}. Registering this
+ * bean with an MBean server is left to the application that embeds the
+ * repository.
+ */
+public class ClusterStatistics implements ClusterStatsMBean, JournalLockListener {
+
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(ClusterStatistics.class);
+
+    /**
+     * Upper bounds of the lock wait histogram buckets in milliseconds. The
+     * last bucket counts the waits that are longer than the last bound.
+     */
+    private static final long[] LOCK_WAIT_BOUNDS = {1, 10, 100, 1000, 10000};
+
+    /**
+     * The cluster node.
+     */
+    private final ClusterNode clusterNode;
+
+    /**
+     * Record count and size per cluster node that produced the records.
+     */
+    private final ConcurrentMap<String, Counter> producers =
+            new ConcurrentHashMap<String, Counter>();
+
+    /**
+     * Record count and apply duration per record type.
+     */
+    private final ConcurrentMap<String, Counter> recordTypes =
+            new ConcurrentHashMap<String, Counter>();
+
+    /**
+     * Number of lock waits per histogram bucket.
+     */
+    private final AtomicLongArray lockWaits =
+            new AtomicLongArray(LOCK_WAIT_BOUNDS.length + 1);
+
+    /**
+     * Number and total duration of synchronizations.
+     */
+    private final Counter syncs = new Counter();
+
+    /**
+     * The repository statistics, or <code>null</code>.
+     */
+    private volatile RepositoryStatisticsImpl repositoryStatistics;
+
+    /**
+     * Creates the statistics of a cluster node.
+     *
+     * @param clusterNode the cluster node.
+     */
+    ClusterStatistics(ClusterNode clusterNode) {
+        this.clusterNode = clusterNode;
+    }
+
+    /**
+     * Sets the repository statistics the counters are recorded in.
+     *
+     * @param repositoryStatistics the repository statistics.
+     */
+    public void setRepositoryStatistics(RepositoryStatisticsImpl repositoryStatistics) {
+        this.repositoryStatistics = repositoryStatistics;
+    }
+
+    //------------------------------------------------------< ClusterStatsMBean >
+
+    public String getClusterNodeId() {
+        return clusterNode.getClusterNodeId();
+    }
+
+    public long getLocalRevision() {
+        return clusterNode.getRevision();
+    }
+
+    public long getGlobalRevision() {
+        Journal journal = clusterNode.getJournal();
+        if (journal instanceof AbstractJournal) {
+            try {
+                return ((AbstractJournal) journal).getGlobalRevision();
+            } catch (JournalException e) {
+                log.warn("Unable to read the global revision", e);
+            }
+        }
+        return -1;
+    }
+
+    public long getRevisionLag() {
+        long revision = getGlobalRevision();
+        if (revision < 0) {
+            return -1;
+        }
+        return Math.max(revision - clusterNode.getRevision(), 0);
+    }
+
+    public long getReplicationLag() {
+        return clusterNode.getReplicationLag();
+    }
+
+    public long getJournalSize() {
+        if (clusterNode.getJournal() instanceof DatabaseJournal) {
+            return ((DatabaseJournal) clusterNode.getJournal()).getSampledJournalSize();
+        }
+        return -1;
+    }
+
+    public long getOldestRevision() {
+        if (clusterNode.getJournal() instanceof DatabaseJournal) {
+            return ((DatabaseJournal) clusterNode.getJournal()).getSampledOldestRevision();
+        }
+        return -1;
+    }
+
+    public long getSyncCount() {
+        return syncs.count.get();
+    }
+
+    public double getAverageSyncDuration() {
+        return syncs.getAverageMillis();
+    }
+
+    public TabularData getProducerStats() {
+        return asTabularData("Producers", "producer",
+                new String[]{"producer", "records", "bytes"},
+                new OpenType<?>[]{SimpleType.STRING, SimpleType.LONG, SimpleType.LONG},
+                producers, false);
+    }
+
+    public TabularData getRecordTypeStats() {
+        return asTabularData("RecordTypes", "type",
+                new String[]{"type", "records", "averageDuration"},
+                new OpenType<?>[]{SimpleType.STRING, SimpleType.LONG, SimpleType.DOUBLE},
+                recordTypes, true);
+    }
+
+    public TabularData getLockWaitHistogram() {
+        try {
+            String[] names = {"duration", "count"};
+            CompositeType ct = new CompositeType("LockWait", "Lock waits",
+                    names, names, new OpenType<?>[]{SimpleType.STRING, SimpleType.LONG});
+            TabularDataSupport tds = new TabularDataSupport(new TabularType(
+                    "LockWaitHistogram", "Journal lock waits", ct,
+                    new String[]{"duration"}));
+            for (int i = 0; i < lockWaits.length(); i++) {
+                String duration;
+                if (i < LOCK_WAIT_BOUNDS.length) {
+                    duration = "< " + LOCK_WAIT_BOUNDS[i] + " ms";
+                } else {
+                    duration = ">= " + LOCK_WAIT_BOUNDS[i - 1] + " ms";
+                }
+                tds.put(new CompositeDataSupport(ct, names,
+                        new Object[]{duration, lockWaits.get(i)}));
+            }
+            return tds;
+        } catch (OpenDataException e) {
+            log.warn("Unable to create lock wait histogram", e);
+            return null;
+        }
+    }
+
+    public void reset() {
+        producers.clear();
+        recordTypes.clear();
+        for (int i = 0; i < lockWaits.length(); i++) {
+            lockWaits.set(i, 0);
+        }
+        syncs.count.set(0);
+        syncs.size.set(0);
+    }
+
+    //----------------------------------------------------< JournalLockListener >
+
+    /**
+     * Records a wait for the global journal lock.
+     *
+     * @param duration the wait duration in nano seconds.
+     */
+    public void lockAcquired(long duration) {
+        long millis = duration / 1000000;
+        int bucket = 0;
+        while (bucket < LOCK_WAIT_BOUNDS.length && millis >= LOCK_WAIT_BOUNDS[bucket]) {
+            bucket++;
+        }
+        lockWaits.incrementAndGet(bucket);
+        RepositoryStatisticsImpl stats = repositoryStatistics;
+        if (stats != null) {
+            stats.getCounter(Type.CLUSTER_LOCK_WAIT_COUNTER).incrementAndGet();
+            stats.getCounter(Type.CLUSTER_LOCK_WAIT_DURATION).addAndGet(duration);
+        }
+    }
+
+    //--------------------------------------------------------------< updates >
+
+    /**
+     * Records a journal record of another cluster node that was applied.
+     *
+     * @param producer the id of the cluster node that produced the record.
+     * @param size     the size of the record in bytes, or <code>0</code>.
+     * @param type     the record type.
+     * @param duration the apply duration in nano seconds.
+     */
+    void recordApplied(String producer, long size, String type, long duration) {
+        getCounter(producers, producer).add(size);
+        getCounter(recordTypes, type).add(duration);
+        RepositoryStatisticsImpl stats = repositoryStatistics;
+        if (stats != null) {
+            stats.getCounter(Type.CLUSTER_RECORD_COUNTER).incrementAndGet();
+            stats.getCounter(Type.CLUSTER_RECORD_SIZE_COUNTER).addAndGet(size);
+            stats.getCounter(Type.CLUSTER_RECORD_DURATION).addAndGet(duration);
+        }
+    }
+
+    /**
+     * Records a synchronization with the journal.
+     *
+     * @param duration the duration in nano seconds.
+     */
+    void syncCompleted(long duration) {
+        syncs.add(duration);
+        RepositoryStatisticsImpl stats = repositoryStatistics;
+        if (stats != null) {
+            stats.getCounter(Type.CLUSTER_SYNC_COUNTER).incrementAndGet();
+            stats.getCounter(Type.CLUSTER_SYNC_DURATION).addAndGet(duration);
+            stats.getCounter(Type.CLUSTER_REVISION_LAG).set(getRevisionLag());
+            stats.getCounter(Type.CLUSTER_JOURNAL_SIZE).set(getJournalSize());
+            stats.getCounter(Type.CLUSTER_JOURNAL_OLDEST_REVISION).set(getOldestRevision());
+        }
+    }
+
+    //-------------------------------------------------------------< internal >
+
+    /**
+     * Returns the number of bytes read from a journal record.
+     *
+     * @param record the journal record.
+     * @return the number of bytes, or <code>0</code> if unknown.
+     */
+    static long getSize(Record record) {
+        if (record instanceof ReadRecord) {
+            return ((ReadRecord) record).getBytesRead();
+        }
+        return 0;
+    }
+
+    private static Counter getCounter(ConcurrentMap<String, Counter> counters,
+                                      String key) {
+        Counter counter = counters.get(key);
+        if (counter == null) {
+            counter = new Counter();
+            Counter existing = counters.putIfAbsent(key, counter);
+            if (existing != null) {
+                counter = existing;
+            }
+        }
+        return counter;
+    }
+
+    private static TabularData asTabularData(String name, String key,
+                                             String[] names, OpenType<?>[] types,
+                                             Map<String, Counter> counters,
+                                             boolean average) {
+        try {
+            CompositeType ct = new CompositeType(name, name, names, names, types);
+            TabularDataSupport tds = new TabularDataSupport(new TabularType(
+                    name, name, ct, new String[]{key}));
+            for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+                Counter counter = entry.getValue();
+                Object value;
+                if (average) {
+                    value = counter.getAverageMillis();
+                } else {
+                    value = counter.size.get();
+                }
+                tds.put(new CompositeDataSupport(ct, names, new Object[]{
+                        entry.getKey(), counter.count.get(), value}));
+            }
+            return tds;
+        } catch (OpenDataException e) {
+            log.warn("Unable to create " + name + " statistics", e);
+            return null;
+        }
+    }
+
+    /**
+     * A count and a total, which is either a size or a duration in nano
+     * seconds.
+     */
+    private static final class Counter {
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong size = new AtomicLong();
+
+        void add(long value) {
+            count.incrementAndGet();
+            size.addAndGet(value);
+        }
+
+        double getAverageMillis() {
+            long n = count.get();
+            return n == 0 ? 0 : size.get() / (n * 1000000.0);
+        }
+    }
+}
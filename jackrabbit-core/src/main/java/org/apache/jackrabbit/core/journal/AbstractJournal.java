@@ -90,6 +90,24 @@ public abstract class AbstractJournal implements Journal {
      */
     private InternalVersionManagerImpl internalVersionManager;
 
+    /**
+     * The notifier that announces appended records to other cluster nodes,
+     * or <code>null</code> if other cluster nodes only synchronize
+     * periodically.
+     */
+    private JournalChangeNotifier changeNotifier;
+
+    /**
+     * The listener informed when the global journal lock was acquired, or
+     * <code>null</code>.
+     */
+    private volatile JournalLockListener lockListener;
+
+    /**
+     * Flag indicating whether appended records use the compact format.
+     */
+    private boolean compressRecords;
+
     /**
      * {@inheritDoc}
      */
@@ -318,7 +336,12 @@ public abstract class AbstractJournal implements Journal {
         try {
             // lock
             log.debug("internalLockAndSync.doLock()");
+            long time = System.nanoTime();
             doLock();
+            JournalLockListener listener = lockListener;
+            if (listener != null) {
+                listener.lockAcquired(System.nanoTime() - time);
+            }
             try {
                 // and sync
                 doSync(getMinimalRevision());
@@ -353,6 +376,17 @@ public abstract class AbstractJournal implements Journal {
     	}
     }
 
+    /**
+     * Returns the latest revision of this journal as stored by the journal.
+     * Journals that cannot read it return <code>-1</code>.
+     *
+     * @return the latest revision, or <code>-1</code> if unknown
+     * @throws JournalException if an error occurs
+     */
+    public long getGlobalRevision() throws JournalException {
+        return -1;
+    }
+
     /**
      * Lock the journal revision. Subclass responsibility.
      *
@@ -392,6 +426,23 @@ public abstract class AbstractJournal implements Journal {
      */
     protected abstract void doUnlock(boolean successful);
 
+    /**
+     * Announces an appended record to the other cluster nodes. Called after
+     * the journal was unlocked.
+     *
+     * @param revision the revision of the appended record.
+     */
+    void notifyAppended(long revision) {
+        if (changeNotifier != null) {
+            try {
+                changeNotifier.appended(revision);
+            } catch (RuntimeException e) {
+                log.warn("Unable to announce revision " + revision
+                        + " to other cluster nodes.", e);
+            }
+        }
+    }
+
     /**
      * Return this journal's identifier.
      *
@@ -429,6 +480,16 @@ public abstract class AbstractJournal implements Journal {
         this.repHome = repHome;
     }
 
+    /**
+     * Set the listener that is informed when the global journal lock was
+     * acquired.
+     *
+     * @param lockListener the listener, or <code>null</code>
+     */
+    public void setLockListener(JournalLockListener lockListener) {
+        this.lockListener = lockListener;
+    }
+
     /**
      * Set the version manager.
      */
@@ -463,4 +524,78 @@ public abstract class AbstractJournal implements Journal {
      public void setRevision(String revision) {
          this.revision = revision;
      }
+
+    /**
+     * Returns the notifier that announces appended records to the other
+     * cluster nodes.
+     *
+     * @return the notifier or <code>null</code> if none is configured.
+     */
+    public JournalChangeNotifier getChangeNotifier() {
+        return changeNotifier;
+    }
+
+    /**
+     * Sets the notifier that announces appended records to the other cluster
+     * nodes.
+     *
+     * @param changeNotifier the notifier or <code>null</code>.
+     */
+    public void setChangeNotifier(JournalChangeNotifier changeNotifier) {
+        this.changeNotifier = changeNotifier;
+    }
+
+    /**
+     * @return the class name of the change notifier or <code>null</code> if
+     *         none is configured.
+     */
+    public String getChangeNotifierClass() {
+        if (changeNotifier != null) {
+            return changeNotifier.getClass().getName();
+        }
+        return null;
+    }
+
+    /**
+     * Sets the class that implements {@link JournalChangeNotifier}. The class
+     * must have a public no-argument constructor.
+     *
+     * @param className the name of the class.
+     */
+    public void setChangeNotifierClass(String className) {
+        try {
+            Class<?> clazz = Class.forName(className);
+            if (JournalChangeNotifier.class.isAssignableFrom(clazz)) {
+                changeNotifier = (JournalChangeNotifier) clazz.newInstance();
+            } else {
+                log.warn("Invalid value for changeNotifierClass, " + className
+                        + " does not implement JournalChangeNotifier interface.");
+            }
+        } catch (Exception e) {
+            log.warn("Invalid value for changeNotifierClass, " + className, e);
+        }
+    }
+
+    /**
+     * Return a flag indicating whether appended records are written in the
+     * compact format, which is deflated and writes repeated names and paths
+     * only once. Records in both formats can be read regardless of this flag.
+     *
+     * @return <code>true</code> if appended records use the compact format
+     */
+    public boolean isCompressRecords() {
+        return compressRecords;
+    }
+
+    /**
+     * Set the flag indicating whether appended records are written in the
+     * compact format. Must only be enabled when all cluster nodes can read
+     * that format.
+     *
+     * @param compressRecords <code>true</code> if appended records use the
+     *                        compact format
+     */
+    public void setCompressRecords(boolean compressRecords) {
+        this.compressRecords = compressRecords;
+    }
 }
@@ -24,6 +24,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import javax.jcr.NamespaceException;
+import javax.jcr.RepositoryException;
 
 import org.apache.commons.collections.BidiMap;
 import org.apache.commons.collections.bidimap.DualHashBidiMap;
@@ -48,24 +49,55 @@ import org.apache.jackrabbit.spi.commons.privilege.PrivilegeDefinitionWriter;
 
 /**
  * Base implementation for a record.
+ * <p>
+ * A record in the compact format starts with the byte {@link #COMPACT_FORMAT},
+ * the remaining data is deflated. Names and paths of a compact record are
+ * written once, repeated occurrences refer to the first one by index, like
+ * node ids do in both formats.
  */
 public abstract class AbstractRecord implements Record {
 
     /**
-     * Indicator for a literal UUID.
+     * Indicator for a literal UUID, name or path.
      */
     private static final byte UUID_LITERAL = 'L';
 
     /**
-     * Indicator for a UUID index.
+     * Indicator for a UUID, name or path index.
      */
     private static final byte UUID_INDEX = 'I';
 
+    /**
+     * Indicator for a path that is written as a parent path and a name.
+     */
+    private static final byte PATH_CHILD = 'C';
+
+    /**
+     * First byte of a record in the compact format. Records in the default
+     * format start with the null flag of a string, which is either 0 or 1.
+     */
+    protected static final int COMPACT_FORMAT = 'Z';
+
     /**
      * Maps NodeId to Integer index.
      */
     private final BidiMap nodeIdIndex = new DualHashBidiMap();
 
+    /**
+     * Maps Name to Integer index, only used in the compact format.
+     */
+    private final BidiMap nameIndex = new DualHashBidiMap();
+
+    /**
+     * Maps Path to Integer index, only used in the compact format.
+     */
+    private final BidiMap pathIndex = new DualHashBidiMap();
+
+    /**
+     * Flag indicating whether this record uses the compact format.
+     */
+    private boolean compact;
+
     /**
      * Namespace resolver.
      */
@@ -86,10 +118,38 @@ public abstract class AbstractRecord implements Record {
         this.resolver = resolver;
     }
 
+    /**
+     * Return a flag indicating whether this record uses the compact format.
+     *
+     * @return <code>true</code> if this record uses the compact format
+     */
+    public boolean isCompact() {
+        return compact;
+    }
+
+    /**
+     * Set the flag indicating whether this record uses the compact format.
+     * Must be set before names or paths are written or read.
+     *
+     * @param compact <code>true</code> if this record uses the compact format
+     */
+    protected void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+
     /**
      * {@inheritDoc}
      */
     public void writeQName(Name name) throws JournalException {
+        if (compact) {
+            int index = getOrCreateIndex(nameIndex, name);
+            if (index != -1) {
+                writeByte(UUID_INDEX);
+                writeInt(index);
+                return;
+            }
+            writeByte(UUID_LITERAL);
+        }
         try {
             writeString(resolver.getJCRName(name));
         } catch (NamespaceException e) {
@@ -110,6 +170,29 @@ public abstract class AbstractRecord implements Record {
      * {@inheritDoc}
      */
     public void writePath(Path path) throws JournalException {
+        if (compact) {
+            int index = getIndex(pathIndex, path);
+            if (index != -1) {
+                writeByte(UUID_INDEX);
+                writeInt(index);
+                return;
+            }
+            if (path.isCanonical() && path.denotesName()) {
+                writeByte(PATH_CHILD);
+                try {
+                    writePath(path.getAncestor(1));
+                } catch (RepositoryException e) {
+                    String msg = "Unable to get parent while writing path.";
+                    throw new JournalException(msg, e);
+                }
+                writeQName(path.getName());
+                writeInt(path.getIndex());
+                pathIndex.put(path, pathIndex.size());
+                return;
+            }
+            writeByte(UUID_LITERAL);
+            pathIndex.put(path, pathIndex.size());
+        }
         try {
             writeString(resolver.getJCRPath(path));
         } catch (NamespaceException e) {
@@ -126,7 +209,7 @@ public abstract class AbstractRecord implements Record {
             writeByte(UUID_INDEX);
             writeInt(-1);
         } else {
-            int index = getOrCreateIndex(nodeId);
+            int index = getOrCreateIndex(nodeIdIndex, nodeId);
             if (index != -1) {
                 writeByte(UUID_INDEX);
                 writeInt(index);
@@ -194,8 +277,21 @@ public abstract class AbstractRecord implements Record {
      * {@inheritDoc}
      */
     public Name readQName() throws JournalException {
+        if (compact) {
+            byte type = readByte();
+            if (type == UUID_INDEX) {
+                return (Name) getKey(nameIndex, readInt());
+            } else if (type != UUID_LITERAL) {
+                String msg = "Unknown name type found: " + type;
+                throw new JournalException(msg);
+            }
+        }
         try {
-            return resolver.getQName(readString());
+            Name name = resolver.getQName(readString());
+            if (compact) {
+                nameIndex.put(name, nameIndex.size());
+            }
+            return name;
         } catch (NameException e) {
             String msg = "Unknown prefix error while reading name.";
             throw new JournalException(msg, e);
@@ -209,20 +305,12 @@ public abstract class AbstractRecord implements Record {
      * {@inheritDoc}
      */
     public Path readPathElement() throws JournalException {
-        try {
-            Name name = resolver.getQName(readString());
-            int index = readInt();
-            if (index != 0) {
-                return PathFactoryImpl.getInstance().create(name, index);
-            } else {
-                return PathFactoryImpl.getInstance().create(name);
-            }
-        } catch (NameException e) {
-            String msg = "Unknown prefix error while reading path element.";
-            throw new JournalException(msg, e);
-        } catch (NamespaceException e) {
-            String msg = "Illegal name error while reading path element.";
-            throw new JournalException(msg, e);
+        Name name = readQName();
+        int index = readInt();
+        if (index != 0) {
+            return PathFactoryImpl.getInstance().create(name, index);
+        } else {
+            return PathFactoryImpl.getInstance().create(name);
         }
     }
 
@@ -230,8 +318,34 @@ public abstract class AbstractRecord implements Record {
      * {@inheritDoc}
      */
     public Path readPath() throws JournalException {
+        if (compact) {
+            byte type = readByte();
+            if (type == UUID_INDEX) {
+                return (Path) getKey(pathIndex, readInt());
+            } else if (type == PATH_CHILD) {
+                Path parent = readPath();
+                Name name = readQName();
+                int index = readInt();
+                try {
+                    Path path = PathFactoryImpl.getInstance().create(
+                            parent, name, index, false);
+                    pathIndex.put(path, pathIndex.size());
+                    return path;
+                } catch (RepositoryException e) {
+                    String msg = "Malformed path error while reading path.";
+                    throw new JournalException(msg, e);
+                }
+            } else if (type != UUID_LITERAL) {
+                String msg = "Unknown path type found: " + type;
+                throw new JournalException(msg);
+            }
+        }
         try {
-            return resolver.getQPath(readString());
+            Path path = resolver.getQPath(readString());
+            if (compact) {
+                pathIndex.put(path, pathIndex.size());
+            }
+            return path;
         } catch (MalformedPathException e) {
             String msg = "Malformed path error while reading path.";
             throw new JournalException(msg, e);
@@ -319,19 +433,54 @@ public abstract class AbstractRecord implements Record {
     }
 
     /**
-     * Get a <code>NodeId</code>'s existing cache index, creating a new entry
-     * if necessary.
+     * Get a <code>NodeId</code>'s, name's or path's existing cache index,
+     * creating a new entry if necessary.
      *
-     * @param nodeId nodeId to lookup
+     * @param cache the cache
+     * @param key the nodeId, name or path to lookup
      * @return cache index of existing entry or <code>-1</code> to indicate the entry was added
      */
-    private int getOrCreateIndex(NodeId nodeId) {
-        Integer index = (Integer) nodeIdIndex.get(nodeId);
+    private static int getOrCreateIndex(BidiMap cache, Object key) {
+        Integer index = (Integer) cache.get(key);
         if (index == null) {
-            nodeIdIndex.put(nodeId, nodeIdIndex.size());
+            cache.put(key, cache.size());
             return -1;
         } else {
             return index;
         }
     }
+
+    /**
+     * Get an existing cache index.
+     *
+     * @param cache the cache
+     * @param key the name or path to lookup
+     * @return cache index of existing entry or <code>-1</code>
+     */
+    private static int getIndex(BidiMap cache, Object key) {
+        Integer index = (Integer) cache.get(key);
+        if (index == null) {
+            return -1;
+        } else {
+            return index;
+        }
+    }
+
+    /**
+     * Get the entry of a cache index.
+     *
+     * @param cache the cache
+     * @param index the index
+     * @return the nodeId, name or path
+     * @throws JournalException if there is no such entry
+     */
+    private static Object getKey(BidiMap cache, int index)
+            throws JournalException {
+        Object key = cache.getKey(index);
+        if (key == null) {
+            String msg = "Unknown index found: " + index;
+            throw new JournalException(msg);
+        }
+        return key;
+    }
 }
\ No newline at end of file
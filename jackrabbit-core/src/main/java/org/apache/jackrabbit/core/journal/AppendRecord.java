@@ -25,6 +25,8 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
 
 import org.apache.jackrabbit.core.data.db.ResettableTempFileInputStream;
 import org.slf4j.Logger;
@@ -80,6 +82,11 @@ public class AppendRecord extends AbstractRecord {
      */
     private DataOutputStream dataOut;
 
+    /**
+     * Record output, writing to the byte output or the file output.
+     */
+    private RecordOutputStream recordOut;
+
     /**
      * Underlying byte output.
      */
@@ -114,7 +121,15 @@ public class AppendRecord extends AbstractRecord {
         this.revision = 0L;
 
         byteOut = new ByteArrayOutputStream(DEFAULT_IN_MEMORY_SIZE);
-        dataOut = new DataOutputStream(byteOut);
+        if (journal.isCompressRecords()) {
+            setCompact(true);
+            byteOut.write(COMPACT_FORMAT);
+            recordOut = new RecordOutputStream(byteOut, byteOut.size());
+            dataOut = new DataOutputStream(new DeflaterOutputStream(recordOut));
+        } else {
+            recordOut = new RecordOutputStream(byteOut, 0);
+            dataOut = new DataOutputStream(recordOut);
+        }
     }
 
     /**
@@ -257,8 +272,8 @@ public class AppendRecord extends AbstractRecord {
         boolean succeeded = false;
 
         try {
-            int length = dataOut.size();
             closeOutput();
+            int length = recordOut.size;
 
             InputStream in = openInput();
 
@@ -278,6 +293,9 @@ public class AppendRecord extends AbstractRecord {
             dispose();
 
             journal.unlock(succeeded);
+            if (succeeded) {
+                journal.notifyAppended(revision);
+            }
         }
     }
 
@@ -330,10 +348,10 @@ public class AppendRecord extends AbstractRecord {
                 String msg = "Unable to open output stream on: " + file.getPath();
                 throw new JournalException(msg, e);
             }
-            dataOut = new DataOutputStream(new BufferedOutputStream(fileOut));
-
             try {
-                dataOut.write(byteOut.toByteArray());
+                OutputStream out = new BufferedOutputStream(fileOut);
+                out.write(byteOut.toByteArray());
+                recordOut.out = out;
             } catch (IOException e) {
                 String msg = "Unable to write in-memory record to file.";
                 throw new JournalException(msg, e);
@@ -349,10 +367,11 @@ public class AppendRecord extends AbstractRecord {
     private void closeOutput() throws JournalException {
         if (!outputClosed) {
             try {
+                // finishes compressed output and flushes buffered file output
+                dataOut.close();
                 if (fileOut != null) {
-                    dataOut.flush();
                     fileOut.getFD().sync();
-                    dataOut.close();
+                    fileOut.close();
                 }
             } catch (IOException e) {
                 String msg = "I/O error while closing stream.";
@@ -370,6 +389,9 @@ public class AppendRecord extends AbstractRecord {
         if (!outputClosed) {
             try {
                 dataOut.close();
+                if (fileOut != null) {
+                    fileOut.close();
+                }
             } catch (IOException e) {
                 String msg = "I/O error while closing stream.";
                 log.warn(msg, e);
@@ -418,4 +440,63 @@ public class AppendRecord extends AbstractRecord {
         String msg = "Reading from an appended record is not supported.";
         return new JournalException(msg);
     }
+
+    /**
+     * Output stream that counts the bytes written and whose target changes
+     * from the byte output to the file output when the record gets too large.
+     * Closing this stream only flushes the target.
+     */
+    private static class RecordOutputStream extends OutputStream {
+
+        /**
+         * Current target.
+         */
+        private OutputStream out;
+
+        /**
+         * Number of bytes written.
+         */
+        private int size;
+
+        /**
+         * Create a new instance of this class.
+         *
+         * @param out initial target
+         * @param size number of bytes already written to the target
+         */
+        public RecordOutputStream(OutputStream out, int size) {
+            this.out = out;
+            this.size = size;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void write(int b) throws IOException {
+            out.write(b);
+            size++;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            size += len;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
 }
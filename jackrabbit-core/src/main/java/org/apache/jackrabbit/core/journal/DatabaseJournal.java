@@ -35,6 +35,7 @@ import java.io.InputStreamReader;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Calendar;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.jcr.RepositoryException;
 import javax.sql.DataSource;
@@ -66,6 +67,15 @@ import javax.sql.DataSource;
  * which equals 24 hours)</li>
  * <li><code>janitorFirstRunHourOfDay</code>: specifies the hour at which the clean-up
  * thread initiates its first run (default = <code>3</code> which means 3:00 at night)</li>
+ * <li><code>janitorChunkSize</code>: specifies the number of revisions the clean-up
+ * thread removes with one statement; if <code>0</code>, all old revisions are removed
+ * with a single statement (default = <code>0</code>)</li>
+ * <li><code>janitorChunkDelay</code>: specifies the minimum pause in milliseconds
+ * between two chunks of the clean-up thread; the pause is extended to at least the
+ * time the previous chunk took (default = <code>100</code>)</li>
+ * <li><code>sampleInterval</code>: specifies the minimum time in seconds between
+ * two samples of the size and the oldest revision of the journal table, which are
+ * taken when the values are read (default = <code>60</code>)</li>
  * <li><code>schemaCheckEnabled</code>:  whether the schema check during initialization is enabled
  * (default = <code>true</code>)</li>
  * </ul>
@@ -166,6 +176,39 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
         janitorNextRun.set(Calendar.MILLISECOND, 0);
     }
 
+    /**
+     * The number of revisions removed by the janitor with one statement. If
+     * zero, old revisions are removed with a single statement.
+     */
+    private int janitorChunkSize = 0;
+
+    /**
+     * The minimum pause of the janitor between two chunks in milliseconds.
+     */
+    private int janitorChunkDelay = 100;
+
+    /**
+     * The minimum time in seconds between two samples of the journal table.
+     */
+    private int sampleInterval = 60;
+
+    /**
+     * The number of records in the journal table when it was last sampled,
+     * or <code>-1</code> if unknown.
+     */
+    private volatile long sampledJournalSize = -1;
+
+    /**
+     * The oldest revision in the journal table when it was last sampled, or
+     * <code>-1</code> if unknown.
+     */
+    private volatile long sampledOldestRevision = -1;
+
+    /**
+     * The time in milliseconds the journal table was last sampled.
+     */
+    private final AtomicLong lastSample = new AtomicLong();
+
     private Thread janitorThread;
 
     /**
@@ -208,6 +251,21 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
      */
     protected String cleanRevisionStmtSQL;
 
+    /**
+     * SQL statement removing a range of revisions from the journal table.
+     */
+    protected String cleanRevisionRangeStmtSQL;
+
+    /**
+     * SQL statement returning the number of records in the journal table.
+     */
+    protected String selectJournalSizeStmtSQL;
+
+    /**
+     * SQL statement returning the oldest revision in the journal table.
+     */
+    protected String selectMinRevisionStmtSQL;
+
     /**
      * SQL statement returning the local revision of this cluster node.
      */
@@ -372,6 +430,7 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
         // table, but only if the LOCAL_REVISIONS table has no entry yet for this cluster node
         long localRevision = databaseRevision.init(localFileRevision);
         log.info("Initialized local revision to " + localRevision);
+        sampleJournal();
 
         // Start the clean-up thread if necessary.
         if (janitorEnabled) {
@@ -551,6 +610,106 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The revision is read from the table named <code>GLOBAL_REVISION</code>.
+     */
+    public long getGlobalRevision() throws JournalException {
+        return selectLong(selectGlobalStmtSQL);
+    }
+
+    /**
+     * Returns the number of records in the journal table.
+     *
+     * @return number of records
+     * @throws JournalException if an error occurs
+     */
+    public long getJournalSize() throws JournalException {
+        return selectLong(selectJournalSizeStmtSQL);
+    }
+
+    /**
+     * Returns the oldest revision that is still in the journal table.
+     *
+     * @return oldest revision, or <code>0</code> if the journal table is empty
+     * @throws JournalException if an error occurs
+     */
+    public long getOldestRevision() throws JournalException {
+        return selectLong(selectMinRevisionStmtSQL);
+    }
+
+    /**
+     * Returns the number of records in the journal table when it was last
+     * sampled. Unlike {@link #getJournalSize()} this only queries the
+     * database if the sample is older than the sample interval.
+     *
+     * @return number of records, or <code>-1</code> if unknown
+     */
+    public long getSampledJournalSize() {
+        sampleJournalIfOutdated();
+        return sampledJournalSize;
+    }
+
+    /**
+     * Returns the oldest revision in the journal table when it was last
+     * sampled. Unlike {@link #getOldestRevision()} this only queries the
+     * database if the sample is older than the sample interval.
+     *
+     * @return oldest revision, or <code>-1</code> if unknown
+     */
+    public long getSampledOldestRevision() {
+        sampleJournalIfOutdated();
+        return sampledOldestRevision;
+    }
+
+    /**
+     * Samples the journal table if the last sample is older than the sample
+     * interval. Only one of concurrent callers takes the sample, the others
+     * return right away.
+     */
+    private void sampleJournalIfOutdated() {
+        long now = System.currentTimeMillis();
+        long last = lastSample.get();
+        if (now - last >= sampleInterval * 1000L
+                && lastSample.compareAndSet(last, now)) {
+            sampleJournal();
+        }
+    }
+
+    /**
+     * Samples the size and the oldest revision of the journal table.
+     */
+    private void sampleJournal() {
+        lastSample.set(System.currentTimeMillis());
+        try {
+            sampledJournalSize = getJournalSize();
+            sampledOldestRevision = getOldestRevision();
+        } catch (JournalException e) {
+            log.warn("Unable to sample the journal table.", e);
+        }
+    }
+
+    /**
+     * Executes a query that returns a single number.
+     *
+     * @param sql the query
+     * @return the number, or <code>0</code> if the query returns no value
+     * @throws JournalException if an error occurs
+     */
+    private long selectLong(String sql) throws JournalException {
+        ResultSet rs = null;
+        try {
+            rs = conHelper.exec(sql, null, false, 0);
+            return rs.next() ? rs.getLong(1) : 0;
+        } catch (SQLException e) {
+            String msg = "Unable to execute: " + sql;
+            throw new JournalException(msg, e);
+        } finally {
+            DbUtility.close(rs);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -613,6 +772,13 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
             "select MIN(REVISION_ID) from " + schemaObjectPrefix + "LOCAL_REVISIONS";
         cleanRevisionStmtSQL =
             "delete from " + schemaObjectPrefix + "JOURNAL " + "where REVISION_ID < ?";
+        cleanRevisionRangeStmtSQL =
+            "delete from " + schemaObjectPrefix + "JOURNAL "
+            + "where REVISION_ID >= ? and REVISION_ID < ?";
+        selectJournalSizeStmtSQL =
+            "select COUNT(*) from " + schemaObjectPrefix + "JOURNAL";
+        selectMinRevisionStmtSQL =
+            "select MIN(REVISION_ID) from " + schemaObjectPrefix + "JOURNAL";
         getLocalRevisionStmtSQL =
             "select REVISION_ID from " + schemaObjectPrefix + "LOCAL_REVISIONS "
             + "where JOURNAL_ID = ?";
@@ -679,6 +845,18 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
         return janitorNextRun.get(Calendar.HOUR_OF_DAY);
     }
 
+    public int getJanitorChunkSize() {
+        return janitorChunkSize;
+    }
+
+    public int getJanitorChunkDelay() {
+        return janitorChunkDelay;
+    }
+
+    public int getSampleInterval() {
+        return sampleInterval;
+    }
+
     /**
      * Bean setters
      */
@@ -741,6 +919,18 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
         janitorNextRun.set(Calendar.MILLISECOND, 0);
     }
 
+    public void setJanitorChunkSize(int chunkSize) {
+        this.janitorChunkSize = chunkSize;
+    }
+
+    public void setJanitorChunkDelay(int chunkDelay) {
+        this.janitorChunkDelay = chunkDelay;
+    }
+
+    public void setSampleInterval(int sampleInterval) {
+        this.sampleInterval = sampleInterval;
+    }
+
     public String getDataSourceName() {
         return dataSourceName;
     }
@@ -872,7 +1062,8 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
         }
 
         /**
-         * Cleans old revisions from the clustering table.
+         * Cleans old revisions from the clustering table and samples the
+         * size of the table afterwards.
          */
         protected void cleanUpOldRevisions() {
             ResultSet rs = null;
@@ -886,15 +1077,53 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
 
                 // Clean up if necessary:
                 if (cleanUp) {
-                    conHelper.exec(cleanRevisionStmtSQL, minRevision);
+                    if (janitorChunkSize > 0) {
+                        cleanUpInChunks(minRevision);
+                    } else {
+                        conHelper.exec(cleanRevisionStmtSQL, minRevision);
+                    }
                     log.info("Cleaned old revisions up to revision " + minRevision + ".");
                 }
 
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             } catch (Exception e) {
                 log.warn("Failed to clean up old revisions.", e);
             } finally {
                 DbUtility.close(rs);
             }
+            sampleJournal();
+        }
+
+        /**
+         * Removes the revisions older than <code>minRevision</code> in chunks
+         * of {@link DatabaseJournal#janitorChunkSize} revisions, so appends
+         * are not blocked by a single large delete. After a chunk, the janitor
+         * pauses at least {@link DatabaseJournal#janitorChunkDelay} ms and at
+         * least as long as the chunk took, which keeps the journal table busy
+         * at most half of the time when the database is slow.
+         *
+         * @param minRevision the oldest revision to keep
+         * @throws Exception if an error occurs or the janitor is interrupted
+         */
+        private void cleanUpInChunks(long minRevision) throws Exception {
+            long revision = getOldestRevision();
+            if (revision == 0) {
+                // the journal table is empty
+                return;
+            }
+            while (revision < minRevision) {
+                long next = Math.min(revision + janitorChunkSize, minRevision);
+                long time = System.currentTimeMillis();
+                conHelper.exec(cleanRevisionRangeStmtSQL, revision, next);
+                time = System.currentTimeMillis() - time;
+                log.debug("Cleaned revisions {} to {} in {} ms",
+                        new Object[]{revision, next, time});
+                revision = next;
+                if (revision < minRevision) {
+                    Thread.sleep(Math.max(janitorChunkDelay, time));
+                }
+            }
         }
     }
 }
@@ -38,6 +38,10 @@ import java.io.InputStream;
  * value is {@link #DEFAULT_BASENAME}</li>
  * <li><code>maximumSize</code>: the maximum size of an active journal file
  * before rotating it: the default value is {@link #DEFAULT_MAXSIZE} </li>
+ * <li><code>memoryMapped</code>: whether journal files are read through
+ * memory-mapped buffers; the default value is <code>false</code>. On some
+ * platforms, a mapped file cannot be renamed while it is mapped, which may
+ * delay the rotation of journal files.</li>
  * </ul>
  */
 public class FileJournal extends AbstractJournal {
@@ -87,6 +91,11 @@ public class FileJournal extends AbstractJournal {
      */
     private int maximumSize;
 
+    /**
+     * Flag indicating whether journal files are memory-mapped, bean property.
+     */
+    private boolean memoryMapped;
+
     /**
      * Journal root directory.
      */
@@ -147,8 +156,11 @@ public class FileJournal extends AbstractJournal {
 
     /**
      * {@inheritDoc}
+     * <p>
+     * The revisions of this journal are byte offsets into the journal
+     * files.
      */
-    protected long getGlobalRevision() throws JournalException {
+    public long getGlobalRevision() throws JournalException {
         return globalRevision.get();
     }
 
@@ -169,7 +181,7 @@ public class FileJournal extends AbstractJournal {
             }
         }
         return new FileRecordIterator(files, startRevision, stopRevision,
-                getResolver(), getNamePathResolver());
+                getResolver(), getNamePathResolver(), memoryMapped);
     }
 
     /**
@@ -195,7 +207,7 @@ public class FileJournal extends AbstractJournal {
             }
         }
         return new FileRecordIterator(files, startRevision, stopRevision,
-                getResolver(), getNamePathResolver());
+                getResolver(), getNamePathResolver(), memoryMapped);
     }
 
     /**
@@ -266,6 +278,10 @@ public class FileJournal extends AbstractJournal {
         return maximumSize;
     }
 
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
     /**
      * Bean setters
      */
@@ -281,6 +297,10 @@ public class FileJournal extends AbstractJournal {
         this.maximumSize = maximumSize;
     }
 
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
     /**
      * Move away current journal file (and all other files), incrementing their
      * version counter. A file named <code>journal.N.log</code> gets renamed to
@@ -54,6 +54,11 @@ public class FileRecordIterator implements RecordIterator {
      */
     private NamePathResolver npResolver;
 
+    /**
+     * Flag indicating whether log files are memory-mapped.
+     */
+    private boolean memoryMapped;
+
     /**
      * Current record log, containing file records.
      */
@@ -73,11 +78,27 @@ public class FileRecordIterator implements RecordIterator {
      */
     public FileRecordIterator(File[] logFiles, long startRevision, long stopRevision,
                               NamespaceResolver resolver, NamePathResolver npResolver) {
+        this(logFiles, startRevision, stopRevision, resolver, npResolver, false);
+    }
+
+    /**
+     * Creates a new instance of this class.
+     *
+     * @param logFiles available log files, sorted ascending by age
+     * @param startRevision start point (exclusive)
+     * @param stopRevision stop point (inclusive)
+     * @param memoryMapped whether to read the log files through memory-mapped
+     *                     buffers
+     */
+    public FileRecordIterator(File[] logFiles, long startRevision, long stopRevision,
+                              NamespaceResolver resolver, NamePathResolver npResolver,
+                              boolean memoryMapped) {
         this.logFiles = logFiles;
         this.revision = startRevision;
         this.stopRevision = stopRevision;
         this.resolver = resolver;
         this.npResolver = npResolver;
+        this.memoryMapped = memoryMapped;
     }
 
 
@@ -153,7 +174,11 @@ public class FileRecordIterator implements RecordIterator {
         for (int i = 0; i < logFiles.length; i++) {
             FileRecordLog recordLog = new FileRecordLog(logFiles[i]);
             if (recordLog.contains(revision)) {
-                recordLog.seek(revision);
+                if (memoryMapped) {
+                    recordLog.map(revision);
+                } else {
+                    recordLog.seek(revision);
+                }
                 return recordLog;
             }
         }
@@ -33,6 +33,9 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * A file record log is a file containing {@link Record}s. Every file record
@@ -225,6 +228,38 @@ public class FileRecordLog {
         position = revision - previousRevision;
     }
 
+    /**
+     * Seek an entry in a memory-mapped buffer of this log. Records are read
+     * from the buffer, which avoids copying them into stream buffers and
+     * lets several readers of the same log share the pages of the file.
+     * Like {@link #seek(long)}, this method must not be called twice.
+     *
+     * @param revision revision to seek
+     * @throws java.io.IOException if an I/O error occurs
+     */
+    public void map(long revision) throws IOException {
+        if (in != null) {
+            String msg = "Stream already open: map() only allowed once.";
+            throw new IllegalStateException(msg);
+        }
+        long size = HEADER_SIZE + lastRevision - previousRevision;
+        if (size > Integer.MAX_VALUE) {
+            seek(revision);
+            return;
+        }
+        RandomAccessFile raf = new RandomAccessFile(logFile, "r");
+        try {
+            // the mapping stays valid after the channel is closed
+            ByteBuffer buffer = raf.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.position((int) (revision - previousRevision + HEADER_SIZE));
+            in = new DataInputStream(new ByteBufferInputStream(buffer));
+        } finally {
+            raf.close();
+        }
+        position = revision - previousRevision;
+    }
+
     /**
      * Skip exactly <code>n</code> bytes. Throws if less bytes are skipped.
      *
@@ -433,6 +468,53 @@ public class FileRecordLog {
         return utflen;
     }
 
+    /**
+     * An input stream that reads the remaining bytes of a buffer.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+
+        /**
+         * The underlying buffer.
+         */
+        private final ByteBuffer buffer;
+
+        public ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public int read() {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            return buffer.get() & 0xff;
+        }
+
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        public long skip(long n) {
+            if (n <= 0) {
+                return 0;
+            }
+            int skipped = (int) Math.min(n, buffer.remaining());
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
     /**
      * A simple helper class that writes to a buffer. The current buffer can
      * be {@link #copy copied} to an output stream.
@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.journal;
+
+/**
+ * <code>JournalChangeNotifier</code> announces appended records to the other
+ * cluster nodes, so they can synchronize immediately instead of waiting for
+ * the next periodic synchronization. Notifications are best effort: a lost
+ * notification only delays synchronization until the next periodic one.
+ */
+public interface JournalChangeNotifier {
+
+    /**
+     * Starts receiving the notifications of other cluster nodes.
+     *
+     * @param journalId the id of the local journal.
+     * @param listener  the listener to inform about records appended by
+     *                  other journals.
+     * @throws JournalException if the notifier cannot be started.
+     */
+    void start(String journalId, JournalChangeListener listener)
+            throws JournalException;
+
+    /**
+     * Announces a record that was appended by the local journal. This method
+     * is called after the journal was unlocked and must not block.
+     *
+     * @param revision the revision of the appended record.
+     */
+    void appended(long revision);
+
+    /**
+     * Stops this notifier.
+     */
+    void close();
+
+}
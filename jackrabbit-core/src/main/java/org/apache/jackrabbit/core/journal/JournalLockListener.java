@@ -0,0 +1,33 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.journal;
+
+/**
+ * Listener that is informed by an {@link AbstractJournal} whenever the
+ * global journal lock was acquired.
+ */
+public interface JournalLockListener {
+
+    /**
+     * Called after the global journal lock was acquired and before the
+     * journal is synchronized. Implementations must return quickly.
+     *
+     * @param duration the time spent acquiring the lock in nano seconds.
+     */
+    void lockAcquired(long duration);
+
+}
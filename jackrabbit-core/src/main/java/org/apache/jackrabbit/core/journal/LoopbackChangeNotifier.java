@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.journal;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * <code>LoopbackChangeNotifier</code> delivers notifications to the other
+ * started notifiers in the same JVM. It is meant for cluster nodes that run
+ * within one JVM, e.g. in tests. Journals that do not share their records
+ * may receive notifications of each other, which only causes an additional
+ * synchronization.
+ */
+public class LoopbackChangeNotifier implements JournalChangeNotifier {
+
+    /**
+     * The started notifiers of this JVM.
+     */
+    private static final List<LoopbackChangeNotifier> NOTIFIERS =
+            new CopyOnWriteArrayList<LoopbackChangeNotifier>();
+
+    /**
+     * The id of the local journal.
+     */
+    private String journalId;
+
+    /**
+     * The listener of the local cluster node.
+     */
+    private JournalChangeListener listener;
+
+    /**
+     * {@inheritDoc}
+     */
+    public void start(String journalId, JournalChangeListener listener) {
+        this.journalId = journalId;
+        this.listener = listener;
+        NOTIFIERS.add(this);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void appended(long revision) {
+        for (LoopbackChangeNotifier notifier : NOTIFIERS) {
+            if (notifier != this) {
+                notifier.listener.changed(journalId, revision);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() {
+        NOTIFIERS.remove(this);
+    }
+}
@@ -161,6 +161,13 @@ public class MemoryJournal extends AbstractJournal {
         return new MemoryRecordIterator(startRevision, stopRevision);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public long getGlobalRevision() {
+        return records.size();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -22,6 +22,12 @@ import org.apache.jackrabbit.spi.Name;
 
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.input.CountingInputStream;
 
 /**
  * Record used for reading.
@@ -48,6 +54,23 @@ public class ReadRecord extends AbstractRecord {
      */
     private final DataInputStream dataIn;
 
+    /**
+     * Underlying data input, counting the bytes read from it.
+     */
+    private final CountingInputStream countingIn;
+
+    /**
+     * Data input of the record contents, created when the first value is
+     * read. Inflates the data of a record in the compact format.
+     */
+    private DataInputStream recordIn;
+
+    /**
+     * Deflated data of a record in the compact format, bounded to the record
+     * length if known.
+     */
+    private InputStream compactIn;
+
     /**
      * This record's length.
      */
@@ -71,6 +94,7 @@ public class ReadRecord extends AbstractRecord {
         this.producerId = producerId;
         this.revision = revision;
         this.dataIn = dataIn;
+        this.countingIn = new CountingInputStream(dataIn);
         this.length = length;
     }
 
@@ -95,6 +119,26 @@ public class ReadRecord extends AbstractRecord {
         return revision;
     }
 
+    /**
+     * Returns the length of this record in bytes.
+     *
+     * @return length, or <code>0</code> if unknown
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the number of bytes read from the underlying data input so
+     * far. Unlike {@link #getLength()} this is also known if the journal
+     * does not store the record length.
+     *
+     * @return number of bytes read
+     */
+    public long getBytesRead() {
+        return countingIn.getByteCount();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -102,7 +146,7 @@ public class ReadRecord extends AbstractRecord {
         consumed = true;
 
         try {
-            return dataIn.readByte();
+            return getInput().readByte();
         } catch (IOException e) {
             String msg = "I/O error while reading byte.";
             throw new JournalException(msg, e);
@@ -116,7 +160,7 @@ public class ReadRecord extends AbstractRecord {
         consumed = true;
 
         try {
-            return dataIn.readChar();
+            return getInput().readChar();
         } catch (IOException e) {
             String msg = "I/O error while reading character.";
             throw new JournalException(msg, e);
@@ -130,7 +174,7 @@ public class ReadRecord extends AbstractRecord {
         consumed = true;
 
         try {
-            return dataIn.readBoolean();
+            return getInput().readBoolean();
         } catch (IOException e) {
             String msg = "I/O error while reading boolean.";
             throw new JournalException(msg, e);
@@ -144,7 +188,7 @@ public class ReadRecord extends AbstractRecord {
         consumed = true;
 
         try {
-            return dataIn.readInt();
+            return getInput().readInt();
         } catch (IOException e) {
             String msg = "I/O error while reading integer.";
             throw new JournalException(msg, e);
@@ -158,7 +202,7 @@ public class ReadRecord extends AbstractRecord {
         consumed = true;
 
         try {
-            return dataIn.readLong();
+            return getInput().readLong();
         } catch (IOException e) {
             String msg = "I/O error while reading long.";
             throw new JournalException(msg, e);
@@ -172,11 +216,11 @@ public class ReadRecord extends AbstractRecord {
         consumed = true;
 
         try {
-            boolean isNull = dataIn.readBoolean();
+            boolean isNull = getInput().readBoolean();
             if (isNull) {
                 return null;
             } else {
-                return dataIn.readUTF();
+                return getInput().readUTF();
             }
         } catch (IOException e) {
             String msg = "I/O error while reading string.";
@@ -191,7 +235,7 @@ public class ReadRecord extends AbstractRecord {
         consumed = true;
 
         try {
-            dataIn.readFully(b);
+            getInput().readFully(b);
         } catch (IOException e) {
             String msg = "I/O error while reading byte array.";
             throw new JournalException(msg, e);
@@ -204,7 +248,15 @@ public class ReadRecord extends AbstractRecord {
      * @throws IOException if an I/O error occurs
      */
     public void close() throws IOException {
-        if (length != 0) {
+        if (compactIn != null) {
+            if (length != 0) {
+                // skip the remainder of the deflated data
+                while (compactIn.skip(length) > 0) {
+                    // continue
+                }
+            }
+            recordIn.close();
+        } else if (length != 0) {
             if (!consumed) {
                 skip(length);
             }
@@ -213,6 +265,38 @@ public class ReadRecord extends AbstractRecord {
         }
     }
 
+    /**
+     * Return the data input of the record contents. Checks the first byte
+     * for the compact format when called for the first time.
+     *
+     * @return data input
+     * @throws IOException if an I/O error occurs
+     */
+    private DataInputStream getInput() throws IOException {
+        if (recordIn == null) {
+            int b = countingIn.read();
+            if (b == COMPACT_FORMAT) {
+                setCompact(true);
+                if (length != 0) {
+                    BoundedInputStream bounded =
+                        new BoundedInputStream(countingIn, length - 1);
+                    bounded.setPropagateClose(false);
+                    compactIn = bounded;
+                } else {
+                    compactIn = countingIn;
+                }
+                recordIn = new DataInputStream(new InflaterInputStream(compactIn));
+            } else {
+                PushbackInputStream pushbackIn = new PushbackInputStream(countingIn);
+                if (b != -1) {
+                    pushbackIn.unread(b);
+                }
+                recordIn = new DataInputStream(pushbackIn);
+            }
+        }
+        return recordIn;
+    }
+
     /**
      * Skip exactly <code>n</code> bytes. Throws if less bytes are skipped.
      *
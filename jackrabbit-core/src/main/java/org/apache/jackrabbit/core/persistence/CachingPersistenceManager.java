@@ -26,7 +26,8 @@ public interface CachingPersistenceManager {
 
     /**
      * Notifies the persistence manager that an external (cluster) modification
-     * occurred.
+     * occurred. This method is called without holding the lock of the
+     * shared item state manager, so it may run concurrently with reads.
      *
      * @param changes the set of changes of the external modification.
      */
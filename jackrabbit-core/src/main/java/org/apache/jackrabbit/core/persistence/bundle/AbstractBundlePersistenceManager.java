@@ -136,6 +136,13 @@ public abstract class AbstractBundlePersistenceManager implements
     /** the cache of loaded bundles */
     private ConcurrentCache<NodeId, NodePropBundle> bundles;
 
+    /**
+     * Incremented whenever bundles are invalidated by an external update.
+     * A bundle loaded while the epoch changed may be outdated and is not
+     * kept in the cache.
+     */
+    private final AtomicLong invalidationEpoch = new AtomicLong();
+
     /** The default minimum stats logging interval (in ms). */
     private static final int DEFAULT_LOG_STATS_INTERVAL = 60 * 1000;
 
@@ -348,8 +355,13 @@ public abstract class AbstractBundlePersistenceManager implements
 
     /**
      * {@inheritDoc}
+     * <p>
+     * This method does not synchronize on this persistence manager, so
+     * readers are not blocked. Bundles that are concurrently loaded from the
+     * persistence layer are not cached, see {@link #invalidationEpoch}.
      */
-    public synchronized void onExternalUpdate(ChangeLog changes) {
+    public void onExternalUpdate(ChangeLog changes) {
+        invalidationEpoch.incrementAndGet();
         for (ItemState state : changes.modifiedStates()) {
             bundles.remove(getBundleId(state));
         }
@@ -762,6 +774,7 @@ public abstract class AbstractBundlePersistenceManager implements
      */
     private NodePropBundle getBundleCacheMiss(NodeId id)
             throws ItemStateException {
+        long epoch = invalidationEpoch.get();
         long time = System.nanoTime();
         NodePropBundle bundle = loadBundle(id);
         time = System.nanoTime() - time;
@@ -775,6 +788,11 @@ public abstract class AbstractBundlePersistenceManager implements
         } else {
             bundles.put(id, MISSING, MISSING_SIZE_ESTIMATE);
         }
+        if (invalidationEpoch.get() != epoch) {
+            // an external update may have invalidated the bundle
+            // after it was loaded, but before it was cached
+            bundles.remove(id);
+        }
         return bundle;
     }
 
@@ -0,0 +1,258 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.NamespaceException;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.spi.Path;
+import org.apache.jackrabbit.spi.commons.conversion.DefaultNamePathResolver;
+import org.apache.jackrabbit.spi.commons.conversion.IdentifierResolver;
+import org.apache.jackrabbit.spi.commons.conversion.MalformedPathException;
+import org.apache.jackrabbit.spi.commons.conversion.NamePathResolver;
+import org.apache.jackrabbit.spi.commons.namespace.NamespaceMapping;
+
+/**
+ * <code>ParsedQueryCache</code> is a bounded LRU cache of parsed query trees.
+ * Entries are keyed by query language, statement and the namespace mappings
+ * of the prefixes used in the statement by the session that created the
+ * query, because the trees contain qualified names that depend on these
+ * mappings.
+ * <p>
+ * Cached trees are shared by all sessions and must therefore not be
+ * modified and must not reference a session. Query object model trees are
+ * parsed with a resolver returned by {@link #createResolver(Session)} for
+ * that reason. Values of bind variables are not part of the trees, they are
+ * bound to the query instance created from a cached tree.
+ * <p>
+ * The cache keeps track of the parse time of each entry and sums it up for
+ * every hit in {@link #getSavedTime()}.
+ */
+public class ParsedQueryCache {
+
+    /**
+     * Separates the parts of a cache key.
+     */
+    private static final char SEPARATOR = '\n';
+
+    /**
+     * The cached entries in access order.
+     */
+    private final Map<String, Entry> entries;
+
+    /**
+     * The number of cache hits.
+     */
+    private long hits;
+
+    /**
+     * The number of cache misses.
+     */
+    private long misses;
+
+    /**
+     * The parse time in nanoseconds saved by cache hits.
+     */
+    private long savedTime;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param size the maximum number of cached query trees.
+     */
+    public ParsedQueryCache(final int size) {
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > size;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached query tree for <code>key</code>.
+     *
+     * @param key a key created by {@link #createKey(String, String, Session)}.
+     * @return the query tree or <code>null</code> if none is cached.
+     */
+    public synchronized Object get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        savedTime += entry.parseTime;
+        return entry.tree;
+    }
+
+    /**
+     * Adds a query tree to this cache.
+     *
+     * @param key       a key created by {@link #createKey(String, String, Session)}.
+     * @param tree      the parsed query tree.
+     * @param parseTime the time in nanoseconds it took to parse the tree.
+     */
+    public synchronized void put(String key, Object tree, long parseTime) {
+        entries.put(key, new Entry(tree, parseTime));
+    }
+
+    /**
+     * @return the number of cache hits.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of cache misses.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the parse time in nanoseconds saved by cache hits.
+     */
+    public synchronized long getSavedTime() {
+        return savedTime;
+    }
+
+    /**
+     * @return the number of cached query trees.
+     */
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the cache key for a query. Only the mappings of the prefixes
+     * in front of a colon in the statement are part of the key. The scan
+     * may find more prefixes than the statement actually uses, e.g. in
+     * string literals, which only makes the key more specific.
+     *
+     * @param language  the query language.
+     * @param statement the query statement.
+     * @param session   the session that creates the query.
+     * @return the cache key.
+     * @throws RepositoryException if the namespace mappings of the session
+     *                             cannot be read.
+     */
+    public static String createKey(String language,
+                                   String statement,
+                                   Session session)
+            throws RepositoryException {
+        StringBuilder key = new StringBuilder(language);
+        key.append(SEPARATOR).append(statement).append(SEPARATOR);
+        Set<String> prefixes = new HashSet<String>();
+        for (int colon = statement.indexOf(':'); colon != -1;
+                colon = statement.indexOf(':', colon + 1)) {
+            int start = colon;
+            while (start > 0 && isPrefixChar(statement.charAt(start - 1))) {
+                start--;
+            }
+            String prefix = statement.substring(start, colon);
+            if (prefix.length() > 0 && prefixes.add(prefix)) {
+                key.append(prefix).append('=');
+                try {
+                    key.append(session.getNamespaceURI(prefix));
+                } catch (NamespaceException e) {
+                    // not a prefix, or an unknown one
+                }
+                key.append(' ');
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns a resolver with the current namespace mappings of a session.
+     * Identifiers in paths are only checked for a valid format, the same as
+     * the session does when it parses a path.
+     *
+     * @param session the session.
+     * @return a resolver that does not reference the session.
+     * @throws RepositoryException if the namespace mappings of the session
+     *                             cannot be read.
+     */
+    public static NamePathResolver createResolver(Session session)
+            throws RepositoryException {
+        NamespaceMapping mapping = new NamespaceMapping();
+        for (String prefix : session.getNamespacePrefixes()) {
+            mapping.setMapping(prefix, session.getNamespaceURI(prefix));
+        }
+        return new DefaultNamePathResolver(mapping, new IdentifierResolver() {
+            public Path getPath(String identifier)
+                    throws MalformedPathException {
+                throw new MalformedPathException(
+                        "Identifier '" + identifier + "' cannot be resolved.");
+            }
+
+            public void checkFormat(String identifier)
+                    throws MalformedPathException {
+                try {
+                    NodeId.valueOf(identifier);
+                } catch (IllegalArgumentException e) {
+                    throw new MalformedPathException(
+                            "Invalid identifier: " + identifier);
+                }
+            }
+        }, true);
+    }
+
+    /**
+     * @param c a character.
+     * @return whether <code>c</code> may be part of a namespace prefix.
+     */
+    private static boolean isPrefixChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.';
+    }
+
+    /**
+     * Returns a summary of the cache statistics.
+     */
+    @Override
+    public synchronized String toString() {
+        return "ParsedQueryCache[size=" + entries.size() + ", hits=" + hits
+                + ", misses=" + misses + ", saved=" + (savedTime / 1000000)
+                + " ms]";
+    }
+
+    /**
+     * A cached query tree.
+     */
+    private static final class Entry {
+
+        private final Object tree;
+
+        private final long parseTime;
+
+        private Entry(Object tree, long parseTime) {
+            this.tree = tree;
+            this.parseTime = parseTime;
+        }
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * <code>QueryExplanation</code> collects how a query is evaluated: the
+ * queries run against the search index, the number of hits and the time
+ * spent in each {@link Phase} of the execution.
+ * <p>
+ * An explanation is bound to the thread that executes the query with
+ * {@link #attach()}. While bound, the query implementation reports to the
+ * explanation returned by {@link #current()}. When no explanation is bound,
+ * {@link #current()} returns <code>null</code> and nothing is recorded.
+ */
+public class QueryExplanation {
+
+    /**
+     * The phases of a query execution.
+     */
+    public enum Phase {
+
+        /**
+         * Translation of the query tree into search index queries.
+         */
+        TRANSLATION("translation"),
+
+        /**
+         * Execution of the search index queries, including the sort order
+         * applied by the search index.
+         */
+        SEARCH("index search"),
+
+        /**
+         * Resolution of parent and ancestor relations while searching. This
+         * time is also part of {@link #SEARCH}.
+         */
+        HIERARCHY("hierarchy resolution"),
+
+        /**
+         * Read access checks on the hits of the search index.
+         */
+        ACCESS_CHECK("access checks"),
+
+        /**
+         * Sorting of query results outside the search index.
+         */
+        SORT("sorting"),
+
+        /**
+         * Merging the rows of the two sides of a join.
+         */
+        JOIN("join merging");
+
+        private final String description;
+
+        Phase(String description) {
+            this.description = description;
+        }
+
+        /**
+         * @return a human readable description of this phase.
+         */
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    /**
+     * The explanation bound to the current thread.
+     */
+    private static final ThreadLocal<QueryExplanation> CURRENT =
+            new ThreadLocal<QueryExplanation>();
+
+    /**
+     * The query language.
+     */
+    private final String language;
+
+    /**
+     * The query statement.
+     */
+    private final String statement;
+
+    /**
+     * The queries run against the search index.
+     */
+    private final List<String> indexQueries = new ArrayList<String>();
+
+    /**
+     * The time in nanoseconds spent in each phase.
+     */
+    private final long[] phaseTimes = new long[Phase.values().length];
+
+    /**
+     * The number of hits estimated by the search index or <code>-1</code>
+     * if unknown.
+     */
+    private long estimatedHits;
+
+    /**
+     * The number of hits read from the search index.
+     */
+    private long indexHits;
+
+    /**
+     * The number of hits the session is not allowed to read.
+     */
+    private long deniedHits;
+
+    /**
+     * The number of results returned by the query or <code>-1</code> if
+     * the result was not read completely.
+     */
+    private long actualHits = -1;
+
+    /**
+     * The total execution time in nanoseconds.
+     */
+    private long duration;
+
+    /**
+     * The index lag in milliseconds when the query was executed.
+     */
+    private long indexLag;
+
+    /**
+     * Creates a new explanation for a query.
+     *
+     * @param language  the query language.
+     * @param statement the query statement.
+     */
+    public QueryExplanation(String language, String statement) {
+        this.language = language;
+        this.statement = statement;
+    }
+
+    /**
+     * @return the explanation bound to the current thread or
+     *         <code>null</code> if none is bound.
+     */
+    public static QueryExplanation current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Binds this explanation to the current thread.
+     *
+     * @return the explanation previously bound to the current thread or
+     *         <code>null</code>. Must be passed to {@link #detach}.
+     */
+    public QueryExplanation attach() {
+        QueryExplanation previous = CURRENT.get();
+        CURRENT.set(this);
+        return previous;
+    }
+
+    /**
+     * Unbinds this explanation from the current thread.
+     *
+     * @param previous the explanation returned by {@link #attach()}.
+     */
+    public void detach(QueryExplanation previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Adds a query run against the search index.
+     *
+     * @param query the search index query.
+     */
+    public void addIndexQuery(Object query) {
+        indexQueries.add(String.valueOf(query));
+    }
+
+    /**
+     * Adds time spent in a phase.
+     *
+     * @param phase the phase.
+     * @param nanos the time in nanoseconds.
+     */
+    public void addTime(Phase phase, long nanos) {
+        phaseTimes[phase.ordinal()] += nanos;
+    }
+
+    /**
+     * Adds the number of hits estimated by the search index for a query.
+     *
+     * @param hits the estimated hits or <code>-1</code> if unknown.
+     */
+    public void addEstimatedHits(long hits) {
+        if (hits < 0 || estimatedHits < 0) {
+            estimatedHits = -1;
+        } else {
+            estimatedHits += hits;
+        }
+    }
+
+    /**
+     * Counts a hit read from the search index.
+     *
+     * @param granted whether the session is allowed to read the hit.
+     */
+    public void addIndexHit(boolean granted) {
+        indexHits++;
+        if (!granted) {
+            deniedHits++;
+        }
+    }
+
+    /**
+     * @param hits the number of results returned by the query.
+     */
+    public void setActualHits(long hits) {
+        this.actualHits = hits;
+    }
+
+    /**
+     * @param nanos the total execution time in nanoseconds.
+     */
+    public void setDuration(long nanos) {
+        this.duration = nanos;
+    }
+
+    /**
+     * @param millis the time since the oldest change was saved that is not
+     *               yet visible in the search index.
+     */
+    public void setIndexLag(long millis) {
+        this.indexLag = millis;
+    }
+
+    /**
+     * @return the query statement.
+     */
+    public String getStatement() {
+        return statement;
+    }
+
+    /**
+     * @return the queries run against the search index.
+     */
+    public List<String> getIndexQueries() {
+        return Collections.unmodifiableList(indexQueries);
+    }
+
+    /**
+     * @param phase a phase.
+     * @return the time in nanoseconds spent in <code>phase</code>.
+     */
+    public long getTime(Phase phase) {
+        return phaseTimes[phase.ordinal()];
+    }
+
+    /**
+     * @return the number of hits estimated by the search index or
+     *         <code>-1</code> if unknown.
+     */
+    public long getEstimatedHits() {
+        return estimatedHits;
+    }
+
+    /**
+     * @return the number of hits read from the search index.
+     */
+    public long getIndexHits() {
+        return indexHits;
+    }
+
+    /**
+     * @return the number of hits the session is not allowed to read.
+     */
+    public long getDeniedHits() {
+        return deniedHits;
+    }
+
+    /**
+     * @return the number of results returned by the query or
+     *         <code>-1</code> if the result was not read completely.
+     */
+    public long getActualHits() {
+        return actualHits;
+    }
+
+    /**
+     * @return the total execution time in nanoseconds.
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return the index lag in milliseconds when the query was executed.
+     */
+    public long getIndexLag() {
+        return indexLag;
+    }
+
+    /**
+     * Returns a multi-line, human readable description of this explanation.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("statement (").append(language).append("): ");
+        sb.append(statement).append('\n');
+        for (String query : indexQueries) {
+            sb.append("index query: ").append(query).append('\n');
+        }
+        sb.append("estimated hits: ");
+        sb.append(estimatedHits < 0 ? "unknown" : String.valueOf(estimatedHits));
+        sb.append('\n');
+        sb.append("actual hits: ");
+        sb.append(actualHits < 0 ? "unknown" : String.valueOf(actualHits));
+        sb.append(" (index hits read: ").append(indexHits);
+        sb.append(", access denied: ").append(deniedHits).append(")\n");
+        sb.append("index lag: ").append(indexLag).append(" ms\n");
+        sb.append("total: ").append(formatMillis(duration)).append('\n');
+        for (Phase phase : Phase.values()) {
+            sb.append("  ").append(phase.getDescription());
+            sb.append(": ").append(formatMillis(getTime(phase))).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.format(Locale.ENGLISH, "%.3f ms", nanos / 1000000.0);
+    }
+}
@@ -31,11 +31,16 @@ import javax.jcr.lock.LockException;
 import javax.jcr.nodetype.ConstraintViolationException;
 import javax.jcr.query.InvalidQueryException;
 import javax.jcr.query.QueryResult;
+import javax.jcr.query.RowIterator;
 import javax.jcr.version.VersionException;
 
+import org.apache.jackrabbit.api.query.JackrabbitQuery;
 import org.apache.jackrabbit.api.stats.RepositoryStatistics.Type;
+import org.apache.jackrabbit.core.query.lucene.SearchIndex;
 import org.apache.jackrabbit.core.session.SessionContext;
 import org.apache.jackrabbit.core.session.SessionOperation;
+import org.apache.jackrabbit.stats.QueryStatCore;
+import org.apache.jackrabbit.stats.QueryStatImpl;
 import org.apache.jackrabbit.stats.RepositoryStatisticsImpl;
 import org.apache.jackrabbit.spi.Path;
 import org.apache.jackrabbit.spi.commons.conversion.NameException;
@@ -45,13 +50,20 @@ import org.slf4j.LoggerFactory;
 /**
  * Provides the default implementation for a JCR query.
  */
-public class QueryImpl extends AbstractQueryImpl {
+public class QueryImpl extends AbstractQueryImpl implements JackrabbitQuery {
 
     /**
      * The logger instance for this class
      */
     private static final Logger log = LoggerFactory.getLogger(QueryImpl.class);
 
+    /**
+     * The logger for slow queries. See
+     * {@link SearchIndex#setSlowQueryThreshold(long)}.
+     */
+    private static final Logger slowQueryLog =
+            LoggerFactory.getLogger("org.apache.jackrabbit.core.query.SlowQueryLog");
+
     /**
      * Component context of the current session
      */
@@ -98,6 +110,12 @@ public class QueryImpl extends AbstractQueryImpl {
      */
     protected long offset = 0;
 
+    /**
+     * The maximum time in milliseconds to wait for pending index updates
+     * before the query is executed.
+     */
+    private long waitForIndex = 0;
+
     /**
      * {@inheritDoc}
      */
@@ -124,8 +142,96 @@ public class QueryImpl extends AbstractQueryImpl {
      */
     public QueryResult execute() throws RepositoryException {
         checkInitialized();
+        if (waitForIndex > 0) {
+            waitForIndex();
+        }
+        QueryExplanation explanation = null;
+        QueryExplanation previous = null;
+        if (getSlowQueryThreshold() > 0 || getSlowQueryHitThreshold() > 0) {
+            explanation = new QueryExplanation(language, statement);
+            explanation.setIndexLag(getIndexLag());
+            previous = explanation.attach();
+        }
         long time = System.nanoTime();
-        QueryResult result = sessionContext.getSessionState().perform(
+        QueryResult result;
+        try {
+            result = executeQuery();
+        } finally {
+            if (explanation != null) {
+                explanation.detach(previous);
+            }
+        }
+        time = System.nanoTime() - time;
+        final long timeMs = time / 1000000;
+        log.debug("executed in {} ms. ({})", timeMs, statement);
+        RepositoryStatisticsImpl statistics = sessionContext
+                .getRepositoryContext().getRepositoryStatistics();
+        statistics.getCounter(Type.QUERY_COUNT).incrementAndGet();
+        statistics.getCounter(Type.QUERY_DURATION).addAndGet(timeMs);
+        String plan = null;
+        if (explanation != null && isSlow(explanation, timeMs)) {
+            explanation.setDuration(time);
+            plan = explanation.toString();
+            slowQueryLog.warn("Query executed in {} ms:\n{}", timeMs, plan);
+        }
+        QueryStatCore queryStat = sessionContext.getRepositoryContext()
+                .getStatManager().getQueryStat();
+        if (queryStat instanceof QueryStatImpl) {
+            ((QueryStatImpl) queryStat).logQuery(
+                    language, statement, timeMs, plan);
+        } else {
+            queryStat.logQuery(language, statement, timeMs);
+        }
+        return result;
+    }
+
+    /**
+     * Executes this query, reads the complete result and returns a
+     * description of the query execution. See {@link #explainQuery()}.
+     * {@inheritDoc}
+     */
+    public String explain() throws RepositoryException {
+        return explainQuery().toString();
+    }
+
+    /**
+     * Executes this query and reads the complete result while the returned
+     * explanation records the queries run against the search index, the
+     * number of hits and the time spent in each phase. Unlike
+     * {@link #execute()} the time also includes the hits that are fetched
+     * lazily while the result is read.
+     *
+     * @return the explanation of this query.
+     * @throws RepositoryException if the query cannot be executed.
+     */
+    public QueryExplanation explainQuery() throws RepositoryException {
+        checkInitialized();
+        QueryExplanation explanation = new QueryExplanation(language, statement);
+        explanation.setIndexLag(getIndexLag());
+        QueryExplanation previous = explanation.attach();
+        try {
+            long time = System.nanoTime();
+            long count = 0;
+            for (RowIterator rows = executeQuery().getRows(); rows.hasNext(); ) {
+                rows.nextRow();
+                count++;
+            }
+            explanation.setActualHits(count);
+            explanation.setDuration(System.nanoTime() - time);
+        } finally {
+            explanation.detach(previous);
+        }
+        return explanation;
+    }
+
+    /**
+     * Executes the query within a session operation.
+     *
+     * @return the query result.
+     * @throws RepositoryException if the query cannot be executed.
+     */
+    protected QueryResult executeQuery() throws RepositoryException {
+        return sessionContext.getSessionState().perform(
                 new SessionOperation<QueryResult>() {
                     public QueryResult perform(SessionContext context)
                             throws RepositoryException {
@@ -136,16 +242,6 @@ public class QueryImpl extends AbstractQueryImpl {
                         return "query.execute(" + statement + ")";
                     }
                 });
-        time = System.nanoTime() - time;
-        final long timeMs = time / 1000000;
-        log.debug("executed in {} ms. ({})", timeMs, statement);
-        RepositoryStatisticsImpl statistics = sessionContext
-                .getRepositoryContext().getRepositoryStatistics();
-        statistics.getCounter(Type.QUERY_COUNT).incrementAndGet();
-        statistics.getCounter(Type.QUERY_DURATION).addAndGet(timeMs);
-        sessionContext.getRepositoryContext().getStatManager().getQueryStat()
-                .logQuery(language, statement, timeMs);
-        return result;
     }
 
     /**
@@ -239,6 +335,16 @@ public class QueryImpl extends AbstractQueryImpl {
         this.limit = limit;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public void setWaitForIndex(long timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout must not be negative");
+        }
+        this.waitForIndex = timeout;
+    }
+
     /**
      * Sets the start offset of the result set.
      *
@@ -253,6 +359,76 @@ public class QueryImpl extends AbstractQueryImpl {
 
     //-----------------------------< internal >---------------------------------
 
+    /**
+     * @return the slow query threshold in milliseconds of the search index
+     *         or <code>0</code> if disabled.
+     */
+    private long getSlowQueryThreshold() {
+        if (handler instanceof SearchIndex) {
+            return ((SearchIndex) handler).getSlowQueryThreshold();
+        }
+        return 0;
+    }
+
+    /**
+     * @return the slow query threshold in search index hits or
+     *         <code>0</code> if disabled.
+     */
+    private long getSlowQueryHitThreshold() {
+        if (handler instanceof SearchIndex) {
+            return ((SearchIndex) handler).getSlowQueryHitThreshold();
+        }
+        return 0;
+    }
+
+    /**
+     * @return the index lag in milliseconds of the search index.
+     */
+    private long getIndexLag() {
+        if (handler instanceof SearchIndex) {
+            return ((SearchIndex) handler).getIndexLag();
+        }
+        return 0;
+    }
+
+    /**
+     * Waits at most {@link #waitForIndex} milliseconds until all changes
+     * saved so far are applied to the search index.
+     *
+     * @throws RepositoryException if the thread is interrupted.
+     */
+    private void waitForIndex() throws RepositoryException {
+        if (!(handler instanceof SearchIndex)) {
+            return;
+        }
+        SearchIndex index = (SearchIndex) handler;
+        try {
+            if (!index.waitForIndex(waitForIndex)) {
+                log.warn("Executing query with an index lag of {} ms: {}",
+                        index.getIndexLag(), statement);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException(
+                    "Interrupted while waiting for the search index", e);
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if an executed query exceeds one of the
+     * slow query thresholds.
+     *
+     * @param explanation the explanation recorded during the execution.
+     * @param timeMs      the execution time in milliseconds.
+     * @return whether the query is logged as slow query.
+     */
+    private boolean isSlow(QueryExplanation explanation, long timeMs) {
+        long threshold = getSlowQueryThreshold();
+        long hitThreshold = getSlowQueryHitThreshold();
+        return (threshold > 0 && timeMs >= threshold)
+                || (hitThreshold > 0 && explanation.getIndexHits() >= hitThreshold);
+    }
+
     /**
      * Sets the initialized flag.
      */
@@ -33,10 +33,14 @@ import javax.jcr.query.QueryManager;
 import javax.jcr.query.qom.QueryObjectModel;
 import javax.jcr.query.qom.QueryObjectModelFactory;
 
+import org.apache.jackrabbit.commons.query.QueryObjectModelBuilderRegistry;
 import org.apache.jackrabbit.core.SearchManager;
 import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.query.lucene.SearchIndex;
 import org.apache.jackrabbit.core.session.SessionContext;
 import org.apache.jackrabbit.core.session.SessionOperation;
+import org.apache.jackrabbit.core.value.ValueFactoryImpl;
+import org.apache.jackrabbit.spi.commons.conversion.NamePathResolver;
 import org.apache.jackrabbit.spi.commons.query.qom.QueryObjectModelFactoryImpl;
 import org.apache.jackrabbit.spi.commons.query.qom.QueryObjectModelTree;
 
@@ -199,6 +203,12 @@ public class QueryManagerImpl implements QueryManager {
 
     private class QueryFactoryImpl extends CompoundQueryFactory {
 
+        /**
+         * The nt:query node where the query was read from or
+         * <code>null</code>.
+         */
+        private final Node node;
+
         public QueryFactoryImpl(String language) {
             this(null, language);
         }
@@ -223,6 +233,63 @@ public class QueryManagerImpl implements QueryManager {
                                 sessionContext, statement, language, node);
                     }
                 }));
+            this.node = node;
+        }
+
+        /**
+         * Looks up query object model trees in the parsed query cache of the
+         * search index, if enabled. Other queries are cached by the search
+         * index when it creates the executable query.
+         */
+        @Override
+        public Query createQuery(String statement, String language)
+                throws InvalidQueryException, RepositoryException {
+            QueryHandler handler = searchMgr.getQueryHandler();
+            ParsedQueryCache cache = null;
+            if (handler instanceof SearchIndex) {
+                cache = ((SearchIndex) handler).getParsedQueryCache();
+            }
+            if (cache == null || !Arrays.asList(QueryObjectModelBuilderRegistry
+                    .getSupportedLanguages()).contains(language)) {
+                return super.createQuery(statement, language);
+            }
+            String key = ParsedQueryCache.createKey(
+                    language, statement, sessionContext.getSessionImpl());
+            QueryObjectModelTree qomTree = (QueryObjectModelTree) cache.get(key);
+            if (qomTree == null) {
+                long time = System.nanoTime();
+                qomTree = parse(statement, language);
+                cache.put(key, qomTree, System.nanoTime() - time);
+            }
+            return searchMgr.createQueryObjectModel(
+                    sessionContext, qomTree, language, node);
+        }
+
+        /**
+         * Parses a statement into a query object model tree that does not
+         * reference the current session.
+         *
+         * @param statement the query statement.
+         * @param language  the query language.
+         * @return the query object model tree.
+         * @throws RepositoryException if the statement cannot be parsed.
+         */
+        private QueryObjectModelTree parse(String statement, String language)
+                throws RepositoryException {
+            NamePathResolver resolver = ParsedQueryCache.createResolver(
+                    sessionContext.getSessionImpl());
+            final QueryObjectModelTree[] qomTree = new QueryObjectModelTree[1];
+            QueryObjectModelFactoryImpl qf = new QueryObjectModelFactoryImpl(resolver) {
+                @Override
+                protected QueryObjectModel createQuery(QueryObjectModelTree tree) {
+                    qomTree[0] = tree;
+                    return null;
+                }
+            };
+            QueryObjectModelBuilderRegistry.getQueryObjectModelBuilder(language)
+                    .createQueryObjectModel(statement, qf, new ValueFactoryImpl(
+                            resolver, sessionContext.getDataStore()));
+            return qomTree[0];
         }
     }
 }
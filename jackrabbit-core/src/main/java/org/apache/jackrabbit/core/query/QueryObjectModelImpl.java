@@ -30,14 +30,12 @@ import javax.jcr.query.qom.Ordering;
 import javax.jcr.query.qom.QueryObjectModel;
 import javax.jcr.query.qom.Source;
 
-import org.apache.jackrabbit.api.stats.RepositoryStatistics.Type;
 import org.apache.jackrabbit.commons.query.QueryObjectModelBuilderRegistry;
 import org.apache.jackrabbit.core.query.lucene.LuceneQueryFactory;
 import org.apache.jackrabbit.core.query.lucene.SearchIndex;
 import org.apache.jackrabbit.core.query.lucene.join.QueryEngine;
 import org.apache.jackrabbit.core.session.SessionContext;
 import org.apache.jackrabbit.core.session.SessionOperation;
-import org.apache.jackrabbit.stats.RepositoryStatisticsImpl;
 import org.apache.jackrabbit.spi.commons.query.qom.BindVariableValueImpl;
 import org.apache.jackrabbit.spi.commons.query.qom.DefaultTraversingQOMTreeVisitor;
 import org.apache.jackrabbit.spi.commons.query.qom.QueryObjectModelTree;
@@ -118,9 +116,9 @@ public class QueryObjectModelImpl extends QueryImpl implements QueryObjectModel
         setInitialized();
     }
 
-    public QueryResult execute() throws RepositoryException {
-        long time = System.nanoTime();
-        final QueryResult result = sessionContext.getSessionState().perform(
+    @Override
+    protected QueryResult executeQuery() throws RepositoryException {
+        return sessionContext.getSessionState().perform(
                 new SessionOperation<QueryResult>() {
                     public QueryResult perform(SessionContext context)
                             throws RepositoryException {
@@ -134,16 +132,6 @@ public class QueryObjectModelImpl extends QueryImpl implements QueryObjectModel
                         return "query.execute(" + statement + ")";
                     }
                 });
-        time = System.nanoTime() - time;
-        final long timeMs = time / 1000000;
-        log.debug("executed in {} ms. ({})", timeMs, statement);
-        RepositoryStatisticsImpl statistics = sessionContext
-                .getRepositoryContext().getRepositoryStatistics();
-        statistics.getCounter(Type.QUERY_COUNT).incrementAndGet();
-        statistics.getCounter(Type.QUERY_DURATION).addAndGet(timeMs);
-        sessionContext.getRepositoryContext().getStatManager().getQueryStat()
-                .logQuery(language, statement, timeMs);
-        return result;
     }
 
     @Override
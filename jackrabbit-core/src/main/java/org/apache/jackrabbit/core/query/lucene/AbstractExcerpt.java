@@ -17,14 +17,25 @@
 package org.apache.jackrabbit.core.query.lucene;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.lucene.analysis.TokenStream;
@@ -49,13 +60,40 @@ import org.slf4j.LoggerFactory;
  * <code>AbstractExcerpt</code> implements base functionality for an excerpt
  * provider.
  */
-public abstract class AbstractExcerpt implements HighlightingExcerptProvider {
+public abstract class AbstractExcerpt
+        implements HighlightingExcerptProvider, BatchExcerptProvider {
 
     /**
      * Logger instance for this class.
      */
     private static final Logger log = LoggerFactory.getLogger(AbstractExcerpt.class);
 
+    /**
+     * The maximum number of executor threads that help with creating
+     * excerpts at the same time, over all queries. Limited to half of the
+     * processors so excerpts do not occupy the whole repository executor.
+     */
+    private static final int MAX_HELPERS =
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    /**
+     * The number of executor threads currently helping with excerpts.
+     */
+    private static final AtomicInteger HELPERS = new AtomicInteger();
+
+    /**
+     * The maximum number of cached excerpts per index segment.
+     */
+    private static final int MAX_CACHED_EXCERPTS = 1000;
+
+    /**
+     * The created excerpts per index segment, keyed by the shared reader of
+     * the segment. A document of a segment never changes, an updated node is
+     * indexed with a new document.
+     */
+    private static final Map<IndexReader, Map<ExcerptKey, String>> CACHE =
+            new WeakHashMap<IndexReader, Map<ExcerptKey, String>>();
+
     /**
      * The search index.
      */
@@ -84,54 +122,120 @@ public abstract class AbstractExcerpt implements HighlightingExcerptProvider {
      */
     public String getExcerpt(NodeId id, int maxFragments, int maxFragmentSize)
             throws IOException {
+        return getExcerpts(Collections.singleton(id),
+                maxFragments, maxFragmentSize).get(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The documents are looked up in the index segments and their stored
+     * text and term vectors are read in document order per segment. The
+     * excerpts are then created by the calling thread, and in parallel on
+     * the executor of the repository if {@link #isParallel()} returns
+     * <code>true</code>. Created excerpts are cached per segment and reused by later queries
+     * with the same fulltext terms.
+     */
+    public Map<NodeId, String> getExcerpts(Collection<NodeId> ids,
+                                           int maxFragments,
+                                           int maxFragmentSize)
+            throws IOException {
+        Map<NodeId, String> excerpts = new HashMap<NodeId, String>();
+        List<NodeId> fallback = new ArrayList<NodeId>();
         IndexReader reader = index.getIndexReader();
         try {
             checkRewritten(reader);
-            Term idTerm = TermFactory.createUUIDTerm(id.toString());
-            TermDocs tDocs = reader.termDocs(idTerm);
-            int docNumber;
-            Document doc;
-            try {
-                if (tDocs.next()) {
-                    docNumber = tDocs.doc();
-                    doc = reader.document(docNumber);
-                } else {
-                    // node not found in index
-                    return null;
+            String queryKey = getQueryKey(maxFragments, maxFragmentSize);
+            List<IndexReader> segments = new ArrayList<IndexReader>();
+            addSegments(reader, segments);
+            List<Hit> hits = new ArrayList<Hit>();
+            int last = 0;
+            for (NodeId id : ids) {
+                Term idTerm = TermFactory.createUUIDTerm(id.toString());
+                // nodes of a result are often in the same segment
+                for (int i = 0; i < segments.size(); i++) {
+                    int segment = (last + i) % segments.size();
+                    TermDocs tDocs = segments.get(segment).termDocs(idTerm);
+                    try {
+                        if (tDocs.next()) {
+                            hits.add(new Hit(id, segment, tDocs.doc()));
+                            last = segment;
+                            break;
+                        }
+                    } finally {
+                        tDocs.close();
+                    }
                 }
-            } finally {
-                tDocs.close();
             }
-            Fieldable[] fields = doc.getFieldables(FieldNames.FULLTEXT);
-            if (fields.length == 0) {
-                log.debug("Fulltext field not stored, using {}",
-                        SimpleExcerptProvider.class.getName());
-                SimpleExcerptProvider exProvider = new SimpleExcerptProvider();
-                exProvider.init(query, index);
-                return exProvider.getExcerpt(id, maxFragments, maxFragmentSize);
-            }
-            StringBuffer text = new StringBuffer();
-            String separator = "";
-            for (int i = 0; i < fields.length; i++) {
-                if (fields[i].stringValue().length() == 0) {
+            Collections.sort(hits);
+
+            // read stored text and term vectors in document order
+            List<Hit> pending = new ArrayList<Hit>();
+            for (Hit hit : hits) {
+                IndexReader segment = segments.get(hit.segment);
+                hit.cache = getCache(segment);
+                hit.key = new ExcerptKey(hit.doc, queryKey);
+                if (hit.cache != null) {
+                    String excerpt;
+                    synchronized (hit.cache) {
+                        excerpt = hit.cache.get(hit.key);
+                    }
+                    if (excerpt != null) {
+                        excerpts.put(hit.id, excerpt);
+                        continue;
+                    }
+                }
+                Document doc = segment.document(hit.doc);
+                Fieldable[] fields = doc.getFieldables(FieldNames.FULLTEXT);
+                if (fields.length == 0) {
+                    fallback.add(hit.id);
                     continue;
                 }
-                text.append(separator);
-                text.append(fields[i].stringValue());
-                separator = " ";
+                StringBuffer text = new StringBuffer();
+                String separator = "";
+                for (int i = 0; i < fields.length; i++) {
+                    if (fields[i].stringValue().length() == 0) {
+                        continue;
+                    }
+                    text.append(separator);
+                    text.append(fields[i].stringValue());
+                    separator = " ";
+                }
+                TermFreqVector tfv = segment.getTermFreqVector(
+                        hit.doc, FieldNames.FULLTEXT);
+                if (tfv instanceof TermPositionVector) {
+                    hit.text = text.toString();
+                    hit.tpv = (TermPositionVector) tfv;
+                    pending.add(hit);
+                } else {
+                    log.debug("No TermPositionVector on Fulltext field.");
+                    excerpts.put(hit.id, null);
+                }
             }
-            TermFreqVector tfv = reader.getTermFreqVector(
-                    docNumber, FieldNames.FULLTEXT);
-            if (tfv instanceof TermPositionVector) {
-                return createExcerpt((TermPositionVector) tfv, text.toString(),
-                        maxFragments, maxFragmentSize);
-            } else {
-                log.debug("No TermPositionVector on Fulltext field.");
-                return null;
+
+            createExcerpts(pending, maxFragments, maxFragmentSize);
+            for (Hit hit : pending) {
+                excerpts.put(hit.id, hit.excerpt);
+                if (hit.cache != null && hit.excerpt != null) {
+                    synchronized (hit.cache) {
+                        hit.cache.put(hit.key, hit.excerpt);
+                    }
+                }
             }
         } finally {
             Util.closeOrRelease(reader);
         }
+        if (!fallback.isEmpty()) {
+            log.debug("Fulltext field not stored, using {}",
+                    SimpleExcerptProvider.class.getName());
+            SimpleExcerptProvider exProvider = new SimpleExcerptProvider();
+            exProvider.init(query, index);
+            for (NodeId id : fallback) {
+                excerpts.put(id, exProvider.getExcerpt(
+                        id, maxFragments, maxFragmentSize));
+            }
+        }
+        return excerpts;
     }
 
     /**
@@ -143,6 +247,17 @@ public abstract class AbstractExcerpt implements HighlightingExcerptProvider {
                 text, 1, (text.length() + 1) * 2);
     }
 
+    /**
+     * Returns whether {@link #createExcerpt} may be called concurrently for
+     * the hits of a query. This implementation returns <code>false</code>,
+     * subclasses with a thread-safe {@link #createExcerpt} may override it.
+     *
+     * @return <code>true</code> if excerpts may be created in parallel.
+     */
+    protected boolean isParallel() {
+        return false;
+    }
+
     /**
      * Creates an excerpt for the given <code>text</code> using token offset
      * information provided by <code>tpv</code>.
@@ -238,6 +353,138 @@ public abstract class AbstractExcerpt implements HighlightingExcerptProvider {
         }
     }
 
+    /**
+     * Creates the excerpts of <code>hits</code>. If {@link #isParallel()}
+     * returns <code>true</code>, the hits are distributed over the calling
+     * thread and executor threads of the repository, at most
+     * {@link #MAX_HELPERS} for all queries together. Hits not yet taken by
+     * an executor thread are processed by the calling thread, so a busy
+     * executor does not delay the excerpts.
+     *
+     * @param hits            the hits with text and term vector.
+     * @param maxFragments    the maximum number of fragments to create.
+     * @param maxFragmentSize the maximum number of characters in a fragment.
+     * @throws IOException if an excerpt cannot be created.
+     */
+    private void createExcerpts(final List<Hit> hits,
+                                final int maxFragments,
+                                final int maxFragmentSize)
+            throws IOException {
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(hits.size());
+        final Exception[] error = new Exception[1];
+        final Runnable task = new Runnable() {
+            public void run() {
+                for (int i = next.getAndIncrement(); i < hits.size();
+                        i = next.getAndIncrement()) {
+                    Hit hit = hits.get(i);
+                    try {
+                        hit.excerpt = createExcerpt(hit.tpv, hit.text,
+                                maxFragments, maxFragmentSize);
+                    } catch (Exception e) {
+                        synchronized (error) {
+                            error[0] = e;
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }
+        };
+        int helpers = isParallel() ? hits.size() - 1 : 0;
+        for (int i = 0; i < helpers; i++) {
+            if (HELPERS.incrementAndGet() > MAX_HELPERS) {
+                HELPERS.decrementAndGet();
+                break;
+            }
+            index.getContext().getExecutor().execute(new Runnable() {
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        HELPERS.decrementAndGet();
+                    }
+                }
+            });
+        }
+        task.run();
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while creating excerpts");
+        }
+        synchronized (error) {
+            if (error[0] instanceof IOException) {
+                throw (IOException) error[0];
+            } else if (error[0] != null) {
+                throw Util.createIOException(error[0]);
+            }
+        }
+    }
+
+    /**
+     * Returns a key for the excerpts of the current query. The excerpts only
+     * depend on the fulltext terms of the rewritten query, the excerpt
+     * provider and the fragment parameters.
+     *
+     * @param maxFragments    the maximum number of fragments to create.
+     * @param maxFragmentSize the maximum number of characters in a fragment.
+     * @return the key.
+     */
+    private String getQueryKey(int maxFragments, int maxFragmentSize) {
+        List<String> terms = new ArrayList<String>();
+        for (Term[] phrase : getQueryTerms()) {
+            terms.add(Arrays.asList(phrase).toString());
+        }
+        Collections.sort(terms);
+        return getClass().getName() + ' ' + maxFragments + ' '
+                + maxFragmentSize + ' ' + terms;
+    }
+
+    /**
+     * Adds the segments of <code>reader</code> to <code>segments</code>.
+     *
+     * @param reader   an index reader.
+     * @param segments the segments.
+     */
+    private static void addSegments(IndexReader reader,
+                                    List<IndexReader> segments) {
+        if (reader instanceof MultiIndexReader) {
+            for (IndexReader r : ((MultiIndexReader) reader).getIndexReaders()) {
+                addSegments(r, segments);
+            }
+        } else {
+            segments.add(reader);
+        }
+    }
+
+    /**
+     * Returns the excerpt cache of a segment.
+     *
+     * @param segment an index segment.
+     * @return the cache or <code>null</code> if excerpts of the segment are
+     *         not cached.
+     */
+    private static Map<ExcerptKey, String> getCache(IndexReader segment) {
+        if (!(segment instanceof ReadOnlyIndexReader)) {
+            return null;
+        }
+        IndexReader base = ((ReadOnlyIndexReader) segment).getBase();
+        synchronized (CACHE) {
+            Map<ExcerptKey, String> cache = CACHE.get(base);
+            if (cache == null) {
+                cache = new LinkedHashMap<ExcerptKey, String>(16, 0.75f, true) {
+                    protected boolean removeEldestEntry(
+                            Map.Entry<ExcerptKey, String> eldest) {
+                        return size() > MAX_CACHED_EXCERPTS;
+                    }
+                };
+                CACHE.put(base, cache);
+            }
+            return cache;
+        }
+    }
+
     /**
      * @param text the text.
      * @return a <code>TermPositionVector</code> for the given text.
@@ -322,4 +569,66 @@ public abstract class AbstractExcerpt implements HighlightingExcerptProvider {
             }
         };
     }
+
+    /**
+     * A document for which an excerpt is created.
+     */
+    private static final class Hit implements Comparable<Hit> {
+
+        private final NodeId id;
+
+        private final int segment;
+
+        private final int doc;
+
+        private Map<ExcerptKey, String> cache;
+
+        private ExcerptKey key;
+
+        private String text;
+
+        private TermPositionVector tpv;
+
+        private String excerpt;
+
+        Hit(NodeId id, int segment, int doc) {
+            this.id = id;
+            this.segment = segment;
+            this.doc = doc;
+        }
+
+        public int compareTo(Hit other) {
+            if (segment != other.segment) {
+                return segment < other.segment ? -1 : 1;
+            }
+            return doc < other.doc ? -1 : (doc == other.doc ? 0 : 1);
+        }
+    }
+
+    /**
+     * Identifies a cached excerpt within a segment.
+     */
+    private static final class ExcerptKey {
+
+        private final int doc;
+
+        private final String queryKey;
+
+        ExcerptKey(int doc, String queryKey) {
+            this.doc = doc;
+            this.queryKey = queryKey;
+        }
+
+        public int hashCode() {
+            return doc * 31 + queryKey.hashCode();
+        }
+
+        public boolean equals(Object obj) {
+            if (obj instanceof ExcerptKey) {
+                ExcerptKey other = (ExcerptKey) obj;
+                return doc == other.doc && queryKey.equals(other.queryKey);
+            }
+            return false;
+        }
+    }
 }
@@ -93,14 +93,15 @@ abstract class AbstractIndex {
     /** termInfosIndexDivisor config parameter */
     private int termInfosIndexDivisor = SearchIndex.DEFAULT_TERM_INFOS_INDEX_DIVISOR;
 
-    /**
-     * The document number cache if this index may use one.
-     */
-    private DocNumberCache cache;
-
     /** The shared IndexReader for all read-only IndexReaders */
     private SharedIndexReader sharedReader;
 
+    /**
+     * The lucene index reader the most recent shared reader is based on.
+     * This reader is kept open to reopen the shared reader incrementally.
+     */
+    private IndexReader sharedDelegatee;
+
     /**
      * The most recent read-only reader if there is any.
      */
@@ -117,6 +118,12 @@ abstract class AbstractIndex {
      */
     private boolean isExisting;
 
+    /**
+     * Limits the write rate of a newly created index writer or
+     * <code>null</code> if writes are not limited.
+     */
+    private IORateLimiter writeRateLimiter;
+
     /**
      * Constructs an index with an <code>analyzer</code> and a
      * <code>directory</code>.
@@ -124,21 +131,16 @@ abstract class AbstractIndex {
      * @param analyzer      the analyzer for text tokenizing.
      * @param similarity    the similarity implementation.
      * @param directory     the underlying directory.
-     * @param cache         the document number cache if this index should use
-     *                      one; otherwise <code>cache</code> is
-     *                      <code>null</code>.
      * @param indexingQueue the indexing queue.
      * @throws IOException if the index cannot be initialized.
      */
     AbstractIndex(Analyzer analyzer,
                   Similarity similarity,
                   Directory directory,
-                  DocNumberCache cache,
                   IndexingQueue indexingQueue) throws IOException {
         this.analyzer = analyzer;
         this.similarity = similarity;
         this.directory = directory;
-        this.cache = cache;
         this.indexingQueue = indexingQueue;
         this.isExisting = IndexReader.indexExists(directory);
 
@@ -309,9 +311,9 @@ abstract class AbstractIndex {
         // if we get here there is no up-to-date read-only reader
         if (sharedReader == null) {
             // create new shared reader
-            IndexReader reader = IndexReader.open(getDirectory(), termInfosIndexDivisor);
+            IndexReader reader = reopenSharedDelegatee();
             CachingIndexReader cr = new CachingIndexReader(
-                    reader, cache, initCache);
+                    reader, initCache);
             sharedReader = new SharedIndexReader(cr);
         }
         readOnlyReader = new ReadOnlyIndexReader(sharedReader, 
@@ -352,13 +354,32 @@ abstract class AbstractIndex {
             mergePolicy.setUseCompoundFile(useCompoundFile);
             mergePolicy.setNoCFSRatio(1.0);
             config.setMergePolicy(mergePolicy);
+            IndexDeletionPolicy idp = getIndexDeletionPolicy();
+            if (idp != null) {
+                config.setIndexDeletionPolicy(idp);
+            }
 
-            indexWriter = new IndexWriter(getDirectory(), config);
+            Directory dir = getDirectory();
+            if (writeRateLimiter != null) {
+                dir = new RateLimitedDirectory(dir, writeRateLimiter);
+            }
+            indexWriter = new IndexWriter(dir, config);
             indexWriter.setInfoStream(STREAM_LOGGER);
         }
         return indexWriter;
     }
 
+    /**
+     * Sets the rate limiter for index writers that are created from now on.
+     * An index writer that is already open is not affected.
+     *
+     * @param limiter the rate limiter or <code>null</code> to write without
+     *                limit.
+     */
+    synchronized void setWriteRateLimiter(IORateLimiter limiter) {
+        this.writeRateLimiter = limiter;
+    }
+
     /**
      * Commits all pending changes to the underlying <code>Directory</code>.
      * @throws IOException if an error occurs while commiting changes.
@@ -443,6 +464,14 @@ abstract class AbstractIndex {
             }
             sharedReader = null;
         }
+        if (sharedDelegatee != null) {
+            try {
+                sharedDelegatee.decRef();
+            } catch (IOException e) {
+                log.warn("Exception closing index reader: " + e.toString());
+            }
+            sharedDelegatee = null;
+        }
     }
 
     /**
@@ -474,6 +503,29 @@ abstract class AbstractIndex {
         }
     }
 
+    /**
+     * Returns a lucene index reader for a new shared reader. If there is a
+     * previous shared reader, its index reader is reopened, which only opens
+     * the segments that changed since. The returned reader is owned by the
+     * caller, this index keeps an additional reference until the next reopen.
+     *
+     * @return the index reader.
+     * @throws IOException if an error occurs while opening the reader.
+     */
+    private IndexReader reopenSharedDelegatee() throws IOException {
+        if (sharedDelegatee != null) {
+            IndexReader reader = IndexReader.openIfChanged(sharedDelegatee);
+            if (reader != null) {
+                sharedDelegatee.decRef();
+                sharedDelegatee = reader;
+            }
+        } else {
+            sharedDelegatee = IndexReader.open(getDirectory(), termInfosIndexDivisor);
+        }
+        sharedDelegatee.incRef();
+        return sharedDelegatee;
+    }
+
     /**
      * Returns a document that is finished with text extraction and is ready to
      * be added to the index.
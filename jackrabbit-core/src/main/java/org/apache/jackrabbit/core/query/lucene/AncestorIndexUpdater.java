@@ -0,0 +1,325 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.state.ChildNodeEntry;
+import org.apache.jackrabbit.core.state.ItemStateException;
+import org.apache.jackrabbit.core.state.ItemStateManager;
+import org.apache.jackrabbit.core.state.NoSuchItemStateException;
+import org.apache.jackrabbit.core.state.NodeState;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>AncestorIndexUpdater</code> re-indexes the descendants of moved nodes
+ * in the background. As of {@link IndexFormatVersion#V5} every node is
+ * indexed with the UUIDs of its ancestors in the field
+ * {@link FieldNames#ANCESTORS}. When a node is moved, only the node itself is
+ * re-indexed by the regular index update, the ancestor terms of its
+ * descendants become outdated until this updater has re-indexed them.
+ * <p>
+ * The ids of moved nodes are written to a file in the index directory, so an
+ * interrupted update is continued when the index is opened again. While there
+ * are pending updates, {@link #hasPendingUpdates()} returns <code>true</code>
+ * and queries must not rely on the ancestor terms.
+ */
+class AncestorIndexUpdater implements Runnable {
+
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(AncestorIndexUpdater.class);
+
+    /**
+     * Name of the file in the index directory with the ids of moved nodes.
+     */
+    static final String PENDING = "moved";
+
+    /**
+     * The number of nodes that are re-indexed at once.
+     */
+    private static final int BATCH_SIZE = 100;
+
+    /**
+     * The search index.
+     */
+    private final SearchIndex handler;
+
+    /**
+     * The item state manager to read the descendants from.
+     */
+    private final ItemStateManager stateMgr;
+
+    /**
+     * The index directory where the pending moves are stored.
+     */
+    private final Directory indexDir;
+
+    /**
+     * The executor that runs this updater.
+     */
+    private final Executor executor;
+
+    /**
+     * Regular index updates hold the read lock, a batch of this updater holds
+     * the write lock. Otherwise a document created by this updater could
+     * overwrite a more recent document of a regular update.
+     */
+    private final ReadWriteLock updateLock = new ReentrantReadWriteLock();
+
+    /**
+     * The ids of moved nodes whose descendants must be re-indexed. The first
+     * entry is the one currently processed.
+     */
+    private final LinkedList<NodeId> pending = new LinkedList<NodeId>();
+
+    /**
+     * Whether this updater is currently scheduled or running.
+     */
+    private boolean running;
+
+    /**
+     * Set to <code>true</code> when the search index is closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Creates a new updater and reads the pending moves of a previous
+     * session.
+     *
+     * @param handler  the search index.
+     * @param stateMgr the item state manager.
+     * @param indexDir the index directory.
+     * @param executor the executor that runs this updater.
+     * @throws IOException if the pending moves cannot be read.
+     */
+    AncestorIndexUpdater(SearchIndex handler,
+                         ItemStateManager stateMgr,
+                         Directory indexDir,
+                         Executor executor) throws IOException {
+        this.handler = handler;
+        this.stateMgr = stateMgr;
+        this.indexDir = indexDir;
+        this.executor = executor;
+        if (indexDir.fileExists(PENDING)) {
+            IndexInput in = indexDir.openInput(PENDING);
+            try {
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    pending.add(new NodeId(in.readString()));
+                }
+            } finally {
+                in.close();
+            }
+            if (!pending.isEmpty()) {
+                log.info("Continuing re-index of {} moved nodes", pending.size());
+                schedule();
+            }
+        }
+    }
+
+    /**
+     * @return the lock that must be held while the index is updated with
+     *         the current state of nodes.
+     */
+    Lock getUpdateLock() {
+        return updateLock.readLock();
+    }
+
+    /**
+     * @return <code>true</code> if the ancestor terms of some nodes are not
+     *         up to date.
+     */
+    synchronized boolean hasPendingUpdates() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * Schedules the re-index of the descendants of moved nodes. This method
+     * must be called before the moved nodes are updated in the index.
+     *
+     * @param ids the ids of the moved nodes.
+     * @throws IOException if the pending moves cannot be written.
+     */
+    synchronized void nodesMoved(Collection<NodeId> ids) throws IOException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        pending.addAll(ids);
+        writePending();
+        if (!running) {
+            schedule();
+        }
+    }
+
+    /**
+     * Stops this updater. Pending moves are continued when the index is
+     * opened again.
+     */
+    void close() {
+        closed = true;
+        // wait for a running batch
+        updateLock.writeLock().lock();
+        updateLock.writeLock().unlock();
+    }
+
+    /**
+     * Re-indexes the descendants of the pending moved nodes.
+     */
+    public void run() {
+        try {
+            for (;;) {
+                NodeId id;
+                synchronized (this) {
+                    if (pending.isEmpty() || closed) {
+                        running = false;
+                        return;
+                    }
+                    id = pending.getFirst();
+                }
+                if (!reindexDescendants(id)) {
+                    break;
+                }
+                synchronized (this) {
+                    pending.removeFirst();
+                    writePending();
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Unable to update the ancestors of moved nodes. "
+                    + "Descendant queries walk the hierarchy until the index "
+                    + "is opened again.", e);
+        }
+        synchronized (this) {
+            running = false;
+        }
+    }
+
+    //-------------------------< internal >-------------------------------------
+
+    /**
+     * Submits this updater to the executor. The caller must hold the lock
+     * on this updater.
+     */
+    private void schedule() {
+        running = true;
+        executor.execute(this);
+    }
+
+    /**
+     * Re-indexes all descendants of a node.
+     *
+     * @param id the id of a moved node.
+     * @return <code>false</code> if this updater was closed in the meantime.
+     * @throws IOException if an error occurs while updating the index.
+     * @throws ItemStateException if a node cannot be read.
+     */
+    private boolean reindexDescendants(NodeId id)
+            throws IOException, ItemStateException {
+        long time = System.currentTimeMillis();
+        int count = 0;
+        LinkedList<NodeId> queue = new LinkedList<NodeId>();
+        queue.add(id);
+        List<NodeId> batch = new ArrayList<NodeId>();
+        while (!queue.isEmpty()) {
+            NodeId parentId = queue.removeFirst();
+            try {
+                NodeState state = (NodeState) stateMgr.getItemState(parentId);
+                for (ChildNodeEntry child : state.getChildNodeEntries()) {
+                    queue.add(child.getId());
+                    batch.add(child.getId());
+                }
+            } catch (NoSuchItemStateException e) {
+                // removed in the meantime
+            }
+            if (batch.size() >= BATCH_SIZE || queue.isEmpty()) {
+                if (!reindex(batch)) {
+                    return false;
+                }
+                count += batch.size();
+                batch.clear();
+            }
+        }
+        time = System.currentTimeMillis() - time;
+        log.debug("Re-indexed {} descendants of moved node {} in {} ms",
+                new Object[]{count, id, time});
+        return true;
+    }
+
+    /**
+     * Re-indexes a batch of nodes.
+     *
+     * @param ids the ids of the nodes.
+     * @return <code>false</code> if this updater was closed.
+     * @throws IOException if an error occurs while updating the index.
+     */
+    private boolean reindex(List<NodeId> ids) throws IOException {
+        if (ids.isEmpty()) {
+            return true;
+        }
+        updateLock.writeLock().lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            handler.reindexNodes(ids);
+            return true;
+        } finally {
+            updateLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the pending moves to the index directory. The caller must hold
+     * the lock on this updater.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    private void writePending() throws IOException {
+        if (pending.isEmpty()) {
+            if (indexDir.fileExists(PENDING)) {
+                indexDir.deleteFile(PENDING);
+            }
+            return;
+        }
+        IndexOutput out = indexDir.createOutput(PENDING);
+        try {
+            out.writeInt(pending.size());
+            for (NodeId id : pending) {
+                out.writeString(id.toString());
+            }
+        } finally {
+            out.close();
+        }
+        indexDir.sync(Collections.singleton(PENDING));
+    }
+}
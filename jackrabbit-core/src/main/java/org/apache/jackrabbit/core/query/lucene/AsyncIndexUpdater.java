@@ -0,0 +1,494 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>AsyncIndexUpdater</code> applies changes to the index in the
+ * background when the search index is configured with
+ * <code>asyncIndexing</code>. A save only records the ids of the changed
+ * nodes, the documents are created and written to the index later. Changes
+ * of several saves are applied in one batch.
+ * <p>
+ * Every recorded change is written to its own file in the index directory
+ * and synced before the save returns. The files are deleted once the
+ * changes are in the index, changes that were not applied when the index
+ * was closed are applied when the index is opened again. Like with the
+ * {@link IndexingQueue} the documents are always created from the current
+ * state of the nodes.
+ */
+class AsyncIndexUpdater implements Runnable {
+
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(AsyncIndexUpdater.class);
+
+    /**
+     * Prefix of the files in the index directory with pending changes.
+     */
+    static final String PREFIX = "pending_";
+
+    /**
+     * The maximum number of nodes that are applied in one batch. A single
+     * change may exceed this number.
+     */
+    private static final int MAX_BATCH_NODES = 10000;
+
+    /**
+     * The delay in milliseconds before a failed batch is retried the first
+     * time. The delay is doubled with every further failure.
+     */
+    private static final long MIN_RETRY_DELAY = 1000;
+
+    /**
+     * The maximum delay in milliseconds before a failed batch is retried.
+     */
+    private static final long MAX_RETRY_DELAY = 60 * 1000;
+
+    /**
+     * The search index.
+     */
+    private final SearchIndex handler;
+
+    /**
+     * The index directory where the pending changes are stored.
+     */
+    private final Directory indexDir;
+
+    /**
+     * The executor that runs this updater.
+     */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Held while a batch is applied.
+     */
+    private final Lock applyLock = new ReentrantLock();
+
+    /**
+     * The pending changes in the order they were recorded.
+     */
+    private final LinkedList<Change> pending = new LinkedList<Change>();
+
+    /**
+     * The number of the last recorded change.
+     */
+    private long recorded;
+
+    /**
+     * The number of the last change that is applied to the index.
+     */
+    private long applied;
+
+    /**
+     * The number of nodes in the pending changes.
+     */
+    private int pendingNodes;
+
+    /**
+     * Whether this updater is currently scheduled or running.
+     */
+    private boolean running;
+
+    /**
+     * Set to <code>true</code> when the last batch could not be applied.
+     * The batch is retried after {@link #retryDelay}.
+     */
+    private boolean failed;
+
+    /**
+     * The delay in milliseconds before the failed batch is retried, or zero
+     * if the last batch was applied.
+     */
+    private long retryDelay;
+
+    /**
+     * Set to <code>true</code> when the search index is closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Creates a new updater and reads the pending changes of a previous
+     * session.
+     *
+     * @param handler  the search index.
+     * @param indexDir the index directory.
+     * @param executor the executor that runs this updater.
+     * @throws IOException if the pending changes cannot be read.
+     */
+    AsyncIndexUpdater(SearchIndex handler,
+                      Directory indexDir,
+                      ScheduledExecutorService executor) throws IOException {
+        this.handler = handler;
+        this.indexDir = indexDir;
+        this.executor = executor;
+        List<Long> numbers = new LinkedList<Long>();
+        for (String name : indexDir.listAll()) {
+            if (name.startsWith(PREFIX)) {
+                numbers.add(Long.parseLong(
+                        name.substring(PREFIX.length()), Character.MAX_RADIX));
+            }
+        }
+        Collections.sort(numbers);
+        for (long number : numbers) {
+            try {
+                Change change = readChange(number);
+                pending.add(change);
+                pendingNodes += change.size();
+            } catch (IOException e) {
+                // the repository stopped while the file was written
+                log.warn("Ignoring incomplete pending index update "
+                        + getFileName(number) + ". Please run a consistency "
+                        + "check if the index does not reflect the content.", e);
+                indexDir.deleteFile(getFileName(number));
+            }
+            recorded = number;
+        }
+        if (pending.isEmpty()) {
+            applied = recorded;
+        } else {
+            applied = pending.getFirst().number - 1;
+            log.info("Continuing {} pending index updates", pending.size());
+            schedule();
+        }
+    }
+
+    /**
+     * Records a change and schedules it to be applied to the index.
+     *
+     * @param remove the ids of the nodes to remove from the index.
+     * @param add    the ids of the nodes to index with their current state.
+     * @throws IOException if the change cannot be written.
+     */
+    synchronized void record(Collection<NodeId> remove, Collection<NodeId> add)
+            throws IOException {
+        if (remove.isEmpty() && add.isEmpty()) {
+            return;
+        }
+        Change change = new Change(recorded + 1, System.currentTimeMillis(),
+                new LinkedHashSet<NodeId>(remove), new LinkedHashSet<NodeId>(add));
+        writeChange(change);
+        recorded = change.number;
+        pending.add(change);
+        pendingNodes += change.size();
+        if (!running) {
+            schedule();
+        }
+    }
+
+    /**
+     * Waits until all changes recorded before this method was called are
+     * applied to the index.
+     *
+     * @param timeout the maximum time to wait in milliseconds.
+     * @return <code>true</code> if the changes are applied;
+     *         <code>false</code> if the timeout elapsed or the changes could
+     *         not be applied.
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    synchronized boolean waitForIndex(long timeout)
+            throws InterruptedException {
+        long target = recorded;
+        long end = System.currentTimeMillis() + timeout;
+        while (applied < target) {
+            long remaining = end - System.currentTimeMillis();
+            if (failed || closed || remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * @return the time in milliseconds since the oldest change was recorded
+     *         that is not yet applied to the index, or zero if all changes
+     *         are applied.
+     */
+    synchronized long getIndexLag() {
+        if (pending.isEmpty()) {
+            return 0;
+        }
+        return System.currentTimeMillis() - pending.getFirst().time;
+    }
+
+    /**
+     * @return the number of nodes in the changes that are not yet applied
+     *         to the index.
+     */
+    synchronized int getPendingNodes() {
+        return pendingNodes;
+    }
+
+    /**
+     * Stops this updater. Pending changes are applied when the index is
+     * opened again.
+     */
+    void close() {
+        closed = true;
+        // wait for a running batch
+        applyLock.lock();
+        applyLock.unlock();
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Applies the pending changes in batches.
+     */
+    public void run() {
+        try {
+            for (;;) {
+                List<Change> batch = new LinkedList<Change>();
+                Set<NodeId> remove = new LinkedHashSet<NodeId>();
+                Set<NodeId> add = new LinkedHashSet<NodeId>();
+                synchronized (this) {
+                    if (pending.isEmpty() || closed) {
+                        running = false;
+                        return;
+                    }
+                    for (Change change : pending) {
+                        if (!batch.isEmpty()
+                                && remove.size() + add.size() + change.size()
+                                > MAX_BATCH_NODES) {
+                            break;
+                        }
+                        batch.add(change);
+                        remove.addAll(change.remove);
+                        add.addAll(change.add);
+                    }
+                }
+                if (!apply(remove, add)) {
+                    break;
+                }
+                synchronized (this) {
+                    for (Change change : batch) {
+                        pending.removeFirst();
+                        pendingNodes -= change.size();
+                        applied = change.number;
+                    }
+                    failed = false;
+                    retryDelay = 0;
+                    notifyAll();
+                }
+                deleteChanges(batch);
+            }
+        } catch (Exception e) {
+            synchronized (this) {
+                failed = true;
+                retryDelay = Math.min(
+                        Math.max(retryDelay * 2, MIN_RETRY_DELAY),
+                        MAX_RETRY_DELAY);
+                log.error("Unable to apply pending changes to the index. "
+                        + "Retrying in " + retryDelay + " ms.", e);
+                if (!closed) {
+                    // still running until the retry is done
+                    executor.schedule(this, retryDelay, TimeUnit.MILLISECONDS);
+                    notifyAll();
+                    return;
+                }
+            }
+        }
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+    }
+
+    //-------------------------< internal >-------------------------------------
+
+    /**
+     * Submits this updater to the executor. The caller must hold the lock
+     * on this updater.
+     */
+    private void schedule() {
+        running = true;
+        executor.execute(this);
+    }
+
+    /**
+     * Applies a batch of changes to the index.
+     *
+     * @param remove the ids of the nodes to remove.
+     * @param add    the ids of the nodes to index.
+     * @return <code>false</code> if this updater was closed.
+     * @throws IOException if an error occurs while updating the index.
+     * @throws RepositoryException if an error occurs while indexing a node.
+     */
+    private boolean apply(Set<NodeId> remove, Set<NodeId> add)
+            throws IOException, RepositoryException {
+        applyLock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            long time = System.currentTimeMillis();
+            handler.applyUpdates(remove, add);
+            log.debug("Applied {} removed and {} added nodes in {} ms",
+                    new Object[]{remove.size(), add.size(),
+                            System.currentTimeMillis() - time});
+            return true;
+        } finally {
+            applyLock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the files of changes that are applied to the index. A file
+     * that cannot be deleted is applied again when the index is opened.
+     *
+     * @param changes the applied changes.
+     */
+    private void deleteChanges(List<Change> changes) {
+        for (Change change : changes) {
+            String name = getFileName(change.number);
+            try {
+                indexDir.deleteFile(name);
+            } catch (IOException e) {
+                log.warn("Unable to delete applied index update " + name, e);
+            }
+        }
+    }
+
+    /**
+     * @param number the number of a change.
+     * @return the name of the file of a change.
+     */
+    private static String getFileName(long number) {
+        return PREFIX + Long.toString(number, Character.MAX_RADIX);
+    }
+
+    /**
+     * Writes a change to the index directory and syncs the file.
+     *
+     * @param change the change.
+     * @throws IOException if the file cannot be written.
+     */
+    private void writeChange(Change change) throws IOException {
+        String name = getFileName(change.number);
+        IndexOutput out = indexDir.createOutput(name);
+        try {
+            out.writeLong(change.time);
+            writeIds(out, change.remove);
+            writeIds(out, change.add);
+        } finally {
+            out.close();
+        }
+        indexDir.sync(Collections.singleton(name));
+    }
+
+    /**
+     * Reads a change from the index directory.
+     *
+     * @param number the number of the change.
+     * @return the change.
+     * @throws IOException if the file cannot be read.
+     */
+    private Change readChange(long number) throws IOException {
+        IndexInput in = indexDir.openInput(getFileName(number));
+        try {
+            long time = in.readLong();
+            Set<NodeId> remove = readIds(in);
+            Set<NodeId> add = readIds(in);
+            return new Change(number, time, remove, add);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeIds(IndexOutput out, Set<NodeId> ids)
+            throws IOException {
+        out.writeVInt(ids.size());
+        for (NodeId id : ids) {
+            out.writeLong(id.getMostSignificantBits());
+            out.writeLong(id.getLeastSignificantBits());
+        }
+    }
+
+    private static Set<NodeId> readIds(IndexInput in) throws IOException {
+        int count = in.readVInt();
+        Set<NodeId> ids = new LinkedHashSet<NodeId>();
+        for (int i = 0; i < count; i++) {
+            ids.add(new NodeId(in.readLong(), in.readLong()));
+        }
+        return ids;
+    }
+
+    /**
+     * A recorded change.
+     */
+    private static final class Change {
+
+        /**
+         * The number of the change. Changes are numbered in the order they
+         * are recorded.
+         */
+        private final long number;
+
+        /**
+         * The time when the change was recorded.
+         */
+        private final long time;
+
+        /**
+         * The ids of the nodes to remove from the index.
+         */
+        private final Set<NodeId> remove;
+
+        /**
+         * The ids of the nodes to index.
+         */
+        private final Set<NodeId> add;
+
+        private Change(long number, long time,
+                       Set<NodeId> remove, Set<NodeId> add) {
+            this.number = number;
+            this.time = time;
+            this.remove = remove;
+            this.add = add;
+        }
+
+        /**
+         * @return the number of nodes in this change.
+         */
+        private int size() {
+            return remove.size() + add.size();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+import org.apache.jackrabbit.core.id.NodeId;
+
+/**
+ * <code>BatchExcerptProvider</code> extends the <code>ExcerptProvider</code>
+ * interface with a method that creates the excerpts for several nodes at
+ * once, e.g. for all rows of a result page.
+ */
+public interface BatchExcerptProvider extends ExcerptProvider {
+
+    /**
+     * Returns the XML excerpts for the nodes with the given <code>ids</code>.
+     *
+     * @param ids             the node ids.
+     * @param maxFragments    the maximum number of fragments to create.
+     * @param maxFragmentSize the maximum number of characters in a fragment.
+     * @return the XML excerpts by node id. Nodes that are not present in the
+     *         index are not contained in the returned map.
+     * @throws IOException if an error occurs while creating the excerpts.
+     */
+    Map<NodeId, String> getExcerpts(Collection<NodeId> ids,
+                                    int maxFragments,
+                                    int maxFragmentSize)
+            throws IOException;
+
+}
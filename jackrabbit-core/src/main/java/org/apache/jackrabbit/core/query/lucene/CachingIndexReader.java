@@ -39,6 +39,7 @@ import org.apache.lucene.index.TermDocs;
 import org.apache.lucene.index.TermEnum;
 import org.apache.lucene.store.IndexInput;
 import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RAMDirectory;
 import org.apache.lucene.util.ReaderUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -63,6 +64,11 @@ class CachingIndexReader extends FilterIndexReader {
      */
     private static final int MAX_CACHE_INIT_BATCH_SIZE = 400 * 1000;
 
+    /**
+     * The maximum number of properties with cached facet ordinals.
+     */
+    private static final int MAX_FACET_PROPERTIES = 16;
+
     /**
      * The current value of the global creation tick counter.
      */
@@ -98,9 +104,10 @@ class CachingIndexReader extends FilterIndexReader {
     private final long creationTick = getNextCreationTick();
 
     /**
-     * Document number cache if available. May be <code>null</code>.
+     * Maps node ids to document numbers or <code>null</code> if this reader
+     * is on an in-memory index.
      */
-    private final DocNumberCache cache;
+    private final DocNumberTable docNumbers;
 
     /**
      * Maps document number to node id.
@@ -112,24 +119,40 @@ class CachingIndexReader extends FilterIndexReader {
      */
     private final TermDocsCache termDocsCache;
 
+    /**
+     * The sort columns of this index segment, created on demand.
+     */
+    private final Map<SharedFieldCache.Key, SortColumn> sortColumns =
+        new HashMap<SharedFieldCache.Key, SortColumn>();
+
+    /**
+     * The facet ordinals of the most recently counted properties, with the
+     * property name prefix as key.
+     */
+    @SuppressWarnings("unchecked")
+    private final Map<String, FacetOrdinals> facetOrdinals =
+        Collections.synchronizedMap(new LRUMap(MAX_FACET_PROPERTIES));
+
     /**
      * Creates a new <code>CachingIndexReader</code> based on
      * <code>delegatee</code>
      *
      * @param delegatee the base <code>IndexReader</code>.
-     * @param cache     a document number cache, or <code>null</code> if not
-     *                  available to this reader.
      * @param initCache if the parent caches should be initialized
      *                  when this index reader is constructed.
      * @throws IOException if an error occurs while reading from the index.
      */
     @SuppressWarnings("unchecked")
     CachingIndexReader(IndexReader delegatee,
-                       DocNumberCache cache,
                        boolean initCache)
             throws IOException {
         super(delegatee);
-        this.cache = cache;
+        if (delegatee.directory() instanceof RAMDirectory) {
+            // in-memory segments are small and short-lived
+            this.docNumbers = null;
+        } else {
+            this.docNumbers = DocNumberTable.open(delegatee);
+        }
         this.inSegmentParents = new int[delegatee.maxDoc()];
         Arrays.fill(this.inSegmentParents, -1);
         this.shareableNodes = initShareableNodes(delegatee);
@@ -242,6 +265,69 @@ class CachingIndexReader extends FilterIndexReader {
         return parent;
     }
 
+    /**
+     * Returns the sort column for a property in the shared <code>field</code>.
+     * The column is loaded from the segment directory if present, otherwise
+     * it is built and persisted next to the segment.
+     *
+     * @param field  the name of the shared field.
+     * @param prefix the property name, used as term prefix.
+     * @return the sort column.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    SortColumn getSortColumn(String field, String prefix) throws IOException {
+        SharedFieldCache.Key key = new SharedFieldCache.Key(field, prefix);
+        synchronized (sortColumns) {
+            SortColumn column = sortColumns.get(key);
+            if (column == null) {
+                column = SortColumn.open(in, field, prefix);
+                sortColumns.put(key, column);
+            }
+            return column;
+        }
+    }
+
+    /**
+     * Returns the facet ordinals of a property. The ordinals are read from
+     * the index on first access and cached with this reader for a limited
+     * number of properties.
+     *
+     * @param prefix the property name prefix of the terms.
+     * @return the facet ordinals.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    FacetOrdinals getFacetOrdinals(String prefix) throws IOException {
+        FacetOrdinals ordinals = facetOrdinals.get(prefix);
+        if (ordinals == null) {
+            ordinals = new FacetOrdinals(in, prefix);
+            facetOrdinals.put(prefix, ordinals);
+        }
+        return ordinals;
+    }
+
+    /**
+     * Returns the number of the document of a node. The document is looked
+     * up in the {@link DocNumberTable} if this reader has one, otherwise in
+     * the term dictionary.
+     *
+     * @param id     the node id.
+     * @param reader the reader that decides whether a document is deleted.
+     * @return the document number or <code>-1</code> if there is no such
+     *         document or it is deleted.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    int getDocNumber(NodeId id, IndexReader reader) throws IOException {
+        if (docNumbers != null) {
+            return docNumbers.getDocNumber(id.toString(), reader);
+        }
+        TermDocs tDocs = reader.termDocs(TermFactory.createUUIDTerm(id.toString()));
+        try {
+            return tDocs.next() ? tDocs.doc() : -1;
+        } finally {
+            tDocs.close();
+        }
+    }
+
     /**
      * Returns the tick value when this reader was created.
      *
@@ -295,7 +381,8 @@ class CachingIndexReader extends FilterIndexReader {
     /**
      * If the field of <code>term</code> is {@link FieldNames#UUID} this
      * <code>CachingIndexReader</code> returns a <code>TermDocs</code> instance
-     * with a cached document id. If <code>term</code> has any other field
+     * with the document id from the {@link DocNumberTable}. If
+     * <code>term</code> has any other field
      * the call is delegated to the base <code>IndexReader</code>.<br/>
      * If <code>term</code> is for a {@link FieldNames#UUID} field and this
      * <code>CachingIndexReader</code> does not have such a document,
@@ -306,37 +393,13 @@ class CachingIndexReader extends FilterIndexReader {
      * @throws IOException if an error occurs while reading from the index.
      */
     public TermDocs termDocs(Term term) throws IOException {
-        if (term != null && term.field() == FieldNames.UUID) {
-            // check cache if we have one
-            if (cache != null) {
-                DocNumberCache.Entry e = cache.get(term.text());
-                if (e != null) {
-                    // check if valid
-                    // the cache may contain entries from a different reader
-                    // with the same uuid. that happens when a node is updated
-                    // and is reindexed. the node 'travels' from an older index
-                    // to a newer one. the cache will still contain a cache
-                    // entry from the old until it is overwritten by the
-                    // newer index.
-                    if (e.creationTick == creationTick && !isDeleted(e.doc)) {
-                        return new SingleTermDocs(e.doc);
-                    }
-                }
-
-                // not in cache or invalid
-                TermDocs docs = in.termDocs(term);
-                try {
-                    if (docs.next()) {
-                        // put to cache
-                        cache.put(term.text(), this, docs.doc());
-                        // and return
-                        return new SingleTermDocs(docs.doc());
-                    } else {
-                        return EmptyTermDocs.INSTANCE;
-                    }
-                } finally {
-                    docs.close();
-                }
+        if (term != null && term.field() == FieldNames.UUID
+                && docNumbers != null) {
+            int doc = docNumbers.getDocNumber(term.text(), this);
+            if (doc != -1) {
+                return new SingleTermDocs(doc);
+            } else {
+                return EmptyTermDocs.INSTANCE;
             }
         }
         return termDocsCache.termDocs(term);
@@ -351,6 +414,24 @@ class CachingIndexReader extends FilterIndexReader {
         } catch (InterruptedException e) {
             // ignore
         }
+        synchronized (sortColumns) {
+            for (SortColumn column : sortColumns.values()) {
+                try {
+                    column.close();
+                } catch (IOException e) {
+                    log.warn("Exception closing sort column: " + e.toString());
+                }
+            }
+            sortColumns.clear();
+        }
+        facetOrdinals.clear();
+        if (docNumbers != null) {
+            try {
+                docNumbers.close();
+            } catch (IOException e) {
+                log.warn("Exception closing document number table: " + e.toString());
+            }
+        }
         super.doClose();
     }
 
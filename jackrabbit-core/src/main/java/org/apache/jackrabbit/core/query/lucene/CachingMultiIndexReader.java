@@ -45,11 +45,6 @@ public final class CachingMultiIndexReader
     private final Map<Long, OffsetReader> readersByCreationTick =
         new HashMap<Long, OffsetReader>();
 
-    /**
-     * Document number cache if available. May be <code>null</code>.
-     */
-    private final DocNumberCache cache;
-
     /**
      * Reference count. Every time close is called refCount is decremented. If
      * refCount drops to zero the underlying readers are closed as well.
@@ -60,12 +55,9 @@ public final class CachingMultiIndexReader
      * Creates a new <code>CachingMultiIndexReader</code> based on sub readers.
      *
      * @param subReaders the sub readers.
-     * @param cache the document number cache.
      */
-    public CachingMultiIndexReader(ReadOnlyIndexReader[] subReaders,
-                                   DocNumberCache cache) {
+    public CachingMultiIndexReader(ReadOnlyIndexReader[] subReaders) {
         super(subReaders);
-        this.cache = cache;
         this.subReaders = subReaders;
         for (int i = 0; i < subReaders.length; i++) {
             OffsetReader offsetReader = new OffsetReader(subReaders[i], starts[i]);
@@ -101,21 +93,8 @@ public final class CachingMultiIndexReader
      */
     public TermDocs termDocs(Term term) throws IOException {
         if (term != null && term.field() == FieldNames.UUID) {
-            // check cache
-            DocNumberCache.Entry e = cache.get(term.text());
-            if (e != null) {
-                // check if valid:
-                // 1) reader must be in the set of readers
-                // 2) doc must not be deleted
-                OffsetReader offsetReader =
-                    readersByCreationTick.get(e.creationTick);
-                if (offsetReader != null && !offsetReader.reader.isDeleted(e.doc)) {
-                    return new SingleTermDocs(e.doc + offsetReader.offset);
-                }
-            }
-
-            // if we get here, entry is either invalid or did not exist
-            // search through readers
+            // the sub readers look up the uuid in their document number
+            // table, a live document exists in at most one of them
             for (int i = 0; i < subReaders.length; i++) {
                 TermDocs docs = subReaders[i].termDocs(term);
                 try {
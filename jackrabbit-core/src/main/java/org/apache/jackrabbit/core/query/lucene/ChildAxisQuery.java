@@ -334,7 +334,7 @@ class ChildAxisQuery extends Query implements JackrabbitQuery {
                 nameTestScorer = new NameQuery(nameTest, version, nsMappings).weight(searcher).scorer(reader, scoreDocsInOrder, false);
             }
             return new ChildAxisScorer(searcher.getSimilarity(),
-                    reader, (HierarchyResolver) reader);
+                    reader, TimedHierarchyResolver.wrap((HierarchyResolver) reader));
         }
 
         /**
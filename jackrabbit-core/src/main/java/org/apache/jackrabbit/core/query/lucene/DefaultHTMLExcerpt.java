@@ -32,6 +32,16 @@ import java.io.IOException;
  */
 public class DefaultHTMLExcerpt extends AbstractExcerpt {
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Returns <code>true</code>, {@link DefaultHighlighter} uses a new instance for
+     * every excerpt.
+     */
+    protected boolean isParallel() {
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -31,6 +31,7 @@ import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -40,7 +41,8 @@ import java.util.List;
  * process terminates unexpected the redo log is applied when Jackrabbit is
  * restarted the next time.
  * <p>
- * This class is not thread-safe.
+ * Appending, flushing and closing the redo log is thread-safe. Reading
+ * the redo log is not.
  */
 class DefaultRedoLog implements RedoLog {
 
@@ -94,17 +96,25 @@ class DefaultRedoLog implements RedoLog {
      */
     private Writer out;
 
+    /**
+     * Whether the log file is synced to disk on every flush.
+     */
+    private final boolean sync;
+
     /**
      * Creates a new <code>RedoLog</code> instance, which stores its log in the
      * given directory.
      *
      * @param dir the directory where the redo log file is located.
      * @param fileName the name of the redo log file.
+     * @param sync whether the log file is synced to disk on every flush.
      * @throws IOException if an error occurs while reading the redo log.
      */
-    private DefaultRedoLog(Directory dir, String fileName) throws IOException {
+    private DefaultRedoLog(Directory dir, String fileName, boolean sync)
+            throws IOException {
         this.dir = dir;
         this.fileName = fileName;
+        this.sync = sync;
         read(ENTRY_COUNTER);
     }
 
@@ -118,6 +128,22 @@ class DefaultRedoLog implements RedoLog {
      * @throws IOException if the redo log cannot be created.
      */
     static RedoLog create(Directory dir, long generation) throws IOException {
+        return create(dir, generation, false);
+    }
+
+    /**
+     * Creates a new <code>RedoLog</code> instance, which stores its log in the
+     * given directory.
+     *
+     * @param dir        the directory where the redo log file is located.
+     * @param generation the redo log generation number.
+     * @param sync       whether the log file is synced to disk on every
+     *                   flush.
+     * @return the redo log.
+     * @throws IOException if the redo log cannot be created.
+     */
+    static RedoLog create(Directory dir, long generation, boolean sync)
+            throws IOException {
         String fileName;
         if (generation == 0) {
             fileName = REDO_LOG;
@@ -125,7 +151,7 @@ class DefaultRedoLog implements RedoLog {
             fileName = REDO_LOG_PREFIX + Long.toString(
                     generation, Character.MAX_RADIX) + DOT_LOG;
         }
-        return new DefaultRedoLog(dir, fileName);
+        return new DefaultRedoLog(dir, fileName, sync);
     }
 
     /**
@@ -171,19 +197,23 @@ class DefaultRedoLog implements RedoLog {
      * @throws IOException if the node cannot be written to the redo
      * log.
      */
-    public void append(MultiIndex.Action action) throws IOException {
+    public synchronized void append(MultiIndex.Action action) throws IOException {
         initOut();
         out.write(action.toString() + "\n");
         entryCount++;
     }
 
     /**
-     * Flushes all pending writes to the underlying file.
+     * Flushes all pending writes to the underlying file and syncs the file
+     * to disk if requested.
      * @throws IOException if an error occurs while writing.
      */
-    public void flush() throws IOException {
+    public synchronized void flush() throws IOException {
         if (out != null) {
             out.flush();
+            if (sync) {
+                dir.sync(Collections.singleton(fileName));
+            }
         }
     }
 
@@ -192,7 +222,7 @@ class DefaultRedoLog implements RedoLog {
      *
      * @throws IOException if an error occurs while flushing pending writes.
      */
-    public void close() throws IOException {
+    public synchronized void close() throws IOException {
         if (out != null) {
             out.close();
             out = null;
@@ -24,6 +24,7 @@ import java.io.IOException;
 public class DefaultRedoLogFactory implements RedoLogFactory {
 
     public RedoLog createRedoLog(MultiIndex index) throws IOException {
-        return DefaultRedoLog.create(index.getDirectory(), index.getIndexGeneration());
+        return DefaultRedoLog.create(index.getDirectory(),
+                index.getIndexGeneration(), index.isSyncRedoLog());
     }
 }
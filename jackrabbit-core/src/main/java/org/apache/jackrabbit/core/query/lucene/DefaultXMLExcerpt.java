@@ -34,6 +34,16 @@ import java.io.IOException;
  */
 public class DefaultXMLExcerpt extends AbstractExcerpt {
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Returns <code>true</code>, {@link DefaultHighlighter} uses a new instance for
+     * every excerpt.
+     */
+    protected boolean isParallel() {
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -394,7 +394,8 @@ class DescendantSelfAxisQuery extends Query implements JackrabbitQuery {
                 boolean topScorer) throws IOException {
             contextScorer = searcher.createNormalizedWeight(contextQuery).scorer(reader, scoreDocsInOrder, false);
             subScorer = searcher.createNormalizedWeight(subQuery).scorer(reader, scoreDocsInOrder, false);
-            HierarchyResolver resolver = (HierarchyResolver) reader;
+            HierarchyResolver resolver =
+                    TimedHierarchyResolver.wrap((HierarchyResolver) reader);
             return new DescendantSelfAxisScorer(searcher.getSimilarity(), reader, resolver);
         }
 
@@ -0,0 +1,421 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.CloseableThreadLocal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>DocNumberTable</code> maps the node ids of the documents in an index
+ * segment to their document numbers. The table is an immutable hash table
+ * with open addressing and linear probing. Every entry holds the two longs of
+ * a node id and the document number. The table contains all documents of the
+ * segment, a lookup therefore never has to fall back to the term dictionary.
+ * <p>
+ * Like a {@link SortColumn} the table is stored in a file next to the
+ * segment and is read through the {@link IndexInput} of the segment
+ * directory, which is memory mapped when the directory is an
+ * <code>MMapDirectory</code>. Every thread uses its own clone of the input,
+ * a lookup does not allocate any objects.
+ * <p>
+ * Large segments are split into partitions of at most
+ * {@link #MAX_PARTITION_DOCS} documents, which are built one after the other.
+ * This limits the memory needed to build the table.
+ */
+final class DocNumberTable {
+
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(DocNumberTable.class);
+
+    /**
+     * Name of the file that contains the table.
+     */
+    static final String FILE_NAME = "docnumbers";
+
+    /**
+     * Magic number at the start of a table file.
+     */
+    private static final int MAGIC = 0x4A52444E;
+
+    /**
+     * The current version of the file format.
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * The length of an entry: two longs of the node id and the document
+     * number.
+     */
+    private static final int ENTRY_LENGTH = 20;
+
+    /**
+     * The document number of an empty slot.
+     */
+    private static final int EMPTY = -1;
+
+    /**
+     * The maximum number of documents in a partition of the table.
+     */
+    static final int MAX_PARTITION_DOCS = 1 << 19;
+
+    /**
+     * The input on the table file.
+     */
+    private final IndexInput input;
+
+    /**
+     * Start of the first partition.
+     */
+    private final long tableStart;
+
+    /**
+     * The number of hash bits that select the partition.
+     */
+    private final int partitionBits;
+
+    /**
+     * The number of slots of a partition.
+     */
+    private final int partitionSize;
+
+    /**
+     * Clones of {@link #input} per thread.
+     */
+    private final CloseableThreadLocal<IndexInput> inputs = new CloseableThreadLocal<IndexInput>() {
+        @Override
+        protected IndexInput initialValue() {
+            return (IndexInput) input.clone();
+        }
+    };
+
+    private DocNumberTable(IndexInput input,
+                           long tableStart,
+                           int partitionBits,
+                           int partitionSize) {
+        this.input = input;
+        this.tableStart = tableStart;
+        this.partitionBits = partitionBits;
+        this.partitionSize = partitionSize;
+    }
+
+    /**
+     * Opens the table for the segments of <code>reader</code>. If there is a
+     * valid table file in the directory of the reader it is used, otherwise
+     * the table is built from the terms in the index.
+     *
+     * @param reader the index reader of a persistent index.
+     * @return the table.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    static DocNumberTable open(IndexReader reader) throws IOException {
+        Directory directory = reader.directory();
+        String segments = SortColumn.getSegments(reader);
+        synchronized (directory) {
+            if (directory.fileExists(FILE_NAME)) {
+                DocNumberTable table = load(directory, segments, reader.maxDoc());
+                if (table != null) {
+                    return table;
+                }
+                log.debug("Document number table is outdated, rebuilding");
+                directory.deleteFile(FILE_NAME);
+            }
+            long time = System.currentTimeMillis();
+            build(reader, segments, directory);
+            DocNumberTable table = load(directory, segments, reader.maxDoc());
+            if (table == null) {
+                throw new IOException("Unable to read document number table");
+            }
+            log.debug("Built document number table on {} documents in {} ms",
+                    reader.maxDoc(), System.currentTimeMillis() - time);
+            return table;
+        }
+    }
+
+    /**
+     * Returns the number of the document with the given node id.
+     *
+     * @param uuid    the node id.
+     * @param reader  the reader that decides whether a document is deleted.
+     * @return the document number or <code>-1</code> if there is no such
+     *         document, it is deleted or <code>uuid</code> is not a valid
+     *         node id.
+     * @throws IOException if an error occurs while reading the table.
+     */
+    int getDocNumber(String uuid, IndexReader reader) throws IOException {
+        if (!isValid(uuid)) {
+            return -1;
+        }
+        long msb = parseHex(uuid, 0, 18);
+        long lsb = parseHex(uuid, 19, 36);
+        long h = hash(msb, lsb);
+        int partition = partitionBits == 0 ? 0 : (int) (h >>> (64 - partitionBits));
+        int mask = partitionSize - 1;
+        int slot = (int) h & mask;
+        long start = tableStart + (long) partition * partitionSize * ENTRY_LENGTH;
+        IndexInput in = inputs.get();
+        for (int i = 0; i < partitionSize; i++) {
+            in.seek(start + (long) slot * ENTRY_LENGTH);
+            long m = in.readLong();
+            long l = in.readLong();
+            int doc = in.readInt();
+            if (doc == EMPTY) {
+                return -1;
+            }
+            if (m == msb && l == lsb && !reader.isDeleted(doc)) {
+                return doc;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Closes this table.
+     *
+     * @throws IOException if an error occurs while closing the table file.
+     */
+    void close() throws IOException {
+        inputs.close();
+        input.close();
+    }
+
+    //------------------------------< internal >--------------------------------
+
+    /**
+     * Reads a table from <code>directory</code>.
+     *
+     * @return the table or <code>null</code> if the file does not match the
+     *         given segments or is incomplete.
+     */
+    private static DocNumberTable load(Directory directory,
+                                       String segments,
+                                       int maxDoc) throws IOException {
+        IndexInput in = directory.openInput(FILE_NAME);
+        boolean success = false;
+        try {
+            int partitionBits;
+            int partitionSize;
+            try {
+                if (in.length() < 8 || in.readInt() != MAGIC
+                        || in.readInt() != FORMAT_VERSION
+                        || !segments.equals(in.readString())
+                        || in.readInt() != maxDoc) {
+                    return null;
+                }
+                partitionBits = in.readInt();
+                partitionSize = in.readInt();
+            } catch (IOException e) {
+                log.debug("Unable to read document number table header", e);
+                return null;
+            }
+            long tableStart = in.getFilePointer();
+            if (partitionBits < 0 || partitionBits > 16
+                    || Integer.bitCount(partitionSize) != 1
+                    || in.length() != tableStart + ((long) partitionSize
+                            << partitionBits) * ENTRY_LENGTH) {
+                return null;
+            }
+            success = true;
+            return new DocNumberTable(in, tableStart, partitionBits, partitionSize);
+        } finally {
+            if (!success) {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Builds a table from the {@link FieldNames#UUID} terms in
+     * <code>reader</code> and writes it to <code>directory</code>.
+     */
+    private static void build(IndexReader reader,
+                              String segments,
+                              Directory directory) throws IOException {
+        int maxDoc = reader.maxDoc();
+        int partitionBits = 0;
+        while ((maxDoc >> partitionBits) > MAX_PARTITION_DOCS) {
+            partitionBits++;
+        }
+        final int partitions = 1 << partitionBits;
+        final int shift = 64 - partitionBits;
+
+        // all partitions have the same size, which is at least
+        // twice the number of entries in the largest partition
+        int maxCount = maxDoc;
+        if (partitions > 1) {
+            final int[] counts = new int[partitions];
+            collect(reader, new EntryCollector() {
+                public void collect(long msb, long lsb, long hash, int doc) {
+                    counts[(int) (hash >>> shift)]++;
+                }
+            });
+            maxCount = 0;
+            for (int count : counts) {
+                maxCount = Math.max(maxCount, count);
+            }
+        }
+        int size = 16;
+        while (size < maxCount * 2L) {
+            size <<= 1;
+        }
+        final int partitionSize = size;
+        final int mask = size - 1;
+
+        final long[] msbs = new long[size];
+        final long[] lsbs = new long[size];
+        final int[] docs = new int[size];
+        IndexOutput out = directory.createOutput(FILE_NAME);
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeString(segments);
+            out.writeInt(maxDoc);
+            out.writeInt(partitionBits);
+            out.writeInt(partitionSize);
+            for (int p = 0; p < partitions; p++) {
+                final int partition = p;
+                Arrays.fill(docs, EMPTY);
+                collect(reader, new EntryCollector() {
+                    public void collect(long msb, long lsb, long hash, int doc) {
+                        if (partitions > 1 && (int) (hash >>> shift) != partition) {
+                            return;
+                        }
+                        int slot = (int) hash & mask;
+                        while (docs[slot] != EMPTY) {
+                            slot = (slot + 1) & mask;
+                        }
+                        msbs[slot] = msb;
+                        lsbs[slot] = lsb;
+                        docs[slot] = doc;
+                    }
+                });
+                for (int i = 0; i < partitionSize; i++) {
+                    if (docs[i] == EMPTY) {
+                        out.writeLong(0);
+                        out.writeLong(0);
+                    } else {
+                        out.writeLong(msbs[i]);
+                        out.writeLong(lsbs[i]);
+                    }
+                    out.writeInt(docs[i]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Passes all documents with a {@link FieldNames#UUID} term to
+     * <code>collector</code>.
+     */
+    private static void collect(IndexReader reader, EntryCollector collector)
+            throws IOException {
+        TermDocs tDocs = reader.termDocs();
+        TermEnum terms = reader.terms(new Term(FieldNames.UUID, ""));
+        try {
+            do {
+                Term t = terms.term();
+                if (t == null || t.field() != FieldNames.UUID) {
+                    break;
+                }
+                String uuid = t.text();
+                if (!isValid(uuid)) {
+                    continue;
+                }
+                long msb = parseHex(uuid, 0, 18);
+                long lsb = parseHex(uuid, 19, 36);
+                long hash = hash(msb, lsb);
+                tDocs.seek(terms);
+                while (tDocs.next()) {
+                    collector.collect(msb, lsb, hash, tDocs.doc());
+                }
+            } while (terms.next());
+        } finally {
+            terms.close();
+            tDocs.close();
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if <code>uuid</code> has the format of a
+     * node id: 36 lower or upper case hex digits with dashes at positions 8,
+     * 13, 18 and 23.
+     */
+    private static boolean isValid(String uuid) {
+        if (uuid.length() != 36) {
+            return false;
+        }
+        for (int i = 0; i < 36; i++) {
+            char c = uuid.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return false;
+                }
+            } else if (Character.digit(c, 16) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses the hex digits between <code>from</code> and <code>to</code>
+     * and skips dashes.
+     */
+    private static long parseHex(String uuid, int from, int to) {
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            char c = uuid.charAt(i);
+            if (c != '-') {
+                value = (value << 4) | Character.digit(c, 16);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Mixes the bits of a node id. The high bits select the partition, the
+     * low bits the slot within the partition.
+     */
+    private static long hash(long msb, long lsb) {
+        long h = msb * 0x9E3779B97F4A7C15L + lsb;
+        h = (h ^ (h >>> 32)) * 0xD6E8FEB86659FD93L;
+        return h ^ (h >>> 32);
+    }
+
+    /**
+     * Receives the entries of a table.
+     */
+    private interface EntryCollector {
+
+        void collect(long msb, long lsb, long hash, int doc);
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.core.data.DataIdentifier;
+import org.apache.jackrabbit.util.Text;
+import org.apache.tika.metadata.Metadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>ExtractedTextCache</code> keeps the text extracted from binaries in
+ * the data store on disk. Data store records never change, so the text of a
+ * record can be reused whenever the same binary is indexed again, for
+ * example on a re-index, when a node is copied or when only the metadata of
+ * a node has changed.
+ * <p>
+ * An entry is identified by the data identifier, the content type and
+ * encoding of the binary, and a configuration string that describes the
+ * text extraction settings. Entries are stored as compressed files. The
+ * least recently used entries are removed when the total size of the files
+ * exceeds the configured maximum.
+ */
+public class ExtractedTextCache {
+
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(ExtractedTextCache.class);
+
+    /**
+     * Extension of the files that contain the cached text.
+     */
+    private static final String SUFFIX = ".txt.gz";
+
+    /**
+     * Extension of files that are being written.
+     */
+    private static final String TMP_SUFFIX = ".tmp";
+
+    /**
+     * The base directory of the cache.
+     */
+    private final File directory;
+
+    /**
+     * The maximum size of the cache in bytes.
+     */
+    private final long maxSize;
+
+    /**
+     * Describes the text extraction settings.
+     */
+    private final String configuration;
+
+    /**
+     * The file sizes of the cached entries by key in least recently used
+     * order.
+     */
+    private final LinkedHashMap<String, Long> entries =
+            new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+    /**
+     * The total size of the cached entries in bytes.
+     */
+    private long size;
+
+    /**
+     * The number of cache hits.
+     */
+    private long hits;
+
+    /**
+     * The number of cache misses.
+     */
+    private long misses;
+
+    /**
+     * Creates a new cache in the given directory and reads the entries that
+     * are already present.
+     *
+     * @param directory     the base directory of the cache.
+     * @param maxSize       the maximum size of the cache in bytes.
+     * @param configuration describes the text extraction settings. Entries
+     *                      created with a different configuration are not
+     *                      used.
+     * @throws IOException if the directory cannot be created.
+     */
+    public ExtractedTextCache(File directory, long maxSize, String configuration)
+            throws IOException {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.configuration = configuration;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory: " + directory);
+        }
+        load();
+    }
+
+    /**
+     * Returns the cached text for a binary.
+     *
+     * @param identifier the data identifier of the binary.
+     * @param metadata   the metadata passed to the text extractor.
+     * @return the text, or <code>null</code> if there is no entry.
+     */
+    public String get(DataIdentifier identifier, Metadata metadata) {
+        String key = getKey(identifier, metadata);
+        synchronized (entries) {
+            if (entries.get(key) == null) {
+                misses++;
+                return null;
+            }
+        }
+        File file = getFile(key);
+        try {
+            InputStream in = new GZIPInputStream(new FileInputStream(file));
+            try {
+                String text = IOUtils.toString(in, "UTF-8");
+                file.setLastModified(System.currentTimeMillis());
+                synchronized (entries) {
+                    hits++;
+                }
+                return text;
+            } finally {
+                in.close();
+            }
+        } catch (FileNotFoundException e) {
+            // removed concurrently
+        } catch (IOException e) {
+            log.warn("Unable to read cached text: " + file, e);
+        }
+        synchronized (entries) {
+            misses++;
+        }
+        return null;
+    }
+
+    /**
+     * Adds the text extracted from a binary to the cache.
+     *
+     * @param identifier the data identifier of the binary.
+     * @param metadata   the metadata passed to the text extractor.
+     * @param text       the extracted text.
+     */
+    public void put(DataIdentifier identifier, Metadata metadata, String text) {
+        String key = getKey(identifier, metadata);
+        synchronized (entries) {
+            if (entries.containsKey(key)) {
+                return;
+            }
+        }
+        File file = getFile(key);
+        File tmp = new File(file.getParentFile(), key + "."
+                + Thread.currentThread().getId() + TMP_SUFFIX);
+        try {
+            file.getParentFile().mkdirs();
+            OutputStream out = new GZIPOutputStream(new FileOutputStream(tmp));
+            try {
+                out.write(text.getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+            synchronized (entries) {
+                if (entries.containsKey(key) || !tmp.renameTo(file)) {
+                    tmp.delete();
+                    return;
+                }
+                long length = file.length();
+                entries.put(key, length);
+                size += length;
+                evict();
+            }
+        } catch (IOException e) {
+            log.warn("Unable to cache extracted text: " + file, e);
+            tmp.delete();
+        }
+    }
+
+    /**
+     * @return the number of entries in this cache.
+     */
+    public int getEntryCount() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return the total size of the entries in this cache in bytes.
+     */
+    public long getSize() {
+        synchronized (entries) {
+            return size;
+        }
+    }
+
+    /**
+     * @return the number of lookups that returned a cached text.
+     */
+    public long getHits() {
+        synchronized (entries) {
+            return hits;
+        }
+    }
+
+    /**
+     * @return the number of lookups that did not return a cached text.
+     */
+    public long getMisses() {
+        synchronized (entries) {
+            return misses;
+        }
+    }
+
+    //-----------------------------< internal >---------------------------------
+
+    /**
+     * Reads the existing entries in the order they were last used.
+     */
+    private void load() {
+        List<File> files = new ArrayList<File>();
+        File[] dirs = directory.listFiles();
+        if (dirs != null) {
+            for (File dir : dirs) {
+                File[] children = dir.listFiles();
+                if (children == null) {
+                    continue;
+                }
+                for (File f : children) {
+                    if (f.getName().endsWith(SUFFIX)) {
+                        files.add(f);
+                    } else if (f.getName().endsWith(TMP_SUFFIX)) {
+                        // incomplete entry
+                        f.delete();
+                    }
+                }
+            }
+        }
+        Collections.sort(files, new Comparator<File>() {
+            public int compare(File f1, File f2) {
+                long m1 = f1.lastModified();
+                long m2 = f2.lastModified();
+                return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+            }
+        });
+        synchronized (entries) {
+            for (File f : files) {
+                String name = f.getName();
+                long length = f.length();
+                entries.put(name.substring(0, name.length() - SUFFIX.length()), length);
+                size += length;
+            }
+            evict();
+        }
+        log.debug("Extracted text cache contains {} entries ({} bytes)",
+                entries.size(), size);
+    }
+
+    /**
+     * Removes the least recently used entries until the size of this cache
+     * is within the configured maximum. The caller must hold the lock on
+     * {@link #entries}.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (size > maxSize && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            File file = getFile(entry.getKey());
+            if (file.delete() || !file.exists()) {
+                size -= entry.getValue();
+                it.remove();
+            } else {
+                log.warn("Unable to delete cached text: " + file);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns the key of an entry.
+     *
+     * @param identifier the data identifier of the binary.
+     * @param metadata   the metadata passed to the text extractor.
+     * @return the key.
+     */
+    private String getKey(DataIdentifier identifier, Metadata metadata) {
+        StringBuilder sb = new StringBuilder(configuration);
+        sb.append('\n').append(identifier);
+        sb.append('\n').append(metadata.get(Metadata.CONTENT_TYPE));
+        sb.append('\n').append(metadata.get(Metadata.CONTENT_ENCODING));
+        try {
+            return Text.digest("SHA-1", sb.toString(), "UTF-8");
+        } catch (Exception e) {
+            // SHA-1 and UTF-8 are always supported
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the file of the entry with the given key.
+     *
+     * @param key the key.
+     * @return the file.
+     */
+    private File getFile(String key) {
+        return new File(new File(directory, key.substring(0, 2)), key + SUFFIX);
+    }
+}
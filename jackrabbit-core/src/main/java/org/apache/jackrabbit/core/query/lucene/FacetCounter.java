@@ -0,0 +1,255 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.spi.NameFactory;
+import org.apache.jackrabbit.spi.commons.conversion.NamePathResolver;
+import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
+import org.apache.jackrabbit.util.ISO8601;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.TermDocs;
+
+/**
+ * <code>FacetCounter</code> counts the values of a property for a set of
+ * nodes. The document numbers of the nodes are looked up in the
+ * {@link DocNumberTable} of the segments, or in the term dictionary of
+ * segments without a table, and the values are counted with the
+ * {@link FacetOrdinals} of the segments.
+ */
+class FacetCounter {
+
+    /**
+     * The name factory.
+     */
+    private static final NameFactory NAME_FACTORY = NameFactoryImpl.getInstance();
+
+    /**
+     * The index segments.
+     */
+    private final List<IndexReader> segments = new ArrayList<IndexReader>();
+
+    /**
+     * The ordinals of the property per segment.
+     */
+    private final FacetOrdinals[] ordinals;
+
+    /**
+     * The counts per segment, indexed by ordinal.
+     */
+    private final int[][] counts;
+
+    /**
+     * The segment where the last node was found.
+     */
+    private int last;
+
+    /**
+     * Creates a new counter.
+     *
+     * @param reader the index reader.
+     * @param prefix the property name prefix of the terms.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    FacetCounter(IndexReader reader, String prefix) throws IOException {
+        addSegments(reader);
+        ordinals = new FacetOrdinals[segments.size()];
+        counts = new int[segments.size()][];
+        for (int i = 0; i < ordinals.length; i++) {
+            ordinals[i] = FacetOrdinals.get(segments.get(i), prefix);
+            counts[i] = new int[ordinals[i].getValueCount()];
+        }
+    }
+
+    /**
+     * Counts the values of a node. Nodes that are not present in the index
+     * are ignored.
+     *
+     * @param id the id of a node.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    void count(NodeId id) throws IOException {
+        // nodes of a result are often in the same segment
+        for (int i = 0; i < ordinals.length; i++) {
+            int segment = (last + i) % ordinals.length;
+            int doc = getDocNumber(segments.get(segment), id);
+            if (doc != -1) {
+                ordinals[segment].count(doc, counts[segment]);
+                last = segment;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the counted values.
+     *
+     * @param session  the resolver of the session.
+     * @param mappings the namespace mappings of the index.
+     * @return the number of nodes per value. The values are the JCR string
+     *         representations for the session.
+     * @throws RepositoryException if a value cannot be converted.
+     */
+    Map<String, Integer> getCounts(NamePathResolver session,
+                                   NamespaceMappings mappings)
+            throws RepositoryException {
+        Map<String, Integer> result = new HashMap<String, Integer>();
+        for (int i = 0; i < ordinals.length; i++) {
+            for (int ord = 0; ord < counts[i].length; ord++) {
+                if (counts[i][ord] > 0) {
+                    String value = toString(ordinals[i].getValue(ord),
+                            ordinals[i].getType(ord), session, mappings);
+                    Integer count = result.get(value);
+                    if (count != null) {
+                        result.put(value, count + counts[i][ord]);
+                    } else {
+                        result.put(value, counts[i][ord]);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    //-------------------------< internal >-------------------------------------
+
+    /**
+     * Adds the segments of <code>reader</code> to {@link #segments}.
+     *
+     * @param reader an index reader.
+     */
+    private void addSegments(IndexReader reader) {
+        if (reader instanceof MultiIndexReader) {
+            for (IndexReader r : ((MultiIndexReader) reader).getIndexReaders()) {
+                addSegments(r);
+            }
+        } else {
+            segments.add(reader);
+        }
+    }
+
+    /**
+     * Returns the number of the document of a node in a segment.
+     *
+     * @param segment the segment reader.
+     * @param id      the node id.
+     * @return the document number or <code>-1</code> if the segment does not
+     *         contain the node.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    private static int getDocNumber(IndexReader segment, NodeId id)
+            throws IOException {
+        if (segment instanceof ReadOnlyIndexReader) {
+            return ((ReadOnlyIndexReader) segment).getDocNumber(id);
+        }
+        TermDocs docs = segment.termDocs(
+                TermFactory.createUUIDTerm(id.toString()));
+        try {
+            return docs.next() ? docs.doc() : -1;
+        } finally {
+            docs.close();
+        }
+    }
+
+    /**
+     * Converts a value as read from the index into its JCR string
+     * representation.
+     *
+     * @param value   the value as read from the index.
+     * @param type    the property type of the value.
+     * @param session  the resolver of the session.
+     * @param mappings the namespace mappings of the index.
+     * @return the string representation of the value.
+     * @throws RepositoryException if a name or path cannot be resolved.
+     */
+    private static String toString(String value,
+                                   int type,
+                                   NamePathResolver session,
+                                   NamespaceMappings mappings)
+            throws RepositoryException {
+        switch (type) {
+            case PropertyType.DATE:
+                Calendar date = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+                date.setTimeInMillis(DateField.stringToTime(value));
+                return ISO8601.format(date);
+            case PropertyType.LONG:
+                return String.valueOf(LongField.stringToLong(value));
+            case PropertyType.DOUBLE:
+                return String.valueOf(DoubleField.stringToDouble(value));
+            case PropertyType.DECIMAL:
+                return DecimalField.stringToDecimal(value).toString();
+            case PropertyType.NAME:
+                return toSessionName(value, session, mappings);
+            case PropertyType.PATH:
+                StringBuilder path = new StringBuilder();
+                String[] elements = value.split("/", -1);
+                for (int i = 0; i < elements.length; i++) {
+                    String element = elements[i];
+                    if (i > 0) {
+                        path.append('/');
+                    }
+                    int idx = element.indexOf('[');
+                    if (idx == -1) {
+                        path.append(toSessionName(element, session, mappings));
+                    } else {
+                        path.append(toSessionName(
+                                element.substring(0, idx), session, mappings));
+                        path.append(element.substring(idx));
+                    }
+                }
+                return path.toString();
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * Converts a name with a prefix of the index namespace mappings into a
+     * JCR name of the session. The prefixes of the index are not valid JCR
+     * prefixes, the name is therefore split and not parsed.
+     *
+     * @param name     a name with a prefix of the index mappings. Names in
+     *                 the default namespace do not have a prefix.
+     * @param session  the resolver of the session.
+     * @param mappings the namespace mappings of the index.
+     * @return the JCR name.
+     * @throws RepositoryException if the prefix is unknown.
+     */
+    private static String toSessionName(String name,
+                                        NamePathResolver session,
+                                        NamespaceMappings mappings)
+            throws RepositoryException {
+        int idx = name.indexOf(':');
+        if (idx == -1) {
+            return name;
+        }
+        String uri = mappings.getURI(name.substring(0, idx));
+        return session.getJCRName(
+                NAME_FACTORY.create(uri, name.substring(idx + 1)));
+    }
+}
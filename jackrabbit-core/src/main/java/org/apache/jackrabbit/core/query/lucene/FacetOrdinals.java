@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jcr.PropertyType;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.index.TermPositions;
+
+/**
+ * <code>FacetOrdinals</code> holds the values of a property for all
+ * documents of an index segment. Every distinct value of the property in
+ * the segment has an ordinal, the ordinals of a document are stored in a
+ * single array together with the offsets of the documents. This allows to
+ * count the values of the documents in a query result without loading the
+ * nodes and without allocating objects per document.
+ * <p>
+ * The ordinals are created from the terms of the {@link FieldNames#PROPERTIES}
+ * field and are cached by the {@link CachingIndexReader} of the segment.
+ */
+final class FacetOrdinals {
+
+    /**
+     * The property values as read from the index, without the property
+     * name prefix. Indexed by ordinal.
+     */
+    private final String[] values;
+
+    /**
+     * The property types of the values, or {@link PropertyType#UNDEFINED}
+     * if the index does not contain the type. Indexed by ordinal.
+     */
+    private final int[] types;
+
+    /**
+     * The ordinals of document <code>n</code> are stored in {@link #ordinals}
+     * from <code>offsets[n]</code> to <code>offsets[n + 1]</code>.
+     */
+    private final int[] offsets;
+
+    /**
+     * The ordinals of all documents.
+     */
+    private final int[] ordinals;
+
+    /**
+     * Reads the ordinals of a property.
+     *
+     * @param reader the segment reader.
+     * @param prefix the property name prefix of the terms.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    FacetOrdinals(IndexReader reader, String prefix)
+            throws IOException {
+        boolean hasPayloads = IndexFormatVersion.getVersion(reader).isAtLeast(
+                IndexFormatVersion.V3);
+        List<String> valueList = new ArrayList<String>();
+        List<Integer> typeList = new ArrayList<Integer>();
+        offsets = new int[reader.maxDoc() + 1];
+        byte[] payload = new byte[1];
+
+        // first pass: read the values and count the values per document
+        TermPositions tp = reader.termPositions();
+        try {
+            TermEnum terms = reader.terms(
+                    new Term(FieldNames.PROPERTIES, prefix));
+            try {
+                for (Term t = terms.term(); isValue(t, prefix);
+                        t = terms.next() ? terms.term() : null) {
+                    int type = PropertyType.UNDEFINED;
+                    tp.seek(t);
+                    while (tp.next()) {
+                        if (hasPayloads && type == PropertyType.UNDEFINED) {
+                            tp.nextPosition();
+                            if (tp.isPayloadAvailable()) {
+                                payload = tp.getPayload(payload, 0);
+                                type = PropertyMetaData.fromByteArray(
+                                        payload).getPropertyType();
+                            }
+                        }
+                        offsets[tp.doc() + 1]++;
+                    }
+                    valueList.add(t.text().substring(prefix.length()));
+                    typeList.add(type);
+                }
+            } finally {
+                terms.close();
+            }
+        } finally {
+            tp.close();
+        }
+        for (int i = 1; i < offsets.length; i++) {
+            offsets[i] += offsets[i - 1];
+        }
+
+        // second pass: fill in the ordinals of the documents
+        values = valueList.toArray(new String[valueList.size()]);
+        types = new int[typeList.size()];
+        ordinals = new int[offsets[offsets.length - 1]];
+        int[] positions = new int[offsets.length - 1];
+        System.arraycopy(offsets, 0, positions, 0, positions.length);
+        for (int ord = 0; ord < values.length; ord++) {
+            types[ord] = typeList.get(ord);
+            TermDocs docs = reader.termDocs(
+                    new Term(FieldNames.PROPERTIES, prefix + values[ord]));
+            try {
+                while (docs.next()) {
+                    ordinals[positions[docs.doc()]++] = ord;
+                }
+            } finally {
+                docs.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the ordinals of a property in an index segment. The ordinals
+     * of a {@link ReadOnlyIndexReader} are cached by its
+     * {@link CachingIndexReader} and released when that reader is closed.
+     *
+     * @param reader the segment reader.
+     * @param prefix the property name prefix of the terms as created by
+     *               {@link FieldNames#createNamedValue(String, String)}
+     *               with an empty value.
+     * @return the ordinals of the property.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    static FacetOrdinals get(IndexReader reader, String prefix)
+            throws IOException {
+        if (reader instanceof ReadOnlyIndexReader) {
+            return ((ReadOnlyIndexReader) reader).getBase().getBase()
+                    .getFacetOrdinals(prefix);
+        }
+        return new FacetOrdinals(reader, prefix);
+    }
+
+    /**
+     * @return the number of distinct values in the segment.
+     */
+    int getValueCount() {
+        return values.length;
+    }
+
+    /**
+     * Adds one to the counts of all values of a document.
+     *
+     * @param doc    the document number.
+     * @param counts the counts indexed by ordinal.
+     */
+    void count(int doc, int[] counts) {
+        for (int i = offsets[doc]; i < offsets[doc + 1]; i++) {
+            counts[ordinals[i]]++;
+        }
+    }
+
+    /**
+     * @param ordinal an ordinal.
+     * @return the value as read from the index.
+     */
+    String getValue(int ordinal) {
+        return values[ordinal];
+    }
+
+    /**
+     * @param ordinal an ordinal.
+     * @return the property type of the value.
+     */
+    int getType(int ordinal) {
+        return types[ordinal];
+    }
+
+    /**
+     * Returns <code>true</code> if <code>term</code> is a value of the
+     * property with the given <code>prefix</code>.
+     */
+    private static boolean isValue(Term term, String prefix) {
+        return term != null
+                && term.field() == FieldNames.PROPERTIES
+                && term.text().startsWith(prefix);
+    }
+}
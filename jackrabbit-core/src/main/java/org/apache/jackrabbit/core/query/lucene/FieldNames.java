@@ -116,6 +116,26 @@ public class FieldNames {
      */
     public static final String WEAK_REFS = "_:WEAK_REFS".intern();
 
+    /**
+     * Name of the field that contains the trie encoded values of long, double
+     * and date properties. Terms are prefixed with the property name and are
+     * created by {@link TrieField}.
+     */
+    public static final String NUMERIC_PROPERTIES = "_:NUMERIC_PROPERTIES".intern();
+
+    /**
+     * Name of the field that contains the index format version a node was
+     * indexed with. Only present as of {@link IndexFormatVersion#V4}.
+     */
+    public static final String INDEX_FORMAT_VERSION = "_:INDEX_FORMAT_VERSION".intern();
+
+    /**
+     * Name of the field that contains the UUID of the node itself and the
+     * UUIDs of all its ancestors. Only present as of
+     * {@link IndexFormatVersion#V5}.
+     */
+    public static final String ANCESTORS = "_:ANCESTORS".intern();
+
     /**
      * Returns a named length for use as a term in the index. The named length
      * is of the form: <code>propertyName</code> + '[' +
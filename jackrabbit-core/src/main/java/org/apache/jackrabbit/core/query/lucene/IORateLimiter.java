@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import org.apache.lucene.util.ThreadInterruptedException;
+
+/**
+ * <code>IORateLimiter</code> limits the number of bytes per second written by
+ * all threads that share an instance. A thread calls {@link #pause(long)}
+ * after it wrote some bytes and is delayed until the configured rate is not
+ * exceeded anymore.
+ */
+class IORateLimiter {
+
+    /**
+     * Pauses shorter than this are skipped.
+     */
+    private static final long MIN_PAUSE_NS = 2 * 1000 * 1000;
+
+    /**
+     * The rate in MB per second.
+     */
+    private final double mbPerSec;
+
+    /**
+     * The nano seconds it takes to write a single byte at the configured rate.
+     */
+    private final double nsPerByte;
+
+    /**
+     * The time in nano seconds until which the bytes written so far would be
+     * written at the configured rate.
+     */
+    private long nextFree = System.nanoTime();
+
+    /**
+     * Creates a new rate limiter.
+     *
+     * @param mbPerSec the rate in MB per second.
+     */
+    IORateLimiter(double mbPerSec) {
+        if (mbPerSec <= 0) {
+            throw new IllegalArgumentException("mbPerSec must be positive");
+        }
+        this.mbPerSec = mbPerSec;
+        this.nsPerByte = 1000000000d / (mbPerSec * 1024 * 1024);
+    }
+
+    /**
+     * @return the rate in MB per second.
+     */
+    double getMBPerSec() {
+        return mbPerSec;
+    }
+
+    /**
+     * Accounts for <code>bytes</code> written by the current thread and
+     * pauses the thread if the rate is exceeded.
+     *
+     * @param bytes the number of bytes written.
+     * @return the time in nano seconds the thread was paused.
+     */
+    long pause(long bytes) {
+        long pause;
+        synchronized (this) {
+            long now = System.nanoTime();
+            // do not save up unused capacity while nothing is written
+            nextFree = Math.max(nextFree, now) + (long) (bytes * nsPerByte);
+            pause = nextFree - now;
+        }
+        if (pause < MIN_PAUSE_NS) {
+            return 0;
+        }
+        try {
+            Thread.sleep(pause / 1000000, (int) (pause % 1000000));
+        } catch (InterruptedException e) {
+            throw new ThreadInterruptedException(e);
+        }
+        return pause;
+    }
+}
@@ -0,0 +1,516 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.core.query.QueryHandler;
+import org.apache.jackrabbit.spi.commons.query.QueryConstants;
+import org.apache.jackrabbit.spi.commons.query.QueryRootNode;
+import org.apache.jackrabbit.spi.commons.query.RelationQueryNode;
+import org.apache.jackrabbit.spi.commons.query.TraversingQueryNodeVisitor;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.TermAttribute;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermEnum;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>IncrementalSpellChecker</code> suggests corrections for misspelled
+ * words based on the terms of the {@link FieldNames#FULLTEXT} field. The
+ * dictionary is maintained incrementally: whenever a segment is committed or
+ * segments are merged, the dictionary is rebuilt in the background from term
+ * tables that are cached per segment, so only new segments are read. The new
+ * dictionary replaces the previous one atomically, queries never wait for a
+ * rebuild.
+ * <p>
+ * Each term table and the dictionary hold at most {@link #getMaxTerms()}
+ * words with the highest document frequency. Subclasses may override this
+ * method to change the limit. Configure this spell checker with:
+ * <pre>
+ * &lt;param name="spellCheckerClass"
+ *        value="org.apache.jackrabbit.core.query.lucene.IncrementalSpellChecker"/&gt;
+ * </pre>
+ */
+public class IncrementalSpellChecker implements SpellChecker, SegmentListener {
+
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(IncrementalSpellChecker.class);
+
+    /**
+     * The default maximum number of words in the dictionary.
+     */
+    public static final int DEFAULT_MAX_TERMS = 50000;
+
+    /**
+     * Words shorter than this are neither corrected nor suggested.
+     */
+    private static final int MIN_WORD_LENGTH = 3;
+
+    /**
+     * Words longer than this are neither corrected nor suggested.
+     */
+    private static final int MAX_WORD_LENGTH = 32;
+
+    /**
+     * The search index that created this spell checker.
+     */
+    private SearchIndex handler;
+
+    /**
+     * The index whose segments are read.
+     */
+    private MultiIndex index;
+
+    /**
+     * The executor that rebuilds the dictionary.
+     */
+    private Executor executor;
+
+    /**
+     * The term tables of the segments, keyed by the shared reader of a
+     * segment. Only accessed while holding the {@link #refreshLock}.
+     */
+    private final Map<IndexReader, TermTable> tables =
+            new WeakHashMap<IndexReader, TermTable>();
+
+    /**
+     * Serializes rebuilds of the dictionary. This is not the monitor of this
+     * spell checker, because {@link #segmentsChanged()} is called while the
+     * multi index is locked.
+     */
+    private final Object refreshLock = new Object();
+
+    /**
+     * The current dictionary.
+     */
+    private volatile Dictionary dictionary = new Dictionary(
+            Collections.<String, Integer>emptyMap());
+
+    /**
+     * Set when the segments changed after the last rebuild started.
+     */
+    private boolean dirty;
+
+    /**
+     * Whether a rebuild is currently scheduled or running.
+     */
+    private boolean running;
+
+    /**
+     * Set to <code>true</code> when this spell checker is closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * {@inheritDoc}
+     */
+    public void init(QueryHandler handler) throws IOException {
+        if (!(handler instanceof SearchIndex)) {
+            throw new IOException("IncrementalSpellChecker requires a SearchIndex");
+        }
+        this.handler = (SearchIndex) handler;
+        index = this.handler.getIndex();
+        executor = this.handler.getContext().getExecutor();
+        index.addSegmentListener(this);
+        segmentsChanged();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String check(QueryRootNode aqt) throws IOException {
+        final String[] statement = new String[1];
+        try {
+            aqt.accept(new TraversingQueryNodeVisitor() {
+                public Object visit(RelationQueryNode node, Object data)
+                        throws RepositoryException {
+                    if (statement[0] == null
+                            && node.getOperation() == QueryConstants.OPERATION_SPELLCHECK) {
+                        statement[0] = node.getStringValue();
+                    }
+                    return super.visit(node, data);
+                }
+            }, null);
+        } catch (RepositoryException e) {
+            throw Util.createIOException(e);
+        }
+        if (statement[0] == null) {
+            return null;
+        }
+        return suggest(statement[0]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() {
+        closed = true;
+        if (index != null) {
+            index.removeSegmentListener(this);
+        }
+    }
+
+    /**
+     * Schedules a rebuild of the dictionary.
+     */
+    public synchronized void segmentsChanged() {
+        dirty = true;
+        if (!running && !closed) {
+            running = true;
+            executor.execute(new Runnable() {
+                public void run() {
+                    rebuild();
+                }
+            });
+        }
+    }
+
+    /**
+     * @return the maximum number of words in the dictionary and in the term
+     *         table of a segment.
+     */
+    protected int getMaxTerms() {
+        return DEFAULT_MAX_TERMS;
+    }
+
+    //-------------------------< internal >-------------------------------------
+
+    /**
+     * Returns a corrected version of <code>statement</code>.
+     *
+     * @param statement a fulltext statement.
+     * @return the statement with misspelled words replaced or
+     *         <code>null</code> if all words are spelled correctly or no
+     *         better spelling is known.
+     */
+    String suggest(String statement) {
+        Dictionary dict = dictionary;
+        StringBuilder suggestion = new StringBuilder();
+        boolean changed = false;
+        int last = 0;
+        TokenStream ts = handler.getTextAnalyzer().tokenStream(
+                FieldNames.FULLTEXT, new StringReader(statement));
+        try {
+            ts.reset();
+            while (ts.incrementToken()) {
+                OffsetAttribute offset = ts.getAttribute(OffsetAttribute.class);
+                TermAttribute term = ts.getAttribute(TermAttribute.class);
+                String word = dict.correct(term.term());
+                if (word != null) {
+                    suggestion.append(statement, last, offset.startOffset());
+                    suggestion.append(word);
+                    last = offset.endOffset();
+                    changed = true;
+                }
+            }
+            ts.end();
+            ts.close();
+        } catch (IOException e) {
+            // should never happen, we are reading from a string
+        }
+        if (!changed) {
+            return null;
+        }
+        suggestion.append(statement, last, statement.length());
+        return suggestion.toString();
+    }
+
+    /**
+     * Rebuilds the dictionary until no more segment changes are pending.
+     */
+    private void rebuild() {
+        for (;;) {
+            synchronized (this) {
+                if (!dirty || closed) {
+                    running = false;
+                    return;
+                }
+                dirty = false;
+            }
+            try {
+                refresh();
+            } catch (Exception e) {
+                log.warn("Unable to rebuild the spell checker dictionary", e);
+            }
+        }
+    }
+
+    /**
+     * Builds a new dictionary from the current segments and replaces the
+     * current one. Term tables of segments that did not change are reused.
+     *
+     * @throws IOException if the index cannot be read.
+     */
+    void refresh() throws IOException {
+        synchronized (refreshLock) {
+            long time = System.currentTimeMillis();
+            int maxTerms = getMaxTerms();
+            Map<String, Integer> freqs = new HashMap<String, Integer>();
+            CachingMultiIndexReader reader = index.getIndexReader();
+            try {
+                for (IndexReader r : reader.getIndexReaders()) {
+                    SharedIndexReader base = ((ReadOnlyIndexReader) r).getBase();
+                    TermTable table = tables.get(base);
+                    if (table == null) {
+                        table = new TermTable(base, maxTerms);
+                        tables.put(base, table);
+                    }
+                    for (int i = 0; i < table.words.length; i++) {
+                        Integer f = freqs.get(table.words[i]);
+                        freqs.put(table.words[i], f == null
+                                ? table.freqs[i] : f + table.freqs[i]);
+                    }
+                }
+            } finally {
+                reader.release();
+            }
+            if (freqs.size() > maxTerms) {
+                List<Map.Entry<String, Integer>> entries =
+                        new ArrayList<Map.Entry<String, Integer>>(freqs.entrySet());
+                Collections.sort(entries, BY_FREQUENCY);
+                freqs = new HashMap<String, Integer>();
+                for (Map.Entry<String, Integer> e : entries.subList(0, maxTerms)) {
+                    freqs.put(e.getKey(), e.getValue());
+                }
+            }
+            dictionary = new Dictionary(freqs);
+            time = System.currentTimeMillis() - time;
+            log.debug("Rebuilt spell checker dictionary with {} words in {} ms",
+                    freqs.size(), time);
+        }
+    }
+
+    /**
+     * @param text a term text.
+     * @return <code>true</code> if <code>text</code> is a word that may be
+     *         corrected or suggested.
+     */
+    private static boolean isWord(String text) {
+        if (text.length() < MIN_WORD_LENGTH || text.length() > MAX_WORD_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (!Character.isLetter(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Orders map entries by descending value.
+     */
+    private static final Comparator<Map.Entry<String, Integer>> BY_FREQUENCY =
+            new Comparator<Map.Entry<String, Integer>>() {
+        public int compare(Map.Entry<String, Integer> e1,
+                           Map.Entry<String, Integer> e2) {
+            return e2.getValue().compareTo(e1.getValue());
+        }
+    };
+
+    /**
+     * The words of a segment with their document frequency.
+     */
+    private static final class TermTable {
+
+        private final String[] words;
+
+        private final int[] freqs;
+
+        /**
+         * Reads the fulltext terms of a segment. At most
+         * <code>2 * maxTerms</code> words are held in memory while the terms
+         * are read: when that many are collected, the words with a document
+         * frequency below the <code>maxTerms</code> most frequent are dropped
+         * and later words must exceed that frequency.
+         *
+         * @param reader   the reader of the segment.
+         * @param maxTerms the maximum number of words of the table.
+         * @throws IOException if the terms cannot be read.
+         */
+        TermTable(IndexReader reader, int maxTerms) throws IOException {
+            String[] w = new String[Math.min(1024, 2 * maxTerms)];
+            int[] f = new int[w.length];
+            int size = 0;
+            int minFreq = 0;
+            TermEnum terms = reader.terms(new Term(FieldNames.FULLTEXT, ""));
+            try {
+                do {
+                    Term t = terms.term();
+                    if (t == null || t.field() != FieldNames.FULLTEXT) {
+                        break;
+                    }
+                    int freq = terms.docFreq();
+                    if (freq <= minFreq || !isWord(t.text())) {
+                        continue;
+                    }
+                    if (size == 2 * maxTerms) {
+                        int[] sorted = new int[size];
+                        System.arraycopy(f, 0, sorted, 0, size);
+                        Arrays.sort(sorted);
+                        minFreq = sorted[size - maxTerms];
+                        int n = 0;
+                        for (int i = 0; i < size; i++) {
+                            if (f[i] > minFreq) {
+                                w[n] = w[i];
+                                f[n++] = f[i];
+                            }
+                        }
+                        Arrays.fill(w, n, size, null);
+                        size = n;
+                        if (freq <= minFreq) {
+                            continue;
+                        }
+                    }
+                    if (size == w.length) {
+                        int length = Math.min(2 * w.length, 2 * maxTerms);
+                        String[] tmp = new String[length];
+                        System.arraycopy(w, 0, tmp, 0, size);
+                        w = tmp;
+                        int[] tmpFreqs = new int[length];
+                        System.arraycopy(f, 0, tmpFreqs, 0, size);
+                        f = tmpFreqs;
+                    }
+                    w[size] = t.text();
+                    f[size++] = freq;
+                } while (terms.next());
+            } finally {
+                terms.close();
+            }
+            words = new String[size];
+            System.arraycopy(w, 0, words, 0, size);
+            freqs = new int[size];
+            System.arraycopy(f, 0, freqs, 0, size);
+        }
+    }
+
+    /**
+     * An immutable dictionary with the words bucketed by length. Within a
+     * bucket the words are ordered by descending frequency.
+     */
+    private static final class Dictionary {
+
+        private final Map<String, Integer> freqs;
+
+        private final String[][] byLength = new String[MAX_WORD_LENGTH + 1][];
+
+        Dictionary(Map<String, Integer> freqs) {
+            this.freqs = freqs;
+            List<List<Map.Entry<String, Integer>>> buckets =
+                    new ArrayList<List<Map.Entry<String, Integer>>>();
+            for (int i = 0; i < byLength.length; i++) {
+                buckets.add(new ArrayList<Map.Entry<String, Integer>>());
+            }
+            for (Map.Entry<String, Integer> e : freqs.entrySet()) {
+                buckets.get(e.getKey().length()).add(e);
+            }
+            for (int i = 0; i < byLength.length; i++) {
+                List<Map.Entry<String, Integer>> bucket = buckets.get(i);
+                Collections.sort(bucket, BY_FREQUENCY);
+                byLength[i] = new String[bucket.size()];
+                for (int j = 0; j < byLength[i].length; j++) {
+                    byLength[i][j] = bucket.get(j).getKey();
+                }
+            }
+        }
+
+        /**
+         * Returns the most frequent word with the smallest edit distance to
+         * <code>word</code>.
+         *
+         * @param word a word of a statement.
+         * @return the correction or <code>null</code> if <code>word</code> is
+         *         known or no similar word exists.
+         */
+        String correct(String word) {
+            if (!isWord(word) || freqs.containsKey(word)) {
+                return null;
+            }
+            int maxDistance = word.length() <= 4 ? 1 : 2;
+            String best = null;
+            int bestDistance = maxDistance + 1;
+            int bestFreq = 0;
+            int from = Math.max(MIN_WORD_LENGTH, word.length() - maxDistance);
+            int to = Math.min(MAX_WORD_LENGTH, word.length() + maxDistance);
+            for (int length = from; length <= to; length++) {
+                for (String candidate : byLength[length]) {
+                    int d = distance(word, candidate, bestDistance);
+                    if (d < bestDistance || (d == bestDistance
+                            && d <= maxDistance && freqs.get(candidate) > bestFreq)) {
+                        best = candidate;
+                        bestDistance = d;
+                        bestFreq = freqs.get(candidate);
+                    }
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Computes the edit distance between two words.
+         *
+         * @param s1    a word.
+         * @param s2    another word.
+         * @param limit the computation stops when the distance is known to
+         *              exceed this limit.
+         * @return the edit distance or a value greater than
+         *         <code>limit</code>.
+         */
+        private static int distance(String s1, String s2, int limit) {
+            int[] prev = new int[s2.length() + 1];
+            int[] cur = new int[s2.length() + 1];
+            for (int j = 0; j < prev.length; j++) {
+                prev[j] = j;
+            }
+            for (int i = 1; i <= s1.length(); i++) {
+                cur[0] = i;
+                int min = i;
+                for (int j = 1; j <= s2.length(); j++) {
+                    int cost = s1.charAt(i - 1) == s2.charAt(j - 1) ? 0 : 1;
+                    cur[j] = Math.min(Math.min(cur[j - 1], prev[j]) + 1,
+                            prev[j - 1] + cost);
+                    min = Math.min(min, cur[j]);
+                }
+                if (min > limit) {
+                    return min;
+                }
+                int[] tmp = prev;
+                prev = cur;
+                cur = tmp;
+            }
+            return prev[s2.length()];
+        }
+    }
+}
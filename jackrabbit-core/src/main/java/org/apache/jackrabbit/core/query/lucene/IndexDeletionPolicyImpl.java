@@ -20,7 +20,9 @@ import org.apache.lucene.index.IndexDeletionPolicy;
 import org.apache.lucene.index.IndexCommit;
 import org.apache.lucene.store.Directory;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.io.IOException;
 
 /**
@@ -34,6 +36,11 @@ public class IndexDeletionPolicyImpl implements IndexDeletionPolicy {
 
     private final long maxAge;
 
+    /**
+     * Names of the segments files of the commits that must not be deleted.
+     */
+    private final Set<String> pinned = new HashSet<String>();
+
     public IndexDeletionPolicyImpl(PersistentIndex index, long maxAge)
             throws IOException {
         this.index = index;
@@ -61,12 +68,36 @@ public class IndexDeletionPolicyImpl implements IndexDeletionPolicy {
         }
     }
 
+    /**
+     * Keeps the commit with the given segments file until it is released
+     * again, regardless of its age.
+     *
+     * @param segmentsFileName the name of the segments file of the commit.
+     */
+    synchronized void pin(String segmentsFileName) {
+        pinned.add(segmentsFileName);
+    }
+
+    /**
+     * Releases a commit previously pinned with {@link #pin(String)}. The
+     * commit is deleted with the next commit once it is old enough.
+     *
+     * @param segmentsFileName the name of the segments file of the commit.
+     */
+    synchronized void release(String segmentsFileName) {
+        pinned.remove(segmentsFileName);
+    }
+
     //-------------------------------< internal >-------------------------------
 
-    private void checkCommits(List<? extends IndexCommit> commits) throws IOException {
+    private synchronized void checkCommits(List<? extends IndexCommit> commits)
+            throws IOException {
         long currentTime = System.currentTimeMillis();
         for (int i = 0; i < commits.size() - 1; i++) {
             IndexCommit ic = commits.get(i);
+            if (pinned.contains(ic.getSegmentsFileName())) {
+                continue;
+            }
             long lastModified = index.getDirectory().fileModified(ic.getSegmentsFileName());
             if (currentTime - lastModified > maxAge) {
                 ic.delete();
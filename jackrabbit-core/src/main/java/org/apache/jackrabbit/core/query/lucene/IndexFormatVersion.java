@@ -16,7 +16,9 @@
  */
 package org.apache.jackrabbit.core.query.lucene;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.util.ReaderUtil;
@@ -35,6 +37,15 @@ import org.apache.lucene.util.ReaderUtil;
  * fields <code>PROPERTY_LENGTHS</code>, <code>LOCAL_NAME</code> and
  * <code>NAMESPACE_URI</code>. Furthermore a Payload is added to
  * <code>PROPERTIES</code> fields to indicate the property type.</li>
+ * <li><b>Version 4</b> is the index format introduced with Jackrabbit 2.20. It
+ * adds trie encoded long, double and date values in the field
+ * <code>NUMERIC_PROPERTIES</code>, which speeds up range queries, and marks
+ * every node with an <code>INDEX_FORMAT_VERSION</code> field. Existing
+ * version 3 indexes are migrated on startup by {@link IndexMigration}.</li>
+ * <li><b>Version 5</b> adds the field <code>ANCESTORS</code>, which contains
+ * the UUIDs of a node and all its ancestors. Descendant constraints are then
+ * executed with a single term lookup instead of walking the hierarchy.
+ * Version 4 indexes are migrated on startup by {@link IndexMigration}.</li>
  * </ul>
  * Please note that existing indexes are not automatically upgraded to a newer
  * version! If you want to take advantage of a certain 'feature' in an index
@@ -57,6 +68,17 @@ public class IndexFormatVersion {
      */
     public static final IndexFormatVersion V3 = new IndexFormatVersion(3);
 
+    /**
+     * V4 is the index format for Jackrabbit releases &gt;= 2.20
+     */
+    public static final IndexFormatVersion V4 = new IndexFormatVersion(4);
+
+    /**
+     * V5 is the index format for Jackrabbit releases &gt;= 2.20 that index
+     * the ancestors of a node
+     */
+    public static final IndexFormatVersion V5 = new IndexFormatVersion(5);
+
     /**
      * The used version of the index format
      */
@@ -100,11 +122,35 @@ public class IndexFormatVersion {
 
     /**
      * @return the index format version of the index used by the given
-     * index reader.
+     * index reader. If the reader consists of multiple segments, the lowest
+     * version of all segments is returned.
      */
     public static IndexFormatVersion getVersion(IndexReader indexReader) {
+        List<IndexReader> readers = new ArrayList<IndexReader>();
+        ReaderUtil.gatherSubReaders(readers, indexReader);
+        IndexFormatVersion version = IndexFormatVersion.V5;
+        for (IndexReader reader : readers) {
+            IndexFormatVersion v = getSegmentVersion(reader);
+            if (v.getVersion() < version.getVersion()) {
+                version = v;
+            }
+        }
+        return version;
+    }
+
+    /**
+     * @return the index format version of a single index segment.
+     */
+    private static IndexFormatVersion getSegmentVersion(IndexReader indexReader) {
+        if (indexReader.numDocs() == 0) {
+            return IndexFormatVersion.V5;
+        }
         Collection<String> fields = ReaderUtil.getIndexedFields(indexReader);
-        if (fields.contains(FieldNames.LOCAL_NAME) || indexReader.numDocs() == 0) {
+        if (fields.contains(FieldNames.ANCESTORS)) {
+            return IndexFormatVersion.V5;
+        } else if (fields.contains(FieldNames.INDEX_FORMAT_VERSION)) {
+            return IndexFormatVersion.V4;
+        } else if (fields.contains(FieldNames.LOCAL_NAME)) {
             return IndexFormatVersion.V3;
         } else if (fields.contains(FieldNames.PROPERTIES_SET)) {
             return IndexFormatVersion.V2;
@@ -19,11 +19,15 @@ package org.apache.jackrabbit.core.query.lucene;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -35,6 +39,15 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Merges indexes in a separate daemon thread.
+ * <p>
+ * By default indexes are put into log-structured buckets by their number of
+ * documents and the indexes of a bucket are merged when it holds
+ * <code>mergeFactor</code> indexes. With {@link #setTieredMerge(boolean)} the
+ * merges are selected by a {@link TieredMergeSelector} based on the size in
+ * bytes and the deleted documents of the indexes and at most
+ * {@link #setMaxConcurrentMerges(int) maxConcurrentMerges} non-overlapping
+ * merges run at the same time. In both modes the write rate of merges can be
+ * limited with {@link #setMaxMergeMBPerSec(double)}.
  */
 class IndexMerger implements IndexListener {
 
@@ -58,6 +71,70 @@ class IndexMerger implements IndexListener {
      */
     private int mergeFactor = SearchIndex.DEFAULT_MERGE_FACTOR;
 
+    /**
+     * tieredMerge config parameter
+     */
+    private boolean tieredMerge;
+
+    /**
+     * maxConcurrentMerges config parameter
+     */
+    private int maxConcurrentMerges = SearchIndex.DEFAULT_MAX_CONCURRENT_MERGES;
+
+    /**
+     * Limits the write rate of all merges or <code>null</code> if merges are
+     * not limited.
+     */
+    private IORateLimiter rateLimiter;
+
+    /**
+     * The indexes that are currently not merged. Only used with tiered
+     * merging.
+     */
+    private final List<PersistentIndex> idleIndexes = new ArrayList<PersistentIndex>();
+
+    /**
+     * The indexes that are part of a running or pending tiered merge. They
+     * become idle again when their merge fails.
+     */
+    private final Set<PersistentIndex> mergingIndexes = new HashSet<PersistentIndex>();
+
+    /**
+     * Selects the tiered merges. Created on first use.
+     */
+    private TieredMergeSelector selector;
+
+    /**
+     * The number of tiered merges that are necessary but have to wait for
+     * a running merge.
+     */
+    private int tieredBacklog;
+
+    /**
+     * The number of workers that are currently merging.
+     */
+    private final AtomicInteger runningMerges = new AtomicInteger();
+
+    /**
+     * The number of completed merges.
+     */
+    private final AtomicLong completedMerges = new AtomicLong();
+
+    /**
+     * The number of documents written by completed merges.
+     */
+    private final AtomicLong mergedDocuments = new AtomicLong();
+
+    /**
+     * The size in bytes of the indexes created by completed merges.
+     */
+    private final AtomicLong mergedBytes = new AtomicLong();
+
+    /**
+     * The time in milliseconds spent in completed merges.
+     */
+    private final AtomicLong mergeTime = new AtomicLong();
+
     /**
      * List of <code>IndexBucket</code>s in ascending document limit.
      */
@@ -126,6 +203,39 @@ class IndexMerger implements IndexListener {
         }
     }
 
+    /**
+     * Informs the index merger that an index was added / created.
+     *
+     * @param index the index.
+     * @throws IOException if the statistics of the index cannot be read.
+     */
+    void indexAdded(PersistentIndex index) throws IOException {
+        if (!tieredMerge) {
+            indexAdded(index.getName(), index.getNumDocuments());
+            return;
+        }
+        synchronized (lock) {
+            idleIndexes.add(index);
+            if (log.isDebugEnabled()) {
+                log.debug("index added: name=" + index.getName());
+            }
+        }
+        findTieredMerges();
+    }
+
+    /**
+     * Informs the index merger that an index was removed from the multi
+     * index.
+     *
+     * @param index the index.
+     */
+    void indexRemoved(PersistentIndex index) {
+        synchronized (lock) {
+            idleIndexes.remove(index);
+            mergingIndexes.remove(index);
+        }
+    }
+
     /**
      * Informs the index merger that an index was added / created.
      *
@@ -277,6 +387,26 @@ class IndexMerger implements IndexListener {
         }
     }
 
+    /**
+     * @return a snapshot of the merge backlog and throughput.
+     */
+    MergeStatistics getStatistics() {
+        int busy;
+        synchronized (busyMergers) {
+            busy = busyMergers.size();
+        }
+        int running = runningMerges.get();
+        int backlog;
+        synchronized (lock) {
+            backlog = tieredBacklog;
+        }
+        return new MergeStatistics(running,
+                Math.max(0, busy - running) + backlog,
+                completedMerges.get(), mergedDocuments.get(),
+                mergedBytes.get(), mergeTime.get(),
+                rateLimiter != null ? rateLimiter.getMBPerSec() : 0);
+    }
+
     //-----------------------< merge properties >-------------------------------
 
     /**
@@ -307,8 +437,142 @@ class IndexMerger implements IndexListener {
         this.maxMergeDocs = maxMergeDocs;
     }
 
+    /**
+     * Whether merges are selected by size in bytes and deleted documents
+     * instead of log-structured buckets of document counts.
+     *
+     * @param tieredMerge <code>true</code> to use tiered merging.
+     */
+    public void setTieredMerge(boolean tieredMerge) {
+        this.tieredMerge = tieredMerge;
+    }
+
+    /**
+     * The maximum number of tiered merges that run at the same time.
+     *
+     * @param maxConcurrentMerges the maximum number of concurrent merges.
+     */
+    public void setMaxConcurrentMerges(int maxConcurrentMerges) {
+        this.maxConcurrentMerges = Math.max(1, maxConcurrentMerges);
+    }
+
+    /**
+     * The maximum rate at which all merges together write index files.
+     *
+     * @param mbPerSec the rate in MB per second or zero for no limit.
+     */
+    public void setMaxMergeMBPerSec(double mbPerSec) {
+        this.rateLimiter = mbPerSec > 0 ? new IORateLimiter(mbPerSec) : null;
+    }
+
     //------------------------------< internal >--------------------------------
 
+    /**
+     * Starts tiered merges until {@link #maxConcurrentMerges} are running.
+     * The statistics of the idle indexes are read without holding
+     * {@link #lock}, an index whose statistics cannot be read is skipped and
+     * considered again with the next selection.
+     */
+    private void findTieredMerges() {
+        if (quit.get()) {
+            return;
+        }
+        List<PersistentIndex> candidates;
+        synchronized (lock) {
+            candidates = new ArrayList<PersistentIndex>(idleIndexes);
+        }
+        List<TieredMergeSelector.Segment> segments =
+                new ArrayList<TieredMergeSelector.Segment>();
+        for (PersistentIndex index : candidates) {
+            try {
+                PersistentIndex.SegmentStatistics stats = index.getSegmentStatistics();
+                segments.add(new TieredMergeSelector.Segment(index.getName(),
+                        stats.getSizeInBytes(), stats.getNumDocuments(),
+                        stats.getNumDeletedDocuments()));
+            } catch (IOException e) {
+                log.warn("Unable to read statistics of index "
+                        + index.getName() + ": " + e);
+            }
+        }
+        synchronized (lock) {
+            if (selector == null) {
+                selector = new TieredMergeSelector(
+                        Math.max(2, mergeFactor), Math.max(2, mergeFactor), maxMergeDocs);
+            }
+            // another thread may have selected or removed some of the
+            // indexes in the meantime
+            for (Iterator<TieredMergeSelector.Segment> it = segments.iterator(); it.hasNext();) {
+                if (getIdleIndex(it.next().name) == null) {
+                    it.remove();
+                }
+            }
+            int busy;
+            synchronized (busyMergers) {
+                busy = busyMergers.size();
+            }
+            tieredBacklog = 0;
+            for (;;) {
+                List<TieredMergeSelector.Segment> selected = selector.select(segments);
+                if (selected == null) {
+                    break;
+                }
+                segments.removeAll(selected);
+                if (busy >= maxConcurrentMerges) {
+                    // count the merges that have to wait
+                    tieredBacklog++;
+                    continue;
+                }
+                Index[] idxs = new Index[selected.size()];
+                List<PersistentIndex> sources = new ArrayList<PersistentIndex>();
+                for (int i = 0; i < idxs.length; i++) {
+                    TieredMergeSelector.Segment s = selected.get(i);
+                    idxs[i] = new Index(s.name, s.numDocs);
+                    PersistentIndex index = getIdleIndex(s.name);
+                    idleIndexes.remove(index);
+                    mergingIndexes.add(index);
+                    sources.add(index);
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("requesting tiered merge for " + selected);
+                }
+                addMergeTask(new Merge(idxs, sources));
+                busy++;
+            }
+        }
+    }
+
+    /**
+     * Returns the idle index with the given name. The caller must hold
+     * {@link #lock}.
+     *
+     * @param name the name of the index.
+     * @return the index or <code>null</code> if there is no such idle index.
+     */
+    private PersistentIndex getIdleIndex(String name) {
+        for (PersistentIndex index : idleIndexes) {
+            if (index.getName().equals(name)) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Makes the source indexes of a failed tiered merge idle again, unless
+     * they were removed from the multi index in the meantime.
+     *
+     * @param task the merge task.
+     */
+    private void restoreIdleIndexes(Merge task) {
+        synchronized (lock) {
+            for (PersistentIndex index : task.sources) {
+                if (mergingIndexes.remove(index)) {
+                    idleIndexes.add(index);
+                }
+            }
+        }
+    }
+
     private void addMergeTask(Merge task) {
         // only enqueue if still running
         if (!quit.get()) {
@@ -385,6 +649,11 @@ class IndexMerger implements IndexListener {
 
         private final Index[] indexes;
 
+        /**
+         * The source indexes of a tiered merge, empty otherwise.
+         */
+        private final List<PersistentIndex> sources;
+
         /**
          * Merge task, to merge <code>indexes</code> into a new index with
          * <code>name</code>.
@@ -392,8 +661,19 @@ class IndexMerger implements IndexListener {
          * @param indexes the indexes to merge.
          */
         Merge(Index[] indexes) {
+            this(indexes, Collections.<PersistentIndex>emptyList());
+        }
+
+        /**
+         * Tiered merge task, to merge <code>indexes</code> into a new index.
+         *
+         * @param indexes the indexes to merge.
+         * @param sources the persistent indexes with the same names.
+         */
+        Merge(Index[] indexes, List<PersistentIndex> sources) {
             this.indexes = new Index[indexes.length];
             System.arraycopy(indexes, 0, this.indexes, 0, indexes.length);
+            this.sources = sources;
         }
     }
 
@@ -493,6 +773,9 @@ class IndexMerger implements IndexListener {
          */
         public void run() {
             // worker is initially suspended
+            boolean running = false;
+            // whether the task was enqueued again or completed
+            boolean done = false;
             try {
                 try {
                     start.await();
@@ -501,11 +784,14 @@ class IndexMerger implements IndexListener {
                     if (!quit.get()) {
                         // enqueue task again and retry with another thread
                         addMergeTask(task);
+                        done = true;
                     }
                     return;
                 }
 
                 log.debug("accepted merge request");
+                runningMerges.incrementAndGet();
+                running = true;
 
                 // get readers
                 String[] names = new String[task.indexes.length];
@@ -523,13 +809,22 @@ class IndexMerger implements IndexListener {
                         try {
                             // do the merge
                             long time = System.currentTimeMillis();
-                            index.addIndexes(readers);
+                            index.addIndexes(readers, rateLimiter);
                             time = System.currentTimeMillis() - time;
                             int docCount = 0;
                             for (IndexReader reader : readers) {
                                 docCount += reader.numDocs();
                             }
-                            log.info("merged " + docCount + " documents in " + time + " ms into " + index.getName() + ".");
+                            long bytes = index.getSizeInBytes();
+                            completedMerges.incrementAndGet();
+                            mergedDocuments.addAndGet(docCount);
+                            mergedBytes.addAndGet(bytes);
+                            mergeTime.addAndGet(time);
+                            log.info("merged " + docCount + " documents (" + bytes / 1024
+                                    + " kB) in " + time + " ms into " + index.getName() + ".");
+                            // build sort columns before the index becomes visible
+                            index.prepareSortColumns(readers);
+                            index.prepareDocNumberTable();
                         } finally {
                             for (IndexReader reader : readers) {
                                 try {
@@ -555,6 +850,7 @@ class IndexMerger implements IndexListener {
                         }
 
                         success = true;
+                        done = true;
 
                     } finally {
                         if (!success) {
@@ -563,12 +859,16 @@ class IndexMerger implements IndexListener {
                             multiIndex.deleteIndex(index);
                             // add task again and retry
                             addMergeTask(task);
+                            done = true;
                         }
                     }
                 } catch (Throwable e) {
                     log.error("Error while merging indexes: ", e);
                 }
             } finally {
+                if (running) {
+                    runningMerges.decrementAndGet();
+                }
                 synchronized (terminated) {
                     terminated.set(true);
                     terminated.notifyAll();
@@ -577,6 +877,16 @@ class IndexMerger implements IndexListener {
                     busyMergers.remove(this);
                     busyMergers.notifyAll();
                 }
+                if (tieredMerge) {
+                    if (done) {
+                        // a slot for the next merge is free
+                        findTieredMerges();
+                    } else {
+                        // the merge failed, its indexes are selected again
+                        // when the next index is added
+                        restoreIdleIndexes(task);
+                    }
+                }
                 log.debug("Worker finished");
             }
         }
@@ -18,21 +18,34 @@ package org.apache.jackrabbit.core.query.lucene;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
+import javax.jcr.PropertyType;
+
+import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.query.lucene.directory.DirectoryManager;
+import org.apache.jackrabbit.core.state.ItemStateException;
+import org.apache.jackrabbit.core.state.ItemStateManager;
+import org.apache.jackrabbit.core.state.NoSuchItemStateException;
+import org.apache.jackrabbit.core.state.NodeState;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.FieldSelector;
 import org.apache.lucene.document.Fieldable;
 import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.index.FieldInfo;
 import org.apache.lucene.index.FieldInfos;
 import org.apache.lucene.index.FilterIndexReader;
 import org.apache.lucene.index.IndexReader;
@@ -40,6 +53,7 @@ import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.KeepOnlyLastCommitDeletionPolicy;
 import org.apache.lucene.index.LogByteSizeMergePolicy;
+import org.apache.lucene.index.ParallelReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TermEnum;
 import org.apache.lucene.index.TermPositions;
@@ -47,6 +61,7 @@ import org.apache.lucene.index.UpgradeIndexMergePolicy;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.util.ReaderUtil;
 import org.apache.lucene.util.Version;
+import org.apache.tika.io.IOExceptionWithCause;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -58,6 +73,12 @@ import org.slf4j.LoggerFactory;
  * the character '[' as a separator. Whenever an index is opened from disk, a
  * quick check is run to find out whether a migration is required. See also
  * JCR-1363 for more details.
+ * <p>
+ * Indexes created with Jackrabbit 1.5 or higher (index format version 3)
+ * are migrated to version 4 by adding the trie encoded values of long, double
+ * and date properties. See {@link TrieField}. Version 4 indexes are
+ * migrated to version 5 by adding the ancestors of every node, see
+ * {@link #migrateAncestors(PersistentIndex, DirectoryManager, ItemStateManager)}.
  */
 public class IndexMigration {
 
@@ -66,6 +87,12 @@ public class IndexMigration {
      */
     private static final Logger log = LoggerFactory.getLogger(IndexMigration.class);
 
+    /**
+     * The number of nodes for which the ancestors are cached while they are
+     * added to a version 4 index.
+     */
+    private static final int ANCESTOR_CACHE_SIZE = 1000;
+
     /**
      * Checks if the given <code>index</code> needs to be migrated.
      *
@@ -80,32 +107,43 @@ public class IndexMigration {
             throws IOException {
         Directory indexDir = index.getDirectory();
         log.debug("Checking {} ...", indexDir);
+        boolean addNumericValues = false;
         ReadOnlyIndexReader reader = index.getReadOnlyIndexReader();
         try {
-            if (IndexFormatVersion.getVersion(reader).getVersion() >=
-                    IndexFormatVersion.V3.getVersion()) {
-                // index was created with Jackrabbit 1.5 or higher
+            IndexFormatVersion version = IndexFormatVersion.getVersion(reader);
+            if (version.getVersion() >= IndexFormatVersion.V4.getVersion()) {
+                // index was created with Jackrabbit 2.20 or higher
                 // no need for migration
-                log.debug("IndexFormatVersion >= V3, no migration needed");
+                log.debug("IndexFormatVersion >= V4, no migration needed");
                 return;
-            }
-            // assert: there is at least one node in the index, otherwise the
-            //         index format version would be at least V3
-            TermEnum terms = reader.terms(new Term(FieldNames.PROPERTIES, ""));
-            try {
-                Term t = terms.term();
-                if (t.text().indexOf(oldSeparatorChar) == -1) {
-                    log.debug("Index already migrated");
-                    return;
+            } else if (version.getVersion() == IndexFormatVersion.V3.getVersion()) {
+                // index was created with Jackrabbit 1.5 or higher
+                // only the trie encoded numeric values are missing
+                addNumericValues = true;
+            } else {
+                // assert: there is at least one node in the index, otherwise the
+                //         index format version would be at least V3
+                TermEnum terms = reader.terms(new Term(FieldNames.PROPERTIES, ""));
+                try {
+                    Term t = terms.term();
+                    if (t.text().indexOf(oldSeparatorChar) == -1) {
+                        log.debug("Index already migrated");
+                        return;
+                    }
+                } finally {
+                    terms.close();
                 }
-            } finally {
-                terms.close();
             }
         } finally {
             reader.release();
             index.releaseWriterAndReaders();
         }
 
+        if (addNumericValues) {
+            addNumericValues(index, directoryManager);
+            return;
+        }
+
         // if we get here then the index must be migrated
         log.debug("Index requires migration {}", indexDir);
 
@@ -143,8 +181,417 @@ public class IndexMigration {
         log.info("Migrated " + index.getName());
     }
 
+    /**
+     * Migrates a version 3 index to version 4 by adding the trie encoded
+     * values of all long, double and date properties and the index format
+     * version of every node. The values are read from the string encoded
+     * terms of the {@link FieldNames#PROPERTIES} field.
+     *
+     * @param index the index to migrate.
+     * @param directoryManager the directory manager.
+     * @throws IOException if an error occurs while migrating the index.
+     */
+    private static void addNumericValues(PersistentIndex index,
+                                         DirectoryManager directoryManager)
+            throws IOException {
+        log.debug("Index requires numeric value migration {}",
+                index.getDirectory());
+        addParallelIndex(index, directoryManager, "_v4",
+                new ParallelIndexWriter() {
+                    public void write(IndexReader reader, Directory dir)
+                            throws IOException {
+                        writeNumericValues(reader, dir);
+                    }
+                });
+        log.info("Added numeric values to " + index.getName());
+    }
+
+    /**
+     * Migrates a version 4 index to version 5 by adding the
+     * {@link FieldNames#ANCESTORS} field to every node. The ancestors are
+     * read from the given item state manager, because the parent of a node
+     * may be indexed in a different index segment.
+     *
+     * @param index the index to check and migrate if needed.
+     * @param directoryManager the directory manager.
+     * @param stateMgr the item state manager of the workspace.
+     * @throws IOException if an error occurs while migrating the index.
+     */
+    public static void migrateAncestors(PersistentIndex index,
+                                        DirectoryManager directoryManager,
+                                        final ItemStateManager stateMgr)
+            throws IOException {
+        ReadOnlyIndexReader reader = index.getReadOnlyIndexReader();
+        try {
+            IndexFormatVersion version = IndexFormatVersion.getVersion(reader);
+            if (version.getVersion() != IndexFormatVersion.V4.getVersion()) {
+                // older indexes must be re-indexed to use ancestor terms
+                return;
+            }
+        } finally {
+            reader.release();
+            index.releaseWriterAndReaders();
+        }
+
+        log.debug("Index requires ancestor migration {}", index.getDirectory());
+        addParallelIndex(index, directoryManager, "_v5",
+                new ParallelIndexWriter() {
+                    public void write(IndexReader reader, Directory dir)
+                            throws IOException {
+                        writeAncestors(reader, dir, stateMgr);
+                    }
+                });
+        log.info("Added ancestors to " + index.getName());
+    }
+
+    /**
+     * Adds fields to the documents of an index. The fields are written by
+     * <code>fieldWriter</code> to a temporary index with the same document
+     * numbers, which is then merged with the existing index using a
+     * {@link ParallelReader}.
+     *
+     * @param index the index to migrate.
+     * @param directoryManager the directory manager.
+     * @param suffix the suffix of the temporary index directories.
+     * @param fieldWriter writes the documents with the new fields.
+     * @throws IOException if an error occurs while migrating the index.
+     */
+    private static void addParallelIndex(PersistentIndex index,
+                                         DirectoryManager directoryManager,
+                                         String suffix,
+                                         ParallelIndexWriter fieldWriter)
+            throws IOException {
+        String valuesName = index.getName() + suffix + "values";
+        String migrationName = index.getName() + suffix;
+        for (String name : new String[]{valuesName, migrationName}) {
+            if (directoryManager.hasDirectory(name)) {
+                directoryManager.delete(name);
+            }
+        }
+
+        IndexReader reader = IndexReader.open(index.getDirectory());
+        try {
+            Directory valuesDir = directoryManager.getDirectory(valuesName);
+            try {
+                fieldWriter.write(reader, valuesDir);
+                IndexReader values = IndexReader.open(valuesDir, false);
+                try {
+                    // ParallelReader requires the same deleted documents
+                    for (int i = 0; i < reader.maxDoc(); i++) {
+                        if (reader.isDeleted(i)) {
+                            values.deleteDocument(i);
+                        }
+                    }
+                    ParallelReader parallel = new ParallelReader(false);
+                    parallel.add(reader);
+                    parallel.add(values);
+                    Directory migrationDir = directoryManager.getDirectory(migrationName);
+                    try {
+                        IndexWriterConfig c = new IndexWriterConfig(
+                                Version.LUCENE_36, new JackrabbitAnalyzer());
+                        c.setMergePolicy(new LogByteSizeMergePolicy());
+                        c.setIndexDeletionPolicy(new KeepOnlyLastCommitDeletionPolicy());
+                        IndexWriter writer = new IndexWriter(migrationDir, c);
+                        try {
+                            writer.addIndexes(parallel);
+                            writer.forceMerge(1);
+                        } finally {
+                            writer.close();
+                        }
+                    } finally {
+                        parallel.close();
+                        migrationDir.close();
+                    }
+                } finally {
+                    values.close();
+                }
+            } finally {
+                valuesDir.close();
+            }
+        } finally {
+            reader.close();
+        }
+        directoryManager.delete(valuesName);
+        directoryManager.delete(index.getName());
+        if (!directoryManager.rename(migrationName, index.getName())) {
+            throw new IOException("failed to move migrated directory " + migrationName);
+        }
+    }
+
+    /**
+     * Writes one document for every document in <code>reader</code> to
+     * <code>dir</code>. Each document contains the trie encoded values of
+     * the long, double and date properties of the document at the same
+     * position in <code>reader</code>.
+     *
+     * @param reader the version 3 index reader.
+     * @param dir the directory where to write the documents.
+     * @throws IOException if an error occurs while reading or writing.
+     */
+    private static void writeNumericValues(IndexReader reader, Directory dir)
+            throws IOException {
+        NumericValues values = new NumericValues();
+        TermPositions positions = reader.termPositions();
+        TermEnum terms = reader.terms(new Term(FieldNames.PROPERTIES, ""));
+        try {
+            byte[] payload = new byte[1];
+            String previous = null;
+            do {
+                Term t = terms.term();
+                if (t == null || t.field() != FieldNames.PROPERTIES) {
+                    break;
+                }
+                String text = t.text();
+                int nameLength = FieldNames.getNameLength(text);
+                String name = text.substring(0, nameLength - 1);
+                if (!name.equals(previous)) {
+                    values.names.add(name);
+                    previous = name;
+                }
+                String value = text.substring(nameLength);
+                int valueType = PropertyType.UNDEFINED;
+                long sortableValue = 0;
+                positions.seek(t);
+                while (positions.next()) {
+                    positions.nextPosition();
+                    if (!positions.isPayloadAvailable()) {
+                        continue;
+                    }
+                    payload = positions.getPayload(payload, 0);
+                    int type = PropertyMetaData.fromByteArray(payload).getPropertyType();
+                    if (!TrieField.isSupported(type)) {
+                        continue;
+                    }
+                    if (type != valueType) {
+                        try {
+                            sortableValue = TrieField.stringToSortableLong(value, type);
+                        } catch (RuntimeException e) {
+                            log.debug("Unable to decode " + text + ": " + e);
+                            continue;
+                        }
+                        valueType = type;
+                    }
+                    values.add(positions.doc(), values.names.size() - 1,
+                            type, sortableValue);
+                }
+            } while (terms.next());
+        } finally {
+            terms.close();
+            positions.close();
+        }
+
+        // order values by document number
+        int maxDoc = reader.maxDoc();
+        int[] starts = new int[maxDoc + 1];
+        for (int i = 0; i < values.size; i++) {
+            starts[values.docs[i] + 1]++;
+        }
+        for (int i = 0; i < maxDoc; i++) {
+            starts[i + 1] += starts[i];
+        }
+        int[] order = new int[values.size];
+        int[] next = starts.clone();
+        for (int i = 0; i < values.size; i++) {
+            order[next[values.docs[i]]++] = i;
+        }
+
+        IndexWriterConfig c = new IndexWriterConfig(
+                Version.LUCENE_36, new JackrabbitAnalyzer());
+        // merges adjacent segments only and keeps the document order
+        c.setMergePolicy(new LogByteSizeMergePolicy());
+        IndexWriter writer = new IndexWriter(dir, c);
+        try {
+            for (int doc = 0; doc < maxDoc; doc++) {
+                Document d = new Document();
+                if (!reader.isDeleted(doc)) {
+                    Field version = new Field(FieldNames.INDEX_FORMAT_VERSION,
+                            false, IndexFormatVersion.V4.toString(),
+                            Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS,
+                            Field.TermVector.NO);
+                    version.setIndexOptions(FieldInfo.IndexOptions.DOCS_ONLY);
+                    d.add(version);
+                }
+                for (int i = starts[doc]; i < starts[doc + 1]; i++) {
+                    int idx = order[i];
+                    TrieField.addFields(d, values.names.get(values.nameIdx[idx]),
+                            values.types[idx], values.values[idx]);
+                }
+                writer.addDocument(d);
+            }
+            writer.forceMerge(1);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes one document for every document in <code>reader</code> to
+     * <code>dir</code>. Each document contains the UUIDs of the node at the
+     * same position in <code>reader</code> and its ancestors.
+     *
+     * @param reader the version 4 index reader.
+     * @param dir the directory where to write the documents.
+     * @param stateMgr the item state manager of the workspace.
+     * @throws IOException if an error occurs while reading or writing.
+     */
+    private static void writeAncestors(IndexReader reader,
+                                       Directory dir,
+                                       ItemStateManager stateMgr)
+            throws IOException {
+        // ancestors of recently used parent nodes
+        Map<NodeId, List<String>> cache = new LinkedHashMap<NodeId, List<String>>(
+                ANCESTOR_CACHE_SIZE, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<NodeId, List<String>> e) {
+                return size() > ANCESTOR_CACHE_SIZE;
+            }
+        };
+        IndexWriterConfig c = new IndexWriterConfig(
+                Version.LUCENE_36, new JackrabbitAnalyzer());
+        // merges adjacent segments only and keeps the document order
+        c.setMergePolicy(new LogByteSizeMergePolicy());
+        IndexWriter writer = new IndexWriter(dir, c);
+        try {
+            for (int doc = 0; doc < reader.maxDoc(); doc++) {
+                Document d = new Document();
+                if (!reader.isDeleted(doc)) {
+                    NodeId id = new NodeId(reader.document(
+                            doc, FieldSelectors.UUID).get(FieldNames.UUID));
+                    for (String uuid : getAncestors(id, stateMgr, cache)) {
+                        Field ancestor = new Field(FieldNames.ANCESTORS, false,
+                                uuid, Field.Store.NO,
+                                Field.Index.NOT_ANALYZED_NO_NORMS,
+                                Field.TermVector.NO);
+                        ancestor.setIndexOptions(FieldInfo.IndexOptions.DOCS_ONLY);
+                        d.add(ancestor);
+                    }
+                }
+                writer.addDocument(d);
+            }
+            writer.forceMerge(1);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Returns the UUIDs of a node and all its ancestors in the same way as
+     * {@link NodeIndexer#addAncestors(Document)}.
+     *
+     * @param id the id of a node.
+     * @param stateMgr the item state manager of the workspace.
+     * @param cache the ancestors of recently used parent nodes.
+     * @return the UUIDs.
+     * @throws IOException if a node cannot be read.
+     */
+    private static Collection<String> getAncestors(NodeId id,
+                                                   ItemStateManager stateMgr,
+                                                   Map<NodeId, List<String>> cache)
+            throws IOException {
+        Set<String> ancestors = new LinkedHashSet<String>();
+        ancestors.add(id.toString());
+        try {
+            NodeState state = (NodeState) stateMgr.getItemState(id);
+            Collection<NodeId> parents = state.getSharedSet();
+            if (parents.isEmpty() && state.getParentId() != null) {
+                parents = Collections.singleton(state.getParentId());
+            }
+            for (NodeId parentId : parents) {
+                ancestors.addAll(getAncestorsOrSelf(parentId, stateMgr, cache));
+            }
+        } catch (NoSuchItemStateException e) {
+            // node was removed but is still in the index
+            log.debug("Node {} does not exist", id);
+        } catch (ItemStateException e) {
+            throw new IOExceptionWithCause("Unable to read node " + id, e);
+        }
+        return ancestors;
+    }
+
+    /**
+     * Returns the UUIDs of a node and all its ancestors, starting with the
+     * root node.
+     *
+     * @param id the id of a node.
+     * @param stateMgr the item state manager of the workspace.
+     * @param cache the ancestors of recently used nodes.
+     * @return the UUIDs.
+     * @throws ItemStateException if a node cannot be read.
+     */
+    private static List<String> getAncestorsOrSelf(NodeId id,
+                                                   ItemStateManager stateMgr,
+                                                   Map<NodeId, List<String>> cache)
+            throws ItemStateException {
+        // walk up until a node with known ancestors is found
+        List<NodeId> path = new ArrayList<NodeId>();
+        List<String> ancestors = Collections.emptyList();
+        for (NodeId current = id; current != null; ) {
+            List<String> known = cache.get(current);
+            if (known != null) {
+                ancestors = known;
+                break;
+            }
+            path.add(current);
+            try {
+                current = ((NodeState) stateMgr.getItemState(current)).getParentId();
+            } catch (NoSuchItemStateException e) {
+                current = null;
+            }
+        }
+        for (int i = path.size() - 1; i >= 0; i--) {
+            List<String> list = new ArrayList<String>(ancestors.size() + 1);
+            list.addAll(ancestors);
+            list.add(path.get(i).toString());
+            cache.put(path.get(i), list);
+            ancestors = list;
+        }
+        return ancestors;
+    }
+
     //---------------------------< internal helper >----------------------------
 
+    /**
+     * Writes the documents of the temporary index used by
+     * {@link IndexMigration#addParallelIndex}.
+     */
+    private interface ParallelIndexWriter {
+
+        void write(IndexReader reader, Directory dir) throws IOException;
+    }
+
+    /**
+     * The numeric property values of an index in the order they are read
+     * from the index.
+     */
+    private static final class NumericValues {
+
+        private final List<String> names = new ArrayList<String>();
+
+        private int size;
+
+        private int[] docs = new int[64];
+
+        private int[] nameIdx = new int[64];
+
+        private int[] types = new int[64];
+
+        private long[] values = new long[64];
+
+        void add(int doc, int name, int type, long value) {
+            if (size == docs.length) {
+                int length = size * 2;
+                docs = Arrays.copyOf(docs, length);
+                nameIdx = Arrays.copyOf(nameIdx, length);
+                types = Arrays.copyOf(types, length);
+                values = Arrays.copyOf(values, length);
+            }
+            docs[size] = doc;
+            nameIdx[size] = name;
+            types[size] = type;
+            values[size] = value;
+            size++;
+        }
+    }
+
     /**
      * An index reader that migrates stored field values and term text on the
      * fly.
@@ -21,6 +21,7 @@ import java.io.Reader;
 import java.util.concurrent.Executor;
 
 import org.apache.jackrabbit.core.LowPriorityTask;
+import org.apache.jackrabbit.core.data.DataIdentifier;
 import org.apache.jackrabbit.core.value.InternalValue;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.document.AbstractField;
@@ -74,12 +75,49 @@ public class LazyTextExtractorField extends AbstractField {
             Parser parser, InternalValue value, Metadata metadata,
             Executor executor, boolean highlighting, int maxFieldLength,
             boolean withNorms) {
+        this(parser, value, metadata, executor, highlighting, maxFieldLength,
+                withNorms, null);
+    }
+
+    /**
+     * Creates a new <code>LazyTextExtractorField</code>. If the binary
+     * value is stored in the data store and <code>cache</code> contains
+     * the text of the binary, the cached text is used and the parser is not
+     * called. Otherwise the extracted text is added to the cache.
+     *
+     * @param parser
+     * @param value
+     * @param metadata
+     * @param executor
+     * @param highlighting
+     *            set to <code>true</code> to enable result highlighting support
+     * @param maxFieldLength
+     * @param withNorms
+     * @param cache
+     *            the extracted text cache or <code>null</code>
+     */
+    public LazyTextExtractorField(
+            Parser parser, InternalValue value, Metadata metadata,
+            Executor executor, boolean highlighting, int maxFieldLength,
+            boolean withNorms, ExtractedTextCache cache) {
         super(FieldNames.FULLTEXT,
                 highlighting ? Store.YES : Store.NO,
                 withNorms ? Field.Index.ANALYZED : Field.Index.ANALYZED_NO_NORMS,
                 highlighting ? TermVector.WITH_OFFSETS : TermVector.NO);
+        DataIdentifier identifier = null;
+        if (cache != null) {
+            identifier = value.getDataIdentifier();
+            if (identifier != null) {
+                String text = cache.get(identifier, metadata);
+                if (text != null) {
+                    value.discard();
+                    setExtractedText(text);
+                    return;
+                }
+            }
+        }
         executor.execute(new ParsingTask(parser, value, metadata,
-                maxFieldLength) {
+                maxFieldLength, identifier != null ? cache : null, identifier) {
             public void setExtractedText(String value) {
                 LazyTextExtractorField.this.setExtractedText(value);
             }
@@ -159,19 +197,36 @@ public class LazyTextExtractorField extends AbstractField {
 
         private final WriteOutContentHandler writeOutContentHandler;
 
+        private final ExtractedTextCache cache;
+
+        private final DataIdentifier identifier;
+
         public ParsingTask(Parser parser, InternalValue value,
                 Metadata metadata, int maxFieldLength) {
+            this(parser, value, metadata, maxFieldLength, null, null);
+        }
+
+        /**
+         * Creates a parsing task that adds the extracted text to
+         * <code>cache</code> unless the extraction fails.
+         */
+        ParsingTask(Parser parser, InternalValue value, Metadata metadata,
+                int maxFieldLength, ExtractedTextCache cache,
+                DataIdentifier identifier) {
             this(new WriteOutContentHandler(maxFieldLength), parser, value,
-                    metadata);
+                    metadata, cache, identifier);
         }
 
         private ParsingTask(WriteOutContentHandler writeOutContentHandler,
-                Parser parser, InternalValue value, Metadata metadata) {
+                Parser parser, InternalValue value, Metadata metadata,
+                ExtractedTextCache cache, DataIdentifier identifier) {
             super(writeOutContentHandler);
             this.writeOutContentHandler = writeOutContentHandler;
             this.parser = parser;
             this.value = value;
             this.metadata = metadata;
+            this.cache = cache;
+            this.identifier = identifier;
         }
 
         public void run() {
@@ -209,7 +264,11 @@ public class LazyTextExtractorField extends AbstractField {
             } finally {
                 value.discard();
             }
-            setExtractedText(writeOutContentHandler.toString());
+            String text = writeOutContentHandler.toString();
+            if (cache != null) {
+                cache.put(identifier, metadata, text);
+            }
+            setExtractedText(text);
         }
 
         protected abstract void setExtractedText(String value);
@@ -72,6 +72,7 @@ import org.apache.lucene.queryParser.ParseException;
 import org.apache.lucene.queryParser.QueryParser;
 import org.apache.lucene.search.*;
 import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.util.NumericUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -784,39 +785,51 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
                     break;
                 case QueryConstants.OPERATION_GE_VALUE:      // >=
                 case QueryConstants.OPERATION_GE_GENERAL:
-                    or = new BooleanQuery();
-                    for (String value : stringValues) {
-                        Term lower = new Term(FieldNames.PROPERTIES, FieldNames.createNamedValue(field, value));
-                        Term upper = new Term(FieldNames.PROPERTIES, FieldNames.createNamedValue(field, "\uFFFF"));
-                        or.add(new RangeQuery(lower, upper, true, transform[0], cache), Occur.SHOULD);
+                    if (useTrieRange(node, transform[0])) {
+                        query = createTrieRangeQuery(field, node, true, true);
+                    } else {
+                        or = new BooleanQuery();
+                        for (String value : stringValues) {
+                            Term lower = new Term(FieldNames.PROPERTIES, FieldNames.createNamedValue(field, value));
+                            Term upper = new Term(FieldNames.PROPERTIES, FieldNames.createNamedValue(field, "\uFFFF"));
+                            or.add(new RangeQuery(lower, upper, true, transform[0], cache), Occur.SHOULD);
+                        }
+                        query = or;
                     }
-                    query = or;
                     if (node.getOperation() == QueryConstants.OPERATION_GE_VALUE) {
-                        query = createSingleValueConstraint(or, field);
+                        query = createSingleValueConstraint(query, field);
                     }
                     break;
                 case QueryConstants.OPERATION_GT_VALUE:      // >
                 case QueryConstants.OPERATION_GT_GENERAL:
-                    or = new BooleanQuery();
-                    for (String value : stringValues) {
-                        Term lower = new Term(FieldNames.PROPERTIES, FieldNames.createNamedValue(field, value));
-                        Term upper = new Term(FieldNames.PROPERTIES, FieldNames.createNamedValue(field, "\uFFFF"));
-                        or.add(new RangeQuery(lower, upper, false, transform[0], cache), Occur.SHOULD);
+                    if (useTrieRange(node, transform[0])) {
+                        query = createTrieRangeQuery(field, node, true, false);
+                    } else {
+                        or = new BooleanQuery();
+                        for (String value : stringValues) {
+                            Term lower = new Term(FieldNames.PROPERTIES, FieldNames.createNamedValue(field, value));
+                            Term upper = new Term(FieldNames.PROPERTIES, FieldNames.createNamedValue(field, "\uFFFF"));
+                            or.add(new RangeQuery(lower, upper, false, transform[0], cache), Occur.SHOULD);
+                        }
+                        query = or;
                     }
-                    query = or;
                     if (node.getOperation() == QueryConstants.OPERATION_GT_VALUE) {
-                        query = createSingleValueConstraint(or, field);
+                        query = createSingleValueConstraint(query, field);
                     }
                     break;
                 case QueryConstants.OPERATION_LE_VALUE:      // <=
                 case QueryConstants.OPERATION_LE_GENERAL:      // <=
-                    or = new BooleanQuery();
-                    for (String value : stringValues) {
-                        Term lower = new Term(FieldNames.PROPERTIES, FieldNames.createNamedValue(field, ""));
-                        Term upper = new Term(FieldNames.PROPERTIES, FieldNames.createNamedValue(field, value));
-                        or.add(new RangeQuery(lower, upper, true, transform[0], cache), Occur.SHOULD);
+                    if (useTrieRange(node, transform[0])) {
+                        query = createTrieRangeQuery(field, node, false, true);
+                    } else {
+                        or = new BooleanQuery();
+                        for (String value : stringValues) {
+                            Term lower = new Term(FieldNames.PROPERTIES, FieldNames.createNamedValue(field, ""));
+                            Term upper = new Term(FieldNames.PROPERTIES, FieldNames.createNamedValue(field, value));
+                            or.add(new RangeQuery(lower, upper, true, transform[0], cache), Occur.SHOULD);
+                        }
+                        query = or;
                     }
-                    query = or;
                     if (node.getOperation() == QueryConstants.OPERATION_LE_VALUE) {
                         query = createSingleValueConstraint(query, field);
                     }
@@ -832,15 +845,19 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
                     break;
                 case QueryConstants.OPERATION_LT_VALUE:      // <
                 case QueryConstants.OPERATION_LT_GENERAL:
-                    or = new BooleanQuery();
-                    for (String value : stringValues) {
-                        Term lower = new Term(FieldNames.PROPERTIES, FieldNames.createNamedValue(field, ""));
-                        Term upper = new Term(FieldNames.PROPERTIES, FieldNames.createNamedValue(field, value));
-                        or.add(new RangeQuery(lower, upper, false, transform[0], cache), Occur.SHOULD);
+                    if (useTrieRange(node, transform[0])) {
+                        query = createTrieRangeQuery(field, node, false, false);
+                    } else {
+                        or = new BooleanQuery();
+                        for (String value : stringValues) {
+                            Term lower = new Term(FieldNames.PROPERTIES, FieldNames.createNamedValue(field, ""));
+                            Term upper = new Term(FieldNames.PROPERTIES, FieldNames.createNamedValue(field, value));
+                            or.add(new RangeQuery(lower, upper, false, transform[0], cache), Occur.SHOULD);
+                        }
+                        query = or;
                     }
-                    query = or;
                     if (node.getOperation() == QueryConstants.OPERATION_LT_VALUE) {
-                        query = createSingleValueConstraint(or, field);
+                        query = createSingleValueConstraint(query, field);
                     }
                     break;
                 case QueryConstants.OPERATION_NE_VALUE:      // !=
@@ -1040,6 +1057,74 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
 
     //---------------------------< internal >-----------------------------------
 
+    /**
+     * Returns <code>true</code> if the range constraint in <code>node</code>
+     * can be executed as a {@link TrieRangeQuery}. This is the case for long,
+     * double and date literals without a property function when the index
+     * format version is at least {@link IndexFormatVersion#V4}.
+     *
+     * @param node      the relation query node.
+     * @param transform the property transformation.
+     * @return whether a trie range query can be used.
+     */
+    private boolean useTrieRange(RelationQueryNode node, int transform) {
+        if (indexFormatVersion.getVersion() < IndexFormatVersion.V4.getVersion()
+                || transform != TransformConstants.TRANSFORM_NONE) {
+            return false;
+        }
+        switch (node.getValueType()) {
+            case QueryConstants.TYPE_DATE:
+            case QueryConstants.TYPE_DOUBLE:
+            case QueryConstants.TYPE_LONG:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Creates a {@link TrieRangeQuery} for the literal in <code>node</code>.
+     *
+     * @param field     the name of the property.
+     * @param node      the relation query node with a long, double or date
+     *                  literal.
+     * @param lower     <code>true</code> if the literal is the lower bound of
+     *                  the range; <code>false</code> if it is the upper bound.
+     * @param inclusive whether the literal is included in the range.
+     * @return the trie range query.
+     */
+    private Query createTrieRangeQuery(String field,
+                                       RelationQueryNode node,
+                                       boolean lower,
+                                       boolean inclusive) {
+        int type;
+        long value;
+        switch (node.getValueType()) {
+            case QueryConstants.TYPE_DATE:
+                type = PropertyType.DATE;
+                value = node.getDateValue().getTime();
+                break;
+            case QueryConstants.TYPE_DOUBLE:
+                type = PropertyType.DOUBLE;
+                value = NumericUtils.doubleToSortableLong(node.getDoubleValue());
+                break;
+            case QueryConstants.TYPE_LONG:
+                type = PropertyType.LONG;
+                value = node.getLongValue();
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported value type: "
+                        + node.getValueType());
+        }
+        if (lower) {
+            return new TrieRangeQuery(field, type,
+                    value, Long.MAX_VALUE, inclusive, true);
+        } else {
+            return new TrieRangeQuery(field, type,
+                    Long.MIN_VALUE, value, true, inclusive);
+        }
+    }
+
     /**
      * Wraps a constraint query around <code>q</code> that limits the nodes to
      * those where <code>propName</code> is the name of a single value property
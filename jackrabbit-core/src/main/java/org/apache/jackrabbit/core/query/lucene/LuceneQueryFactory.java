@@ -93,6 +93,7 @@ import org.apache.jackrabbit.commons.predicate.Predicates;
 import org.apache.jackrabbit.commons.predicate.RowPredicate;
 import org.apache.jackrabbit.commons.query.qom.OperandEvaluator;
 import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.query.QueryExplanation;
 import org.apache.jackrabbit.core.query.lucene.join.SelectorRow;
 import org.apache.jackrabbit.core.query.lucene.join.ValueComparator;
 import org.apache.jackrabbit.spi.Name;
@@ -192,7 +193,11 @@ public class LuceneQueryFactory {
         final int limit = limitIn < 0 ? Integer.MAX_VALUE : (int) limitIn;
 
         QueryHits hits = null;
+        QueryExplanation explanation = QueryExplanation.current();
+        long search = 0;
+        long access = 0;
         try {
+            long time = System.nanoTime();
             JackrabbitIndexSearcher searcher = new JackrabbitIndexSearcher(
                     session, reader, index.getContext().getItemStateManager());
             searcher.setSimilarity(index.getSimilarity());
@@ -211,6 +216,13 @@ public class LuceneQueryFactory {
                         constraint, Collections.singletonMap(name, type),
                         searcher, reader);
             }
+            if (explanation != null) {
+                long translated = System.nanoTime();
+                explanation.addTime(QueryExplanation.Phase.TRANSLATION,
+                        translated - time);
+                explanation.addIndexQuery(qp.mainQuery);
+                time = translated;
+            }
 
             List<Row> rows = new ArrayList<Row>();
 
@@ -221,8 +233,16 @@ public class LuceneQueryFactory {
             int addedNodes = 0;
 
             ScoreNode node = hits.nextScoreNode();
+            if (explanation != null) {
+                explanation.addEstimatedHits(hits.getSize());
+            }
             while (node != null) {
                 Row row = null;
+                if (explanation != null) {
+                    long now = System.nanoTime();
+                    search += now - time;
+                    time = now;
+                }
                 try {
                     row = new SelectorRow(columns, evaluator,
                             selector.getSelectorName(),
@@ -231,6 +251,12 @@ public class LuceneQueryFactory {
                 } catch (ItemNotFoundException e) {
                     // skip the node
                 }
+                if (explanation != null) {
+                    long now = System.nanoTime();
+                    access += now - time;
+                    time = now;
+                    explanation.addIndexHit(row != null);
+                }
                 if (row != null && filter.evaluate(row)) {
                     if (externalSort) {
                         // return everything and not worry about sort
@@ -251,8 +277,15 @@ public class LuceneQueryFactory {
                 }
                 node = hits.nextScoreNode();
             }
+            if (explanation != null) {
+                search += System.nanoTime() - time;
+            }
             return rows;
         } finally {
+            if (explanation != null) {
+                explanation.addTime(QueryExplanation.Phase.SEARCH, search);
+                explanation.addTime(QueryExplanation.Phase.ACCESS_CHECK, access);
+            }
             if (hits != null) {
                 hits.close();
             }
@@ -401,7 +434,8 @@ public class LuceneQueryFactory {
                         left, transform.transform, operator, right, selectorMap);
                 query.subQuery.add(cq, MUST);
             }
-        } else if (constraint instanceof DescendantNode) {
+        } else if (constraint instanceof DescendantNode
+                && !index.canUseAncestorTerms()) {
             final DescendantNode descendantNode = (DescendantNode) constraint;
             Query context = getNodeIdQuery(UUID, descendantNode.getAncestorPath());
             query.mainQuery = new DescendantSelfAxisQuery(context, query.subQuery, false);
@@ -450,6 +484,9 @@ public class LuceneQueryFactory {
     protected Query getDescendantNodeQuery(
             DescendantNode dn, JackrabbitIndexSearcher searcher)
             throws RepositoryException, IOException {
+        if (index.canUseAncestorTerms()) {
+            return getAncestorQuery(dn);
+        }
         BooleanQuery query = new BooleanQuery();
         int clauses = 0;
 
@@ -489,6 +526,23 @@ public class LuceneQueryFactory {
         return query;
     }
 
+    /**
+     * Returns a query for the descendants of a node that matches the
+     * {@link FieldNames#ANCESTORS} terms of the index.
+     *
+     * @param dn the descendant node constraint.
+     * @return the query.
+     * @throws RepositoryException if the ancestor path is invalid.
+     */
+    protected Query getAncestorQuery(DescendantNode dn)
+            throws RepositoryException {
+        BooleanQuery query = new BooleanQuery();
+        query.add(getNodeIdQuery(FieldNames.ANCESTORS, dn.getAncestorPath()), MUST);
+        // the node itself is not a descendant
+        query.add(getNodeIdQuery(UUID, dn.getAncestorPath()), MUST_NOT);
+        return query;
+    }
+
     protected Query getFullTextSearchQuery(FullTextSearch fts)
             throws RepositoryException {
         String field = FieldNames.FULLTEXT;
@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+/**
+ * <code>MergeStatistics</code> is a snapshot of the merge backlog and the
+ * merge throughput of a search index. See
+ * {@link SearchIndex#getMergeStatistics()}.
+ */
+public class MergeStatistics {
+
+    private final int runningMerges;
+
+    private final int pendingMerges;
+
+    private final long completedMerges;
+
+    private final long mergedDocuments;
+
+    private final long mergedBytes;
+
+    private final long mergeTime;
+
+    private final double maxMBPerSec;
+
+    MergeStatistics(int runningMerges, int pendingMerges,
+                    long completedMerges, long mergedDocuments,
+                    long mergedBytes, long mergeTime, double maxMBPerSec) {
+        this.runningMerges = runningMerges;
+        this.pendingMerges = pendingMerges;
+        this.completedMerges = completedMerges;
+        this.mergedDocuments = mergedDocuments;
+        this.mergedBytes = mergedBytes;
+        this.mergeTime = mergeTime;
+        this.maxMBPerSec = maxMBPerSec;
+    }
+
+    /**
+     * @return the number of merges that are currently running.
+     */
+    public int getRunningMerges() {
+        return runningMerges;
+    }
+
+    /**
+     * @return the number of merges that are necessary but not yet running.
+     */
+    public int getPendingMerges() {
+        return pendingMerges;
+    }
+
+    /**
+     * @return the number of merges completed since the index was opened.
+     */
+    public long getCompletedMerges() {
+        return completedMerges;
+    }
+
+    /**
+     * @return the number of documents written by completed merges.
+     */
+    public long getMergedDocuments() {
+        return mergedDocuments;
+    }
+
+    /**
+     * @return the size in bytes of the indexes created by completed merges.
+     */
+    public long getMergedBytes() {
+        return mergedBytes;
+    }
+
+    /**
+     * @return the time in milliseconds spent in completed merges.
+     */
+    public long getMergeTime() {
+        return mergeTime;
+    }
+
+    /**
+     * @return the average throughput of completed merges in MB per second.
+     */
+    public double getMBPerSec() {
+        if (mergeTime == 0) {
+            return 0;
+        }
+        return mergedBytes / (1024d * 1024d) / (mergeTime / 1000d);
+    }
+
+    /**
+     * @return the configured write rate limit of merges in MB per second or
+     *         zero if merges are not limited.
+     */
+    public double getMaxMBPerSec() {
+        return maxMBPerSec;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public String toString() {
+        return "MergeStatistics[running=" + runningMerges
+                + ", pending=" + pendingMerges
+                + ", completed=" + completedMerges
+                + ", documents=" + mergedDocuments
+                + ", bytes=" + mergedBytes
+                + ", time=" + mergeTime + "ms"
+                + ", MB/s=" + String.format("%.2f", getMBPerSec()) + "]";
+    }
+}
@@ -16,7 +16,11 @@
  */
 package org.apache.jackrabbit.core.query.lucene;
 
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.text.DateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -26,17 +30,23 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.jcr.RepositoryException;
 
 import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.persistence.IterablePersistenceManager;
+import org.apache.jackrabbit.core.persistence.PersistenceManager;
 import org.apache.jackrabbit.core.query.lucene.directory.DirectoryManager;
+import org.apache.jackrabbit.core.query.lucene.directory.FSDirectoryManager;
 import org.apache.jackrabbit.core.state.ChildNodeEntry;
 import org.apache.jackrabbit.core.state.ItemStateException;
 import org.apache.jackrabbit.core.state.ItemStateManager;
@@ -48,9 +58,12 @@ import org.apache.jackrabbit.spi.commons.conversion.DefaultNamePathResolver;
 import org.apache.jackrabbit.spi.commons.conversion.PathResolver;
 import org.apache.jackrabbit.spi.commons.name.PathFactoryImpl;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexFileNameFilter;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -108,6 +121,12 @@ public class MultiIndex {
      */
     private final Map<String, Long> deletable = new HashMap<String, Long>();
 
+    /**
+     * Number of snapshots currently copying segments. Unused segments are
+     * not deleted while a snapshot is in progress.
+     */
+    private final AtomicInteger snapshots = new AtomicInteger();
+
     /**
      * List of open persistent indexes. This list may also contain an open
      * PersistentIndex owned by the IndexMerger daemon. Such an index is not
@@ -158,11 +177,6 @@ public class MultiIndex {
      */
     private CachingMultiIndexReader multiReader;
 
-    /**
-     * Shared document number cache across all persistent indexes.
-     */
-    private final DocNumberCache cache;
-
     /**
      * Monitor to use to synchronize access to {@link #multiReader} and
      * {@link #updateInProgress}.
@@ -184,6 +198,12 @@ public class MultiIndex {
      */
     private final IndexMerger merger;
 
+    /**
+     * The listeners that are informed when segments are added or removed.
+     */
+    private final List<SegmentListener> segmentListeners =
+            new CopyOnWriteArrayList<SegmentListener>();
+
     /**
      * Task that is periodically called by the repository timer for checking
      * if index should be flushed.
@@ -193,7 +213,31 @@ public class MultiIndex {
     /**
      * The RedoLog of this <code>MultiIndex</code>.
      */
-    private RedoLog redoLog;
+    private volatile RedoLog redoLog;
+
+    /**
+     * Monitor for the group commit of the redo log.
+     */
+    private final Object groupCommitMonitor = new Object();
+
+    /**
+     * The number of transactions appended to the redo log by
+     * {@link #update(Collection, Collection)}.
+     */
+    private volatile long appendedTransactions = 0;
+
+    /**
+     * The number of transactions appended by
+     * {@link #update(Collection, Collection)} that have been flushed to the
+     * redo log.
+     */
+    private long flushedTransactions = 0;
+
+    /**
+     * Flag indicating whether a thread is currently flushing the redo log
+     * for a group of transactions.
+     */
+    private boolean groupCommitInProgress = false;
 
     /**
      * The indexing queue with pending text extraction jobs.
@@ -246,7 +290,6 @@ public class MultiIndex {
         this.redoLogFactory = handler.getRedoLogFactory();
         this.indexDir = directoryManager.getDirectory(".");
         this.handler = handler;
-        this.cache = new DocNumberCache(handler.getCacheSize());
         this.excludedIDs = new HashSet<NodeId>(excludedIDs);
         this.nsMappings = handler.getNamespaceMappings();
 
@@ -265,6 +308,9 @@ public class MultiIndex {
         merger.setMaxMergeDocs(handler.getMaxMergeDocs());
         merger.setMergeFactor(handler.getMergeFactor());
         merger.setMinMergeDocs(handler.getMinMergeDocs());
+        merger.setTieredMerge(handler.getUseTieredMerge());
+        merger.setMaxConcurrentMerges(handler.getMaxConcurrentMerges());
+        merger.setMaxMergeMBPerSec(handler.getMaxMergeMBPerSec());
 
         // initialize indexing queue
         this.indexingQueue = new IndexingQueue(new IndexingQueueStore(indexDir));
@@ -285,12 +331,15 @@ public class MultiIndex {
             }
             PersistentIndex index = new PersistentIndex(name,
                     handler.getTextAnalyzer(), handler.getSimilarity(),
-                    cache, indexingQueue, directoryManager,
+                    indexingQueue, directoryManager,
                     handler.getMaxHistoryAge());
             index.setUseCompoundFile(handler.getUseCompoundFile());
             index.setTermInfosIndexDivisor(handler.getTermInfosIndexDivisor());
+            // segments of a version 4 index get the ancestors of each node
+            IndexMigration.migrateAncestors(index, directoryManager,
+                    handler.getContext().getItemStateManager());
             indexes.add(index);
-            merger.indexAdded(index.getName(), index.getNumDocuments());
+            merger.indexAdded(index);
         }
 
         // init volatile index
@@ -312,6 +361,12 @@ public class MultiIndex {
         // run recovery
         Recovery.run(this, redoLog);
 
+        // a checkpoint of the initial index creation is obsolete
+        // once the index contains segments
+        if (indexNames.size() > 0 && ParallelIndexBuilder.hasCheckpoint(indexDir)) {
+            indexDir.deleteFile(ParallelIndexBuilder.CHECKPOINT);
+        }
+
         // enqueue unused segments for deletion
         enqueueUnusedSegments();
         attemptDelete();
@@ -360,9 +415,22 @@ public class MultiIndex {
         return version;
     }
 
+    /**
+     * @return the merge backlog and throughput of this multi index.
+     */
+    MergeStatistics getMergeStatistics() {
+        return merger.getStatistics();
+    }
+
     /**
      * Creates an initial index by traversing the node hierarchy starting at the
      * node with <code>rootId</code>.
+     * <p>
+     * The index of a workspace is created with a {@link ParallelIndexBuilder}
+     * instead, if {@link SearchIndex#getInitialIndexThreads()} is larger than
+     * one and the persistence manager is an
+     * {@link IterablePersistenceManager}. An interrupted parallel index
+     * creation is always resumed.
      *
      * @param stateMgr the item state manager.
      * @param rootId   the id of the node from where to start.
@@ -380,15 +448,38 @@ public class MultiIndex {
             reindexing = true;
             try {
                 long count = 0;
-                // traverse and index workspace
+                ParallelIndexBuilder builder = null;
+                PersistenceManager pm = handler.getContext().getPersistenceManager();
+                if (rootPath.denotesRoot()
+                        && pm instanceof IterablePersistenceManager
+                        && (handler.getInitialIndexThreads() > 1
+                        || ParallelIndexBuilder.hasCheckpoint(indexDir))) {
+                    builder = new ParallelIndexBuilder(this,
+                            (IterablePersistenceManager) pm, stateMgr, rootId,
+                            excludedIDs, handler.getInitialIndexThreads(),
+                            handler.getInitialIndexBatchSize());
+                }
                 executeAndLog(new Start(Action.INTERNAL_TRANSACTION));
-                NodeState rootState = (NodeState) stateMgr.getItemState(rootId);
-                count = createIndex(rootState, rootPath, stateMgr, count);
+                if (builder != null) {
+                    // index workspace with multiple threads
+                    for (PersistentIndex index : builder.build()) {
+                        executeAndLog(new AddIndex(
+                                getTransactionId(), index.getName()));
+                    }
+                    count = builder.getNodeCount();
+                } else {
+                    // traverse and index workspace
+                    NodeState rootState = (NodeState) stateMgr.getItemState(rootId);
+                    count = createIndex(rootState, rootPath, stateMgr, count);
+                }
                 checkIndexingQueue(true);
                 executeAndLog(new Commit(getTransactionId()));
                 log.debug("Created initial index for {} nodes", count);
                 releaseMultiReader();
                 safeFlush();
+                if (builder != null) {
+                    builder.deleteCheckpoint();
+                }
             } catch (Exception e) {
                 String msg = "Error indexing workspace";
                 IOException ex = new IOException(msg);
@@ -405,7 +496,8 @@ public class MultiIndex {
 
     /**
      * Atomically updates the index by removing some documents and adding
-     * others.
+     * others. The changes are visible to queries right away, but this method
+     * only returns when the changes have been flushed to the redo log.
      *
      * @param remove collection of <code>id</code>s that identify documents to
      *               remove
@@ -414,7 +506,24 @@ public class MultiIndex {
      *               indicate that a node could not be indexed successfully.
      * @throws IOException if an error occurs while updating the index.
      */
-    synchronized void update(
+    void update(Collection<NodeId> remove, Collection<Document> add)
+            throws IOException {
+        groupCommit(updateAndLog(remove, add));
+    }
+
+    /**
+     * Updates the index and appends the changes to the redo log without
+     * flushing it.
+     *
+     * @param remove collection of <code>id</code>s that identify documents to
+     *               remove
+     * @param add    collection of <code>Document</code>s to add.
+     * @return the number of transactions appended to the redo log, including
+     *         this one.
+     * @throws IOException if an error occurs while updating the index.
+     * @see #groupCommit(long)
+     */
+    private synchronized long updateAndLog(
             Collection<NodeId> remove, Collection<Document> add)
             throws IOException {
         // make sure a reader is available during long updates
@@ -452,7 +561,12 @@ public class MultiIndex {
             }
             time = System.currentTimeMillis() - time;
             log.debug("{} documents added in {}ms", add.size(), time);
-            executeAndLog(new Commit(transactionId));
+            // the redo log is flushed by groupCommit() without holding
+            // the lock on this index
+            Commit commit = new Commit(transactionId);
+            commit.execute(this);
+            redoLog.append(commit);
+            return ++appendedTransactions;
         } finally {
             synchronized (updateMonitor) {
                 updateInProgress = false;
@@ -597,7 +711,7 @@ public class MultiIndex {
         try {
             index = new PersistentIndex(indexName,
                     handler.getTextAnalyzer(), handler.getSimilarity(),
-                    cache, indexingQueue, directoryManager,
+                    indexingQueue, directoryManager,
                     handler.getMaxHistoryAge());
         } catch (IOException e) {
             // do some clean up
@@ -757,7 +871,7 @@ public class MultiIndex {
                 readerList.add(volatileIndex.getReadOnlyIndexReader());
                 ReadOnlyIndexReader[] readers =
                     readerList.toArray(new ReadOnlyIndexReader[readerList.size()]);
-                multiReader = new CachingMultiIndexReader(readers, cache);
+                multiReader = new CachingMultiIndexReader(readers);
             }
             multiReader.acquire();
             return multiReader;
@@ -848,6 +962,14 @@ public class MultiIndex {
         return indexDir;
     }
 
+    /**
+     * @return <code>true</code> if the redo log should be synced to disk
+     *         when it is flushed.
+     */
+    boolean isSyncRedoLog() {
+        return handler.isSyncRedoLog();
+    }
+
     /**
      * @return the current generation of the index names.
      */
@@ -855,6 +977,69 @@ public class MultiIndex {
         return indexNames.getGeneration();
     }
 
+    /**
+     * Creates a copy of this index in the <code>target</code> directory, which
+     * can be used as the directory of another index. Pending changes are
+     * flushed first. The current index infos and the other files in the base
+     * directory, e.g. moved nodes whose descendants are not yet re-indexed,
+     * are copied while this index is locked. The current commits of the
+     * segments referenced by the index infos are then pinned and copied
+     * without holding the lock, so the index can be updated in the meantime.
+     * Files of a file system based index are hard linked where possible.
+     *
+     * @param target the target directory.
+     * @throws IOException if an error occurs while copying the index.
+     */
+    void createSnapshot(File target) throws IOException {
+        Map<PersistentIndex, String> commits =
+                new LinkedHashMap<PersistentIndex, String>();
+        Map<String, Collection<String>> segments =
+                new LinkedHashMap<String, Collection<String>>();
+        synchronized (this) {
+            flush();
+            synchronized (deletable) {
+                snapshots.incrementAndGet();
+            }
+            try {
+                copyFiles(".", target, indexNames.getFileName(), null);
+                for (PersistentIndex index : indexes) {
+                    if (indexNames.contains(index.getName())) {
+                        String commit = index.pinCommit();
+                        commits.put(index, commit);
+                        segments.put(index.getName(),
+                                index.getCommitFiles(commit));
+                    }
+                }
+            } catch (IOException e) {
+                releaseSnapshot(commits);
+                throw e;
+            }
+        }
+        try {
+            for (Map.Entry<String, Collection<String>> entry : segments.entrySet()) {
+                String name = entry.getKey();
+                copyFiles(name, new File(target, name), null, entry.getValue());
+            }
+        } finally {
+            releaseSnapshot(commits);
+        }
+        log.info("Created snapshot of {} segments in {}",
+                segments.size(), target);
+    }
+
+    /**
+     * Releases the commits pinned by a snapshot and allows unused segments
+     * to be deleted again.
+     *
+     * @param commits the pinned commits by index.
+     */
+    private void releaseSnapshot(Map<PersistentIndex, String> commits) {
+        for (Map.Entry<PersistentIndex, String> entry : commits.entrySet()) {
+            entry.getKey().releaseCommit(entry.getValue());
+        }
+        snapshots.decrementAndGet();
+    }
+
     /**
      * Returns a lucene Document for the <code>node</code>.
      *
@@ -896,6 +1081,35 @@ public class MultiIndex {
         return redoLogApplied;
     }
 
+    /**
+     * Registers a listener that is informed when segments are added to or
+     * removed from this index.
+     *
+     * @param listener the listener to add.
+     */
+    void addSegmentListener(SegmentListener listener) {
+        segmentListeners.add(listener);
+    }
+
+    /**
+     * Removes a previously registered segment listener.
+     *
+     * @param listener the listener to remove.
+     */
+    void removeSegmentListener(SegmentListener listener) {
+        segmentListeners.remove(listener);
+    }
+
+    /**
+     * Informs the registered listeners that the segments of this index
+     * changed.
+     */
+    private void notifySegmentsChanged() {
+        for (SegmentListener listener : segmentListeners) {
+            listener.segmentsChanged();
+        }
+    }
+
     /**
      * Removes the <code>index</code> from the list of active sub indexes.
      * Depending on the {@link SearchIndex#getMaxHistoryAge()}, the
@@ -910,6 +1124,8 @@ public class MultiIndex {
         // remove it from the lists if index is registered
         indexes.remove(index);
         indexNames.removeName(index.getName());
+        merger.indexRemoved(index);
+        notifySegmentsChanged();
         synchronized (deletable) {
             log.debug("Moved " + index.getName() + " to deletable");
             deletable.put(index.getName(), System.currentTimeMillis());
@@ -986,6 +1202,70 @@ public class MultiIndex {
         attemptDelete();
     }
 
+    /**
+     * Copies the files of an index directory. Files are hard linked if the
+     * index is file system based and the link can be created, e.g. the
+     * target is on the same file system.
+     *
+     * @param name the name of the index directory.
+     * @param target the target directory.
+     * @param indexInfos the name of the index infos file to copy or
+     *                   <code>null</code> if the directory does not contain
+     *                   index infos.
+     * @param commitFiles the Lucene files to copy or <code>null</code> to
+     *                    copy all files. Other files are always copied.
+     * @throws IOException if an error occurs while copying the files.
+     */
+    private void copyFiles(String name, File target, String indexInfos,
+                           Collection<String> commitFiles)
+            throws IOException {
+        if (!target.mkdirs() && !target.isDirectory()) {
+            throw new IOException("Unable to create directory: " + target);
+        }
+        File source = null;
+        if (directoryManager instanceof FSDirectoryManager) {
+            source = new File(handler.getPath(), name);
+        }
+        Directory dir = directoryManager.getDirectory(name);
+        Directory targetDir = FSDirectory.open(target);
+        try {
+            for (String file : dir.listAll()) {
+                if (file.equals(IndexWriter.WRITE_LOCK_NAME)
+                        || (indexInfos != null && file.startsWith("indexes")
+                        && !file.equals(indexInfos))
+                        || (commitFiles != null && !commitFiles.contains(file)
+                        && IndexFileNameFilter.getFilter().accept(null, file))) {
+                    continue;
+                }
+                if (source != null) {
+                    try {
+                        Files.createLink(new File(target, file).toPath(),
+                                new File(source, file).toPath());
+                        continue;
+                    } catch (NoSuchFileException e) {
+                        // deleted in the meantime
+                        continue;
+                    } catch (IOException e) {
+                        // copy instead
+                    } catch (UnsupportedOperationException e) {
+                        // copy instead
+                    }
+                }
+                try {
+                    dir.copy(targetDir, file, file);
+                } catch (FileNotFoundException e) {
+                    // deleted in the meantime
+                }
+            }
+        } finally {
+            targetDir.close();
+            if (source != null) {
+                // other directory managers share their directory instances
+                dir.close();
+            }
+        }
+    }
+
     /**
      * Releases the {@link #multiReader} and sets it <code>null</code>. If the
      * reader is already <code>null</code> this method does nothing. When this
@@ -1047,9 +1327,11 @@ public class MultiIndex {
      * @throws IOException if an error occurs while reading directories.
      */
     private void enqueueUnusedSegments() throws IOException {
+        // segments of an interrupted initial index creation are still needed
+        Set<String> reindexSegments = ParallelIndexBuilder.getSegmentNames(indexDir);
         // walk through index segments
         for (String name : directoryManager.getDirectoryNames()) {
-            if (!name.startsWith("_")) {
+            if (!name.startsWith("_") || reindexSegments.contains(name)) {
                 continue;
             }
             long lastUse = indexHistory.getLastUseOf(name);
@@ -1146,6 +1428,52 @@ public class MultiIndex {
         return a;
     }
 
+    /**
+     * Waits until the redo log contains the first <code>transactions</code>
+     * transactions appended by {@link #updateAndLog(Collection, Collection)}.
+     * If no other thread is flushing the redo log, the calling thread
+     * flushes it on behalf of all transactions appended so far. Concurrent
+     * transactions therefore share a single flush of the redo log.
+     *
+     * @param transactions the number of transactions that must be flushed.
+     * @throws IOException if an error occurs while flushing the redo log.
+     */
+    private void groupCommit(long transactions) throws IOException {
+        synchronized (groupCommitMonitor) {
+            while (flushedTransactions < transactions) {
+                if (!groupCommitInProgress) {
+                    groupCommitInProgress = true;
+                    break;
+                }
+                try {
+                    groupCommitMonitor.wait();
+                } catch (InterruptedException e) {
+                    // check again
+                }
+            }
+            if (flushedTransactions >= transactions) {
+                return;
+            }
+        }
+        boolean success = false;
+        // read the count before the redo log. if the redo log is replaced
+        // in the meantime, the counted transactions are either in the new
+        // redo log or in a redo log that has been closed and flushed already
+        long appended = appendedTransactions;
+        try {
+            redoLog.flush();
+            success = true;
+        } finally {
+            synchronized (groupCommitMonitor) {
+                if (success && appended > flushedTransactions) {
+                    flushedTransactions = appended;
+                }
+                groupCommitInProgress = false;
+                groupCommitMonitor.notifyAll();
+            }
+        }
+    }
+
     /**
      * Checks if it is needed to commit the volatile index according to {@link
      * SearchIndex#getMaxVolatileIndexSize()}.
@@ -1257,6 +1585,10 @@ public class MultiIndex {
      */
     private void attemptDelete() {
         synchronized (deletable) {
+            if (snapshots.get() > 0) {
+                // segments may still be copied, try again later
+                return;
+            }
             for (Iterator<Map.Entry<String, Long>> it = deletable.entrySet().iterator(); it.hasNext(); ) {
                 Map.Entry<String, Long> entry = it.next();
                 String indexName = entry.getKey();
@@ -1651,7 +1983,8 @@ public class MultiIndex {
             if (!index.indexNames.contains(indexName)) {
                 index.indexNames.addName(indexName, idx.getCurrentGeneration());
                 // now that the index is in the active list let the merger know about it
-                index.merger.indexAdded(indexName, idx.getNumDocuments());
+                index.merger.indexAdded(idx);
+                index.notifySegmentsChanged();
             }
         }
 
@@ -20,6 +20,7 @@ import java.math.BigDecimal;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Executor;
@@ -45,6 +46,7 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.Fieldable;
 import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.util.NumericUtils;
 import org.apache.tika.metadata.Metadata;
 import org.apache.tika.mime.MediaType;
 import org.apache.tika.parser.ParseContext;
@@ -131,6 +133,12 @@ public class NodeIndexer {
      */
     private int maxExtractLength = Integer.MAX_VALUE;
 
+    /**
+     * The cache of text extracted from binaries or <code>null</code> if
+     * text is always extracted.
+     */
+    private ExtractedTextCache extractedTextCache;
+
     /**
      * Creates a new node indexer.
      *
@@ -205,6 +213,16 @@ public class NodeIndexer {
         this.maxExtractLength = length;
     }
 
+    /**
+     * Sets the cache of text extracted from binaries.
+     *
+     * @param cache the cache or <code>null</code> if text should always be
+     *              extracted.
+     */
+    public void setExtractedTextCache(ExtractedTextCache cache) {
+        this.extractedTextCache = cache;
+    }
+
     /**
      * Creates a lucene Document.
      *
@@ -252,6 +270,24 @@ public class NodeIndexer {
             // unknown uri<->prefix mappings
         }
 
+        // as of version 4, mark the node with the index format version
+        if (indexFormatVersion.getVersion() >= IndexFormatVersion.V4.getVersion()) {
+            Field version = new Field(FieldNames.INDEX_FORMAT_VERSION, false,
+                    indexFormatVersion.toString(), Field.Store.NO,
+                    Field.Index.NOT_ANALYZED_NO_NORMS, Field.TermVector.NO);
+            version.setIndexOptions(FieldInfo.IndexOptions.DOCS_ONLY);
+            doc.add(version);
+        }
+
+        // as of version 5, index the node and all its ancestors
+        if (indexFormatVersion.getVersion() >= IndexFormatVersion.V5.getVersion()) {
+            try {
+                addAncestors(doc);
+            } catch (ItemStateException e) {
+                throwRepositoryException(e);
+            }
+        }
+
         Set<Name> props = node.getPropertyNames();
         for (Name propName : props) {
             if (isIndexed(propName)) {
@@ -548,6 +584,8 @@ public class NodeIndexer {
             doc.add(createFieldWithoutNorms(fieldName,
                     DateField.timeToString(internalValue.getTimeInMillis()),
                     PropertyType.DATE));
+            addTrieFields(doc, fieldName, PropertyType.DATE,
+                    internalValue.getTimeInMillis());
         } catch (IllegalArgumentException e) {
             log.warn("'{}' is outside of supported date value range.",
                     internalValue);
@@ -566,6 +604,8 @@ public class NodeIndexer {
     protected void addDoubleValue(Document doc, String fieldName, double internalValue) {
         doc.add(createFieldWithoutNorms(fieldName, DoubleField.doubleToString(internalValue),
                 PropertyType.DOUBLE));
+        addTrieFields(doc, fieldName, PropertyType.DOUBLE,
+                NumericUtils.doubleToSortableLong(internalValue));
     }
 
     /**
@@ -580,6 +620,23 @@ public class NodeIndexer {
     protected void addLongValue(Document doc, String fieldName, long internalValue) {
         doc.add(createFieldWithoutNorms(fieldName, LongField.longToString(internalValue),
                 PropertyType.LONG));
+        addTrieFields(doc, fieldName, PropertyType.LONG, internalValue);
+    }
+
+    /**
+     * Adds the trie terms of a long, double or date value to the document
+     * if the index format version is at least {@link IndexFormatVersion#V4}.
+     *
+     * @param doc          The document to which to add the fields
+     * @param fieldName    The name of the property
+     * @param propertyType The type of the property value
+     * @param value        The value as a sortable long, see {@link TrieField}
+     */
+    protected void addTrieFields(Document doc, String fieldName,
+                                 int propertyType, long value) {
+        if (indexFormatVersion.getVersion() >= IndexFormatVersion.V4.getVersion()) {
+            TrieField.addFields(doc, fieldName, propertyType, value);
+        }
     }
 
     /**
@@ -870,7 +927,8 @@ public class NodeIndexer {
     protected Fieldable createFulltextField(
             InternalValue value, Metadata metadata, boolean withNorms) {
         return new LazyTextExtractorField(parser, value, metadata, executor,
-                supportHighlighting, getMaxExtractLength(), withNorms);
+                supportHighlighting, getMaxExtractLength(), withNorms,
+                extractedTextCache);
     }
 
     /**
@@ -1006,6 +1064,36 @@ public class NodeIndexer {
         }
     }
 
+    /**
+     * Adds a {@link FieldNames#ANCESTORS} field for the current node and each
+     * of its ancestors to the given <code>doc</code>. The ancestors of a
+     * shareable node are the ancestors of all the nodes in its shared set.
+     *
+     * @param doc the document.
+     * @throws ItemStateException if an ancestor node cannot be read.
+     */
+    protected void addAncestors(Document doc) throws ItemStateException {
+        Set<NodeId> ancestors = new LinkedHashSet<NodeId>();
+        ancestors.add(node.getNodeId());
+        List<NodeId> parents = new ArrayList<NodeId>(node.getSharedSet());
+        if (parents.isEmpty() && node.getParentId() != null) {
+            parents.add(node.getParentId());
+        }
+        for (NodeId id : parents) {
+            // stop at ancestors that are already known
+            while (id != null && ancestors.add(id)) {
+                id = ((NodeState) stateProvider.getItemState(id)).getParentId();
+            }
+        }
+        for (NodeId id : ancestors) {
+            Field ancestor = new Field(FieldNames.ANCESTORS, false,
+                    id.toString(), Field.Store.NO,
+                    Field.Index.NOT_ANALYZED_NO_NORMS, Field.TermVector.NO);
+            ancestor.setIndexOptions(FieldInfo.IndexOptions.DOCS_ONLY);
+            doc.add(ancestor);
+        }
+    }
+
     /**
      * Adds a parent child relation to the given <code>doc</code>.
      *
@@ -0,0 +1,536 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.persistence.IterablePersistenceManager;
+import org.apache.jackrabbit.core.state.ItemStateException;
+import org.apache.jackrabbit.core.state.ItemStateManager;
+import org.apache.jackrabbit.core.state.NoSuchItemStateException;
+import org.apache.jackrabbit.core.state.NodeState;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>ParallelIndexBuilder</code> creates the initial index of a workspace
+ * with multiple threads. Instead of traversing the node hierarchy the node
+ * ids are read in batches from an {@link IterablePersistenceManager}. Batch
+ * number <code>n</code> is indexed by worker <code>n % threads</code>, each
+ * worker writes to its own {@link PersistentIndex} segment.
+ * <p>
+ * Every worker commits its segment after each batch and stores the number
+ * of the batch in the commit user data. The names of the segments are
+ * written to a checkpoint file in the index directory before any node is
+ * indexed. If the index creation is interrupted, the next attempt continues
+ * with the segments listed in the checkpoint file and skips batches that
+ * have already been committed. This requires that the persistence manager
+ * returns the node ids in the same order and that the workspace content does
+ * not change in the meantime, which is the case while a workspace is
+ * initialized.
+ * <p>
+ * The segments are not registered with the {@link MultiIndex}. This is left
+ * to the caller, which must call {@link #deleteCheckpoint()} once the
+ * segments are registered.
+ */
+class ParallelIndexBuilder {
+
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(ParallelIndexBuilder.class);
+
+    /**
+     * Name of the checkpoint file in the index directory.
+     */
+    static final String CHECKPOINT = "reindex";
+
+    /**
+     * Commit user data key for the number of the last indexed batch.
+     */
+    private static final String LAST_BATCH = "jackrabbit.reindex.batch";
+
+    /**
+     * Commit user data key for the number of nodes in a segment.
+     */
+    private static final String NODE_COUNT = "jackrabbit.reindex.nodes";
+
+    /**
+     * Interval in milliseconds between two progress messages.
+     */
+    private static final long PROGRESS_INTERVAL = 10 * 1000;
+
+    /**
+     * Marks the end of the batches for a worker.
+     */
+    private static final Batch END = new Batch(-1, Collections.<NodeId>emptyList());
+
+    /**
+     * The multi index, which creates the segments and documents.
+     */
+    private final MultiIndex index;
+
+    /**
+     * The persistence manager from where the node ids are read.
+     */
+    private final IterablePersistenceManager pm;
+
+    /**
+     * The item state manager.
+     */
+    private final ItemStateManager stateMgr;
+
+    /**
+     * The id of the root node.
+     */
+    private final NodeId rootId;
+
+    /**
+     * Identifiers of nodes that should neither be indexed nor their
+     * descendants.
+     */
+    private final Set<NodeId> excludedIDs;
+
+    /**
+     * The index directory where the checkpoint file is stored.
+     */
+    private final Directory indexDir;
+
+    /**
+     * The number of worker threads.
+     */
+    private int threads;
+
+    /**
+     * The number of node ids per batch.
+     */
+    private int batchSize;
+
+    /**
+     * The number of nodes indexed so far.
+     */
+    private long count;
+
+    /**
+     * The number of nodes indexed when the last progress message was logged.
+     */
+    private long lastCount;
+
+    /**
+     * Time when the last progress message was logged.
+     */
+    private long lastProgress;
+
+    /**
+     * The first error of a worker or <code>null</code> if there is none.
+     */
+    private volatile Throwable failure;
+
+    /**
+     * Creates a new builder.
+     *
+     * @param index       the multi index.
+     * @param pm          the persistence manager of the workspace.
+     * @param stateMgr    the item state manager.
+     * @param rootId      the id of the root node.
+     * @param excludedIDs ids of nodes that should not be indexed.
+     * @param threads     the number of worker threads.
+     * @param batchSize   the number of node ids per batch.
+     */
+    ParallelIndexBuilder(MultiIndex index,
+                         IterablePersistenceManager pm,
+                         ItemStateManager stateMgr,
+                         NodeId rootId,
+                         Set<NodeId> excludedIDs,
+                         int threads,
+                         int batchSize) {
+        this.index = index;
+        this.pm = pm;
+        this.stateMgr = stateMgr;
+        this.rootId = rootId;
+        this.excludedIDs = excludedIDs;
+        this.indexDir = index.getDirectory();
+        this.threads = threads;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Returns the names of the segments of an unfinished initial index
+     * creation.
+     *
+     * @param dir the index directory.
+     * @return the segment names or an empty set if there is no checkpoint.
+     * @throws IOException if the checkpoint file cannot be read.
+     */
+    static Set<String> getSegmentNames(Directory dir) throws IOException {
+        Set<String> names = new LinkedHashSet<String>();
+        if (dir.fileExists(CHECKPOINT)) {
+            IndexInput in = dir.openInput(CHECKPOINT);
+            try {
+                in.readInt(); // batch size
+                int num = in.readInt();
+                for (int i = 0; i < num; i++) {
+                    names.add(in.readString());
+                }
+            } finally {
+                in.close();
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Returns <code>true</code> if there is an unfinished initial index
+     * creation in the index directory.
+     *
+     * @param dir the index directory.
+     * @return <code>true</code> if there is a checkpoint file.
+     * @throws IOException if an error occurs while reading the directory.
+     */
+    static boolean hasCheckpoint(Directory dir) throws IOException {
+        return dir.fileExists(CHECKPOINT);
+    }
+
+    /**
+     * Indexes all nodes of the workspace.
+     *
+     * @return the segments containing the documents.
+     * @throws IOException         if an error occurs while writing to the
+     *                             index.
+     * @throws ItemStateException  if the node ids cannot be read.
+     * @throws RepositoryException if the node ids cannot be read.
+     */
+    List<PersistentIndex> build()
+            throws IOException, ItemStateException, RepositoryException {
+        List<PersistentIndex> segments = openSegments();
+        Worker[] workers = new Worker[segments.size()];
+        Thread[] workerThreads = new Thread[workers.length];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(segments.get(i));
+            count += workers[i].nodes;
+            workerThreads[i] = new Thread(workers[i], "ParallelIndexBuilder-" + i);
+            workerThreads[i].setDaemon(true);
+            workerThreads[i].start();
+        }
+        if (count > 0) {
+            log.info("Resuming initial index creation after {} nodes", count);
+        }
+        lastCount = count;
+        lastProgress = System.currentTimeMillis();
+        try {
+            NodeId after = null;
+            long batch = 0;
+            // some persistence managers return more ids than requested,
+            // read until no more ids are returned
+            List<NodeId> ids = pm.getAllNodeIds(after, batchSize);
+            while (!ids.isEmpty()) {
+                Worker worker = workers[(int) (batch % workers.length)];
+                if (batch > worker.lastBatch) {
+                    worker.dispatch(new Batch(batch, ids));
+                }
+                after = ids.get(ids.size() - 1);
+                batch++;
+                ids = pm.getAllNodeIds(after, batchSize);
+            }
+        } finally {
+            for (Worker worker : workers) {
+                worker.dispatch(END);
+            }
+            for (Thread t : workerThreads) {
+                try {
+                    t.join();
+                } catch (InterruptedException e) {
+                    failure(e);
+                }
+            }
+        }
+        checkFailure();
+        log.info("Indexed {} nodes with {} threads", count, workers.length);
+        return segments;
+    }
+
+    /**
+     * @return the number of nodes indexed.
+     */
+    long getNodeCount() {
+        return count;
+    }
+
+    /**
+     * Deletes the checkpoint file. This method must be called once the
+     * segments returned by {@link #build()} are registered with the multi
+     * index.
+     *
+     * @throws IOException if the checkpoint file cannot be deleted.
+     */
+    void deleteCheckpoint() throws IOException {
+        if (indexDir.fileExists(CHECKPOINT)) {
+            indexDir.deleteFile(CHECKPOINT);
+        }
+    }
+
+    //-------------------------< internal >-------------------------------------
+
+    /**
+     * Opens the segments of an unfinished initial index creation or creates
+     * new segments and writes the checkpoint file.
+     *
+     * @return the segments, one for each worker.
+     * @throws IOException if an error occurs while opening the segments.
+     */
+    private List<PersistentIndex> openSegments() throws IOException {
+        List<PersistentIndex> segments = new ArrayList<PersistentIndex>();
+        if (indexDir.fileExists(CHECKPOINT)) {
+            IndexInput in = indexDir.openInput(CHECKPOINT);
+            try {
+                // batches must be identical to the interrupted run
+                batchSize = in.readInt();
+                threads = in.readInt();
+                for (int i = 0; i < threads; i++) {
+                    segments.add(index.getOrCreateIndex(in.readString()));
+                }
+            } finally {
+                in.close();
+            }
+        } else {
+            for (int i = 0; i < threads; i++) {
+                segments.add(index.getOrCreateIndex(null));
+            }
+            IndexOutput out = indexDir.createOutput(CHECKPOINT);
+            try {
+                out.writeInt(batchSize);
+                out.writeInt(threads);
+                for (PersistentIndex segment : segments) {
+                    out.writeString(segment.getName());
+                }
+            } finally {
+                out.close();
+            }
+            indexDir.sync(Collections.singleton(CHECKPOINT));
+        }
+        return segments;
+    }
+
+    /**
+     * Creates the document for the node with the given <code>id</code>.
+     *
+     * @param id the id of a node.
+     * @return the document or <code>null</code> if the node is not indexed.
+     * @throws RepositoryException if the document cannot be created.
+     */
+    private Document createDocument(NodeId id) throws RepositoryException {
+        try {
+            NodeState node = (NodeState) stateMgr.getItemState(id);
+            if (isIndexed(node)) {
+                return index.createDocument(node);
+            }
+        } catch (NoSuchItemStateException e) {
+            log.debug("Node {} does not exist anymore", id);
+        } catch (ItemStateException e) {
+            // JCR-3268 log bundle corruption and continue
+            log.warn("Unable to index node " + id, e);
+        }
+        return null;
+    }
+
+    /**
+     * Returns <code>true</code> if <code>node</code> is reachable from the
+     * root node without passing through an excluded node. This is the same
+     * set of nodes that is indexed by a traversal of the node hierarchy.
+     *
+     * @param node a node state.
+     * @return whether the node should be indexed.
+     * @throws ItemStateException if an ancestor cannot be read.
+     */
+    private boolean isIndexed(NodeState node) throws ItemStateException {
+        for (;;) {
+            NodeId id = node.getNodeId();
+            if (excludedIDs.contains(id)) {
+                return false;
+            } else if (id.equals(rootId)) {
+                return true;
+            }
+            NodeId parentId = node.getParentId();
+            if (parentId == null) {
+                return false;
+            }
+            try {
+                node = (NodeState) stateMgr.getItemState(parentId);
+            } catch (NoSuchItemStateException e) {
+                log.debug("Node {} is not reachable from the root node",
+                        node.getNodeId());
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Logs the progress of the index creation at most every
+     * {@link #PROGRESS_INTERVAL} milliseconds.
+     *
+     * @param nodes the number of nodes indexed by a worker.
+     */
+    private synchronized void progress(int nodes) {
+        count += nodes;
+        long now = System.currentTimeMillis();
+        if (now - lastProgress >= PROGRESS_INTERVAL) {
+            log.info("indexing... {} nodes ({} nodes/s)", count,
+                    (count - lastCount) * 1000 / (now - lastProgress));
+            lastCount = count;
+            lastProgress = now;
+        }
+    }
+
+    /**
+     * Records the first error of a worker.
+     *
+     * @param t the error.
+     */
+    private void failure(Throwable t) {
+        if (failure == null) {
+            failure = t;
+        }
+    }
+
+    /**
+     * Throws an exception if a worker failed.
+     *
+     * @throws IOException if a worker failed.
+     */
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Initial index creation failed", failure);
+        }
+    }
+
+    /**
+     * A range of node ids.
+     */
+    private static final class Batch {
+
+        private final long number;
+
+        private final List<NodeId> ids;
+
+        Batch(long number, List<NodeId> ids) {
+            this.number = number;
+            this.ids = ids;
+        }
+    }
+
+    /**
+     * Indexes the batches of one segment.
+     */
+    private final class Worker implements Runnable {
+
+        private final BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(2);
+
+        private final PersistentIndex segment;
+
+        /**
+         * The number of the last batch committed to the segment by an
+         * earlier attempt.
+         */
+        private long lastBatch = -1;
+
+        /**
+         * The number of nodes in the segment.
+         */
+        private long nodes;
+
+        Worker(PersistentIndex segment) throws IOException {
+            this.segment = segment;
+            Map<String, String> data =
+                    IndexReader.getCommitUserData(segment.getDirectory());
+            if (data.containsKey(LAST_BATCH)) {
+                lastBatch = Long.parseLong(data.get(LAST_BATCH));
+                nodes = Long.parseLong(data.get(NODE_COUNT));
+            }
+        }
+
+        /**
+         * Passes a batch to this worker. Waits while the worker is busy.
+         *
+         * @param batch the batch to index.
+         * @throws IOException if a worker failed.
+         */
+        void dispatch(Batch batch) throws IOException {
+            try {
+                while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+                    if (failure != null) {
+                        if (batch == END) {
+                            // worker is not running anymore
+                            return;
+                        }
+                        checkFailure();
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw new IOException("Initial index creation interrupted", e);
+            }
+            if (batch != END) {
+                checkFailure();
+            }
+        }
+
+        public void run() {
+            try {
+                for (;;) {
+                    Batch batch = queue.take();
+                    if (batch == END || failure != null) {
+                        return;
+                    }
+                    List<Document> docs = new ArrayList<Document>(batch.ids.size());
+                    for (NodeId id : batch.ids) {
+                        Document doc = createDocument(id);
+                        if (doc != null) {
+                            docs.add(doc);
+                        }
+                    }
+                    segment.addDocuments(docs.toArray(new Document[docs.size()]));
+                    nodes += docs.size();
+                    Map<String, String> data = new HashMap<String, String>();
+                    data.put(LAST_BATCH, String.valueOf(batch.number));
+                    data.put(NODE_COUNT, String.valueOf(nodes));
+                    segment.commit(data);
+                    progress(docs.size());
+                }
+            } catch (Throwable t) {
+                log.error("Error while indexing nodes", t);
+                failure(t);
+            }
+        }
+    }
+}
@@ -191,7 +191,8 @@ class ParentAxisQuery extends Query {
         public Scorer scorer(IndexReader reader, boolean scoreDocsInOrder,
                 boolean topScorer) throws IOException {
             contextScorer = contextQuery.weight(searcher).scorer(reader, scoreDocsInOrder, false);
-            HierarchyResolver resolver = (HierarchyResolver) reader;
+            HierarchyResolver resolver =
+                    TimedHierarchyResolver.wrap((HierarchyResolver) reader);
             return new ParentAxisScorer(searcher.getSimilarity(),
                     reader, searcher, resolver);
         }
@@ -16,12 +16,20 @@
  */
 package org.apache.jackrabbit.core.query.lucene;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.jackrabbit.core.query.lucene.directory.DirectoryManager;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.index.IndexDeletionPolicy;
+import org.apache.lucene.index.IndexFileNameFilter;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.SegmentInfo;
+import org.apache.lucene.index.SegmentInfos;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.Similarity;
 import org.apache.lucene.store.Directory;
@@ -52,7 +60,13 @@ class PersistentIndex extends AbstractIndex {
     /**
      * The current generation of this persistent index.
      */
-    private long generation;
+    private volatile long generation;
+
+    /**
+     * The statistics of the segments of a recent generation of this index,
+     * or <code>null</code> if not yet read.
+     */
+    private volatile SegmentStatistics segmentStatistics;
 
     /**
      * Creates a new <code>PersistentIndex</code>.
@@ -60,7 +74,6 @@ class PersistentIndex extends AbstractIndex {
      * @param name the name of this index.
      * @param analyzer the analyzer for text tokenizing.
      * @param similarity the similarity implementation.
-     * @param cache the document number cache
      * @param indexingQueue the indexing queue.
      * @param directoryManager the directory manager.
      * @param generationMaxAge age in seconds after which an index generation is
@@ -69,12 +82,12 @@ class PersistentIndex extends AbstractIndex {
      *  index.
      */
     PersistentIndex(String name, Analyzer analyzer,
-                    Similarity similarity, DocNumberCache cache,
+                    Similarity similarity,
                     IndexingQueue indexingQueue,
                     DirectoryManager directoryManager, long generationMaxAge)
             throws IOException {
         super(analyzer, similarity, directoryManager.getDirectory(name),
-                cache, indexingQueue);
+                indexingQueue);
         this.name = name;
         this.indexDelPolicy = new IndexDeletionPolicyImpl(this,
                 generationMaxAge * 1000);
@@ -115,6 +128,86 @@ class PersistentIndex extends AbstractIndex {
         getIndexWriter().optimize();
     }
 
+    /**
+     * Merges the provided indexes into this index like
+     * {@link #addIndexes(IndexReader[])}, but limits the rate at which the
+     * merged index is written.
+     *
+     * @param readers the readers of indexes to add.
+     * @param limiter the rate limiter or <code>null</code> to write without
+     *                limit.
+     * @throws IOException if an error occurs while adding indexes.
+     */
+    void addIndexes(IndexReader[] readers, IORateLimiter limiter)
+            throws IOException {
+        if (limiter == null) {
+            addIndexes(readers);
+            return;
+        }
+        // make sure a new writer is created with the limiter
+        releaseWriterAndReaders();
+        setWriteRateLimiter(limiter);
+        try {
+            addIndexes(readers);
+        } finally {
+            setWriteRateLimiter(null);
+        }
+    }
+
+    /**
+     * Commits all pending changes of the index writer and stores
+     * <code>commitUserData</code> with the commit.
+     *
+     * @param commitUserData the data to store with the commit.
+     * @throws IOException if an error occurs while committing changes.
+     */
+    synchronized void commit(Map<String, String> commitUserData)
+            throws IOException {
+        getIndexWriter().commit(commitUserData);
+    }
+
+    /**
+     * Builds the sort columns of this index for all properties that have a
+     * sort column in one of the <code>sources</code>. This method should be
+     * called after this index has been created from the <code>sources</code>
+     * and before it is registered with the multi index. This way the first
+     * query that sorts on a property after a merge does not have to build the
+     * sort column.
+     *
+     * @param sources the readers of the indexes this index was created from.
+     * @throws IOException if an error occurs while building the columns.
+     */
+    void prepareSortColumns(IndexReader[] sources) throws IOException {
+        Set<SharedFieldCache.Key> keys = new HashSet<SharedFieldCache.Key>();
+        for (IndexReader source : sources) {
+            keys.addAll(SortColumn.getColumnKeys(source.directory()));
+        }
+        if (keys.isEmpty()) {
+            return;
+        }
+        ReadOnlyIndexReader reader = getReadOnlyIndexReader();
+        try {
+            CachingIndexReader base = reader.getBase().getBase();
+            for (SharedFieldCache.Key key : keys) {
+                base.getSortColumn(key.getField(), key.getPrefix());
+            }
+        } finally {
+            reader.release();
+        }
+    }
+
+    /**
+     * Builds the {@link DocNumberTable} of this index. This method should be
+     * called after this index has been created by a merge and before it is
+     * registered with the multi index. This way the first query after a merge
+     * does not have to build the table.
+     *
+     * @throws IOException if an error occurs while building the table.
+     */
+    void prepareDocNumberTable() throws IOException {
+        getReadOnlyIndexReader().release();
+    }
+
     /**
      * Copies <code>index</code> into this persistent index. This method should
      * only be called when <code>this</code> index is empty otherwise the
@@ -187,6 +280,97 @@ class PersistentIndex extends AbstractIndex {
         return getIndexReader().numDocs();
     }
 
+    /**
+     * Returns the size of the Lucene files of this persistent index. Other
+     * files in the index directory, like sort columns, are not counted.
+     *
+     * @return the size in bytes.
+     * @throws IOException if an error occurs while reading the file lengths.
+     */
+    long getSizeInBytes() throws IOException {
+        Directory dir = getDirectory();
+        IndexFileNameFilter filter = IndexFileNameFilter.getFilter();
+        long size = 0;
+        for (String file : dir.listAll()) {
+            if (!filter.accept(null, file)) {
+                continue;
+            }
+            try {
+                size += dir.fileLength(file);
+            } catch (FileNotFoundException e) {
+                // deleted in the meantime
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the statistics of the last commit of this index. They are read
+     * from the segment infos without opening an index reader and are cached
+     * until the generation of this index changes.
+     *
+     * @return the segment statistics.
+     * @throws IOException if an error occurs while reading the segment infos.
+     */
+    SegmentStatistics getSegmentStatistics() throws IOException {
+        SegmentStatistics stats = segmentStatistics;
+        if (stats == null || stats.generation != generation) {
+            SegmentInfos infos = new SegmentInfos();
+            infos.read(getDirectory());
+            int numDocs = 0;
+            int numDeletedDocs = 0;
+            for (int i = 0; i < infos.size(); i++) {
+                SegmentInfo info = infos.info(i);
+                int delCount = info.getDelCount();
+                numDocs += info.docCount - delCount;
+                numDeletedDocs += delCount;
+            }
+            stats = new SegmentStatistics(infos.getGeneration(),
+                    getSizeInBytes(), numDocs, numDeletedDocs);
+            segmentStatistics = stats;
+        }
+        return stats;
+    }
+
+    /**
+     * Pins the current commit of this index. Its files are not deleted until
+     * the commit is released with {@link #releaseCommit(String)}, even if
+     * the index is changed or closed in the meantime.
+     *
+     * @return the name of the segments file of the pinned commit.
+     * @throws IOException if the commit cannot be read.
+     */
+    String pinCommit() throws IOException {
+        SegmentInfos infos = new SegmentInfos();
+        infos.read(getDirectory());
+        String segmentsFileName = infos.getSegmentsFileName();
+        indexDelPolicy.pin(segmentsFileName);
+        return segmentsFileName;
+    }
+
+    /**
+     * Returns the names of the files of a commit of this index.
+     *
+     * @param segmentsFileName the name of the segments file of the commit.
+     * @return the names of the files, including the segments file.
+     * @throws IOException if the commit cannot be read.
+     */
+    Collection<String> getCommitFiles(String segmentsFileName)
+            throws IOException {
+        SegmentInfos infos = new SegmentInfos();
+        infos.read(getDirectory(), segmentsFileName);
+        return infos.files(getDirectory(), true);
+    }
+
+    /**
+     * Releases a commit pinned with {@link #pinCommit()}.
+     *
+     * @param segmentsFileName the name of the segments file of the commit.
+     */
+    void releaseCommit(String segmentsFileName) {
+        indexDelPolicy.release(segmentsFileName);
+    }
+
     /**
      * Returns the name of this index.
      * @return the name of this index.
@@ -211,4 +395,47 @@ class PersistentIndex extends AbstractIndex {
     void setCurrentGeneration(long generation) {
         this.generation = generation;
     }
+
+    /**
+     * The size and document counts of a generation of a persistent index.
+     */
+    static final class SegmentStatistics {
+
+        private final long generation;
+
+        private final long sizeInBytes;
+
+        private final int numDocs;
+
+        private final int numDeletedDocs;
+
+        private SegmentStatistics(long generation, long sizeInBytes,
+                                  int numDocs, int numDeletedDocs) {
+            this.generation = generation;
+            this.sizeInBytes = sizeInBytes;
+            this.numDocs = numDocs;
+            this.numDeletedDocs = numDeletedDocs;
+        }
+
+        /**
+         * @return the size of the Lucene files in bytes.
+         */
+        long getSizeInBytes() {
+            return sizeInBytes;
+        }
+
+        /**
+         * @return the number of live documents.
+         */
+        int getNumDocuments() {
+            return numDocs;
+        }
+
+        /**
+         * @return the number of deleted documents still present.
+         */
+        int getNumDeletedDocuments() {
+            return numDeletedDocs;
+        }
+    }
 }
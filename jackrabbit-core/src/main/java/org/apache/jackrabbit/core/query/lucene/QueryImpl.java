@@ -18,7 +18,9 @@ package org.apache.jackrabbit.core.query.lucene;
 
 import org.apache.jackrabbit.core.SessionImpl;
 import org.apache.jackrabbit.core.nodetype.NodeTypeImpl;
+import org.apache.jackrabbit.core.query.ParsedQueryCache;
 import org.apache.jackrabbit.core.query.PropertyTypeRegistry;
+import org.apache.jackrabbit.core.query.QueryExplanation;
 import org.apache.jackrabbit.core.session.SessionContext;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.jackrabbit.spi.Path;
@@ -88,8 +90,27 @@ public class QueryImpl extends AbstractQueryImpl {
         super(sessionContext, index, propReg);
         // parse query according to language
         // build query tree using the passed factory
-        this.root = QueryParser.parse(
-                statement, language, sessionContext, factory);
+        ParsedQueryCache parsedQueries = index.getParsedQueryCache();
+        if (parsedQueries == null) {
+            this.root = QueryParser.parse(
+                    statement, language, sessionContext, factory);
+            return;
+        }
+        String key;
+        try {
+            key = ParsedQueryCache.createKey(
+                    language, statement, sessionContext.getSessionImpl());
+        } catch (RepositoryException e) {
+            throw new InvalidQueryException(e.getMessage(), e);
+        }
+        QueryRootNode parsed = (QueryRootNode) parsedQueries.get(key);
+        if (parsed == null) {
+            long time = System.nanoTime();
+            parsed = QueryParser.parse(
+                    statement, language, sessionContext, factory);
+            parsedQueries.put(key, parsed, System.nanoTime() - time);
+        }
+        this.root = parsed;
     }
 
     /**
@@ -106,6 +127,7 @@ public class QueryImpl extends AbstractQueryImpl {
         }
 
         // build lucene query
+        long time = System.nanoTime();
         Query query = LuceneQueryBuilder.createQuery(
                 root, sessionContext.getSessionImpl(),
                 index.getContext().getItemStateManager(),
@@ -113,6 +135,12 @@ public class QueryImpl extends AbstractQueryImpl {
                 propReg, index.getSynonymProvider(),
                 index.getIndexFormatVersion(),
                 cache);
+        QueryExplanation explanation = QueryExplanation.current();
+        if (explanation != null) {
+            explanation.addTime(QueryExplanation.Phase.TRANSLATION,
+                    System.nanoTime() - time);
+            explanation.addIndexQuery(query);
+        }
 
         OrderQueryNode orderNode = root.getOrderNode();
 
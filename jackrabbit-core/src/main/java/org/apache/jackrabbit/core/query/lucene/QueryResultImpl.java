@@ -18,6 +18,8 @@ package org.apache.jackrabbit.core.query.lucene;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -28,17 +30,20 @@ import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
 import javax.jcr.query.RowIterator;
 
-import org.apache.jackrabbit.api.query.JackrabbitQueryResult;
+import org.apache.jackrabbit.api.query.FacetedQueryResult;
+import org.apache.jackrabbit.core.query.QueryExplanation;
 import org.apache.jackrabbit.core.session.SessionContext;
 import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.commons.conversion.IllegalNameException;
 import org.apache.jackrabbit.spi.commons.query.qom.ColumnImpl;
+import org.apache.lucene.index.IndexReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Implements the <code>QueryResult</code> interface.
  */
-public abstract class QueryResultImpl implements JackrabbitQueryResult {
+public abstract class QueryResultImpl implements FacetedQueryResult {
 
     /**
      * The logger instance for this class
@@ -210,6 +215,67 @@ public abstract class QueryResultImpl implements JackrabbitQueryResult {
                 excerptProvider, spellSuggestion);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The values are counted with the per segment {@link FacetOrdinals} of
+     * the property. If all results have already been fetched, the access
+     * checked result nodes are counted. Otherwise the query is executed
+     * again without limit and every hit is checked for read access before
+     * it is counted.
+     */
+    public Map<String, Integer> getFacet(String propertyName, int maxValues)
+            throws RepositoryException {
+        String prefix;
+        try {
+            prefix = FieldNames.createNamedValue(
+                    index.getNamespaceMappings().translateName(
+                            sessionContext.getQName(propertyName)), "");
+        } catch (IllegalNameException e) {
+            throw new RepositoryException(e);
+        }
+        Map<String, Integer> counts;
+        try {
+            IndexReader reader = index.getIndexReader();
+            try {
+                FacetCounter counter = new FacetCounter(reader, prefix);
+                if (totalResults != -1 && offset == 0) {
+                    for (ScoreNode[] sn : resultNodes) {
+                        if (sn[0] != null) {
+                            counter.count(sn[0].getNodeId());
+                        }
+                    }
+                } else {
+                    countAllHits(counter);
+                }
+                counts = counter.getCounts(
+                        sessionContext, index.getNamespaceMappings());
+            } finally {
+                Util.closeOrRelease(reader);
+            }
+        } catch (IOException e) {
+            throw new RepositoryException(e);
+        }
+
+        List<Map.Entry<String, Integer>> entries =
+                new ArrayList<Map.Entry<String, Integer>>(counts.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>() {
+            public int compare(Map.Entry<String, Integer> e1,
+                               Map.Entry<String, Integer> e2) {
+                int c = e2.getValue().compareTo(e1.getValue());
+                return c != 0 ? c : e1.getKey().compareTo(e2.getKey());
+            }
+        });
+        if (maxValues >= 0 && entries.size() > maxValues) {
+            entries = entries.subList(0, maxValues);
+        }
+        Map<String, Integer> facet = new LinkedHashMap<String, Integer>();
+        for (Map.Entry<String, Integer> entry : entries) {
+            facet.put(entry.getKey(), entry.getValue());
+        }
+        return facet;
+    }
+
     /**
      * Executes the query for this result and returns hits. The caller must
      * close the query hits when he is done using it.
@@ -283,13 +349,20 @@ public abstract class QueryResultImpl implements JackrabbitQueryResult {
 
         // execute it
         MultiColumnQueryHits result = null;
+        QueryExplanation explanation = QueryExplanation.current();
         try {
             long time = System.currentTimeMillis();
+            long start = System.nanoTime();
             long r1 = IOCounters.getReads();
             result = executeQuery(maxResultSize);
             long r2 = IOCounters.getReads();
             log.debug("query executed in {} ms ({})",
                     System.currentTimeMillis() - time, r2 - r1);
+            if (explanation != null) {
+                explanation.addTime(QueryExplanation.Phase.SEARCH,
+                        System.nanoTime() - start);
+                explanation.addEstimatedHits(result.getSize());
+            }
             // set selector names
             selectorNames = result.getSelectorNames();
 
@@ -302,8 +375,8 @@ public abstract class QueryResultImpl implements JackrabbitQueryResult {
                     collectScoreNodes(result, offsetNodes, offset);
                 }
             } else {
-                int start = resultNodes.size() + invalid + (int) offset;
-                result.skip(start);
+                int skip = resultNodes.size() + invalid + (int) offset;
+                result.skip(skip);
             }
 
             time = System.currentTimeMillis();
@@ -363,6 +436,11 @@ public abstract class QueryResultImpl implements JackrabbitQueryResult {
                                    List<ScoreNode[]> collector,
                                    long maxResults)
             throws IOException, RepositoryException {
+        QueryExplanation explanation = QueryExplanation.current();
+        if (explanation != null) {
+            collectScoreNodes(hits, collector, maxResults, explanation);
+            return;
+        }
         while (collector.size() < maxResults) {
             ScoreNode[] sn = hits.nextScoreNodes();
             if (sn == null) {
@@ -378,6 +456,74 @@ public abstract class QueryResultImpl implements JackrabbitQueryResult {
         }
     }
 
+    /**
+     * Same as {@link #collectScoreNodes(MultiColumnQueryHits, List, long)}
+     * but records the time spent in the search index and in access checks.
+     *
+     * @param hits the raw hits.
+     * @param collector where the access checked score nodes are collected.
+     * @param maxResults the maximum number of results in the collector.
+     * @param explanation the explanation of the current query.
+     * @throws IOException if an error occurs while reading from hits.
+     * @throws RepositoryException if an error occurs while checking access rights.
+     */
+    private void collectScoreNodes(MultiColumnQueryHits hits,
+                                   List<ScoreNode[]> collector,
+                                   long maxResults,
+                                   QueryExplanation explanation)
+            throws IOException, RepositoryException {
+        long search = 0;
+        long access = 0;
+        try {
+            while (collector.size() < maxResults) {
+                long time = System.nanoTime();
+                ScoreNode[] sn = hits.nextScoreNodes();
+                long searched = System.nanoTime();
+                search += searched - time;
+                if (sn == null) {
+                    // no more results
+                    break;
+                }
+                // check access
+                boolean granted = isAccessGranted(sn);
+                access += System.nanoTime() - searched;
+                explanation.addIndexHit(granted);
+                if (granted) {
+                    collector.add(sn);
+                } else {
+                    invalid++;
+                }
+            }
+        } finally {
+            explanation.addTime(QueryExplanation.Phase.SEARCH, search);
+            explanation.addTime(QueryExplanation.Phase.ACCESS_CHECK, access);
+        }
+    }
+
+    /**
+     * Executes the query without limit and counts all hits the session is
+     * allowed to read.
+     *
+     * @param counter the facet counter.
+     * @throws IOException if an error occurs while reading from the index.
+     * @throws RepositoryException if an error occurs while checking access
+     *                             rights.
+     */
+    private void countAllHits(FacetCounter counter)
+            throws IOException, RepositoryException {
+        MultiColumnQueryHits hits = executeQuery(Integer.MAX_VALUE);
+        try {
+            ScoreNode[] sn;
+            while ((sn = hits.nextScoreNodes()) != null) {
+                if (sn[0] != null && isAccessGranted(sn)) {
+                    counter.count(sn[0].getNodeId());
+                }
+            }
+        } finally {
+            hits.close();
+        }
+    }
+
     /**
      * Checks if access is granted to all <code>nodes</code>.
      *
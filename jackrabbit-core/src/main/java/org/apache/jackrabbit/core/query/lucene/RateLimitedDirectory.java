@@ -0,0 +1,255 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.Lock;
+import org.apache.lucene.store.LockFactory;
+
+/**
+ * <code>RateLimitedDirectory</code> wraps another directory and limits the
+ * rate at which files are written with an {@link IORateLimiter}. Reading is
+ * not limited.
+ */
+class RateLimitedDirectory extends Directory {
+
+    /**
+     * Number of bytes written to an output before the rate limiter is asked
+     * for a pause.
+     */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * The wrapped directory.
+     */
+    private final Directory delegate;
+
+    /**
+     * The rate limiter.
+     */
+    private final IORateLimiter limiter;
+
+    /**
+     * Creates a new rate limited directory.
+     *
+     * @param delegate the directory to wrap.
+     * @param limiter  the rate limiter.
+     */
+    RateLimitedDirectory(Directory delegate, IORateLimiter limiter) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public IndexOutput createOutput(String name) throws IOException {
+        return new RateLimitedIndexOutput(delegate.createOutput(name));
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public String[] listAll() throws IOException {
+        return delegate.listAll();
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public boolean fileExists(String name) throws IOException {
+        return delegate.fileExists(name);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @SuppressWarnings("deprecation")
+    public long fileModified(String name) throws IOException {
+        return delegate.fileModified(name);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @SuppressWarnings("deprecation")
+    public void touchFile(String name) throws IOException {
+        delegate.touchFile(name);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public void deleteFile(String name) throws IOException {
+        delegate.deleteFile(name);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public long fileLength(String name) throws IOException {
+        return delegate.fileLength(name);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public void sync(Collection<String> names) throws IOException {
+        delegate.sync(names);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public IndexInput openInput(String name) throws IOException {
+        return delegate.openInput(name);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public IndexInput openInput(String name, int bufferSize)
+            throws IOException {
+        return delegate.openInput(name, bufferSize);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public Lock makeLock(String name) {
+        return delegate.makeLock(name);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public void clearLock(String name) throws IOException {
+        delegate.clearLock(name);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public void setLockFactory(LockFactory lockFactory) throws IOException {
+        delegate.setLockFactory(lockFactory);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public LockFactory getLockFactory() {
+        return delegate.getLockFactory();
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public String getLockID() {
+        return delegate.getLockID();
+    }
+
+    /**
+     * Does not close the wrapped directory, it is owned by the index.
+     */
+    public void close() {
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public String toString() {
+        return "RateLimitedDirectory(" + delegate + ")";
+    }
+
+    //-----------------------------< internal >---------------------------------
+
+    /**
+     * An index output that pauses every {@link #CHUNK_SIZE} bytes.
+     */
+    private final class RateLimitedIndexOutput extends IndexOutput {
+
+        /**
+         * The wrapped output.
+         */
+        private final IndexOutput out;
+
+        /**
+         * Bytes written since the last pause.
+         */
+        private long unaccounted;
+
+        RateLimitedIndexOutput(IndexOutput out) {
+            this.out = out;
+        }
+
+        public void writeByte(byte b) throws IOException {
+            out.writeByte(b);
+            written(1);
+        }
+
+        public void writeBytes(byte[] b, int offset, int length)
+                throws IOException {
+            out.writeBytes(b, offset, length);
+            written(length);
+        }
+
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        public void close() throws IOException {
+            try {
+                out.close();
+            } finally {
+                if (unaccounted > 0) {
+                    limiter.pause(unaccounted);
+                    unaccounted = 0;
+                }
+            }
+        }
+
+        public long getFilePointer() {
+            return out.getFilePointer();
+        }
+
+        @SuppressWarnings("deprecation")
+        public void seek(long pos) throws IOException {
+            out.seek(pos);
+        }
+
+        public long length() throws IOException {
+            return out.length();
+        }
+
+        public void setLength(long length) throws IOException {
+            out.setLength(length);
+        }
+
+        private void written(int bytes) {
+            unaccounted += bytes;
+            if (unaccounted >= CHUNK_SIZE) {
+                limiter.pause(unaccounted);
+                unaccounted = 0;
+            }
+        }
+    }
+}
@@ -16,6 +16,7 @@
  */
 package org.apache.jackrabbit.core.query.lucene;
 
+import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.lucene.index.FieldInfos;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
@@ -123,6 +124,18 @@ class ReadOnlyIndexReader extends RefCountingIndexReader {
         return getBase().getParent(n, deleted);
     }
 
+    /**
+     * Returns the number of the document of a node.
+     *
+     * @param id the node id.
+     * @return the document number or <code>-1</code> if there is no such
+     *         document or it is deleted in this reader.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    int getDocNumber(NodeId id) throws IOException {
+        return getBase().getBase().getDocNumber(id, this);
+    }
+
     /**
      * Returns the {@link SharedIndexReader} this reader is based on.
      *
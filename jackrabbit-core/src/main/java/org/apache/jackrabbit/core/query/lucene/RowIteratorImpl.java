@@ -46,6 +46,8 @@ import javax.jcr.ValueFactory;
 import javax.jcr.query.Row;
 import javax.jcr.query.RowIterator;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.NoSuchElementException;
 import java.util.ArrayList;
 import java.util.List;
@@ -68,6 +70,11 @@ class RowIteratorImpl implements RowIterator {
      */
     private static final String EXCERPT_FUNC_LPAR = "excerpt(";
 
+    /**
+     * The number of rows whose excerpts are created at once.
+     */
+    private static final int EXCERPT_BATCH_SIZE = 50;
+
     /**
      * The name of the spell check function without prefix but with left
      * parenthesis.
@@ -121,6 +128,17 @@ class RowIteratorImpl implements RowIterator {
      */
     private final SpellSuggestion spellSuggestion;
 
+    /**
+     * Score nodes that were read ahead from {@link #scoreNodes} to create
+     * their excerpts in one batch, but were not yet returned as rows.
+     */
+    private final LinkedList<ScoreNode[]> readAhead = new LinkedList<ScoreNode[]>();
+
+    /**
+     * The excerpts of the current batch of rows.
+     */
+    private final Map<NodeId, String> excerpts = new HashMap<NodeId, String>();
+
     /**
      * A value factory for the session that executes the query.
      */
@@ -180,6 +198,9 @@ class RowIteratorImpl implements RowIterator {
      *                                <code>Row</code>s.
      */
     public Row nextRow() throws NoSuchElementException {
+        if (!readAhead.isEmpty()) {
+            return new RowImpl(readAhead.removeFirst());
+        }
         return new RowImpl(scoreNodes.nextScoreNodes());
     }
 
@@ -191,6 +212,13 @@ class RowIteratorImpl implements RowIterator {
      *                                <code>Row</code> in this iterator.
      */
     public void skip(long skipNum) throws NoSuchElementException {
+        if (skipNum < 0) {
+            throw new IllegalArgumentException("skipNum must not be negative");
+        }
+        while (skipNum > 0 && !readAhead.isEmpty()) {
+            readAhead.removeFirst();
+            skipNum--;
+        }
         scoreNodes.skip(skipNum);
     }
 
@@ -214,7 +242,7 @@ class RowIteratorImpl implements RowIterator {
      * @return the current position withing this iterator.
      */
     public long getPosition() {
-        return scoreNodes.getPosition();
+        return scoreNodes.getPosition() - readAhead.size();
     }
 
     /**
@@ -232,7 +260,7 @@ class RowIteratorImpl implements RowIterator {
      * @return <code>true</code> if the iterator has more elements.
      */
     public boolean hasNext() {
-        return scoreNodes.hasNext();
+        return !readAhead.isEmpty() || scoreNodes.hasNext();
     }
 
     /**
@@ -245,6 +273,39 @@ class RowIteratorImpl implements RowIterator {
         return nextRow();
     }
 
+    /**
+     * Returns the excerpt for the node of a row. The excerpts are created in
+     * batches of {@link #EXCERPT_BATCH_SIZE} rows: on a miss, the following
+     * rows are read ahead and the excerpts of all their nodes are created at
+     * once.
+     *
+     * @param id the id of the node of a row.
+     * @return the excerpt or <code>null</code> if none can be created.
+     * @throws IOException if an error occurs while creating the excerpts.
+     */
+    private String getBatchedExcerpt(NodeId id) throws IOException {
+        if (!excerpts.containsKey(id)) {
+            excerpts.clear();
+            while (readAhead.size() < EXCERPT_BATCH_SIZE - 1
+                    && scoreNodes.hasNext()) {
+                readAhead.add(scoreNodes.nextScoreNodes());
+            }
+            List<NodeId> ids = new ArrayList<NodeId>();
+            ids.add(id);
+            for (ScoreNode[] sn : readAhead) {
+                if (sn[0] != null) {
+                    ids.add(sn[0].getNodeId());
+                }
+            }
+            Map<NodeId, String> batch = ((BatchExcerptProvider) excerptProvider)
+                    .getExcerpts(ids, 3, 150);
+            for (NodeId nodeId : ids) {
+                excerpts.put(nodeId, batch.get(nodeId));
+            }
+        }
+        return excerpts.get(id);
+    }
+
     //---------------------< class RowImpl >------------------------------------
 
     /**
@@ -630,7 +691,13 @@ class RowIteratorImpl implements RowIterator {
             }
             try {
                 long time = System.currentTimeMillis();
-                String excerpt = excerptProvider.getExcerpt(id, 3, 150);
+                String excerpt;
+                if (excerptProvider instanceof BatchExcerptProvider
+                        && id.equals(sn[0].getNodeId())) {
+                    excerpt = getBatchedExcerpt(id);
+                } else {
+                    excerpt = excerptProvider.getExcerpt(id, 3, 150);
+                }
                 time = System.currentTimeMillis() - time;
                 log.debug("Created excerpt in {} ms.", time);
                 if (excerpt != null) {
@@ -32,6 +32,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.locks.Lock;
 
 import javax.jcr.PropertyType;
 import javax.jcr.RepositoryException;
@@ -63,6 +64,7 @@ import org.apache.jackrabbit.core.journal.Record;
 import org.apache.jackrabbit.core.journal.RecordIterator;
 import org.apache.jackrabbit.core.query.AbstractQueryHandler;
 import org.apache.jackrabbit.core.query.ExecutableQuery;
+import org.apache.jackrabbit.core.query.ParsedQueryCache;
 import org.apache.jackrabbit.core.query.QueryHandler;
 import org.apache.jackrabbit.core.query.QueryHandlerContext;
 import org.apache.jackrabbit.core.query.lucene.directory.DirectoryManager;
@@ -90,6 +92,7 @@ import org.apache.lucene.analysis.tokenattributes.TermAttribute;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.Fieldable;
+import org.apache.lucene.index.FieldInfo;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.MultiReader;
 import org.apache.lucene.index.Payload;
@@ -167,6 +170,11 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     public static final int DEFAULT_MERGE_FACTOR = 10;
 
+    /**
+     * the default value for property {@link #maxConcurrentMerges}.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_MERGES = 2;
+
     /**
      * the default value for property {@link #maxFieldLength}.
      */
@@ -196,6 +204,11 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     public static final int DEFAULT_TERM_INFOS_INDEX_DIVISOR = 1;
 
+    /**
+     * The default value for {@link #parsedQueryCacheSize}.
+     */
+    public static final int DEFAULT_PARSED_QUERY_CACHE_SIZE = 1000;
+
     /**
      * The path factory.
      */
@@ -293,6 +306,46 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     private int mergeFactor = DEFAULT_MERGE_FACTOR;
 
+    /**
+     * Flag that indicates whether merges are selected by size in bytes and
+     * deleted documents instead of document counts.
+     */
+    private boolean useTieredMerge = false;
+
+    /**
+     * maxConcurrentMerges config parameter
+     */
+    private int maxConcurrentMerges = DEFAULT_MAX_CONCURRENT_MERGES;
+
+    /**
+     * The maximum rate in MB per second at which merges write index files.
+     * A value of zero disables the limit.
+     */
+    private double maxMergeMBPerSec = 0;
+
+    /**
+     * Queries that take at least this number of milliseconds are logged
+     * with their execution plan. A value of zero disables the log.
+     */
+    private long slowQueryThreshold = 0;
+
+    /**
+     * Queries that read at least this number of hits from the index are
+     * logged with their execution plan. A value of zero disables the log.
+     */
+    private long slowQueryHitThreshold = 0;
+
+    /**
+     * The maximum number of parsed query trees that are cached. A value of
+     * zero disables the cache.
+     */
+    private int parsedQueryCacheSize = DEFAULT_PARSED_QUERY_CACHE_SIZE;
+
+    /**
+     * The cache of parsed query trees or <code>null</code> if disabled.
+     */
+    private ParsedQueryCache parsedQueryCache;
+
     /**
      * maxFieldLength config parameter
      */
@@ -488,6 +541,71 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     private boolean useSimpleFSDirectory = true;
 
+    /**
+     * Flag that indicates whether the
+     * {@link org.apache.jackrabbit.core.query.lucene.directory.MMapDirectoryManager}
+     * should only memory map the term dictionary and postings files.
+     */
+    private boolean mmapTermsAndPostingsOnly = false;
+
+    /**
+     * The number of threads that create the initial index. A value of one
+     * traverses the workspace in the calling thread.
+     */
+    private int initialIndexThreads = 1;
+
+    /**
+     * The number of nodes a thread of the initial index creation reads from
+     * the persistence manager at once.
+     */
+    private int initialIndexBatchSize = 1000;
+
+    /**
+     * Flag that indicates whether the redo log is synced to disk when a
+     * transaction is committed.
+     */
+    private boolean syncRedoLog = false;
+
+    /**
+     * The maximum size in bytes of the extracted text cache. A value of zero
+     * disables the cache.
+     */
+    private long extractedTextCacheSize = 0;
+
+    /**
+     * The directory of the extracted text cache or <code>null</code> if the
+     * cache is located next to the index directory.
+     */
+    private String extractedTextCachePath = null;
+
+    /**
+     * The cache of text extracted from binaries in the data store or
+     * <code>null</code> if disabled.
+     */
+    private ExtractedTextCache extractedTextCache;
+
+    /**
+     * Flag that indicates whether descendant constraints are executed with
+     * the ancestor terms of an index with format version 5.
+     */
+    private boolean useAncestorTerms = true;
+
+    /**
+     * Re-indexes the descendants of moved nodes.
+     */
+    private AncestorIndexUpdater ancestorUpdater;
+
+    /**
+     * Flag that indicates whether changes are applied to the index in the
+     * background instead of within the save.
+     */
+    private boolean asyncIndexing = false;
+
+    /**
+     * Applies recorded changes to the index in the background.
+     */
+    private AsyncIndexUpdater asyncUpdater;
+
     /**
      * The termInfosIndexDivisor.
      */
@@ -570,7 +688,30 @@ public class SearchIndex extends AbstractQueryHandler {
         // initialize the Tika parser
         parser = createParser();
 
+        if (extractedTextCacheSize > 0) {
+            File dir;
+            if (extractedTextCachePath != null) {
+                dir = new File(extractedTextCachePath);
+            } else {
+                dir = new File(new File(path).getAbsoluteFile().getParentFile(),
+                        "textcache");
+            }
+            extractedTextCache = new ExtractedTextCache(
+                    dir, extractedTextCacheSize,
+                    tikaConfigPath + "|" + getMaxExtractLength());
+        }
+
+        if (parsedQueryCacheSize > 0) {
+            parsedQueryCache = new ParsedQueryCache(parsedQueryCacheSize);
+        }
+
         index = new MultiIndex(this, excludedIDs);
+        ancestorUpdater = new AncestorIndexUpdater(this,
+                context.getItemStateManager(), index.getDirectory(),
+                context.getExecutor());
+        // also created without async indexing to apply pending changes
+        asyncUpdater = new AsyncIndexUpdater(this, index.getDirectory(),
+                context.getExecutor());
         if (index.numDocs() == 0) {
             Path rootPath;
             if (excludedIDs.isEmpty()) {
@@ -652,6 +793,114 @@ public class SearchIndex extends AbstractQueryHandler {
             throws RepositoryException, IOException {
         checkOpen();
 
+        if (asyncIndexing) {
+            Collection<NodeId> removeIds = new ArrayList<NodeId>();
+            while (remove.hasNext()) {
+                removeIds.add(remove.next());
+            }
+            Collection<NodeId> addIds = new ArrayList<NodeId>();
+            while (add.hasNext()) {
+                NodeState state = add.next();
+                if (state != null) {
+                    addIds.add(state.getNodeId());
+                }
+            }
+            asyncUpdater.record(removeIds, addIds);
+            return;
+        }
+
+        Lock lock = ancestorUpdater.getUpdateLock();
+        lock.lock();
+        try {
+            doUpdateNodes(remove, add);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Applies changes recorded by the {@link AsyncIndexUpdater} to the index.
+     * Nodes that do not exist anymore are only removed from the index.
+     *
+     * @param remove ids of nodes to remove.
+     * @param add    ids of nodes to index with their current state.
+     * @throws RepositoryException if an error occurs while indexing a node.
+     * @throws IOException         if an error occurs while updating the index.
+     */
+    void applyUpdates(Collection<NodeId> remove, Collection<NodeId> add)
+            throws RepositoryException, IOException {
+        ItemStateManager ism = getContext().getItemStateManager();
+        List<NodeState> states = new ArrayList<NodeState>(add.size());
+        for (NodeId id : add) {
+            try {
+                states.add((NodeState) ism.getItemState(id));
+            } catch (NoSuchItemStateException e) {
+                // removed in the meantime
+            } catch (ItemStateException e) {
+                log.warn("Exception while indexing node: " + id, e);
+            }
+        }
+        Lock lock = ancestorUpdater.getUpdateLock();
+        lock.lock();
+        try {
+            doUpdateNodes(remove.iterator(), states.iterator());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until all changes recorded before this method was called are
+     * applied to the index, including the changes of the index of the
+     * parent handler. Without async indexing this method returns
+     * immediately.
+     *
+     * @param timeout the maximum time to wait in milliseconds.
+     * @return <code>true</code> if all changes are applied to the index;
+     *         <code>false</code> if the timeout elapsed or the changes could
+     *         not be applied.
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    public boolean waitForIndex(long timeout) throws InterruptedException {
+        long time = System.currentTimeMillis();
+        if (!asyncUpdater.waitForIndex(timeout)) {
+            return false;
+        }
+        QueryHandler parent = getContext().getParentHandler();
+        return !(parent instanceof SearchIndex)
+                || ((SearchIndex) parent).waitForIndex(
+                        timeout - (System.currentTimeMillis() - time));
+    }
+
+    /**
+     * Returns the time since the oldest change was recorded that is not yet
+     * applied to the index. This is always zero without async indexing.
+     *
+     * @return the index lag in milliseconds.
+     */
+    public long getIndexLag() {
+        return asyncUpdater.getIndexLag();
+    }
+
+    /**
+     * @return the number of nodes in recorded changes that are not yet
+     *         applied to the index.
+     */
+    public int getPendingIndexUpdates() {
+        return asyncUpdater.getPendingNodes();
+    }
+
+    /**
+     * Updates the index with the current state of nodes. The caller must
+     * hold the update lock of the {@link AncestorIndexUpdater}.
+     *
+     * @param remove ids of nodes to remove.
+     * @param add    NodeStates to add.
+     * @throws RepositoryException if an error occurs while indexing a node.
+     * @throws IOException         if an error occurs while updating the index.
+     */
+    private void doUpdateNodes(Iterator<NodeId> remove, Iterator<NodeState> add)
+            throws RepositoryException, IOException {
         Map<NodeId, NodeState> aggregateRoots = new HashMap<NodeId, NodeState>();
         Set<NodeId> removedIds = new HashSet<NodeId>();
         Set<NodeId> addedIds = new HashSet<NodeId>();
@@ -665,11 +914,15 @@ public class SearchIndex extends AbstractQueryHandler {
         }
         
         Collection<Document> addCollection = new ArrayList<Document>();
+        List<NodeState> updatedParents = new ArrayList<NodeState>();
         while (add.hasNext()) {
             NodeState state = add.next();
             if (state != null) {
                 NodeId id = state.getNodeId();
                 addedIds.add(id);
+                if (removedIds.contains(id) && state.hasChildNodeEntries()) {
+                    updatedParents.add(state);
+                }
                 retrieveAggregateRoot(state, aggregateRoots);
 
                 try {
@@ -685,6 +938,11 @@ public class SearchIndex extends AbstractQueryHandler {
         time = System.currentTimeMillis() - time;
         log.debug("created the removeCollection {} and addCollection {} in {}ms", new Object[] {removeCollection.size(), addCollection.size(), time});
 
+        if (index.getIndexFormatVersion().isAtLeast(IndexFormatVersion.V5)) {
+            // descendants of moved nodes need new ancestor terms
+            ancestorUpdater.nodesMoved(getMovedNodes(updatedParents));
+        }
+
         index.update(removeCollection, addCollection);
 
         // remove any aggregateRoot nodes that are new
@@ -714,6 +972,101 @@ public class SearchIndex extends AbstractQueryHandler {
         }
     }
 
+    /**
+     * Returns the nodes whose parent differs from the parent in the index.
+     *
+     * @param states the current states of re-indexed nodes.
+     * @return the ids of the moved nodes.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    private List<NodeId> getMovedNodes(List<NodeState> states)
+            throws IOException {
+        List<NodeId> moved = new ArrayList<NodeId>();
+        if (states.isEmpty()) {
+            return moved;
+        }
+        CachingMultiIndexReader reader = index.getIndexReader();
+        try {
+            for (NodeState state : states) {
+                if (state.getParentId() == null) {
+                    continue;
+                }
+                Set<String> parents = new HashSet<String>();
+                if (state.getSharedSet().isEmpty()) {
+                    parents.add(state.getParentId().toString());
+                } else {
+                    for (NodeId id : state.getSharedSet()) {
+                        parents.add(id.toString());
+                    }
+                }
+                TermDocs tDocs = reader.termDocs(TermFactory.createUUIDTerm(
+                        state.getNodeId().toString()));
+                try {
+                    if (tDocs.next()) {
+                        Document doc = reader.document(
+                                tDocs.doc(), FieldSelectors.UUID_AND_PARENT);
+                        Set<String> indexed = new HashSet<String>(
+                                Arrays.asList(doc.getValues(FieldNames.PARENT)));
+                        if (!parents.equals(indexed)) {
+                            moved.add(state.getNodeId());
+                        }
+                    }
+                } finally {
+                    tDocs.close();
+                }
+            }
+        } finally {
+            reader.release();
+        }
+        return moved;
+    }
+
+    /**
+     * Re-indexes nodes with their current state. Used by the
+     * {@link AncestorIndexUpdater}, which holds the write lock that excludes
+     * concurrent calls to {@link #updateNodes(Iterator, Iterator)}.
+     *
+     * @param ids the ids of the nodes to re-index.
+     * @throws IOException if an error occurs while updating the index.
+     */
+    void reindexNodes(Collection<NodeId> ids) throws IOException {
+        ItemStateManager ism = getContext().getItemStateManager();
+        Collection<Document> docs = new ArrayList<Document>(ids.size());
+        for (NodeId id : ids) {
+            try {
+                NodeState state = (NodeState) ism.getItemState(id);
+                docs.add(createDocument(state, getNamespaceMappings(),
+                        index.getIndexFormatVersion()));
+            } catch (NoSuchItemStateException e) {
+                // removed in the meantime
+            } catch (ItemStateException e) {
+                log.warn("Exception while re-indexing node: " + id, e);
+            } catch (RepositoryException e) {
+                log.warn("Exception while re-indexing node: " + id, e);
+            }
+        }
+        index.update(ids, docs);
+    }
+
+    /**
+     * Returns <code>true</code> if descendant constraints can be executed
+     * with a lookup of the {@link FieldNames#ANCESTORS} terms. This requires
+     * that the feature is enabled, all indexes have at least format version
+     * 5 and the descendants of all moved nodes have been re-indexed.
+     *
+     * @return whether the ancestor terms can be used for queries.
+     */
+    public boolean canUseAncestorTerms() {
+        if (!useAncestorTerms
+                || !getIndexFormatVersion().isAtLeast(IndexFormatVersion.V5)
+                || ancestorUpdater.hasPendingUpdates()) {
+            return false;
+        }
+        QueryHandler parent = getContext().getParentHandler();
+        return !(parent instanceof SearchIndex)
+                || ((SearchIndex) parent).canUseAncestorTerms();
+    }
+
     /**
      * Creates a new query by specifying the query statement itself and the
      * language in which the query is stated.  If the query statement is
@@ -813,6 +1166,14 @@ public class SearchIndex extends AbstractQueryHandler {
      * @throws RepositoryException if the index update can not be written
      */
     public void flush() throws RepositoryException {
+        try {
+            if (!asyncUpdater.waitForIndex(Long.MAX_VALUE)) {
+                log.warn("Unable to apply pending changes before the index is flushed");
+            }
+        } catch (InterruptedException e) {
+            throw new RepositoryException(
+                    "Interrupted while waiting for pending changes", e);
+        }
         try {
             index.waitUntilIndexingQueueIsEmpty();
             index.safeFlush();
@@ -824,6 +1185,22 @@ public class SearchIndex extends AbstractQueryHandler {
         }
     }
 
+    /**
+     * Creates a snapshot of this index in the <code>target</code> directory.
+     * The snapshot contains everything that is in the index directory,
+     * including the namespace mappings and the changes that are recorded but
+     * not yet applied to the index. A search index whose path is a copy of
+     * the snapshot starts with the contents of this index and applies the
+     * recorded changes.
+     *
+     * @param target the directory of the snapshot.
+     * @throws IOException if an error occurs while creating the snapshot.
+     */
+    public void createSnapshot(File target) throws IOException {
+        checkOpen();
+        index.createSnapshot(target);
+    }
+
     /**
      * Closes this <code>QueryHandler</code> and frees resources attached
      * to this handler.
@@ -839,7 +1216,12 @@ public class SearchIndex extends AbstractQueryHandler {
         if (spellChecker != null) {
             spellChecker.close();
         }
+        asyncUpdater.close();
+        ancestorUpdater.close();
         index.close();
+        if (parsedQueryCache != null) {
+            log.info("Parsed query cache: " + parsedQueryCache);
+        }
         getContext().destroy();
         super.close();
         closed = true;
@@ -1126,6 +1508,13 @@ public class SearchIndex extends AbstractQueryHandler {
         return indexFormatVersion;
     }
 
+    /**
+     * @return the merge backlog and throughput of this search index.
+     */
+    public MergeStatistics getMergeStatistics() {
+        return index.getMergeStatistics();
+    }
+
     /**
      * @return the directory manager for this search index.
      */
@@ -1254,6 +1643,7 @@ public class SearchIndex extends AbstractQueryHandler {
         indexer.setIndexingConfiguration(indexingConfig);
         indexer.setIndexFormatVersion(indexFormatVersion);
         indexer.setMaxExtractLength(getMaxExtractLength());
+        indexer.setExtractedTextCache(extractedTextCache);
         Document doc = indexer.createDoc();
         mergeAggregatedNodeIndexes(node, doc, indexFormatVersion);
         return doc;
@@ -1596,6 +1986,23 @@ public class SearchIndex extends AbstractQueryHandler {
                                         }
                                     }
                                 }
+                                // transfer trie encoded values
+                                Fieldable[] numericFields = aDoc.getFieldables(FieldNames.NUMERIC_PROPERTIES);
+                                for (Fieldable field : numericFields) {
+                                    String value = field.stringValue();
+                                    if (value.startsWith(namePrefix)) {
+                                        Path p = getRelativePath(state, propState);
+                                        String path = getNamespaceMappings().translatePath(p);
+                                        Field f = new Field(field.name(), false,
+                                                FieldNames.createNamedValue(path,
+                                                        value.substring(namePrefix.length())),
+                                                Field.Store.NO,
+                                                Field.Index.NOT_ANALYZED_NO_NORMS,
+                                                Field.TermVector.NO);
+                                        f.setIndexOptions(FieldInfo.IndexOptions.DOCS_ONLY);
+                                        doc.add(f);
+                                    }
+                                }
                             } finally {
                                 Util.disposeDocument(aDoc);
                             }
@@ -2062,10 +2469,19 @@ public class SearchIndex extends AbstractQueryHandler {
         return autoRepair;
     }
 
+    /**
+     * @param size the size of the former document number cache.
+     * @deprecated document numbers are looked up in a table that is stored
+     *             with each index segment, this parameter is ignored.
+     */
     public void setCacheSize(int size) {
         cacheSize = size;
     }
 
+    /**
+     * @return the size of the former document number cache.
+     * @deprecated this parameter is ignored.
+     */
     public int getCacheSize() {
         return cacheSize;
     }
@@ -2485,6 +2901,299 @@ public class SearchIndex extends AbstractQueryHandler {
         return useSimpleFSDirectory;
     }
 
+    /**
+     * If set <code>true</code> will indicate to the
+     * {@link org.apache.jackrabbit.core.query.lucene.directory.MMapDirectoryManager}
+     * to only memory map the term dictionary and postings files. This
+     * requires that compound files are disabled.
+     *
+     * @param mmapTermsAndPostingsOnly whether to map only the term dictionary
+     *                                 and postings files.
+     */
+    public void setMmapTermsAndPostingsOnly(boolean mmapTermsAndPostingsOnly) {
+        this.mmapTermsAndPostingsOnly = mmapTermsAndPostingsOnly;
+    }
+
+    /**
+     * @return <code>true</code> if only the term dictionary and postings
+     * files are memory mapped.
+     */
+    public boolean isMmapTermsAndPostingsOnly() {
+        return mmapTermsAndPostingsOnly;
+    }
+
+    /**
+     * Sets the number of threads that create the initial index of a
+     * workspace. If set to a value larger than one and the workspace
+     * persistence manager is an
+     * {@link org.apache.jackrabbit.core.persistence.IterablePersistenceManager}
+     * the node states are read from the persistence manager in batches and
+     * indexed concurrently instead of traversing the workspace.
+     *
+     * @param initialIndexThreads the number of threads.
+     */
+    public void setInitialIndexThreads(int initialIndexThreads) {
+        if (initialIndexThreads < 1) {
+            initialIndexThreads = 1;
+        }
+        this.initialIndexThreads = initialIndexThreads;
+    }
+
+    /**
+     * @return the number of threads that create the initial index.
+     */
+    public int getInitialIndexThreads() {
+        return initialIndexThreads;
+    }
+
+    /**
+     * Sets the number of nodes a thread of the initial index creation reads
+     * from the persistence manager at once. Progress of the initial index
+     * creation is recorded after each batch.
+     *
+     * @param initialIndexBatchSize the number of nodes per batch.
+     */
+    public void setInitialIndexBatchSize(int initialIndexBatchSize) {
+        if (initialIndexBatchSize < 1) {
+            initialIndexBatchSize = 1;
+        }
+        this.initialIndexBatchSize = initialIndexBatchSize;
+    }
+
+    /**
+     * @return the number of nodes per batch of the initial index creation.
+     */
+    public int getInitialIndexBatchSize() {
+        return initialIndexBatchSize;
+    }
+
+    /**
+     * If set <code>true</code> the redo log is synced to disk when a
+     * transaction is committed. Transactions that commit concurrently share
+     * a single sync.
+     *
+     * @param syncRedoLog whether to sync the redo log.
+     */
+    public void setSyncRedoLog(boolean syncRedoLog) {
+        this.syncRedoLog = syncRedoLog;
+    }
+
+    /**
+     * @return <code>true</code> if the redo log is synced to disk when a
+     * transaction is committed.
+     */
+    public boolean isSyncRedoLog() {
+        return syncRedoLog;
+    }
+
+    /**
+     * Sets the maximum size in bytes of the cache for text extracted from
+     * binaries in the data store. A value of zero disables the cache.
+     *
+     * @param extractedTextCacheSize the maximum size in bytes.
+     */
+    public void setExtractedTextCacheSize(long extractedTextCacheSize) {
+        this.extractedTextCacheSize = extractedTextCacheSize;
+    }
+
+    /**
+     * @return the maximum size in bytes of the extracted text cache.
+     */
+    public long getExtractedTextCacheSize() {
+        return extractedTextCacheSize;
+    }
+
+    /**
+     * Sets the directory of the extracted text cache. The default is a
+     * directory <code>textcache</code> next to the index directory, which
+     * is kept when the index is deleted to force a re-index.
+     *
+     * @param extractedTextCachePath the directory of the cache.
+     */
+    public void setExtractedTextCachePath(String extractedTextCachePath) {
+        this.extractedTextCachePath = extractedTextCachePath;
+    }
+
+    /**
+     * @return the directory of the extracted text cache or <code>null</code>
+     *         if the default location is used.
+     */
+    public String getExtractedTextCachePath() {
+        return extractedTextCachePath;
+    }
+
+    /**
+     * @return the extracted text cache or <code>null</code> if disabled.
+     */
+    public ExtractedTextCache getExtractedTextCache() {
+        return extractedTextCache;
+    }
+
+    /**
+     * If set <code>true</code> (the default) descendant constraints of SQL2
+     * queries are executed with a single term lookup, given that the index
+     * has format version 5.
+     *
+     * @param useAncestorTerms whether to use the ancestor terms.
+     */
+    public void setUseAncestorTerms(boolean useAncestorTerms) {
+        this.useAncestorTerms = useAncestorTerms;
+    }
+
+    /**
+     * @return <code>true</code> if descendant constraints are executed with
+     *         the ancestor terms.
+     */
+    public boolean getUseAncestorTerms() {
+        return useAncestorTerms;
+    }
+
+    /**
+     * If set <code>true</code> changes are applied to the index in the
+     * background. A save only records the ids of the changed nodes in a
+     * file next to the index, the documents are created and written to the
+     * index in batches afterwards. Queries may not see the most recent
+     * changes, see {@link #getIndexLag()} and {@link #waitForIndex(long)}.
+     * The default is <code>false</code>, which updates the index before the
+     * save returns.
+     *
+     * @param asyncIndexing whether to index in the background.
+     */
+    public void setAsyncIndexing(boolean asyncIndexing) {
+        this.asyncIndexing = asyncIndexing;
+    }
+
+    /**
+     * @return <code>true</code> if changes are applied to the index in the
+     *         background.
+     */
+    public boolean getAsyncIndexing() {
+        return asyncIndexing;
+    }
+
+    /**
+     * If set <code>true</code> index segments are merged with a tiered merge
+     * policy, which selects merges by the size in bytes and the ratio of
+     * deleted documents of the segments. The <code>mergeFactor</code> is
+     * used as the number of segments per tier and the maximum number of
+     * segments merged at once. The default is <code>false</code>, which
+     * merges segments with a similar number of documents.
+     *
+     * @param useTieredMerge whether to use tiered merging.
+     */
+    public void setUseTieredMerge(boolean useTieredMerge) {
+        this.useTieredMerge = useTieredMerge;
+    }
+
+    /**
+     * @return <code>true</code> if segments are merged with a tiered merge
+     *         policy.
+     */
+    public boolean getUseTieredMerge() {
+        return useTieredMerge;
+    }
+
+    /**
+     * Sets the maximum number of tiered merges that run at the same time.
+     *
+     * @param maxConcurrentMerges the maximum number of concurrent merges.
+     */
+    public void setMaxConcurrentMerges(int maxConcurrentMerges) {
+        this.maxConcurrentMerges = maxConcurrentMerges;
+    }
+
+    /**
+     * @return the maximum number of tiered merges that run at the same time.
+     */
+    public int getMaxConcurrentMerges() {
+        return maxConcurrentMerges;
+    }
+
+    /**
+     * Sets the maximum rate in MB per second at which all merges together
+     * write index files. A value of zero (the default) disables the limit.
+     *
+     * @param maxMergeMBPerSec the maximum rate in MB per second.
+     */
+    public void setMaxMergeMBPerSec(double maxMergeMBPerSec) {
+        this.maxMergeMBPerSec = maxMergeMBPerSec;
+    }
+
+    /**
+     * @return the maximum rate in MB per second at which merges write index
+     *         files.
+     */
+    public double getMaxMergeMBPerSec() {
+        return maxMergeMBPerSec;
+    }
+
+    /**
+     * Sets the execution time in milliseconds from which on a query is
+     * logged with its execution plan and per-phase timings to the logger
+     * <code>org.apache.jackrabbit.core.query.SlowQueryLog</code>. The plan
+     * is also kept with the slow queries of the query statistics. A value of
+     * zero (the default) disables the slow query log.
+     *
+     * @param slowQueryThreshold the threshold in milliseconds.
+     */
+    public void setSlowQueryThreshold(long slowQueryThreshold) {
+        this.slowQueryThreshold = slowQueryThreshold;
+    }
+
+    /**
+     * @return the execution time in milliseconds from which on a query is
+     *         logged as slow query.
+     */
+    public long getSlowQueryThreshold() {
+        return slowQueryThreshold;
+    }
+
+    /**
+     * Sets the number of hits read from the index from which on a query is
+     * logged as slow query, regardless of its execution time. A value of
+     * zero (the default) disables this threshold.
+     *
+     * @param slowQueryHitThreshold the threshold in index hits.
+     */
+    public void setSlowQueryHitThreshold(long slowQueryHitThreshold) {
+        this.slowQueryHitThreshold = slowQueryHitThreshold;
+    }
+
+    /**
+     * @return the number of hits read from the index from which on a query
+     *         is logged as slow query.
+     */
+    public long getSlowQueryHitThreshold() {
+        return slowQueryHitThreshold;
+    }
+
+    /**
+     * Sets the maximum number of parsed query trees that are cached. Queries
+     * with the same language, statement and namespace mappings share the
+     * parsed tree and skip the query parser. A value of zero disables the
+     * cache. The default is {@link #DEFAULT_PARSED_QUERY_CACHE_SIZE}.
+     *
+     * @param parsedQueryCacheSize the maximum number of cached query trees.
+     */
+    public void setParsedQueryCacheSize(int parsedQueryCacheSize) {
+        this.parsedQueryCacheSize = parsedQueryCacheSize;
+    }
+
+    /**
+     * @return the maximum number of cached query trees.
+     */
+    public int getParsedQueryCacheSize() {
+        return parsedQueryCacheSize;
+    }
+
+    /**
+     * @return the cache of parsed query trees or <code>null</code> if
+     *         disabled.
+     */
+    public ParsedQueryCache getParsedQueryCache() {
+        return parsedQueryCache;
+    }
+
     /**
      * @return the current value for termInfosIndexDivisor.
      */
@@ -0,0 +1,34 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+/**
+ * <code>SegmentListener</code> is informed when the persistent segments of a
+ * {@link MultiIndex} change. This happens when the volatile index is
+ * committed to a new segment and when segments are merged.
+ */
+public interface SegmentListener {
+
+    /**
+     * Called after a segment was added to or removed from the index. The
+     * multi index is locked while this method is called, implementations
+     * must therefore not block and must not access the index from within
+     * this method.
+     */
+    void segmentsChanged();
+
+}
@@ -364,7 +364,7 @@ public class SharedFieldCache {
      * @param type the property type.
      * @return a comparable for the <code>value</code>.
      */
-    private Comparable<?> getValue(String value, int type) {
+    static Comparable<?> getValue(String value, int type) {
         switch (type) {
             case PropertyType.BOOLEAN:
                 return Boolean.valueOf(value);
@@ -398,6 +398,20 @@ public class SharedFieldCache {
             this.prefix = prefix.intern();
         }
 
+        /**
+         * @return the name of the shared field.
+         */
+        String getField() {
+            return field;
+        }
+
+        /**
+         * @return the term prefix.
+         */
+        String getPrefix() {
+            return prefix;
+        }
+
         /**
          * Returns <code>true</code> if <code>o</code> is a <code>Key</code>
          * instance and refers to the same field and prefix.
@@ -116,7 +116,13 @@ public class SharedFieldComparatorSource extends FieldComparatorSource {
     static final class SimpleFieldComparator extends AbstractFieldComparator {
 
         /**
-         * The term look ups of the index segments.
+         * The sort columns of the index segments. An entry is <code>null</code>
+         * if the segment does not provide a column for the property.
+         */
+        protected SortColumn.Values[] columns;
+
+        /**
+         * The term look ups of the index segments without a sort column.
          */
         protected SharedFieldCache.ValueIndex[] indexes;
 
@@ -147,11 +153,20 @@ public class SharedFieldComparatorSource extends FieldComparatorSource {
         public void setNextReader(IndexReader reader, int docBase) throws IOException {
             super.setNextReader(reader, docBase);
 
+            columns = new SortColumn.Values[readers.size()];
             indexes = new SharedFieldCache.ValueIndex[readers.size()];
 
             String namedValue = FieldNames.createNamedValue(propertyName, "");
             for (int i = 0; i < readers.size(); i++) {
                 IndexReader r = readers.get(i);
+                if (r instanceof ReadOnlyIndexReader) {
+                    SortColumn column = ((ReadOnlyIndexReader) r).getBase()
+                            .getBase().getSortColumn(fieldName, namedValue);
+                    if (column.isSupported()) {
+                        columns[i] = column.values();
+                        continue;
+                    }
+                }
                 indexes[i] = SharedFieldCache.INSTANCE.getValueIndex(r,
                         fieldName, namedValue);
             }
@@ -160,6 +175,14 @@ public class SharedFieldComparatorSource extends FieldComparatorSource {
         @Override
         protected Comparable<?> sortValue(int doc) {
             int idx = readerIndex(doc);
+            if (columns[idx] != null) {
+                try {
+                    return columns[idx].getValue(doc - starts[idx]);
+                } catch (IOException e) {
+                    throw new RuntimeException(
+                            "Unable to read sort value of " + propertyName, e);
+                }
+            }
             return indexes[idx].getValue(doc - starts[idx]);
         }
 
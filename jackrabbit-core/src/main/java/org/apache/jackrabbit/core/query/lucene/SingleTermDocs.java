@@ -101,7 +101,9 @@ class SingleTermDocs implements TermDocs {
      * {@inheritDoc}
      */
     public boolean skipTo(int target) throws IOException {
-        return false;
+        boolean hasNext = next && doc >= target;
+        next = false;
+        return hasNext;
     }
 
     /**
@@ -0,0 +1,651 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.jcr.PropertyType;
+
+import org.apache.jackrabbit.util.Text;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.index.TermPositions;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.ReaderUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>SortColumn</code> implements a columnar store of the sort values of a
+ * single property in an index segment. Unlike the
+ * {@link SharedFieldCache.ValueIndex} the values are not kept as
+ * <code>Comparable</code> objects on the heap, but in a file next to the
+ * segment:
+ * <ul>
+ * <li>long and date properties are stored as a primitive long array,</li>
+ * <li>double properties are stored as a primitive double array,</li>
+ * <li>all other properties, including properties with values of differing
+ * types in the segment, are stored as an int array of ordinals into a table
+ * of the distinct values. Each distinct value keeps its own property type,
+ * is decoded when it is first read and kept with the column.</li>
+ * </ul>
+ * The file is read through the {@link IndexInput} of the segment directory,
+ * which is memory mapped when the directory is an <code>MMapDirectory</code>
+ * (default for <code>FSDirectory.open()</code> on 64 bit platforms). Segments
+ * that live in memory (e.g. the volatile index) keep their column in a
+ * private <code>RAMDirectory</code>.
+ * <p>
+ * A column is tied to the segments of the index reader it was created for.
+ * Documents numbers of an index segment never change once the segment is
+ * written, therefore a persisted column stays valid until the segment itself
+ * is replaced by a merge.
+ * <p>
+ * The property type is detected per term. Properties with multiple values in
+ * a document or with a term that is indexed with differing property types
+ * (e.g. the same text as STRING and NAME value) cannot be represented in a
+ * column. For those a column with {@link #isSupported()} <code>false</code>
+ * is created and the caller is expected to fall back to the
+ * {@link SharedFieldCache}.
+ */
+final class SortColumn {
+
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(SortColumn.class);
+
+    /**
+     * Name prefix of the files that contain a sort column.
+     */
+    static final String FILE_PREFIX = "sortcolumn.";
+
+    /**
+     * Magic number at the start of a sort column file.
+     */
+    private static final int MAGIC = 0x4A52534F;
+
+    /**
+     * The current version of the file format.
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Column without any values.
+     */
+    private static final byte KIND_EMPTY = 0;
+
+    /**
+     * Column with long values (LONG and DATE properties).
+     */
+    private static final byte KIND_LONG = 1;
+
+    /**
+     * Column with double values.
+     */
+    private static final byte KIND_DOUBLE = 2;
+
+    /**
+     * Column with ordinals into a table of distinct values.
+     */
+    private static final byte KIND_ORDINAL = 3;
+
+    /**
+     * Column that cannot be represented, see {@link #isSupported()}.
+     */
+    private static final byte KIND_UNSUPPORTED = 4;
+
+    /**
+     * Length of the trailer of an ordinal column: the start of the offset
+     * table and the number of ordinals.
+     */
+    private static final int ORDINAL_TRAILER_LENGTH = 12;
+
+    /**
+     * The name of the shared field.
+     */
+    private final String field;
+
+    /**
+     * The term prefix, which identifies the property.
+     */
+    private final String prefix;
+
+    /**
+     * The kind of this column.
+     */
+    private final byte kind;
+
+    /**
+     * The number of documents in the segment.
+     */
+    private final int maxDoc;
+
+    /**
+     * The input on the column file or <code>null</code> if the column does not
+     * have any data.
+     */
+    private final IndexInput input;
+
+    /**
+     * Private directory for columns of segments that are not persisted or
+     * <code>null</code> if the column is stored next to the segment.
+     */
+    private final Directory privateDirectory;
+
+    /**
+     * Start of the presence bitmap of a numeric column.
+     */
+    private final long bitmapStart;
+
+    /**
+     * Start of the per document data.
+     */
+    private final long dataStart;
+
+    /**
+     * Start of the ordinal offset table of an ordinal column.
+     */
+    private final long offsetsStart;
+
+    /**
+     * Number of distinct values of an ordinal column.
+     */
+    private final int numOrdinals;
+
+    /**
+     * The decoded values of an ordinal column, by ordinal. A value is decoded
+     * from the column file the first time it is read and then shared by all
+     * accessors, so that sorting does not read and parse a value per hit.
+     */
+    private final AtomicReferenceArray<Comparable<?>> ordinalValues;
+
+    private SortColumn(String field,
+                       String prefix,
+                       byte kind,
+                       int maxDoc,
+                       IndexInput input,
+                       Directory privateDirectory,
+                       long bitmapStart,
+                       long dataStart,
+                       long offsetsStart,
+                       int numOrdinals) {
+        this.field = field;
+        this.prefix = prefix;
+        this.kind = kind;
+        this.maxDoc = maxDoc;
+        this.input = input;
+        this.privateDirectory = privateDirectory;
+        this.bitmapStart = bitmapStart;
+        this.dataStart = dataStart;
+        this.offsetsStart = offsetsStart;
+        this.numOrdinals = numOrdinals;
+        this.ordinalValues = kind == KIND_ORDINAL
+                ? new AtomicReferenceArray<Comparable<?>>(numOrdinals) : null;
+    }
+
+    /**
+     * Opens the sort column for the given <code>field</code> and
+     * <code>prefix</code> on <code>reader</code>. If there is a valid column
+     * file in the directory of the reader it is used, otherwise the column is
+     * built from the terms in the index.
+     *
+     * @param reader the index reader of a segment.
+     * @param field  the name of the shared field.
+     * @param prefix the property name, used as term prefix.
+     * @return the sort column.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    static SortColumn open(IndexReader reader, String field, String prefix)
+            throws IOException {
+        field = field.intern();
+        Directory directory = reader.directory();
+        String segments = getSegments(reader);
+        String fileName = getFileName(field, prefix);
+        if (directory instanceof RAMDirectory) {
+            // do not persist columns for in-memory segments
+            Directory ram = new RAMDirectory();
+            build(reader, field, prefix, segments, ram, fileName);
+            SortColumn column = load(ram, fileName, field, prefix, segments, reader.maxDoc(), ram);
+            if (column == null) {
+                throw new IOException("Unable to read sort column " + fileName);
+            }
+            return column;
+        }
+        synchronized (directory) {
+            if (directory.fileExists(fileName)) {
+                SortColumn column = load(directory, fileName, field, prefix,
+                        segments, reader.maxDoc(), null);
+                if (column != null) {
+                    return column;
+                }
+                log.debug("Sort column {} is outdated, rebuilding", fileName);
+                directory.deleteFile(fileName);
+            }
+            long time = System.currentTimeMillis();
+            build(reader, field, prefix, segments, directory, fileName);
+            SortColumn column = load(directory, fileName, field, prefix,
+                    segments, reader.maxDoc(), null);
+            if (column == null) {
+                throw new IOException("Unable to read sort column " + fileName);
+            }
+            log.debug("Built sort column for {} on {} documents in {} ms",
+                    new Object[]{prefix, reader.maxDoc(), System.currentTimeMillis() - time});
+            return column;
+        }
+    }
+
+    /**
+     * Returns the keys (field and prefix) of the sort columns that are stored
+     * in <code>directory</code>.
+     *
+     * @param directory the directory of an index segment.
+     * @return the keys of the sort columns in <code>directory</code>.
+     * @throws IOException if an error occurs while reading from the directory.
+     */
+    static List<SharedFieldCache.Key> getColumnKeys(Directory directory)
+            throws IOException {
+        List<SharedFieldCache.Key> keys = new ArrayList<SharedFieldCache.Key>();
+        String[] files = directory.listAll();
+        if (files == null) {
+            return keys;
+        }
+        for (String file : files) {
+            if (!file.startsWith(FILE_PREFIX)) {
+                continue;
+            }
+            IndexInput in = directory.openInput(file);
+            try {
+                if (in.length() > 8 && in.readInt() == MAGIC
+                        && in.readInt() == FORMAT_VERSION) {
+                    keys.add(new SharedFieldCache.Key(in.readString(), in.readString()));
+                }
+            } catch (IOException e) {
+                log.debug("Unable to read sort column header of " + file, e);
+            } finally {
+                in.close();
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * @return <code>false</code> if the values of the property cannot be
+     *          represented in a column, because at least one document has
+     *          multiple values or a term is indexed with differing property
+     *          types; <code>true</code> otherwise.
+     */
+    boolean isSupported() {
+        return kind != KIND_UNSUPPORTED;
+    }
+
+    /**
+     * @return the key of this column.
+     */
+    SharedFieldCache.Key getKey() {
+        return new SharedFieldCache.Key(field, prefix);
+    }
+
+    /**
+     * Returns a new accessor for the values in this column. The returned
+     * instance must only be used by a single thread.
+     *
+     * @return accessor for the values in this column.
+     */
+    Values values() {
+        return new Values(input == null ? null : (IndexInput) input.clone());
+    }
+
+    /**
+     * Closes this sort column.
+     *
+     * @throws IOException if an error occurs while closing the column file.
+     */
+    void close() throws IOException {
+        try {
+            if (input != null) {
+                input.close();
+            }
+        } finally {
+            if (privateDirectory != null) {
+                privateDirectory.close();
+            }
+        }
+    }
+
+    /**
+     * Accessor for the values of a sort column.
+     */
+    final class Values {
+
+        /**
+         * Private clone of the column input.
+         */
+        private final IndexInput in;
+
+        private Values(IndexInput in) {
+            this.in = in;
+        }
+
+        /**
+         * Returns the sort value for document number <code>doc</code>.
+         *
+         * @param doc the document number within the segment.
+         * @return the sort value or <code>null</code> if the document does
+         *          not have a value.
+         * @throws IOException if an error occurs while reading the column.
+         */
+        Comparable<?> getValue(int doc) throws IOException {
+            if (doc < 0 || doc >= maxDoc) {
+                return null;
+            }
+            switch (kind) {
+                case KIND_LONG:
+                    if (isPresent(doc)) {
+                        in.seek(dataStart + ((long) doc << 3));
+                        return in.readLong();
+                    }
+                    return null;
+                case KIND_DOUBLE:
+                    if (isPresent(doc)) {
+                        in.seek(dataStart + ((long) doc << 3));
+                        return Double.longBitsToDouble(in.readLong());
+                    }
+                    return null;
+                case KIND_ORDINAL:
+                    in.seek(dataStart + ((long) doc << 2));
+                    int ord = in.readInt();
+                    if (ord < 0 || ord >= numOrdinals) {
+                        return null;
+                    }
+                    Comparable<?> value = ordinalValues.get(ord);
+                    if (value == null) {
+                        in.seek(offsetsStart + ((long) ord << 3));
+                        in.seek(in.readLong());
+                        int type = in.readByte();
+                        value = SharedFieldCache.getValue(in.readString(), type);
+                        ordinalValues.set(ord, value);
+                    }
+                    return value;
+                default:
+                    return null;
+            }
+        }
+
+        private boolean isPresent(int doc) throws IOException {
+            in.seek(bitmapStart + (doc >> 3));
+            return (in.readByte() & (1 << (doc & 7))) != 0;
+        }
+    }
+
+    //------------------------------< internal >--------------------------------
+
+    /**
+     * Returns the file name for a sort column.
+     *
+     * @param field  the name of the shared field.
+     * @param prefix the term prefix.
+     * @return the file name.
+     */
+    private static String getFileName(String field, String prefix) {
+        return FILE_PREFIX + Text.md5(field + '\u0000' + prefix);
+    }
+
+    /**
+     * Returns a string that identifies the segments of <code>reader</code>.
+     * Segments are never modified once written except for deletions, which do
+     * not change document numbers.
+     *
+     * @param reader an index reader.
+     * @return the names of the segments of <code>reader</code>.
+     */
+    static String getSegments(IndexReader reader) {
+        List<IndexReader> subReaders = new ArrayList<IndexReader>();
+        ReaderUtil.gatherSubReaders(subReaders, reader);
+        StringBuilder segments = new StringBuilder();
+        for (IndexReader r : subReaders) {
+            if (segments.length() > 0) {
+                segments.append(',');
+            }
+            if (r instanceof SegmentReader) {
+                segments.append(((SegmentReader) r).getSegmentName());
+            }
+            segments.append(':').append(r.maxDoc());
+        }
+        return segments.toString();
+    }
+
+    /**
+     * Reads a sort column from <code>directory</code>.
+     *
+     * @return the column or <code>null</code> if the file does not match the
+     *          given segments or is incomplete.
+     */
+    private static SortColumn load(Directory directory,
+                                   String fileName,
+                                   String field,
+                                   String prefix,
+                                   String segments,
+                                   int maxDoc,
+                                   Directory privateDirectory)
+            throws IOException {
+        IndexInput in = directory.openInput(fileName);
+        boolean success = false;
+        try {
+            long length = in.length();
+            byte kind;
+            try {
+                if (length < 8 || in.readInt() != MAGIC
+                        || in.readInt() != FORMAT_VERSION
+                        || !field.equals(in.readString())
+                        || !prefix.equals(in.readString())
+                        || !segments.equals(in.readString())
+                        || in.readInt() != maxDoc) {
+                    return null;
+                }
+                kind = in.readByte();
+            } catch (IOException e) {
+                log.debug("Unable to read sort column header of " + fileName, e);
+                return null;
+            }
+            long headerEnd = in.getFilePointer();
+            SortColumn column;
+            if (kind == KIND_LONG || kind == KIND_DOUBLE) {
+                long dataStart = headerEnd + ((maxDoc + 7) >> 3);
+                if (length != dataStart + ((long) maxDoc << 3)) {
+                    return null;
+                }
+                column = new SortColumn(field, prefix, kind, maxDoc, in,
+                        privateDirectory, headerEnd, dataStart, -1, 0);
+            } else if (kind == KIND_ORDINAL) {
+                if (length < headerEnd + ((long) maxDoc << 2) + ORDINAL_TRAILER_LENGTH) {
+                    return null;
+                }
+                in.seek(length - ORDINAL_TRAILER_LENGTH);
+                long offsetsStart = in.readLong();
+                int numOrdinals = in.readInt();
+                if (offsetsStart + ((long) numOrdinals << 3)
+                        + ORDINAL_TRAILER_LENGTH != length) {
+                    return null;
+                }
+                column = new SortColumn(field, prefix, kind, maxDoc, in,
+                        privateDirectory, -1, headerEnd, offsetsStart, numOrdinals);
+            } else if (kind == KIND_EMPTY || kind == KIND_UNSUPPORTED) {
+                in.close();
+                column = new SortColumn(field, prefix, kind, maxDoc, null,
+                        privateDirectory, -1, -1, -1, 0);
+            } else {
+                return null;
+            }
+            success = true;
+            return column;
+        } finally {
+            if (!success) {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Builds a sort column from the terms in <code>reader</code> and writes
+     * it to <code>directory</code>.
+     */
+    private static void build(IndexReader reader,
+                              String field,
+                              String prefix,
+                              String segments,
+                              Directory directory,
+                              String fileName) throws IOException {
+        int maxDoc = reader.maxDoc();
+        int[] ords = new int[maxDoc];
+        Arrays.fill(ords, -1);
+        List<String> values = new ArrayList<String>();
+        List<Integer> types = new ArrayList<Integer>();
+        boolean supported = true;
+        boolean longs = true;
+        boolean doubles = true;
+
+        IndexFormatVersion version = IndexFormatVersion.getVersion(reader);
+        boolean hasPayloads = version.isAtLeast(IndexFormatVersion.V3);
+        byte[] payload = new byte[1];
+        TermDocs termDocs = hasPayloads ? reader.termPositions() : reader.termDocs();
+        TermEnum termEnum = reader.terms(new Term(field, prefix));
+        try {
+            do {
+                Term term = termEnum.term();
+                if (term == null || term.field() != field
+                        || !term.text().startsWith(prefix)) {
+                    break;
+                }
+                int ord = values.size();
+                int termType = -1;
+                termDocs.seek(term);
+                while (supported && termDocs.next()) {
+                    int type = PropertyType.UNDEFINED;
+                    if (hasPayloads) {
+                        TermPositions termPos = (TermPositions) termDocs;
+                        termPos.nextPosition();
+                        if (termPos.isPayloadAvailable()) {
+                            payload = termPos.getPayload(payload, 0);
+                            type = PropertyMetaData.fromByteArray(payload).getPropertyType();
+                        }
+                    }
+                    int doc = termDocs.doc();
+                    if (ords[doc] != -1 || (termType != -1 && termType != type)) {
+                        // multiple values or mixed types
+                        supported = false;
+                    }
+                    termType = type;
+                    ords[doc] = ord;
+                }
+                if (!supported) {
+                    break;
+                }
+                if (termType != -1) {
+                    longs &= termType == PropertyType.LONG || termType == PropertyType.DATE;
+                    doubles &= termType == PropertyType.DOUBLE;
+                }
+                values.add(term.text().substring(prefix.length()));
+                types.add(termType);
+            } while (termEnum.next());
+        } finally {
+            termDocs.close();
+            termEnum.close();
+        }
+
+        byte kind;
+        if (!supported) {
+            kind = KIND_UNSUPPORTED;
+        } else if (values.isEmpty()) {
+            kind = KIND_EMPTY;
+        } else if (longs) {
+            kind = KIND_LONG;
+        } else if (doubles) {
+            kind = KIND_DOUBLE;
+        } else {
+            kind = KIND_ORDINAL;
+        }
+
+        IndexOutput out = directory.createOutput(fileName);
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeString(field);
+            out.writeString(prefix);
+            out.writeString(segments);
+            out.writeInt(maxDoc);
+            out.writeByte(kind);
+            if (kind == KIND_LONG || kind == KIND_DOUBLE) {
+                long[] numbers = new long[values.size()];
+                for (int i = 0; i < numbers.length; i++) {
+                    String value = values.get(i);
+                    switch (types.get(i)) {
+                        case PropertyType.DATE:
+                            numbers[i] = DateField.stringToTime(value);
+                            break;
+                        case PropertyType.DOUBLE:
+                            numbers[i] = Double.doubleToRawLongBits(
+                                    DoubleField.stringToDouble(value));
+                            break;
+                        case PropertyType.LONG:
+                            numbers[i] = LongField.stringToLong(value);
+                            break;
+                        default:
+                            // term without documents
+                    }
+                }
+                byte[] bitmap = new byte[(maxDoc + 7) >> 3];
+                for (int doc = 0; doc < maxDoc; doc++) {
+                    if (ords[doc] != -1) {
+                        bitmap[doc >> 3] |= 1 << (doc & 7);
+                    }
+                }
+                out.writeBytes(bitmap, bitmap.length);
+                for (int doc = 0; doc < maxDoc; doc++) {
+                    out.writeLong(ords[doc] == -1 ? 0 : numbers[ords[doc]]);
+                }
+            } else if (kind == KIND_ORDINAL) {
+                for (int doc = 0; doc < maxDoc; doc++) {
+                    out.writeInt(ords[doc]);
+                }
+                long[] offsets = new long[values.size()];
+                for (int i = 0; i < offsets.length; i++) {
+                    offsets[i] = out.getFilePointer();
+                    out.writeByte(types.get(i).byteValue());
+                    out.writeString(values.get(i));
+                }
+                long offsetsStart = out.getFilePointer();
+                for (long offset : offsets) {
+                    out.writeLong(offset);
+                }
+                out.writeLong(offsetsStart);
+                out.writeInt(offsets.length);
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * <code>TieredMergeSelector</code> selects index segments to merge based on
+ * their size in bytes, similar to the <code>TieredMergePolicy</code> of
+ * Lucene. Segments are sorted by the size of their live documents and the
+ * number of segments allowed for the total index size is calculated with
+ * tiers of exponentially growing segment sizes. When there are more segments
+ * than allowed, the merge with the lowest score is selected. A merge of
+ * similar sized segments with many deleted documents has a low score.
+ * <p>
+ * Unlike the log-structured buckets of the {@link IndexMerger}, which only
+ * consider the number of documents, a small segment that contains large
+ * documents is not merged over and over again and deleted documents are
+ * reclaimed.
+ */
+class TieredMergeSelector {
+
+    /**
+     * Segments smaller than this size are treated as if they had this size.
+     * This avoids long tails of tiny segments.
+     */
+    static final long DEFAULT_FLOOR_SEGMENT_BYTES = 2 * 1024 * 1024;
+
+    /**
+     * A single segment is rewritten when this ratio of its documents is
+     * deleted.
+     */
+    static final double DEFAULT_RECLAIM_DELETES_RATIO = 0.3;
+
+    /**
+     * Orders segments by descending size of the live documents.
+     */
+    private static final Comparator<Segment> BY_SIZE_DESC = new Comparator<Segment>() {
+        public int compare(Segment s1, Segment s2) {
+            long l1 = s1.getLiveBytes();
+            long l2 = s2.getLiveBytes();
+            if (l1 != l2) {
+                return l1 > l2 ? -1 : 1;
+            }
+            return s1.name.compareTo(s2.name);
+        }
+    };
+
+    /**
+     * The allowed number of segments per tier.
+     */
+    private final int segmentsPerTier;
+
+    /**
+     * The maximum number of segments merged at once.
+     */
+    private final int maxMergeAtOnce;
+
+    /**
+     * The maximum number of documents of a merged segment.
+     */
+    private final long maxMergeDocs;
+
+    /**
+     * Segments smaller than this size are treated as if they had this size.
+     */
+    private long floorSegmentBytes = DEFAULT_FLOOR_SEGMENT_BYTES;
+
+    /**
+     * The ratio of deleted documents that triggers a rewrite of a segment.
+     */
+    private double reclaimDeletesRatio = DEFAULT_RECLAIM_DELETES_RATIO;
+
+    /**
+     * Creates a new selector.
+     *
+     * @param segmentsPerTier the allowed number of segments per tier.
+     * @param maxMergeAtOnce  the maximum number of segments merged at once.
+     * @param maxMergeDocs    the maximum number of documents of a merged
+     *                        segment.
+     */
+    TieredMergeSelector(int segmentsPerTier, int maxMergeAtOnce, long maxMergeDocs) {
+        if (segmentsPerTier < 2 || maxMergeAtOnce < 2) {
+            throw new IllegalArgumentException(
+                    "segmentsPerTier and maxMergeAtOnce must be at least 2");
+        }
+        this.segmentsPerTier = segmentsPerTier;
+        this.maxMergeAtOnce = maxMergeAtOnce;
+        this.maxMergeDocs = maxMergeDocs;
+    }
+
+    /**
+     * @param floorSegmentBytes segments smaller than this size are treated as
+     *                          if they had this size.
+     */
+    void setFloorSegmentBytes(long floorSegmentBytes) {
+        this.floorSegmentBytes = Math.max(1, floorSegmentBytes);
+    }
+
+    /**
+     * @param reclaimDeletesRatio the ratio of deleted documents that triggers
+     *                            a rewrite of a single segment.
+     */
+    void setReclaimDeletesRatio(double reclaimDeletesRatio) {
+        this.reclaimDeletesRatio = reclaimDeletesRatio;
+    }
+
+    /**
+     * Selects the next merge.
+     *
+     * @param segments the segments that are currently not merged.
+     * @return the segments to merge or <code>null</code> if no merge is
+     *         necessary.
+     */
+    List<Segment> select(Collection<Segment> segments) {
+        List<Segment> eligible = new ArrayList<Segment>();
+        for (Segment s : segments) {
+            // segments with more than half of the maximum are not merged
+            // anymore, except to reclaim deleted documents
+            if (s.numDocs <= maxMergeDocs / 2) {
+                eligible.add(s);
+            }
+        }
+        Collections.sort(eligible, BY_SIZE_DESC);
+
+        if (eligible.size() > getAllowedSegmentCount(eligible)) {
+            List<Segment> best = null;
+            double bestScore = Double.MAX_VALUE;
+            for (int start = 0; start <= eligible.size() - maxMergeAtOnce; start++) {
+                List<Segment> candidate = new ArrayList<Segment>();
+                long docs = 0;
+                for (int i = start; i < eligible.size() && candidate.size() < maxMergeAtOnce; i++) {
+                    Segment s = eligible.get(i);
+                    if (docs + s.numDocs > maxMergeDocs) {
+                        // try a smaller one
+                        continue;
+                    }
+                    candidate.add(s);
+                    docs += s.numDocs;
+                }
+                if (candidate.size() < 2) {
+                    continue;
+                }
+                double score = score(candidate);
+                if (score < bestScore) {
+                    best = candidate;
+                    bestScore = score;
+                }
+            }
+            if (best != null) {
+                return best;
+            }
+        }
+
+        // rewrite the segment with the most deleted documents, segments
+        // without any live documents are left to a regular merge, which
+        // drops them at no cost
+        Segment worst = null;
+        for (Segment s : segments) {
+            if (s.numDocs > 0 && s.getDeletedRatio() >= reclaimDeletesRatio
+                    && (worst == null || s.getDeletedRatio() > worst.getDeletedRatio())) {
+                worst = s;
+            }
+        }
+        if (worst != null) {
+            return Collections.singletonList(worst);
+        }
+        return null;
+    }
+
+    //-----------------------------< internal >---------------------------------
+
+    /**
+     * Calculates the number of segments that are allowed for the total size of
+     * the <code>segments</code>.
+     *
+     * @param segments the segments in descending size.
+     * @return the allowed number of segments.
+     */
+    private int getAllowedSegmentCount(List<Segment> segments) {
+        if (segments.isEmpty()) {
+            return 0;
+        }
+        long totalBytes = 0;
+        for (Segment s : segments) {
+            totalBytes += floor(s.getLiveBytes());
+        }
+        double levelSize = floor(segments.get(segments.size() - 1).getLiveBytes());
+        double bytesLeft = totalBytes;
+        int allowed = 0;
+        for (;;) {
+            double levelCount = bytesLeft / levelSize;
+            if (levelCount < segmentsPerTier) {
+                allowed += (int) Math.ceil(levelCount);
+                break;
+            }
+            allowed += segmentsPerTier;
+            bytesLeft -= segmentsPerTier * levelSize;
+            levelSize *= maxMergeAtOnce;
+        }
+        return Math.max(allowed, segmentsPerTier);
+    }
+
+    /**
+     * Scores a merge, lower is better. Merges of equally sized segments, of
+     * small segments and of segments with many deleted documents are
+     * preferred.
+     *
+     * @param candidate the segments of the merge.
+     * @return the score.
+     */
+    private double score(List<Segment> candidate) {
+        long before = 0;
+        long after = 0;
+        long afterFloored = 0;
+        long largest = 0;
+        for (Segment s : candidate) {
+            before += s.sizeInBytes;
+            after += s.getLiveBytes();
+            afterFloored += floor(s.getLiveBytes());
+            largest = Math.max(largest, floor(s.getLiveBytes()));
+        }
+        double skew = (double) largest / afterFloored;
+        double nonDeletedRatio = before == 0 ? 1 : (double) after / before;
+        return skew * Math.pow(after, 0.05) * nonDeletedRatio * nonDeletedRatio;
+    }
+
+    private long floor(long bytes) {
+        return Math.max(floorSegmentBytes, bytes);
+    }
+
+    /**
+     * The statistics of an index segment.
+     */
+    static final class Segment {
+
+        /**
+         * The name of the segment.
+         */
+        final String name;
+
+        /**
+         * The size of the segment files.
+         */
+        final long sizeInBytes;
+
+        /**
+         * The number of documents.
+         */
+        final int numDocs;
+
+        /**
+         * The number of deleted documents.
+         */
+        final int numDeletedDocs;
+
+        Segment(String name, long sizeInBytes, int numDocs, int numDeletedDocs) {
+            this.name = name;
+            this.sizeInBytes = sizeInBytes;
+            this.numDocs = numDocs;
+            this.numDeletedDocs = numDeletedDocs;
+        }
+
+        /**
+         * @return the estimated size of the documents that are not deleted.
+         */
+        long getLiveBytes() {
+            int maxDoc = numDocs + numDeletedDocs;
+            if (maxDoc == 0) {
+                return 0;
+            }
+            return (long) ((double) sizeInBytes * numDocs / maxDoc);
+        }
+
+        /**
+         * @return the ratio of deleted documents.
+         */
+        double getDeletedRatio() {
+            int maxDoc = numDocs + numDeletedDocs;
+            return maxDoc == 0 ? 0 : (double) numDeletedDocs / maxDoc;
+        }
+
+        /**
+         * @inheritDoc
+         */
+        public String toString() {
+            return name + ":" + numDocs + ":" + sizeInBytes;
+        }
+    }
+}
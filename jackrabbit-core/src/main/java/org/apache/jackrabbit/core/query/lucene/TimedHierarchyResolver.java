@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+
+import org.apache.jackrabbit.core.query.QueryExplanation;
+
+/**
+ * <code>TimedHierarchyResolver</code> records the time spent in a
+ * {@link HierarchyResolver} as {@link QueryExplanation.Phase#HIERARCHY}
+ * of a query explanation.
+ */
+class TimedHierarchyResolver implements HierarchyResolver {
+
+    /**
+     * The underlying resolver.
+     */
+    private final HierarchyResolver resolver;
+
+    /**
+     * The explanation of the query that uses this resolver.
+     */
+    private final QueryExplanation explanation;
+
+    private TimedHierarchyResolver(HierarchyResolver resolver,
+                                   QueryExplanation explanation) {
+        this.resolver = resolver;
+        this.explanation = explanation;
+    }
+
+    /**
+     * Returns a resolver that records its time with the explanation bound to
+     * the current thread. If no explanation is bound, <code>resolver</code>
+     * is returned as is.
+     *
+     * @param resolver a hierarchy resolver.
+     * @return the resolver to use for the current query.
+     */
+    static HierarchyResolver wrap(HierarchyResolver resolver) {
+        QueryExplanation explanation = QueryExplanation.current();
+        if (explanation == null) {
+            return resolver;
+        }
+        return new TimedHierarchyResolver(resolver, explanation);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int[] getParents(int n, int[] docNumbers) throws IOException {
+        long time = System.nanoTime();
+        try {
+            return resolver.getParents(n, docNumbers);
+        } finally {
+            explanation.addTime(QueryExplanation.Phase.HIERARCHY,
+                    System.nanoTime() - time);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import javax.jcr.PropertyType;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.util.NumericUtils;
+
+/**
+ * Encodes long, double and date values as multi-precision trie terms in the
+ * {@link FieldNames#NUMERIC_PROPERTIES} field. A value is indexed with one
+ * term for every {@link #PRECISION_STEP} bits of precision, which allows
+ * {@link TrieRangeQuery} to cover a range with a small number of terms
+ * instead of enumerating every distinct value in the range.
+ * <p>
+ * A term has the form <code>propertyName</code> + '[' + type character +
+ * prefix coded value. Doubles are indexed using their sortable long
+ * representation and dates using the time in milliseconds.
+ */
+public class TrieField {
+
+    /**
+     * The number of bits covered by a single trie term.
+     */
+    public static final int PRECISION_STEP = 8;
+
+    private TrieField() {
+    }
+
+    /**
+     * Returns <code>true</code> if values of the given property type are
+     * indexed as trie terms.
+     *
+     * @param propertyType the property type.
+     * @return whether values of this type are indexed as trie terms.
+     */
+    public static boolean isSupported(int propertyType) {
+        return propertyType == PropertyType.LONG
+                || propertyType == PropertyType.DOUBLE
+                || propertyType == PropertyType.DATE;
+    }
+
+    /**
+     * Adds the trie terms for the given <code>value</code> to the document.
+     *
+     * @param doc          the lucene document.
+     * @param propertyName the name of the property.
+     * @param propertyType the type of the property value.
+     * @param value        the value as a sortable long.
+     */
+    public static void addFields(Document doc,
+                                 String propertyName,
+                                 int propertyType,
+                                 long value) {
+        for (int shift = 0; shift < 64; shift += PRECISION_STEP) {
+            Field field = new Field(FieldNames.NUMERIC_PROPERTIES, false,
+                    createNamedValue(propertyName, propertyType, value, shift),
+                    Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS,
+                    Field.TermVector.NO);
+            field.setIndexOptions(FieldInfo.IndexOptions.DOCS_ONLY);
+            doc.add(field);
+        }
+    }
+
+    /**
+     * Creates the term text for the given value with the lower
+     * <code>shift</code> bits stripped.
+     *
+     * @param propertyName the name of the property.
+     * @param propertyType the type of the property value.
+     * @param value        the value as a sortable long.
+     * @param shift        the number of low bits to strip.
+     * @return the term text.
+     */
+    public static String createNamedValue(String propertyName,
+                                          int propertyType,
+                                          long value,
+                                          int shift) {
+        return createNamedValue(propertyName, propertyType,
+                NumericUtils.longToPrefixCoded(value, shift));
+    }
+
+    /**
+     * Creates the term text for an already prefix coded value.
+     *
+     * @param propertyName the name of the property.
+     * @param propertyType the type of the property value.
+     * @param prefixCoded  the prefix coded value.
+     * @return the term text.
+     */
+    static String createNamedValue(String propertyName,
+                                   int propertyType,
+                                   String prefixCoded) {
+        return FieldNames.createNamedValue(propertyName,
+                getTypeCharacter(propertyType) + prefixCoded);
+    }
+
+    /**
+     * Converts the string encoded value of a {@link FieldNames#PROPERTIES}
+     * term into a sortable long.
+     *
+     * @param value        the value as created by {@link LongField},
+     *                     {@link DoubleField} or {@link DateField}.
+     * @param propertyType the type of the value.
+     * @return the sortable long value.
+     * @throws IllegalArgumentException if the type is not supported or the
+     *                                  value cannot be decoded.
+     */
+    public static long stringToSortableLong(String value, int propertyType) {
+        switch (propertyType) {
+            case PropertyType.LONG:
+                return LongField.stringToLong(value);
+            case PropertyType.DOUBLE:
+                return NumericUtils.doubleToSortableLong(
+                        DoubleField.stringToDouble(value));
+            case PropertyType.DATE:
+                return DateField.stringToTime(value);
+            default:
+                throw new IllegalArgumentException(
+                        "Unsupported property type: " + propertyType);
+        }
+    }
+
+    /**
+     * Returns the character that distinguishes the value types of a property
+     * in the term text.
+     *
+     * @param propertyType the property type.
+     * @return the type character.
+     */
+    private static char getTypeCharacter(int propertyType) {
+        switch (propertyType) {
+            case PropertyType.LONG:
+                return 'L';
+            case PropertyType.DOUBLE:
+                return 'D';
+            case PropertyType.DATE:
+                return 'T';
+            default:
+                throw new IllegalArgumentException(
+                        "Unsupported property type: " + propertyType);
+        }
+    }
+}
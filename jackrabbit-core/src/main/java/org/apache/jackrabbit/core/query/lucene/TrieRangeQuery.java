@@ -0,0 +1,267 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.util.LinkedList;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.FilteredTermEnum;
+import org.apache.lucene.search.MultiTermQuery;
+import org.apache.lucene.util.NumericUtils;
+import org.apache.lucene.util.ToStringUtils;
+
+/**
+ * <code>TrieRangeQuery</code> implements a range query on the trie terms
+ * created by {@link TrieField}. The range is split into sub ranges of
+ * different precision, each of which is covered by a small number of terms.
+ * This avoids the enumeration of every distinct value in the range that is
+ * done by {@link RangeQuery}.
+ */
+@SuppressWarnings("serial")
+public class TrieRangeQuery extends MultiTermQuery {
+
+    /**
+     * The name of the property.
+     */
+    private final String propertyName;
+
+    /**
+     * The type of the property values to match.
+     */
+    private final int propertyType;
+
+    /**
+     * The inclusive lower bound as a sortable long.
+     */
+    private final long lower;
+
+    /**
+     * The inclusive upper bound as a sortable long.
+     */
+    private final long upper;
+
+    /**
+     * Creates a new <code>TrieRangeQuery</code>.
+     *
+     * @param propertyName the name of the property.
+     * @param propertyType the type of the property values to match.
+     * @param min          the lower bound as a sortable long.
+     * @param max          the upper bound as a sortable long.
+     * @param minInclusive whether the lower bound is included.
+     * @param maxInclusive whether the upper bound is included.
+     * @throws IllegalArgumentException if <code>propertyType</code> is not
+     *                                  supported by {@link TrieField}.
+     */
+    public TrieRangeQuery(String propertyName,
+                          int propertyType,
+                          long min,
+                          long max,
+                          boolean minInclusive,
+                          boolean maxInclusive) {
+        if (!TrieField.isSupported(propertyType)) {
+            throw new IllegalArgumentException(
+                    "Unsupported property type: " + propertyType);
+        }
+        this.propertyName = propertyName;
+        this.propertyType = propertyType;
+        if (!minInclusive && min == Long.MAX_VALUE
+                || !maxInclusive && max == Long.MIN_VALUE) {
+            // empty range
+            this.lower = Long.MAX_VALUE;
+            this.upper = Long.MIN_VALUE;
+        } else {
+            this.lower = minInclusive ? min : min + 1;
+            this.upper = maxInclusive ? max : max - 1;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected FilteredTermEnum getEnum(IndexReader reader) throws IOException {
+        return new TrieRangeTermEnum(reader);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString(String field) {
+        StringBuffer buffer = new StringBuffer();
+        if (!FieldNames.NUMERIC_PROPERTIES.equals(field)) {
+            buffer.append(FieldNames.NUMERIC_PROPERTIES);
+            buffer.append(':');
+        }
+        buffer.append(propertyName);
+        buffer.append('[');
+        buffer.append(lower);
+        buffer.append(" TO ");
+        buffer.append(upper);
+        buffer.append(']');
+        buffer.append(ToStringUtils.boost(getBoost()));
+        return buffer.toString();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof TrieRangeQuery && super.equals(obj)) {
+            TrieRangeQuery other = (TrieRangeQuery) obj;
+            return propertyName.equals(other.propertyName)
+                    && propertyType == other.propertyType
+                    && lower == other.lower
+                    && upper == other.upper;
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        int hash = super.hashCode();
+        hash = 31 * hash + propertyName.hashCode();
+        hash = 31 * hash + propertyType;
+        hash = 31 * hash + (int) (lower ^ (lower >>> 32));
+        hash = 31 * hash + (int) (upper ^ (upper >>> 32));
+        return hash;
+    }
+
+    //-------------------------< TrieRangeTermEnum >----------------------------
+
+    /**
+     * Enumerates the terms of all sub ranges one after another.
+     */
+    private final class TrieRangeTermEnum extends FilteredTermEnum {
+
+        /**
+         * The index reader.
+         */
+        private final IndexReader reader;
+
+        /**
+         * Pairs of lower and upper terms of the sub ranges not yet scanned.
+         */
+        private final LinkedList<Term> bounds = new LinkedList<Term>();
+
+        /**
+         * The scan over the current sub range or <code>null</code> if all
+         * sub ranges have been scanned.
+         */
+        private RangeScan scan;
+
+        TrieRangeTermEnum(IndexReader reader) throws IOException {
+            this.reader = reader;
+            if (lower <= upper) {
+                NumericUtils.splitLongRange(new NumericUtils.LongRangeBuilder() {
+                    @Override
+                    public void addRange(String minPrefixCoded,
+                                         String maxPrefixCoded) {
+                        bounds.add(createTerm(minPrefixCoded));
+                        bounds.add(createTerm(maxPrefixCoded));
+                    }
+                }, TrieField.PRECISION_STEP, lower, upper);
+            }
+            nextScan();
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            if (scan == null) {
+                return false;
+            }
+            return scan.next() || nextScan();
+        }
+
+        @Override
+        public Term term() {
+            return scan != null ? scan.term() : null;
+        }
+
+        @Override
+        public int docFreq() {
+            return scan != null ? scan.docFreq() : -1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            bounds.clear();
+            if (scan != null) {
+                scan.close();
+                scan = null;
+            }
+        }
+
+        /**
+         * Not used, terms are matched by the range scans.
+         */
+        @Override
+        protected boolean termCompare(Term term) {
+            return true;
+        }
+
+        @Override
+        public float difference() {
+            return 1.0f;
+        }
+
+        /**
+         * Not used, the end is reached when all range scans are exhausted.
+         */
+        @Override
+        protected boolean endEnum() {
+            return scan == null;
+        }
+
+        /**
+         * Positions this enum on the first term of the next non-empty sub
+         * range.
+         *
+         * @return <code>true</code> if there is such a term;
+         *         <code>false</code> if all sub ranges have been scanned.
+         * @throws IOException if an error occurs while reading from the index.
+         */
+        private boolean nextScan() throws IOException {
+            if (scan != null) {
+                scan.close();
+                scan = null;
+            }
+            while (!bounds.isEmpty()) {
+                RangeScan s = new RangeScan(reader,
+                        bounds.removeFirst(), bounds.removeFirst());
+                if (s.term() != null) {
+                    scan = s;
+                    return true;
+                }
+                s.close();
+            }
+            return false;
+        }
+
+        private Term createTerm(String prefixCoded) {
+            return new Term(FieldNames.NUMERIC_PROPERTIES,
+                    TrieField.createNamedValue(
+                            propertyName, propertyType, prefixCoded));
+        }
+    }
+}
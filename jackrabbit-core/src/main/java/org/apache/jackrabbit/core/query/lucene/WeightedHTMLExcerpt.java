@@ -38,6 +38,16 @@ import java.io.IOException;
  */
 public class WeightedHTMLExcerpt extends AbstractExcerpt {
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Returns <code>true</code>, {@link WeightedHighlighter} uses a new instance for
+     * every excerpt.
+     */
+    protected boolean isParallel() {
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -40,6 +40,16 @@ import java.io.IOException;
  */
 public class WeightedXMLExcerpt extends AbstractExcerpt {
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Returns <code>true</code>, {@link WeightedHighlighter} uses a new instance for
+     * every excerpt.
+     */
+    protected boolean isParallel() {
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
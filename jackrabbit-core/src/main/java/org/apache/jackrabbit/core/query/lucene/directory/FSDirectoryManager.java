@@ -30,6 +30,8 @@ import org.apache.lucene.store.SimpleFSDirectory;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collection;
 
 /**
  * <code>FSDirectoryManager</code> implements a directory manager for
@@ -70,7 +72,7 @@ public class FSDirectoryManager implements DirectoryManager {
         } else {
             dir = new File(baseDir, name);
         }
-        return new FSDir(dir, useSimpleFSDirectory);
+        return new FSDir(dir, this);
     }
 
     /**
@@ -132,6 +134,33 @@ public class FSDirectoryManager implements DirectoryManager {
     public void dispose() {
     }
 
+    /**
+     * Creates the lucene directory for the given file system directory.
+     * Sub classes may override this method to use a different directory
+     * implementation.
+     *
+     * @param dir the file system directory, which already exists.
+     * @param lockFactory the lock factory to use.
+     * @return the lucene directory.
+     * @throws IOException if the directory cannot be created.
+     */
+    protected Directory createDirectory(File dir, LockFactory lockFactory)
+            throws IOException {
+        if (useSimpleFSDirectory) {
+            return new SimpleFSDirectory(dir, lockFactory);
+        } else {
+            return FSDirectory.open(dir, lockFactory);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if {@link SimpleFSDirectory} is used instead
+     *          of letting Lucene pick an implementation for the platform.
+     */
+    protected boolean isUseSimpleFSDirectory() {
+        return useSimpleFSDirectory;
+    }
+
     //-----------------------< internal >---------------------------------------
 
     private static final class FSDir extends Directory {
@@ -142,25 +171,24 @@ public class FSDirectoryManager implements DirectoryManager {
             }
         };
 
-        private final FSDirectory directory;
+        private final File dir;
+
+        private final Directory directory;
 
-        public FSDir(File dir, boolean simpleFS) throws IOException {
+        public FSDir(File dir, FSDirectoryManager manager) throws IOException {
             if (!dir.mkdirs()) {
                 if (!dir.isDirectory()) {
                     throw new IOException("Unable to create directory: '" + dir + "'");
                 }
             }
+            this.dir = dir;
             LockFactory lockFactory = new NativeFSLockFactory(dir);
-            if (simpleFS) {
-                directory = new SimpleFSDirectory(dir, lockFactory);
-            } else {
-                directory = FSDirectory.open(dir, lockFactory);
-            }
+            directory = manager.createDirectory(dir, lockFactory);
         }
 
         @Override
         public String[] listAll() throws IOException {
-            File[] files = directory.getDirectory().listFiles(FILTER);
+            File[] files = dir.listFiles(FILTER);
             if (files == null) {
                 return null;
             }
@@ -201,6 +229,23 @@ public class FSDirectoryManager implements DirectoryManager {
             return directory.createOutput(name);
         }
 
+        /**
+         * Syncs the given files to disk. Unlike {@link FSDirectory}, this
+         * also syncs files that are still open for writing, like the redo
+         * log, after their output has been flushed.
+         */
+        @Override
+        public void sync(Collection<String> names) throws IOException {
+            for (String name : names) {
+                RandomAccessFile file = new RandomAccessFile(new File(dir, name), "rw");
+                try {
+                    file.getFD().sync();
+                } finally {
+                    file.close();
+                }
+            }
+        }
+
         @Override
         public IndexInput openInput(String name) throws IOException {
             IndexInput in = directory.openInput(name);
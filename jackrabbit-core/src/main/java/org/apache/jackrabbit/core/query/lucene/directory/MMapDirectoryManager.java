@@ -0,0 +1,303 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene.directory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.jackrabbit.core.query.lucene.SearchIndex;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.LockFactory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.SimpleFSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>MMapDirectoryManager</code> implements a directory manager that reads
+ * index files using memory-mapped I/O. Writing is done the same way as in
+ * {@link FSDirectoryManager}.
+ * <p>
+ * A mapping is released as soon as the index input that created it is
+ * closed, provided that the JVM supports unmapping (see
+ * {@link MMapDirectory#UNMAP_SUPPORTED}). Directories are only deleted when
+ * no mapped index input is open anymore. Otherwise {@link #delete(String)}
+ * returns <code>false</code> and the caller will retry later, the same way
+ * as on platforms that do not allow to delete open files. This prevents
+ * deleted files from occupying disk space while they are still mapped.
+ * <p>
+ * If {@link SearchIndex#isMmapTermsAndPostingsOnly()} is <code>true</code>
+ * only the term dictionary and postings files are mapped and all other files
+ * are read like in {@link FSDirectoryManager}. Please note that this requires
+ * that the search index does not use compound files.
+ */
+public class MMapDirectoryManager extends FSDirectoryManager {
+
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(MMapDirectoryManager.class);
+
+    /**
+     * The extensions of the term dictionary and postings files.
+     */
+    private static final Set<String> TERMS_AND_POSTINGS = Collections.unmodifiableSet(
+            new HashSet<String>(Arrays.asList("tis", "tii", "frq", "prx")));
+
+    /**
+     * The number of open mapped index inputs per directory.
+     */
+    private final Map<File, Integer> openInputs = new HashMap<File, Integer>();
+
+    /**
+     * The base directory.
+     */
+    private File baseDir;
+
+    /**
+     * Whether only the term dictionary and postings files are mapped.
+     */
+    private boolean termsAndPostingsOnly;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void init(SearchIndex handler) throws IOException {
+        super.init(handler);
+        baseDir = new File(handler.getPath());
+        termsAndPostingsOnly = handler.isMmapTermsAndPostingsOnly();
+        if (termsAndPostingsOnly && handler.getUseCompoundFile()) {
+            log.warn("Compound files are used, no index files will be "
+                    + "memory-mapped. Set useCompoundFile to false.");
+        }
+        if (!MMapDirectory.UNMAP_SUPPORTED) {
+            log.warn("Unmapping is not supported by this JVM, mapped index "
+                    + "files are released on garbage collection only.");
+        }
+    }
+
+    /**
+     * Deletes the directory with the given name unless there are still
+     * mapped index inputs open on files in the directory.
+     *
+     * @param name the name of the directory to delete.
+     * @return <code>true</code> if the directory was deleted successfully,
+     *          <code>false</code> otherwise.
+     */
+    @Override
+    public boolean delete(String name) {
+        File dir = new File(baseDir, name);
+        synchronized (openInputs) {
+            Integer count = openInputs.get(dir);
+            if (count != null) {
+                log.debug("{} index inputs are still mapped in {}", count, dir);
+                return false;
+            }
+            return super.delete(name);
+        }
+    }
+
+    /**
+     * Creates a directory that memory maps index inputs.
+     *
+     * @param dir the file system directory.
+     * @param lockFactory the lock factory to use.
+     * @return the directory.
+     * @throws IOException if the directory cannot be created.
+     */
+    @Override
+    protected Directory createDirectory(File dir, LockFactory lockFactory)
+            throws IOException {
+        FSDirectory unmapped = null;
+        if (termsAndPostingsOnly) {
+            if (isUseSimpleFSDirectory()) {
+                unmapped = new SimpleFSDirectory(dir, lockFactory);
+            } else {
+                unmapped = new NIOFSDirectory(dir, lockFactory);
+            }
+        }
+        return new MMapDir(dir, lockFactory, unmapped);
+    }
+
+    //-----------------------< internal >---------------------------------------
+
+    /**
+     * Increments the number of open mapped index inputs in <code>dir</code>.
+     *
+     * @param dir the file system directory.
+     */
+    private void inputOpened(File dir) {
+        synchronized (openInputs) {
+            Integer count = openInputs.get(dir);
+            openInputs.put(dir, count == null ? 1 : count + 1);
+        }
+    }
+
+    /**
+     * Decrements the number of open mapped index inputs in <code>dir</code>.
+     *
+     * @param dir the file system directory.
+     */
+    private void inputClosed(File dir) {
+        synchronized (openInputs) {
+            Integer count = openInputs.get(dir);
+            if (count == null || count == 1) {
+                openInputs.remove(dir);
+            } else {
+                openInputs.put(dir, count - 1);
+            }
+        }
+    }
+
+    /**
+     * A memory mapped directory that keeps track of open index inputs and
+     * optionally reads some of the files without mapping them.
+     */
+    private final class MMapDir extends MMapDirectory {
+
+        /**
+         * The file system directory.
+         */
+        private final File dir;
+
+        /**
+         * The directory for files that are not mapped or <code>null</code>
+         * if all files are mapped.
+         */
+        private final FSDirectory unmapped;
+
+        MMapDir(File dir, LockFactory lockFactory, FSDirectory unmapped)
+                throws IOException {
+            super(dir, lockFactory);
+            this.dir = dir;
+            this.unmapped = unmapped;
+            setUseUnmap(UNMAP_SUPPORTED);
+        }
+
+        @Override
+        public IndexInput openInput(String name, int bufferSize)
+                throws IOException {
+            if (unmapped != null && !isTermsOrPostings(name)) {
+                return unmapped.openInput(name, bufferSize);
+            }
+            IndexInput in = super.openInput(name, bufferSize);
+            inputOpened(dir);
+            return new MappedIndexInput(name, in, dir);
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            if (unmapped != null) {
+                unmapped.close();
+            }
+        }
+
+        private boolean isTermsOrPostings(String name) {
+            int idx = name.lastIndexOf('.');
+            return idx != -1 && TERMS_AND_POSTINGS.contains(name.substring(idx + 1));
+        }
+    }
+
+    /**
+     * An index input that reports when the mapped index input is closed.
+     * Clones share the mapping and therefore do not report anything.
+     */
+    private final class MappedIndexInput extends IndexInput {
+
+        private IndexInput in;
+
+        private final File dir;
+
+        private boolean isClone;
+
+        private boolean closed;
+
+        MappedIndexInput(String name, IndexInput in, File dir) {
+            super(name);
+            this.in = in;
+            this.dir = dir;
+        }
+
+        @Override
+        public byte readByte() throws IOException {
+            return in.readByte();
+        }
+
+        @Override
+        public void readBytes(byte[] b, int offset, int len) throws IOException {
+            in.readBytes(b, offset, len);
+        }
+
+        @Override
+        public short readShort() throws IOException {
+            return in.readShort();
+        }
+
+        @Override
+        public int readInt() throws IOException {
+            return in.readInt();
+        }
+
+        @Override
+        public long readLong() throws IOException {
+            return in.readLong();
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+            if (!isClone && !closed) {
+                closed = true;
+                inputClosed(dir);
+            }
+        }
+
+        @Override
+        public long getFilePointer() {
+            return in.getFilePointer();
+        }
+
+        @Override
+        public void seek(long pos) throws IOException {
+            in.seek(pos);
+        }
+
+        @Override
+        public long length() {
+            return in.length();
+        }
+
+        @Override
+        public Object clone() {
+            MappedIndexInput clone = (MappedIndexInput) super.clone();
+            clone.in = (IndexInput) in.clone();
+            clone.isClone = true;
+            return clone;
+        }
+    }
+}
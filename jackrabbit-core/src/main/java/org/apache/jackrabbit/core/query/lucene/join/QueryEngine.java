@@ -60,6 +60,7 @@ import org.apache.jackrabbit.JcrConstants;
 import org.apache.jackrabbit.commons.JcrUtils;
 import org.apache.jackrabbit.commons.iterator.RowIteratorAdapter;
 import org.apache.jackrabbit.commons.query.qom.OperandEvaluator;
+import org.apache.jackrabbit.core.query.QueryExplanation;
 import org.apache.jackrabbit.core.query.lucene.LuceneQueryFactory;
 import org.apache.jackrabbit.core.query.lucene.sort.DynamicOperandFieldComparatorSource;
 import org.apache.jackrabbit.core.query.lucene.sort.RowComparator;
@@ -163,8 +164,10 @@ public class QueryEngine {
                 printIndentation);
 
         long sort = System.currentTimeMillis();
+        long start = System.nanoTime();
         QueryResult sortedResult = sort(result, orderings, evaluator, offset,
                 limit);
+        addTime(QueryExplanation.Phase.SORT, start);
         log.debug(" {} SQL2 SORT took {} ms.", genString(printIndentation),
                 System.currentTimeMillis() - sort);
         return sortedResult;
@@ -240,14 +243,19 @@ public class QueryEngine {
         // NULL if there is no 'WHERE' condition
 
         long timeJoinRightSide = System.currentTimeMillis();
+        long start = System.nanoTime();
         List<Constraint> rightConstraints = merger
                 .getRightJoinConstraints(leftRows);
+        addTime(QueryExplanation.Phase.JOIN, start);
         Comparator<Row> rightCo = new RowPathComparator(
                 merger.getRightSelectors());
 
         if (leftRows == null || leftRows.isEmpty()) {
-            return merger.merge(new RowIteratorAdapter((leftRows == null) ? Collections.emptySet() : leftRows),
+            start = System.nanoTime();
+            QueryResult merged = merger.merge(new RowIteratorAdapter((leftRows == null) ? Collections.emptySet() : leftRows),
                     new RowIteratorAdapter(new TreeSet<Row>()), null, rightCo);
+            addTime(QueryExplanation.Phase.JOIN, start);
+            return merged;
         }
 
         Set<Row> rightRows = buildRightRowsJoin(csInfo, rightConstraints,
@@ -268,9 +276,12 @@ public class QueryEngine {
                     + " ms. fetched " + rightRows.size() + " rows.");
         }
         // merge left with right datasets
-        return merger.merge(new RowIteratorAdapter(leftRows),
+        start = System.nanoTime();
+        QueryResult merged = merger.merge(new RowIteratorAdapter(leftRows),
                 new RowIteratorAdapter(rightRows), excludingOuterJoinRowsSet,
                 rightCo);
+        addTime(QueryExplanation.Phase.JOIN, start);
+        return merged;
 
     }
 
@@ -377,6 +388,20 @@ public class QueryEngine {
         return rightRows;
     }
 
+    /**
+     * Adds the time since <code>start</code> to a phase of the explanation
+     * bound to the current thread, if there is one.
+     *
+     * @param phase the phase of the query execution.
+     * @param start the start time in nanoseconds.
+     */
+    private static void addTime(QueryExplanation.Phase phase, long start) {
+        QueryExplanation explanation = QueryExplanation.current();
+        if (explanation != null) {
+            explanation.addTime(phase, System.nanoTime() - start);
+        }
+    }
+
     private static String genString(int len) {
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < len; i++) {
@@ -481,7 +506,9 @@ public class QueryEngine {
         }
 
         long timeSort = System.currentTimeMillis();
+        long start = System.nanoTime();
         QueryResult sorted = sort(result, orderings, evaluator, offset, limit);
+        addTime(QueryExplanation.Phase.SORT, start);
         log.debug("{}SQL2 SORT took {} ms.", genString(printIndentation),
                 System.currentTimeMillis() - timeSort);
         return sorted;
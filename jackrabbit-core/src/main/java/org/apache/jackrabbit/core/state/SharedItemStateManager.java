@@ -808,6 +808,22 @@ public class SharedItemStateManager
 
             ISMLocking.ReadLock readLock = null;
             try {
+                // Let listener know about finished operation as soon as the
+                // changes are persisted. This appends the record to the
+                // journal and releases the cluster lock, which must happen
+                // even if the path cannot be determined (JCR-2272). Updating
+                // the caches and the item state listeners below only requires
+                // the local write lock, other cluster nodes need not wait.
+                String path = null;
+                try {
+                    path = events.getSession().getUserID()
+                            + "@" + events.getSession().getWorkspace().getName()
+                            + ":" + events.getCommonPath();
+                } finally {
+                    eventChannel.updateCommitted(this, path);
+                    setAttribute(ATTRIBUTE_UPDATE_SIZE, null);
+                }
+
                 // make sure new item states are present/referenced in cache
                 // we do this before the lock is downgraded to a read lock
                 // because then other threads will be able to read from
@@ -843,16 +859,6 @@ public class SharedItemStateManager
                 }
 
             } finally {
-                // Let listener know about finished operation. This needs
-                // to happen in the finally block so that the cluster lock
-                // always gets released, even if a post-store() exception
-                // is thrown from the code above. See also JCR-2272.
-                String path = events.getSession().getUserID()
-                        + "@" + events.getSession().getWorkspace().getName()
-                        + ":" + events.getCommonPath();
-                eventChannel.updateCommitted(this, path);
-                setAttribute(ATTRIBUTE_UPDATE_SIZE, null);
-
                 if (writeLock != null) {
                     // exception occurred before downgrading lock
                     writeLock.release();
@@ -1547,12 +1553,38 @@ public class SharedItemStateManager
     }
 
     /**
-     * Handle an external update.
+     * Handle an external update. The cache of the persistence manager is
+     * invalidated first. The write lock is only acquired if some of the
+     * modified or deleted states are cached or being loaded by this manager,
+     * otherwise readers will load the new states anyway and the events are
+     * dispatched while holding a read lock only.
      *
      * @param external external change containing only node and property ids.
      * @param events events to deliver
      */
     public void externalUpdate(ChangeLog external, EventStateCollection events) {
+        // workaround to flush cache of persistence manager
+        if (persistMgr instanceof CachingPersistenceManager) {
+            ((CachingPersistenceManager) persistMgr).onExternalUpdate(external);
+        }
+        if (!isCachedOrLoading(external)) {
+            // the read lock still orders the events after those of a local
+            // update that is holding the write lock
+            ISMLocking.ReadLock rLock;
+            try {
+                rLock = acquireReadLock(rootNodeId);
+            } catch (ItemStateException e) {
+                log.error("Unable to acquire read lock.");
+                return;
+            }
+            try {
+                events.dispatch();
+            } finally {
+                rLock.release();
+            }
+            return;
+        }
+
         boolean holdingWriteLock = false;
 
         ISMLocking.WriteLock wLock = null;
@@ -1594,11 +1626,6 @@ public class SharedItemStateManager
      * @param external external change containing only node and property ids.
      */
     protected void doExternalUpdate(ChangeLog external) {
-        // workaround to flush cache of persistence manager
-        if (persistMgr instanceof CachingPersistenceManager) {
-            ((CachingPersistenceManager) persistMgr).onExternalUpdate(external);
-        }
-
         ChangeLog shared = new ChangeLog();
 
         // Build a copy of the external change log, consisting of shared
@@ -1633,6 +1660,17 @@ public class SharedItemStateManager
         shared.persisted();
     }
 
+    /**
+     * Waits until the updates in progress are done, including the dispatch
+     * of their events, e.g. to the search index. Updates that start later
+     * are not waited for.
+     *
+     * @throws ItemStateException if interrupted while waiting
+     */
+    public void waitForUpdates() throws ItemStateException {
+        acquireWriteLock(new ChangeLog()).release();
+    }
+
     /**
      * Add an <code>ItemStateListener</code>
      * @param listener the new listener to be informed on modifications
@@ -1813,6 +1851,31 @@ public class SharedItemStateManager
         }
     }
 
+    /**
+     * Checks whether some of the states modified or deleted by an external
+     * update are cached or currently being loaded. Item states that are
+     * loaded later already see the external update, because the cache of
+     * the persistence manager is invalidated before this method is called.
+     *
+     * @param external external change containing only node and property ids.
+     * @return <code>true</code> if the shared states must be updated.
+     */
+    private synchronized boolean isCachedOrLoading(ChangeLog external) {
+        for (ItemState state : external.modifiedStates()) {
+            ItemId id = state.getId();
+            if (cache.isCached(id) || currentlyLoading.contains(id)) {
+                return true;
+            }
+        }
+        for (ItemState state : external.deletedStates()) {
+            ItemId id = state.getId();
+            if (cache.isCached(id) || currentlyLoading.contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Checks if this item state manager has the given item state without
      * considering the virtual item state managers.
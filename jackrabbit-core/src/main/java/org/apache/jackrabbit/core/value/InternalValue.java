@@ -641,6 +641,19 @@ public class InternalValue extends AbstractQValue {
         return val instanceof BLOBInDataStore;
     }
 
+    /**
+     * Returns the identifier of the data store record of a binary value.
+     *
+     * @return the data identifier, or <code>null</code> if this value is not
+     *         stored in the data store.
+     */
+    public DataIdentifier getDataIdentifier() {
+        if (val instanceof BLOBFileValue) {
+            return ((BLOBFileValue) val).getDataIdentifier();
+        }
+        return null;
+    }
+
     //-------------------------------------------------------------< QValue >---
     /**
      * @see org.apache.jackrabbit.spi.QValue#getLength()
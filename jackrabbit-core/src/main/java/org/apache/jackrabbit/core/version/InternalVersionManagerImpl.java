@@ -575,6 +575,16 @@ public class InternalVersionManagerImpl extends InternalVersionManagerBase
         return activitiesRoot;
     }
 
+    /**
+     * Waits until the updates of the version storage that are in progress
+     * are done, including the dispatch of their events.
+     *
+     * @throws ItemStateException if interrupted while waiting
+     */
+    public void waitForUpdates() throws ItemStateException {
+        sharedStateMgr.waitForUpdates();
+    }
+
     /**
      * Returns the shared item state manager.
      * @return the shared item state manager.
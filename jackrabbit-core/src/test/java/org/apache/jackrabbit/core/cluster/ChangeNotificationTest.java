@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+import java.util.ArrayList;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.core.config.ClusterConfig;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.journal.Journal;
+import org.apache.jackrabbit.core.journal.JournalFactory;
+import org.apache.jackrabbit.core.journal.LoopbackChangeNotifier;
+import org.apache.jackrabbit.core.journal.MemoryJournal;
+import org.apache.jackrabbit.core.journal.MemoryJournal.MemoryRecord;
+import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
+import org.apache.jackrabbit.test.JUnitTest;
+
+/**
+ * Test cases for the synchronization of cluster nodes that are notified of
+ * changes of other nodes.
+ */
+public class ChangeNotificationTest extends JUnitTest {
+
+    /** Defaut workspace name. */
+    private static final String DEFAULT_WORKSPACE = "default";
+
+    /** Sync delay: one hour, changes are only synced when announced. */
+    private static final long SYNC_DELAY = 60 * 60 * 1000;
+
+    /** Master node. */
+    private ClusterNode master;
+
+    /** Slave node. */
+    private ClusterNode slave;
+
+    /** Records shared among multiple memory journals. */
+    private final ArrayList<MemoryRecord> records = new ArrayList<MemoryRecord>();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        if (slave != null) {
+            slave.stop();
+        }
+        if (master != null) {
+            master.stop();
+        }
+        super.tearDown();
+    }
+
+    /**
+     * Verifies that a change is synchronized without waiting for the sync
+     * delay.
+     */
+    public void testSyncOnNotification() throws Exception {
+        master = createClusterNode("master", false);
+        master.start();
+        slave = createClusterNode("slave", false);
+        slave.start();
+
+        SimpleEventListener listener = new SimpleEventListener();
+        slave.createLockChannel(DEFAULT_WORKSPACE).setListener(listener);
+        master.createLockChannel(DEFAULT_WORKSPACE).create(
+                NodeId.randomId(), true, "admin").ended(true);
+
+        for (int i = 0; i < 100 && slave.getRevision() != master.getRevision(); i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(master.getRevision(), slave.getRevision());
+        assertEquals(1, listener.getClusterEvents().size());
+        assertEquals(0, slave.getReplicationLag());
+    }
+
+    /**
+     * Verifies that the replication lag is reported until an announced change
+     * is synchronized.
+     */
+    public void testReplicationLag() throws Exception {
+        master = createClusterNode("master", false);
+        master.start();
+        slave = createClusterNode("slave", true);
+        slave.start();
+
+        slave.createLockChannel(DEFAULT_WORKSPACE).setListener(new SimpleEventListener());
+        master.createLockChannel(DEFAULT_WORKSPACE).create(
+                NodeId.randomId(), true, "admin").ended(true);
+        Thread.sleep(50);
+        assertTrue(slave.getReplicationLag() > 0);
+
+        slave.sync();
+        assertEquals(0, slave.getReplicationLag());
+        assertEquals(master.getRevision(), slave.getRevision());
+    }
+
+    /**
+     * Create a cluster node, with a memory journal referencing the shared
+     * records and a loopback change notifier.
+     *
+     * @param id cluster node id
+     * @param disableAutoSync if <code>true</code> background synchronization is disabled
+     */
+    private ClusterNode createClusterNode(String id, boolean disableAutoSync)
+            throws Exception {
+        final MemoryJournal journal = new MemoryJournal();
+        JournalFactory jf = new JournalFactory() {
+            public Journal getJournal(NamespaceResolver resolver)
+                    throws RepositoryException {
+                return journal;
+            }
+        };
+        ClusterConfig cc = new ClusterConfig(id, SYNC_DELAY, jf);
+        SimpleClusterContext context = new SimpleClusterContext(cc);
+
+        journal.setRepositoryHome(context.getRepositoryHome());
+        journal.init(id, context.getNamespaceResolver());
+        journal.setRecords(records);
+        journal.setChangeNotifier(new LoopbackChangeNotifier());
+
+        ClusterNode clusterNode = new ClusterNode();
+        clusterNode.init(context);
+        if (disableAutoSync) {
+            clusterNode.disableAutoSync();
+        }
+        return clusterNode;
+    }
+}
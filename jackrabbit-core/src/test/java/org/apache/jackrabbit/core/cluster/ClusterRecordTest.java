@@ -18,8 +18,10 @@ package org.apache.jackrabbit.core.cluster;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 
 import javax.jcr.RepositoryException;
+import javax.management.openmbean.CompositeData;
 
 import org.apache.jackrabbit.core.cluster.SimpleEventListener.LockEvent;
 import org.apache.jackrabbit.core.cluster.SimpleEventListener.NamespaceEvent;
@@ -33,6 +35,8 @@ import org.apache.jackrabbit.core.journal.Journal;
 import org.apache.jackrabbit.core.journal.JournalFactory;
 import org.apache.jackrabbit.core.journal.MemoryJournal;
 import org.apache.jackrabbit.core.journal.MemoryJournal.MemoryRecord;
+import org.apache.jackrabbit.core.state.ChangeLog;
+import org.apache.jackrabbit.core.state.ItemState;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.jackrabbit.spi.PrivilegeDefinition;
 import org.apache.jackrabbit.spi.QNodeTypeDefinition;
@@ -126,6 +130,84 @@ public class ClusterRecordTest extends JUnitTest {
         assertEquals(listener.getClusterEvents().get(0), update);
     }
 
+    /**
+     * Test producing and consuming updates in the compact record format.
+     * @throws Exception
+     */
+    public void testCompressedUpdateOperation() throws Exception {
+        ClusterNode compressed = createClusterNode("compressed", records, true);
+        compressed.start();
+        try {
+            UpdateEvent update1 = factory.createUpdateOperation();
+            UpdateEvent update2 = factory.createUpdateOperation();
+
+            UpdateEventChannel channel = compressed.createUpdateChannel(DEFAULT_WORKSPACE);
+            channel.updateCreated(update1);
+            channel.updatePrepared(update1);
+            channel.updateCommitted(update1, null);
+            channel.updateCreated(update2);
+            channel.updatePrepared(update2);
+            channel.updateCommitted(update2, null);
+
+            SimpleEventListener listener = new SimpleEventListener();
+            slave.createUpdateChannel(DEFAULT_WORKSPACE).setListener(listener);
+            slave.sync();
+
+            assertEquals(2, listener.getClusterEvents().size());
+            assertEquals(listener.getClusterEvents().get(0), update1);
+            assertEquals(listener.getClusterEvents().get(1), update2);
+        } finally {
+            compressed.stop();
+        }
+    }
+
+    /**
+     * Test that the changes consumed on startup are coalesced per workspace,
+     * while the events are still delivered per update.
+     * @throws Exception
+     */
+    public void testCatchUpOnStartup() throws Exception {
+        String[] workspaces = new String[]{DEFAULT_WORKSPACE, "other"};
+        List<List<UpdateEvent>> updates = new ArrayList<List<UpdateEvent>>();
+        for (int i = 0; i < workspaces.length; i++) {
+            updates.add(new ArrayList<UpdateEvent>());
+        }
+        for (int i = 0; i < 5; i++) {
+            int ws = i % workspaces.length;
+            UpdateEvent update = factory.createUpdateOperation();
+            UpdateEventChannel channel = master.createUpdateChannel(workspaces[ws]);
+            channel.updateCreated(update);
+            channel.updatePrepared(update);
+            channel.updateCommitted(update, null);
+            updates.get(ws).add(update);
+        }
+
+        SimpleEventListener[] listeners = new SimpleEventListener[workspaces.length];
+        for (int i = 0; i < workspaces.length; i++) {
+            listeners[i] = new SimpleEventListener();
+            slave.createUpdateChannel(workspaces[i]).setListener(listeners[i]);
+        }
+        slave.syncOnStartup();
+
+        for (int i = 0; i < workspaces.length; i++) {
+            List<UpdateEvent> expected = updates.get(i);
+            assertEquals(expected.size(), listeners[i].getClusterEvents().size());
+            ChangeLog changes = ((UpdateEvent) listeners[i].getClusterEvents().get(0)).getChanges();
+            for (int j = 0; j < expected.size(); j++) {
+                UpdateEvent update = (UpdateEvent) listeners[i].getClusterEvents().get(j);
+                assertEquals(expected.get(j).getEvents(), update.getEvents());
+                assertEquals(expected.get(j).getTimestamp(), update.getTimestamp());
+                for (ItemState state : expected.get(j).getChanges().addedStates()) {
+                    assertTrue(changes.isAdded(state.getId()));
+                }
+                if (j > 0) {
+                    assertFalse(update.getChanges().hasUpdates());
+                }
+            }
+        }
+        assertEquals(master.getRevision(), slave.getRevision());
+    }
+
     /**
      * Test producing and consuming an update with a null userId
      */
@@ -163,6 +245,73 @@ public class ClusterRecordTest extends JUnitTest {
         assertEquals(listener.getClusterEvents().get(0), event);
     }
 
+    /**
+     * Test the statistics of the producing and the consuming cluster node.
+     * @throws Exception
+     */
+    public void testStatistics() throws Exception {
+        UpdateEventChannel channel = master.createUpdateChannel(DEFAULT_WORKSPACE);
+        for (int i = 0; i < 2; i++) {
+            UpdateEvent update = factory.createUpdateOperation();
+            channel.updateCreated(update);
+            channel.updatePrepared(update);
+            channel.updateCommitted(update, null);
+        }
+        master.createLockChannel(DEFAULT_WORKSPACE).create(
+                NodeId.randomId(), true, "admin").ended(true);
+
+        slave.createUpdateChannel(DEFAULT_WORKSPACE).setListener(new SimpleEventListener());
+        slave.createLockChannel(DEFAULT_WORKSPACE).setListener(new SimpleEventListener());
+        slave.sync();
+
+        ClusterStatistics stats = slave.getStatistics();
+        assertEquals("slave", stats.getClusterNodeId());
+        assertEquals(1, stats.getSyncCount());
+        assertEquals(slave.getRevision(), stats.getGlobalRevision());
+        assertEquals(0, stats.getRevisionLag());
+        CompositeData producer = stats.getProducerStats().get(new Object[]{"master"});
+        assertEquals(3L, producer.get("records"));
+        assertTrue((Long) producer.get("bytes") > 0);
+        CompositeData type = stats.getRecordTypeStats().get(new Object[]{"ChangeLogRecord"});
+        assertEquals(2L, type.get("records"));
+        type = stats.getRecordTypeStats().get(new Object[]{"LockRecord"});
+        assertEquals(1L, type.get("records"));
+
+        long lockWaits = 0;
+        for (Object row : master.getStatistics().getLockWaitHistogram().values()) {
+            lockWaits += (Long) ((CompositeData) row).get("count");
+        }
+        assertEquals(3, lockWaits);
+    }
+
+    /**
+     * Test that updates applied while catching up on startup are recorded
+     * in the statistics once they are applied.
+     * @throws Exception
+     */
+    public void testStatisticsOnStartup() throws Exception {
+        UpdateEventChannel channel = master.createUpdateChannel(DEFAULT_WORKSPACE);
+        for (int i = 0; i < 2; i++) {
+            UpdateEvent update = factory.createUpdateOperation();
+            channel.updateCreated(update);
+            channel.updatePrepared(update);
+            channel.updateCommitted(update, null);
+        }
+
+        SimpleEventListener listener = new SimpleEventListener();
+        slave.createUpdateChannel(DEFAULT_WORKSPACE).setListener(listener);
+        slave.syncOnStartup();
+
+        // the changes are coalesced, the events are delivered per update
+        assertEquals(2, listener.getClusterEvents().size());
+        ClusterStatistics stats = slave.getStatistics();
+        CompositeData producer = stats.getProducerStats().get(new Object[]{"master"});
+        assertEquals(2L, producer.get("records"));
+        assertTrue((Long) producer.get("bytes") > 0);
+        CompositeData type = stats.getRecordTypeStats().get(new Object[]{"ChangeLogRecord"});
+        assertEquals(2L, type.get("records"));
+    }
+
     /**
      * Test producing and consuming an unlock operation.
      * @throws Exception
@@ -307,7 +456,21 @@ public class ClusterRecordTest extends JUnitTest {
      */
     private ClusterNode createClusterNode(
             String id, ArrayList<MemoryRecord> records) throws Exception {
+        return createClusterNode(id, records, false);
+    }
+
+    /**
+     * Create a cluster node, with a memory journal referencing a list of records.
+     *
+     * @param id cluster node id
+     * @param records memory journal's list of records
+     * @param compressRecords whether records are appended in the compact format
+     */
+    private ClusterNode createClusterNode(
+            String id, ArrayList<MemoryRecord> records, boolean compressRecords)
+            throws Exception {
         final MemoryJournal journal = new MemoryJournal();
+        journal.setCompressRecords(compressRecords);
         JournalFactory jf = new JournalFactory() {
             public Journal getJournal(NamespaceResolver resolver)
                     throws RepositoryException {
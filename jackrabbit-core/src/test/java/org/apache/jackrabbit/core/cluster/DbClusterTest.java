@@ -18,9 +18,22 @@ package org.apache.jackrabbit.core.cluster;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.SimpleCredentials;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+
 import org.apache.commons.io.FileUtils;
 import org.apache.jackrabbit.core.RepositoryImpl;
 import org.apache.jackrabbit.core.config.RepositoryConfig;
@@ -71,4 +84,139 @@ public class DbClusterTest extends JUnitTest {
         rep2.shutdown();
     }
 
+    /**
+     * Saves on two cluster nodes concurrently and checks that each node
+     * sees all changes and applies every change of the other node once.
+     */
+    public void testConcurrentSave() throws Exception {
+        RepositoryImpl rep1 = RepositoryImpl.create(RepositoryConfig.create(
+                new File("./target/dbClusterTest/node1")));
+        RepositoryImpl rep2 = RepositoryImpl.create(RepositoryConfig.create(
+                new File("./target/dbClusterTest/node2")));
+        try {
+            Session s1 = rep1.login(new SimpleCredentials("admin", "admin".toCharArray()));
+            Session s2 = rep2.login(new SimpleCredentials("admin", "admin".toCharArray()));
+            s1.getRootNode().addNode("concurrent1");
+            s1.getRootNode().addNode("concurrent2");
+            s1.save();
+            s2.refresh(false);
+
+            AddedCounter added1 = new AddedCounter(s1);
+            AddedCounter added2 = new AddedCounter(s2);
+
+            int count = 20;
+            CyclicBarrier barrier = new CyclicBarrier(2);
+            List<Exception> exceptions =
+                Collections.synchronizedList(new ArrayList<Exception>());
+            Thread t1 = new Saver(s1, "concurrent1", count, barrier, exceptions);
+            Thread t2 = new Saver(s2, "concurrent2", count, barrier, exceptions);
+            t1.start();
+            t2.start();
+            t1.join();
+            t2.join();
+            assertEquals(Collections.emptyList(), exceptions);
+
+            s1.refresh(false);
+            s2.refresh(false);
+            for (Session s : new Session[]{s1, s2}) {
+                for (String parent : new String[]{"concurrent1", "concurrent2"}) {
+                    Node n = s.getRootNode().getNode(parent);
+                    assertEquals(count, n.getNodes().getSize());
+                }
+            }
+            added1.await(2 * count);
+            added2.await(2 * count);
+            added1.assertAddedOnce(2 * count);
+            added2.assertAddedOnce(2 * count);
+
+            s1.logout();
+            s2.logout();
+        } finally {
+            rep1.shutdown();
+            rep2.shutdown();
+        }
+    }
+
+    /**
+     * Adds child nodes and saves each one.
+     */
+    private static class Saver extends Thread {
+
+        private final Session session;
+
+        private final String parent;
+
+        private final int count;
+
+        private final CyclicBarrier barrier;
+
+        private final List<Exception> exceptions;
+
+        Saver(Session session, String parent, int count,
+              CyclicBarrier barrier, List<Exception> exceptions) {
+            this.session = session;
+            this.parent = parent;
+            this.count = count;
+            this.barrier = barrier;
+            this.exceptions = exceptions;
+        }
+
+        public void run() {
+            try {
+                barrier.await();
+                Node n = session.getRootNode().getNode(parent);
+                for (int i = 0; i < count; i++) {
+                    n.addNode("child" + i);
+                    session.save();
+                }
+            } catch (Exception e) {
+                exceptions.add(e);
+            }
+        }
+    }
+
+    /**
+     * Counts the node added events per path below the test nodes.
+     */
+    private static class AddedCounter implements EventListener {
+
+        private final Map<String, AtomicInteger> added =
+            new ConcurrentHashMap<String, AtomicInteger>();
+
+        AddedCounter(Session session) throws RepositoryException {
+            session.getWorkspace().getObservationManager().addEventListener(
+                    this, Event.NODE_ADDED, "/", true, null, null, false);
+        }
+
+        public void onEvent(EventIterator events) {
+            while (events.hasNext()) {
+                try {
+                    String path = events.nextEvent().getPath();
+                    if (path.startsWith("/concurrent")) {
+                        AtomicInteger count = added.get(path);
+                        if (count == null) {
+                            added.put(path, count = new AtomicInteger());
+                        }
+                        count.incrementAndGet();
+                    }
+                } catch (RepositoryException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+
+        void await(int paths) throws InterruptedException {
+            for (int i = 0; i < 100 && added.size() < paths; i++) {
+                Thread.sleep(100);
+            }
+        }
+
+        void assertAddedOnce(int paths) {
+            assertEquals(paths, added.size());
+            for (Map.Entry<String, AtomicInteger> entry : added.entrySet()) {
+                assertEquals(entry.getKey(), 1, entry.getValue().get());
+            }
+        }
+    }
+
 }
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.journal;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.cluster.ClusterNode;
+import org.apache.jackrabbit.core.cluster.SimpleClusterContext;
+import org.apache.jackrabbit.core.cluster.SimpleEventListener.UpdateEvent;
+import org.apache.jackrabbit.core.cluster.UpdateEventChannel;
+import org.apache.jackrabbit.core.cluster.UpdateEventFactory;
+import org.apache.jackrabbit.core.config.ClusterConfig;
+import org.apache.jackrabbit.core.util.db.ConnectionFactory;
+import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
+import org.apache.jackrabbit.test.JUnitTest;
+
+/**
+ * Test cases for database journal.
+ */
+public class DatabaseJournalTest extends JUnitTest {
+
+    /**
+     * Cluster node id.
+     */
+    private static final String CLUSTER_NODE_ID = "node";
+
+    /**
+     * Database directory.
+     */
+    private File database;
+
+    /**
+     * Database journal.
+     */
+    private DatabaseJournal journal;
+
+    /**
+     * Cluster node.
+     */
+    private ClusterNode clusterNode;
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void setUp() throws Exception {
+        database = File.createTempFile("jackrabbit-journal-", "-derby");
+        database.delete();
+
+        journal = new DatabaseJournal();
+        journal.setDriver("org.apache.derby.jdbc.EmbeddedDriver");
+        journal.setUrl("jdbc:derby:" + database.getPath() + ";create=true");
+        journal.setDatabaseType("derby");
+        journal.setConnectionFactory(new ConnectionFactory());
+        JournalFactory jf = new JournalFactory() {
+            public Journal getJournal(NamespaceResolver resolver) {
+                return journal;
+            }
+        };
+        ClusterConfig cc = new ClusterConfig(CLUSTER_NODE_ID, 5000, jf);
+        SimpleClusterContext context = new SimpleClusterContext(cc);
+        journal.init(CLUSTER_NODE_ID, context.getNamespaceResolver());
+
+        clusterNode = new ClusterNode();
+        clusterNode.init(context);
+        clusterNode.start();
+
+        super.setUp();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void tearDown() throws Exception {
+        if (clusterNode != null) {
+            clusterNode.stop();
+        }
+        FileUtils.deleteQuietly(database);
+        super.tearDown();
+    }
+
+    /**
+     * Append records and verify that the janitor removes the revisions older
+     * than the local revision in chunks.
+     *
+     * @throws Exception
+     */
+    public void testCleanUpInChunks() throws Exception {
+        UpdateEventChannel channel = clusterNode.createUpdateChannel("default");
+        for (int i = 0; i < 10; i++) {
+            UpdateEvent update = UpdateEventFactory.getInstance().createUpdateOperation();
+            channel.updateCreated(update);
+            channel.updatePrepared(update);
+            channel.updateCommitted(update, null);
+        }
+        assertEquals(10, journal.getJournalSize());
+        assertEquals(1, journal.getOldestRevision());
+        // sampled on startup, when the journal was still empty
+        assertEquals(0, clusterNode.getStatistics().getJournalSize());
+
+        journal.getInstanceRevision().set(7);
+        journal.setJanitorChunkSize(2);
+        journal.setJanitorChunkDelay(0);
+        journal.new RevisionTableJanitor().cleanUpOldRevisions();
+
+        assertEquals(4, journal.getJournalSize());
+        assertEquals(7, journal.getOldestRevision());
+
+        // the janitor samples the journal for the cluster statistics
+        assertEquals(4, clusterNode.getStatistics().getJournalSize());
+        assertEquals(7, clusterNode.getStatistics().getOldestRevision());
+    }
+
+    /**
+     * Verify that the journal is sampled again once the sample interval has
+     * passed, without a run of the janitor.
+     *
+     * @throws Exception
+     */
+    public void testSampleInterval() throws Exception {
+        assertEquals(0, clusterNode.getStatistics().getJournalSize());
+        UpdateEventChannel channel = clusterNode.createUpdateChannel("default");
+        for (int i = 0; i < 3; i++) {
+            UpdateEvent update = UpdateEventFactory.getInstance().createUpdateOperation();
+            channel.updateCreated(update);
+            channel.updatePrepared(update);
+            channel.updateCommitted(update, null);
+        }
+        assertEquals(0, clusterNode.getStatistics().getJournalSize());
+
+        journal.setSampleInterval(0);
+        assertEquals(3, clusterNode.getStatistics().getJournalSize());
+        assertEquals(1, clusterNode.getStatistics().getOldestRevision());
+    }
+}
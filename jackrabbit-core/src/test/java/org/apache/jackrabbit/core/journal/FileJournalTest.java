@@ -23,6 +23,10 @@ import javax.jcr.RepositoryException;
 import org.apache.commons.io.FileUtils;
 import org.apache.jackrabbit.core.cluster.ClusterNode;
 import org.apache.jackrabbit.core.cluster.SimpleClusterContext;
+import org.apache.jackrabbit.core.cluster.SimpleEventListener;
+import org.apache.jackrabbit.core.cluster.SimpleEventListener.UpdateEvent;
+import org.apache.jackrabbit.core.cluster.UpdateEventChannel;
+import org.apache.jackrabbit.core.cluster.UpdateEventFactory;
 import org.apache.jackrabbit.core.config.ClusterConfig;
 import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
 import org.apache.jackrabbit.test.JUnitTest;
@@ -112,6 +116,95 @@ public class FileJournalTest extends JUnitTest {
         }
     }
 
+    /**
+     * Append records in the compact format and in the default format to the
+     * same journal file. Verify that another cluster node reads all of them.
+     *
+     * @throws Exception
+     */
+    public void testCompressedRecords() throws Exception {
+        ClusterNode compressed = createClusterNode("compressed", true);
+        ClusterNode plain = createClusterNode("plain", false);
+        ClusterNode reader = createClusterNode("reader", false);
+        try {
+            compressed.start();
+            plain.start();
+            UpdateEventFactory factory = UpdateEventFactory.getInstance();
+            ClusterNode[] writers = new ClusterNode[]{compressed, plain, compressed};
+            for (ClusterNode writer : writers) {
+                UpdateEventChannel channel = writer.createUpdateChannel("default");
+                UpdateEvent update = factory.createUpdateOperation();
+                channel.updateCreated(update);
+                channel.updatePrepared(update);
+                channel.updateCommitted(update, null);
+            }
+
+            SimpleEventListener listener = new SimpleEventListener();
+            reader.createUpdateChannel("default").setListener(listener);
+            reader.sync();
+            assertEquals(writers.length, listener.getClusterEvents().size());
+        } finally {
+            compressed.stop();
+            plain.stop();
+            reader.stop();
+        }
+    }
+
+    /**
+     * Append records to rotating journal files and verify that a cluster node
+     * reading the journal files through memory-mapped buffers reads all of
+     * them.
+     *
+     * @throws Exception
+     */
+    public void testMemoryMappedRecords() throws Exception {
+        FileJournal journal = createJournal("writer", false);
+        journal.setMaximumSize(1024);
+        ClusterNode writer = createClusterNode("writer", journal);
+        journal = createJournal("reader", false);
+        journal.setMemoryMapped(true);
+        ClusterNode reader = createClusterNode("reader", journal);
+        try {
+            writer.start();
+            UpdateEventFactory factory = UpdateEventFactory.getInstance();
+            UpdateEventChannel channel = writer.createUpdateChannel("default");
+            for (int i = 0; i < 20; i++) {
+                UpdateEvent update = factory.createUpdateOperation();
+                channel.updateCreated(update);
+                channel.updatePrepared(update);
+                channel.updateCommitted(update, null);
+            }
+            assertTrue(RotatingLogFile.listFiles(journalDirectory, "journal").length > 1);
+
+            SimpleEventListener listener = new SimpleEventListener();
+            reader.createUpdateChannel("default").setListener(listener);
+            reader.sync();
+            assertEquals(20, listener.getClusterEvents().size());
+        } finally {
+            writer.stop();
+            reader.stop();
+        }
+    }
+
+    /**
+     * Verify that a cluster node started from an index snapshot continues
+     * at the revision of the snapshot and removes the revision file.
+     *
+     * @throws Exception
+     */
+    public void testSnapshotRevision() throws Exception {
+        File revisionFile = new File(repositoryHome, ClusterNode.SNAPSHOT_REVISION_FILE);
+        FileUtils.writeStringToFile(revisionFile, "42", "UTF-8");
+
+        ClusterNode clusterNode = createClusterNode("bootstrap", false);
+        try {
+            assertEquals(42, clusterNode.getRevision());
+            assertFalse(revisionFile.exists());
+        } finally {
+            clusterNode.stop();
+        }
+    }
+
     /**
      * Verify that <code>ClusterNode.stop</code> can be invoked even when
      * <code>ClusterNode.init</code> throws because of a bad journal class.
@@ -173,4 +266,58 @@ public class FileJournalTest extends JUnitTest {
 
         clusterNode.stop();
     }
+
+    /**
+     * Create a cluster node with a file journal in the journal directory.
+     *
+     * @param id cluster node id
+     * @param compressRecords whether records are appended in the compact format
+     * @return cluster node
+     * @throws Exception
+     */
+    private ClusterNode createClusterNode(String id, boolean compressRecords)
+            throws Exception {
+        return createClusterNode(id, createJournal(id, compressRecords));
+    }
+
+    /**
+     * Create a file journal in the journal directory.
+     *
+     * @param id cluster node id
+     * @param compressRecords whether records are appended in the compact format
+     * @return file journal, not yet initialized
+     */
+    private FileJournal createJournal(String id, boolean compressRecords) {
+        FileJournal journal = new FileJournal();
+        journal.setDirectory(journalDirectory.getPath());
+        journal.setRevision(new File(repositoryHome, id + ".revision").getPath());
+        journal.setCompressRecords(compressRecords);
+        return journal;
+    }
+
+    /**
+     * Create a cluster node with a file journal.
+     *
+     * @param id cluster node id
+     * @param journal file journal, not yet initialized
+     * @return cluster node
+     * @throws Exception
+     */
+    private ClusterNode createClusterNode(String id, final FileJournal journal)
+            throws Exception {
+        JournalFactory jf = new JournalFactory() {
+            public Journal getJournal(NamespaceResolver resolver) {
+                return journal;
+            }
+        };
+        ClusterConfig cc = new ClusterConfig(id, SYNC_DELAY, jf);
+        SimpleClusterContext context = new SimpleClusterContext(cc, repositoryHome);
+
+        journal.setRepositoryHome(repositoryHome);
+        journal.init(id, context.getNamespaceResolver());
+
+        ClusterNode clusterNode = new ClusterNode();
+        clusterNode.init(context);
+        return clusterNode;
+    }
 }
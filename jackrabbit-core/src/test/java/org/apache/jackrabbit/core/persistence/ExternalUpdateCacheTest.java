@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.NamespaceRegistryImpl;
+import org.apache.jackrabbit.core.RepositoryImpl;
+import org.apache.jackrabbit.core.fs.mem.MemoryFileSystem;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.persistence.mem.InMemBundlePersistenceManager;
+import org.apache.jackrabbit.core.persistence.util.NodePropBundle;
+import org.apache.jackrabbit.core.state.ChangeLog;
+import org.apache.jackrabbit.core.state.ItemState;
+import org.apache.jackrabbit.core.state.ItemStateException;
+import org.apache.jackrabbit.core.state.NodeState;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.commons.name.NameConstants;
+import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
+import org.apache.jackrabbit.stats.RepositoryStatisticsImpl;
+
+/**
+ * Tests that a bundle which is loaded from the persistence layer while an
+ * external update invalidates it does not stay in the bundle cache.
+ */
+public class ExternalUpdateCacheTest extends TestCase {
+
+    private static final NodeId NODE_ID = NodeId.randomId();
+
+    private static final NodeId CHILD_ID = NodeId.randomId();
+
+    private static final Name TEST =
+        NameFactoryImpl.getInstance().create("", "test");
+
+    private File directory;
+
+    private PausingPersistenceManager manager;
+
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("jackrabbit-persistence-", "-test");
+        directory.delete();
+        directory.mkdirs();
+
+        manager = new PausingPersistenceManager();
+        manager.setPersistent(false);
+        manager.init(new PMContext(
+                directory,
+                new MemoryFileSystem(),
+                RepositoryImpl.ROOT_NODE_ID,
+                new NamespaceRegistryImpl(new MemoryFileSystem()),
+                null,
+                null,
+                new RepositoryStatisticsImpl()));
+    }
+
+    protected void tearDown() throws Exception {
+        manager.close();
+        FileUtils.deleteQuietly(directory);
+    }
+
+    public void testLoadDuringExternalUpdate() throws Exception {
+        NodeState node = new NodeState(
+                NODE_ID, TEST, RepositoryImpl.ROOT_NODE_ID,
+                ItemState.STATUS_NEW, true);
+        node.addPropertyName(NameConstants.JCR_PRIMARYTYPE);
+        ChangeLog create = new ChangeLog();
+        create.added(node);
+        manager.store(create);
+
+        // evict the bundle cached by the store
+        node.setStatus(ItemState.STATUS_EXISTING);
+        ChangeLog evict = new ChangeLog();
+        evict.modified(node);
+        manager.onExternalUpdate(evict);
+
+        // load the old revision of the bundle and pause before it is cached
+        manager.pause = true;
+        final Exception[] error = new Exception[1];
+        Thread reader = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    manager.load(NODE_ID);
+                } catch (Exception e) {
+                    error[0] = e;
+                }
+            }
+        });
+        reader.start();
+        assertTrue(manager.loaded.await(10, TimeUnit.SECONDS));
+
+        // another cluster node adds a child and the change is applied here
+        node.addChildNodeEntry(TEST, CHILD_ID);
+        manager.storeExternal(new NodePropBundle(node));
+        ChangeLog external = new ChangeLog();
+        external.modified(node);
+        manager.onExternalUpdate(external);
+
+        manager.proceed.countDown();
+        reader.join(10000);
+        assertNull(error[0]);
+
+        NodeState state = manager.load(NODE_ID);
+        assertTrue("stale bundle cached",
+                state.hasChildNodeEntry(TEST));
+    }
+
+    /**
+     * Persistence manager that pauses after a bundle has been read from
+     * the persistence layer, but before it is put into the cache.
+     */
+    private static class PausingPersistenceManager
+            extends InMemBundlePersistenceManager {
+
+        private final CountDownLatch loaded = new CountDownLatch(1);
+
+        private final CountDownLatch proceed = new CountDownLatch(1);
+
+        private volatile boolean pause;
+
+        protected NodePropBundle loadBundle(NodeId id)
+                throws ItemStateException {
+            NodePropBundle bundle = super.loadBundle(id);
+            if (pause) {
+                pause = false;
+                loaded.countDown();
+                try {
+                    proceed.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new ItemStateException("interrupted", e);
+                }
+            }
+            return bundle;
+        }
+
+        /**
+         * Writes the bundle like a different cluster node would, without
+         * touching the bundle cache.
+         */
+        void storeExternal(NodePropBundle bundle) throws ItemStateException {
+            storeBundle(bundle);
+        }
+
+    }
+
+}
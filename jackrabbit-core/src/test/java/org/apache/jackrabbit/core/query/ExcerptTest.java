@@ -268,6 +268,44 @@ public class ExcerptTest extends AbstractQueryTest {
                 "lorem <strong>ipsum</strong> <strong>dolor</strong> sit amet", "ipsu* dolor");
     }
 
+    /**
+     * Checks that the excerpts of a result with more rows than are created
+     * in one batch belong to the nodes of their rows.
+     */
+    public void testExcerptsOfManyRows() throws RepositoryException {
+        for (int i = 0; i < 120; i++) {
+            testRootNode.addNode("node" + i).setProperty(
+                    "text", "jackrabbit number" + i);
+        }
+        superuser.save();
+
+        String stmt = getStatement("jackrabbit");
+        RowIterator rows = executeQuery(stmt).getRows();
+        assertEquals(120, rows.getSize());
+        rows.nextRow();
+        rows.skip(60);
+        assertEquals(61, rows.getPosition());
+        int count = 61;
+        while (rows.hasNext()) {
+            Row row = rows.nextRow();
+            String name = row.getNode().getName();
+            assertEquals(createExcerpt("<strong>jackrabbit</strong> number"
+                    + name.substring("node".length())), getExcerpt(row));
+            count++;
+        }
+        assertEquals(120, count);
+        assertEquals(120, rows.getPosition());
+
+        // served from the excerpt cache
+        rows = executeQuery(stmt).getRows();
+        while (rows.hasNext()) {
+            Row row = rows.nextRow();
+            String name = row.getNode().getName();
+            assertEquals(createExcerpt("<strong>jackrabbit</strong> number"
+                    + name.substring("node".length())), getExcerpt(row));
+        }
+    }
+
     private void checkExcerpt(String text, String fragmentText, String terms)
             throws RepositoryException {
         String excerpt = createExcerpt(fragmentText);
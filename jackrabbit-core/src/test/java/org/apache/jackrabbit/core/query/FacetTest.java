@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.jcr.Node;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.query.Query;
+
+import org.apache.jackrabbit.api.query.FacetedQueryResult;
+
+/**
+ * <code>FacetTest</code> checks the value counts of query results.
+ */
+public class FacetTest extends AbstractQueryTest {
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        Node n1 = testRootNode.addNode("node1");
+        n1.setProperty("tags", new String[]{"a", "b"});
+        n1.setProperty("rating", 1);
+        n1.addMixin(mixTitle);
+        Node n2 = testRootNode.addNode("node2");
+        n2.setProperty("tags", new String[]{"a"});
+        n2.setProperty("rating", 2);
+        n2.setProperty("link", superuser.getValueFactory().createValue(
+                n1.getPath(), PropertyType.PATH));
+        Node n3 = testRootNode.addNode("node3");
+        n3.setProperty("tags", new String[]{"c", "a"});
+        n3.setProperty("rating", 1);
+        testRootNode.addNode("node4");
+        superuser.save();
+    }
+
+    public void testStringValues() throws RepositoryException {
+        Map<String, Integer> facet = getFacet(
+                testPath + "/*", "tags", -1);
+        assertFacet(facet, "a", 3, "b", 1, "c", 1);
+        assertFacet(getFacet(testPath + "/*", "tags", 2), "a", 3, "b", 1);
+        assertFacet(getFacet(testPath + "/*[@rating = 1]", "tags", -1),
+                "a", 2, "b", 1, "c", 1);
+    }
+
+    public void testTypedValues() throws RepositoryException {
+        assertFacet(getFacet(testPath + "/*", "rating", -1), "1", 2, "2", 1);
+        assertFacet(getFacet(testPath + "/*", "jcr:mixinTypes", -1),
+                "mix:title", 1);
+        assertFacet(getFacet(testPath + "/*", "link", -1),
+                testRoot + "/node1", 1);
+        assertTrue(getFacet(testPath + "/*", "unknown", -1).isEmpty());
+    }
+
+    public void testLimitAndOffset() throws RepositoryException {
+        Query q = qm.createQuery(testPath + "/* order by @rating",
+                Query.XPATH);
+        q.setLimit(1);
+        q.setOffset(1);
+        FacetedQueryResult result = (FacetedQueryResult) q.execute();
+        assertFacet(result.getFacet("tags", -1), "a", 3, "b", 1, "c", 1);
+    }
+
+    private Map<String, Integer> getFacet(String xpath,
+                                          String propertyName,
+                                          int limit)
+            throws RepositoryException {
+        Query q = qm.createQuery(xpath, Query.XPATH);
+        return ((FacetedQueryResult) q.execute()).getFacet(propertyName, limit);
+    }
+
+    private static void assertFacet(Map<String, Integer> facet,
+                                    Object... expected) {
+        assertEquals(expected.length / 2, facet.size());
+        Iterator<Map.Entry<String, Integer>> it = facet.entrySet().iterator();
+        for (int i = 0; i < expected.length; i += 2) {
+            Map.Entry<String, Integer> entry = it.next();
+            assertEquals(expected[i], entry.getKey());
+            assertEquals(expected[i + 1], entry.getValue());
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query;
+
+import javax.jcr.Node;
+import javax.jcr.query.Query;
+
+/**
+ * <code>ParsedQueryCacheTest</code> checks that parsed query trees are
+ * shared by queries with the same statement and namespace mappings.
+ */
+public class ParsedQueryCacheTest extends AbstractIndexingTest {
+
+    private ParsedQueryCache cache;
+
+    private Node n1;
+
+    private Node n2;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        cache = getSearchIndex().getParsedQueryCache();
+        assertNotNull(cache);
+        n1 = testRootNode.addNode("node1");
+        n1.setProperty("prop", "a");
+        n2 = testRootNode.addNode("node2");
+        n2.setProperty("prop", "b");
+        session.save();
+    }
+
+    protected void tearDown() throws Exception {
+        cache = null;
+        n1 = null;
+        n2 = null;
+        super.tearDown();
+    }
+
+    public void testXPath() throws Exception {
+        String xpath = testPath + "/*[@prop = 'a']";
+        long hits = cache.getHits();
+        executeXPathQuery(xpath, new Node[]{n1});
+        executeXPathQuery(xpath, new Node[]{n1});
+        assertTrue(cache.getHits() > hits);
+    }
+
+    public void testBindVariables() throws Exception {
+        String sql2 = "SELECT * FROM [nt:base] WHERE ISCHILDNODE(["
+                + testRoot + "]) AND prop = $value";
+        long hits = cache.getHits();
+        Query q = qm.createQuery(sql2, Query.JCR_SQL2);
+        q.bindValue("value", vf.createValue("a"));
+        checkResult(q.execute(), new Node[]{n1});
+
+        q = qm.createQuery(sql2, Query.JCR_SQL2);
+        q.bindValue("value", vf.createValue("b"));
+        checkResult(q.execute(), new Node[]{n2});
+        assertEquals(hits + 1, cache.getHits());
+    }
+
+    public void testNamespaceMappings() throws Exception {
+        n1.setProperty("jcr:title", "a");
+        session.save();
+        String jcr = session.getNamespaceURI("jcr");
+        String mix = session.getNamespaceURI("mix");
+        String sql2 = "SELECT * FROM [nt:base] AS s WHERE ISCHILDNODE(s, ["
+                + testRoot + "]) AND s.[x:title] = 'a'";
+        long misses = cache.getMisses();
+        try {
+            session.setNamespacePrefix("x", jcr);
+            executeSQL2Query(sql2, new Node[]{n1});
+            session.setNamespacePrefix("x", mix);
+            executeSQL2Query(sql2, new Node[0]);
+        } finally {
+            session.setNamespacePrefix("jcr", jcr);
+            session.setNamespacePrefix("mix", mix);
+        }
+        assertEquals(misses + 2, cache.getMisses());
+    }
+
+    public void testUnusedPrefixes() throws Exception {
+        String mix = session.getNamespaceURI("mix");
+        String sql2 = "SELECT * FROM [nt:base] AS s WHERE ISCHILDNODE(s, ["
+                + testRoot + "]) AND s.prop = 'a'";
+        executeSQL2Query(sql2, new Node[]{n1});
+        long hits = cache.getHits();
+        try {
+            // the statement does not use the remapped prefix
+            session.setNamespacePrefix("x", mix);
+            executeSQL2Query(sql2, new Node[]{n1});
+        } finally {
+            session.setNamespacePrefix("mix", mix);
+        }
+        assertEquals(hits + 1, cache.getHits());
+    }
+}
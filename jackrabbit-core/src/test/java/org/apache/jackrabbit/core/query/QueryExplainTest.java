@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query;
+
+import javax.jcr.Node;
+import javax.jcr.query.Query;
+
+import org.apache.jackrabbit.api.query.JackrabbitQuery;
+import org.apache.jackrabbit.api.stats.QueryStatDto;
+import org.apache.jackrabbit.core.JackrabbitRepositoryStub;
+import org.apache.jackrabbit.core.query.lucene.SearchIndex;
+import org.apache.jackrabbit.stats.QueryStatDtoImpl;
+import org.apache.jackrabbit.stats.QueryStatImpl;
+
+/**
+ * <code>QueryExplainTest</code> checks the explanation of queries and the
+ * slow query log.
+ */
+public class QueryExplainTest extends AbstractIndexingTest {
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        for (int i = 0; i < 3; i++) {
+            Node n = testRootNode.addNode("node" + i);
+            n.setProperty("prop", "value");
+            n.addNode("child").setProperty("prop", i);
+        }
+        session.save();
+    }
+
+    public void testExplainXPath() throws Exception {
+        Query q = qm.createQuery(testPath + "//*[@prop = 'value'] order by @prop",
+                Query.XPATH);
+        assertTrue(q instanceof JackrabbitQuery);
+        QueryExplanation explanation = ((QueryImpl) q).explainQuery();
+        assertEquals(3, explanation.getActualHits());
+        assertEquals(3, explanation.getIndexHits() - explanation.getDeniedHits());
+        assertEquals(1, explanation.getIndexQueries().size());
+        assertTrue(explanation.getDuration() > 0);
+        assertTrue(explanation.getTime(QueryExplanation.Phase.SEARCH) > 0);
+
+        String plan = ((JackrabbitQuery) q).explain();
+        assertTrue(plan.contains("index query: "));
+        assertTrue(plan.contains("actual hits: 3"));
+        assertNull(QueryExplanation.current());
+    }
+
+    public void testExplainJoin() throws Exception {
+        Query q = qm.createQuery("SELECT * FROM [nt:base] AS p "
+                + "INNER JOIN [nt:base] AS c ON ISCHILDNODE(c, p) "
+                + "WHERE ISDESCENDANTNODE(p, [" + testRoot + "]) "
+                + "AND p.prop = 'value' ORDER BY c.prop", Query.JCR_SQL2);
+        QueryExplanation explanation = ((QueryImpl) q).explainQuery();
+        assertEquals(3, explanation.getActualHits());
+        assertEquals(2, explanation.getIndexQueries().size());
+        assertTrue(explanation.getTime(QueryExplanation.Phase.TRANSLATION) > 0);
+        assertTrue(explanation.getTime(QueryExplanation.Phase.JOIN) > 0);
+    }
+
+    public void testSlowQueryLog() throws Exception {
+        QueryStatImpl queryStat = (QueryStatImpl) JackrabbitRepositoryStub.getRepositoryContext(
+                superuser.getRepository()).getStatManager().getQueryStat();
+        SearchIndex index = getSearchIndex();
+        boolean enabled = queryStat.isEnabled();
+        queryStat.setEnabled(true);
+        queryStat.clearSlowQueriesQueue();
+        index.setSlowQueryHitThreshold(3);
+        try {
+            String statement = testPath + "//*[@prop = 'value']";
+            executeXPathQuery(statement, new Node[]{
+                    testRootNode.getNode("node0"),
+                    testRootNode.getNode("node1"),
+                    testRootNode.getNode("node2")});
+            executeXPathQuery(testPath + "/node0", new Node[]{
+                    testRootNode.getNode("node0")});
+            QueryStatDto[] slow = queryStat.getSlowQueries();
+            assertEquals(2, slow.length);
+            for (QueryStatDto dto : slow) {
+                String plan = ((QueryStatDtoImpl) dto).getPlan();
+                if (dto.getStatement().equals(statement)) {
+                    assertNotNull(plan);
+                    assertTrue(plan.contains("index hits read: 3"));
+                } else {
+                    assertNull(plan);
+                }
+            }
+        } finally {
+            index.setSlowQueryHitThreshold(0);
+            queryStat.clearSlowQueriesQueue();
+            queryStat.setEnabled(enabled);
+        }
+    }
+}
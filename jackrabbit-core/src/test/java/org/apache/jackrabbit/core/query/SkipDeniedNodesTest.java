@@ -17,6 +17,7 @@
 package org.apache.jackrabbit.core.query;
 
 import java.security.Principal;
+import java.util.Map;
 
 import javax.jcr.AccessDeniedException;
 import javax.jcr.Node;
@@ -30,6 +31,7 @@ import javax.jcr.security.AccessControlPolicyIterator;
 import javax.jcr.security.Privilege;
 
 import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.query.FacetedQueryResult;
 import org.apache.jackrabbit.api.security.user.User;
 import org.apache.jackrabbit.api.security.user.UserManager;
 import org.apache.jackrabbit.api.security.JackrabbitAccessControlList;
@@ -94,6 +96,23 @@ public class SkipDeniedNodesTest extends AbstractAccessControlTest {
         checkSequence(query.execute().getNodes(), new String[]{n4.getPath()});
     }
 
+    public void testFacet() throws RepositoryException {
+        QueryManager qm = anonymous.getWorkspace().getQueryManager();
+        String ntName = n1.getPrimaryNodeType().getName();
+        String stmt = testPath + "/element(*, " + ntName + ")";
+        FacetedQueryResult result = (FacetedQueryResult) qm.createQuery(
+                stmt, Query.XPATH).execute();
+        Map<String, Integer> facet = result.getFacet(propertyName1, -1);
+        assertEquals(3, facet.size());
+        assertFalse(facet.containsKey("b"));
+
+        Query query = qm.createQuery(stmt, Query.XPATH);
+        query.setLimit(1);
+        facet = ((FacetedQueryResult) query.execute()).getFacet(propertyName1, -1);
+        assertEquals(3, facet.size());
+        assertFalse(facet.containsKey("b"));
+    }
+
     private void checkSequence(NodeIterator nodes, String[] paths)
             throws RepositoryException {
         for (int i = 0; i < paths.length; i++) {
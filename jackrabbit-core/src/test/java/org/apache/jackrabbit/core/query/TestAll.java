@@ -68,6 +68,9 @@ public class TestAll extends TestCase {
         suite.addTestSuite(SQL2OffsetLimitTest.class);
         suite.addTestSuite(SQL2OrderByTest.class);
         suite.addTestSuite(DescendantSelfAxisTest.class);
+        suite.addTestSuite(QueryExplainTest.class);
+        suite.addTestSuite(ParsedQueryCacheTest.class);
+        suite.addTestSuite(FacetTest.class);
 
         return suite;
     }
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+
+import javax.jcr.Node;
+
+import org.apache.jackrabbit.core.query.AbstractIndexingTest;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+
+/**
+ * <code>AncestorTermsTest</code> checks descendant constraints that are
+ * executed with the ancestor terms of the index and the update of the
+ * ancestor terms when a node is moved.
+ */
+public class AncestorTermsTest extends AbstractIndexingTest {
+
+    public void testDescendantNode() throws Exception {
+        Node a = testRootNode.addNode("a");
+        Node b = a.addNode("b");
+        Node c = b.addNode("c");
+        testRootNode.addNode("d");
+        session.save();
+
+        assertTrue(getSearchIndex().canUseAncestorTerms());
+        executeSQL2Query("SELECT * FROM [nt:base] WHERE ISDESCENDANTNODE('"
+                + a.getPath() + "')", new Node[]{b, c});
+        executeSQL2Query("SELECT * FROM [nt:base] WHERE ISDESCENDANTNODE('"
+                + a.getPath() + "') AND NOT ISDESCENDANTNODE('"
+                + b.getPath() + "')", new Node[]{b});
+        executeSQL2Query("SELECT * FROM [nt:base] WHERE ISDESCENDANTNODE('"
+                + testRootNode.getPath() + "/unknown')", new Node[0]);
+    }
+
+    public void testMove() throws Exception {
+        Node a = testRootNode.addNode("a");
+        Node b = a.addNode("b");
+        Node c = b.addNode("c");
+        Node d = testRootNode.addNode("d");
+        session.save();
+
+        session.move(b.getPath(), d.getPath() + "/b");
+        session.save();
+        waitForAncestorUpdates();
+
+        assertEquals(3, getDocCount(d.getIdentifier()));
+        assertEquals(1, getDocCount(a.getIdentifier()));
+        executeSQL2Query("SELECT * FROM [nt:base] WHERE ISDESCENDANTNODE('"
+                + a.getPath() + "')", new Node[0]);
+        executeSQL2Query("SELECT * FROM [nt:base] WHERE ISDESCENDANTNODE('"
+                + d.getPath() + "')", new Node[]{b, c});
+    }
+
+    private void waitForAncestorUpdates() throws InterruptedException {
+        for (int i = 0; i < 100 && !getSearchIndex().canUseAncestorTerms(); i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(getSearchIndex().canUseAncestorTerms());
+    }
+
+    private int getDocCount(String uuid) throws IOException {
+        int count = 0;
+        IndexReader reader = getSearchIndex().getIndexReader();
+        try {
+            TermDocs tDocs = reader.termDocs(
+                    new Term(FieldNames.ANCESTORS, uuid));
+            try {
+                while (tDocs.next()) {
+                    count++;
+                }
+            } finally {
+                tDocs.close();
+            }
+        } finally {
+            reader.close();
+        }
+        return count;
+    }
+}
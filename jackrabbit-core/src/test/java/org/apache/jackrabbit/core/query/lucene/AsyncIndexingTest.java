@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.Node;
+import javax.jcr.query.Query;
+
+import org.apache.jackrabbit.api.query.JackrabbitQuery;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.query.AbstractIndexingTest;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+
+/**
+ * <code>AsyncIndexingTest</code> checks that changes are applied to the
+ * index in the background and that queries are able to wait for them.
+ */
+public class AsyncIndexingTest extends AbstractIndexingTest {
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        getSearchIndex().setAsyncIndexing(true);
+    }
+
+    protected void tearDown() throws Exception {
+        getSearchIndex().setAsyncIndexing(false);
+        assertTrue(getSearchIndex().waitForIndex(10000));
+        super.tearDown();
+    }
+
+    public void testWaitForIndex() throws Exception {
+        Node n = testRootNode.addNode("node");
+        n.setProperty("prop", "async");
+        session.save();
+
+        Query q = qm.createQuery(testPath + "/*[@prop = 'async']", Query.XPATH);
+        ((JackrabbitQuery) q).setWaitForIndex(10000);
+        checkResult(q.execute(), new Node[]{n});
+        assertEquals(0, getSearchIndex().getPendingIndexUpdates());
+        assertEquals(0, getSearchIndex().getIndexLag());
+
+        n.setProperty("prop", "changed");
+        session.save();
+        assertTrue(getSearchIndex().waitForIndex(10000));
+        executeXPathQuery(testPath + "/*[@prop = 'async']", new Node[0]);
+        executeXPathQuery(testPath + "/*[@prop = 'changed']", new Node[]{n});
+
+        n.remove();
+        session.save();
+        assertTrue(getSearchIndex().waitForIndex(10000));
+        executeXPathQuery(testPath + "/*[@prop = 'changed']", new Node[0]);
+    }
+
+    public void testPendingChangesAreDurable() throws Exception {
+        Directory dir = new RAMDirectory();
+        ScheduledThreadPoolExecutor idle = new ScheduledThreadPoolExecutor(1) {
+            public void execute(Runnable command) {
+                // never apply the changes
+            }
+        };
+        try {
+            NodeId id1 = NodeId.randomId();
+            NodeId id2 = NodeId.randomId();
+            AsyncIndexUpdater updater = new AsyncIndexUpdater(null, dir, idle);
+            updater.record(Collections.singleton(id1), Arrays.asList(id1, id2));
+            updater.record(Collections.<NodeId>emptySet(),
+                    Collections.singleton(id2));
+            assertEquals(4, updater.getPendingNodes());
+            assertFalse(updater.waitForIndex(10));
+
+            updater = new AsyncIndexUpdater(null, dir, idle);
+            assertEquals(4, updater.getPendingNodes());
+            assertTrue(updater.getIndexLag() >= 0);
+        } finally {
+            idle.shutdown();
+        }
+    }
+
+    public void testRetryWithBackoff() throws Exception {
+        final List<Long> delays = new ArrayList<Long>();
+        ScheduledThreadPoolExecutor inline = new ScheduledThreadPoolExecutor(1) {
+            public void execute(Runnable command) {
+                command.run();
+            }
+            public ScheduledFuture<?> schedule(
+                    Runnable command, long delay, TimeUnit unit) {
+                delays.add(unit.toMillis(delay));
+                return null;
+            }
+        };
+        try {
+            // fails to apply the change without a search index
+            AsyncIndexUpdater updater = new AsyncIndexUpdater(
+                    null, new RAMDirectory(), inline);
+            updater.record(Collections.<NodeId>emptySet(),
+                    Collections.singleton(NodeId.randomId()));
+            assertEquals(Collections.singletonList(1000L), delays);
+            assertFalse(updater.waitForIndex(10));
+
+            updater.run();
+            assertEquals(Arrays.asList(1000L, 2000L), delays);
+            assertEquals(1, updater.getPendingNodes());
+        } finally {
+            inline.shutdown();
+        }
+    }
+}
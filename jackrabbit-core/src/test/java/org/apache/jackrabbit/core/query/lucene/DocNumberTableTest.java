@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+
+/**
+ * <code>DocNumberTableTest</code> checks lookups, persistence and rebuild of
+ * the document number table.
+ */
+public class DocNumberTableTest extends TestCase {
+
+    private static final File DIR = new File("target", "docnumbers");
+
+    private static final int NUM_DOCS = 1000;
+
+    private NodeId[] ids;
+
+    private Directory dir;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        FileUtils.deleteQuietly(DIR);
+        dir = FSDirectory.open(DIR);
+        ids = new NodeId[NUM_DOCS];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = NodeId.randomId();
+        }
+        addDocuments(0, NUM_DOCS);
+    }
+
+    protected void tearDown() throws Exception {
+        dir.close();
+        FileUtils.deleteQuietly(DIR);
+        super.tearDown();
+    }
+
+    public void testLookup() throws Exception {
+        IndexReader reader = IndexReader.open(dir);
+        try {
+            DocNumberTable table = DocNumberTable.open(reader);
+            try {
+                for (int i = 0; i < ids.length; i++) {
+                    assertEquals(i, table.getDocNumber(ids[i].toString(), reader));
+                }
+                assertEquals(-1, table.getDocNumber(NodeId.randomId().toString(), reader));
+                assertEquals(-1, table.getDocNumber("invalid", reader));
+            } finally {
+                table.close();
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testDeleted() throws Exception {
+        IndexReader reader = IndexReader.open(dir, false);
+        try {
+            DocNumberTable table = DocNumberTable.open(reader);
+            try {
+                reader.deleteDocument(7);
+                assertEquals(-1, table.getDocNumber(ids[7].toString(), reader));
+                assertEquals(8, table.getDocNumber(ids[8].toString(), reader));
+            } finally {
+                table.close();
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testPersisted() throws Exception {
+        IndexReader reader = IndexReader.open(dir);
+        try {
+            DocNumberTable.open(reader).close();
+            assertTrue(dir.fileExists(DocNumberTable.FILE_NAME));
+            long modified = new File(DIR, DocNumberTable.FILE_NAME).lastModified();
+            Thread.sleep(1000);
+            DocNumberTable.open(reader).close();
+            // table was not rebuilt
+            assertEquals(modified, new File(DIR, DocNumberTable.FILE_NAME).lastModified());
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testRebuild() throws Exception {
+        IndexReader reader = IndexReader.open(dir);
+        try {
+            DocNumberTable.open(reader).close();
+        } finally {
+            reader.close();
+        }
+        // segments change
+        NodeId[] more = new NodeId[NUM_DOCS * 2];
+        System.arraycopy(ids, 0, more, 0, NUM_DOCS);
+        for (int i = NUM_DOCS; i < more.length; i++) {
+            more[i] = NodeId.randomId();
+        }
+        ids = more;
+        addDocuments(NUM_DOCS, more.length);
+        reader = IndexReader.open(dir);
+        try {
+            DocNumberTable table = DocNumberTable.open(reader);
+            try {
+                for (int i = 0; i < ids.length; i++) {
+                    assertEquals(i, table.getDocNumber(ids[i].toString(), reader));
+                }
+            } finally {
+                table.close();
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void addDocuments(int from, int to) throws Exception {
+        IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(
+                Version.LUCENE_36, new StandardAnalyzer(Version.LUCENE_36)));
+        try {
+            for (int i = from; i < to; i++) {
+                Document doc = new Document();
+                doc.add(new Field(FieldNames.UUID, ids[i].toString(),
+                        Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+                writer.addDocument(doc);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.data.DataIdentifier;
+import org.apache.tika.metadata.Metadata;
+
+/**
+ * <code>ExtractedTextCacheTest</code> checks lookup, persistence and
+ * eviction of the extracted text cache.
+ */
+public class ExtractedTextCacheTest extends TestCase {
+
+    private static final File DIR = new File("target", "textcache");
+
+    private static final DataIdentifier ID1 = new DataIdentifier("0123456789abcdef");
+
+    private static final DataIdentifier ID2 = new DataIdentifier("fedcba9876543210");
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        FileUtils.deleteQuietly(DIR);
+    }
+
+    protected void tearDown() throws Exception {
+        FileUtils.deleteQuietly(DIR);
+        super.tearDown();
+    }
+
+    public void testGetPut() throws Exception {
+        ExtractedTextCache cache = new ExtractedTextCache(DIR, 1024 * 1024, "conf");
+        Metadata pdf = createMetadata("application/pdf");
+        assertNull(cache.get(ID1, pdf));
+        cache.put(ID1, pdf, "hello world");
+        assertEquals("hello world", cache.get(ID1, pdf));
+        assertNull(cache.get(ID2, pdf));
+        // content type is part of the key
+        assertNull(cache.get(ID1, createMetadata("text/plain")));
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+    }
+
+    public void testPersistent() throws Exception {
+        Metadata pdf = createMetadata("application/pdf");
+        ExtractedTextCache cache = new ExtractedTextCache(DIR, 1024 * 1024, "conf");
+        cache.put(ID1, pdf, "hello world");
+
+        cache = new ExtractedTextCache(DIR, 1024 * 1024, "conf");
+        assertEquals(1, cache.getEntryCount());
+        assertEquals("hello world", cache.get(ID1, pdf));
+
+        // entries of other extraction settings are not used
+        cache = new ExtractedTextCache(DIR, 1024 * 1024, "other");
+        assertNull(cache.get(ID1, pdf));
+    }
+
+    public void testEviction() throws Exception {
+        Metadata pdf = createMetadata("application/pdf");
+        ExtractedTextCache cache = new ExtractedTextCache(DIR, 1024 * 1024, "conf");
+        cache.put(ID1, pdf, "hello world");
+        long size = cache.getSize();
+
+        cache = new ExtractedTextCache(DIR, size + size / 2, "conf");
+        cache.put(ID2, pdf, "hello world");
+        assertEquals(1, cache.getEntryCount());
+        assertNull(cache.get(ID1, pdf));
+        assertEquals("hello world", cache.get(ID2, pdf));
+    }
+
+    private static Metadata createMetadata(String contentType) {
+        Metadata metadata = new Metadata();
+        metadata.set(Metadata.CONTENT_TYPE, contentType);
+        return metadata;
+    }
+}
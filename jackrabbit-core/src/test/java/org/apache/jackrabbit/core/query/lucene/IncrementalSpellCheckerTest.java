@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import javax.jcr.query.Query;
+
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.query.AbstractIndexingTest;
+import org.apache.jackrabbit.spi.commons.query.QueryParser;
+import org.apache.jackrabbit.spi.commons.query.QueryRootNode;
+
+/**
+ * <code>IncrementalSpellCheckerTest</code> checks the suggestions of the
+ * spell checker and the rebuild of its dictionary when segments change.
+ */
+public class IncrementalSpellCheckerTest extends AbstractIndexingTest {
+
+    private IncrementalSpellChecker spellChecker;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        spellChecker = new IncrementalSpellChecker();
+        spellChecker.init(getSearchIndex());
+    }
+
+    protected void tearDown() throws Exception {
+        spellChecker.close();
+        super.tearDown();
+    }
+
+    public void testCheck() throws Exception {
+        testRootNode.addNode("a").setProperty("text", "zebrafish xylophone");
+        session.save();
+        flushSearchIndex();
+        spellChecker.refresh();
+
+        assertEquals("zebrafish xylophone",
+                spellChecker.check(parse("zebrafisk xylophome")));
+        // known and short words are not corrected
+        assertNull(spellChecker.check(parse("a zebrafish")));
+    }
+
+    public void testSegmentsChanged() throws Exception {
+        testRootNode.addNode("a").setProperty("text", "quagmirest");
+        session.save();
+        flushSearchIndex();
+        String suggestion = null;
+        for (int i = 0; i < 100 && suggestion == null; i++) {
+            Thread.sleep(100);
+            suggestion = spellChecker.suggest("quagmyrest");
+        }
+        assertEquals("quagmirest", suggestion);
+    }
+
+    private QueryRootNode parse(String words) throws Exception {
+        String stmt = "select * from nt:base where jcr:path = '/' "
+                + "and spellcheck('" + words + "')";
+        return QueryParser.parse(stmt, Query.SQL, (SessionImpl) session,
+                getSearchIndex().getQueryNodeFactory());
+    }
+}
@@ -16,22 +16,44 @@
  */
 package org.apache.jackrabbit.core.query.lucene;
 
+import java.io.File;
+
+import javax.jcr.PropertyType;
+
 import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.id.ItemId;
+import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.query.lucene.directory.DirectoryManager;
+import org.apache.jackrabbit.core.query.lucene.directory.FSDirectoryManager;
 import org.apache.jackrabbit.core.query.lucene.directory.RAMDirectoryManager;
+import org.apache.jackrabbit.core.state.ItemState;
+import org.apache.jackrabbit.core.state.ItemStateManager;
+import org.apache.jackrabbit.core.state.NoSuchItemStateException;
+import org.apache.jackrabbit.core.state.NodeReferences;
+import org.apache.jackrabbit.core.state.NodeState;
+import org.apache.jackrabbit.spi.commons.name.NameConstants;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Similarity;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.NumericUtils;
 import org.apache.lucene.util.Version;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 /**
- * <code>IndexMigrationTest</code> contains a test case for JCR-2393.
+ * <code>IndexMigrationTest</code> contains a test case for JCR-2393 and for
+ * the migration of version 3 indexes to version 4 and 5.
  */
 public class IndexMigrationTest extends TestCase {
 
@@ -51,7 +73,6 @@ public class IndexMigrationTest extends TestCase {
 
         PersistentIndex idx = new PersistentIndex("index",
                 new StandardAnalyzer(Version.LUCENE_36), Similarity.getDefault(),
-                new DocNumberCache(100),
                 new IndexingQueue(new IndexingQueueStore(new RAMDirectory())),
                 dirMgr, 0);
         idx.addDocuments(docs.toArray(new Document[docs.size()]));
@@ -60,6 +81,162 @@ public class IndexMigrationTest extends TestCase {
         IndexMigration.migrate(idx, dirMgr, SEP_CHAR);
     }
 
+    public void testNumericValueMigration() throws Exception {
+        List<Document> docs = new ArrayList<Document>();
+        docs.add(createDocumentV3("p", LongField.longToString(1), PropertyType.LONG));
+        docs.add(createDocumentV3("p", LongField.longToString(5), PropertyType.LONG));
+        docs.add(createDocumentV3("p", LongField.longToString(10), PropertyType.LONG));
+        docs.add(createDocumentV3("p", DoubleField.doubleToString(5.5), PropertyType.DOUBLE));
+        docs.add(createDocumentV3("p", DateField.timeToString(5), PropertyType.DATE));
+        docs.add(createDocumentV3("p", "5", PropertyType.STRING));
+
+        // migrated directories are closed, which discards a RAMDirectory
+        File path = new File("target", "index-migration");
+        FileUtils.deleteDirectory(path);
+        SearchIndex handler = new SearchIndex();
+        handler.setPath(path.getPath());
+        DirectoryManager dirMgr = new FSDirectoryManager();
+        dirMgr.init(handler);
+
+        PersistentIndex idx = new PersistentIndex("index",
+                new StandardAnalyzer(Version.LUCENE_36), Similarity.getDefault(),
+                new IndexingQueue(new IndexingQueueStore(new RAMDirectory())),
+                dirMgr, 0);
+        idx.addDocuments(docs.toArray(new Document[docs.size()]));
+        idx.removeDocument(new Term(FieldNames.UUID,
+                docs.get(0).get(FieldNames.UUID)));
+        idx.commit();
+
+        IndexMigration.migrate(idx, dirMgr, SEP_CHAR);
+
+        IndexReader reader = IndexReader.open(dirMgr.getDirectory("index"));
+        try {
+            assertEquals(IndexFormatVersion.V4.getVersion(),
+                    IndexFormatVersion.getVersion(reader).getVersion());
+            assertEquals(5, reader.numDocs());
+            IndexSearcher searcher = new IndexSearcher(reader);
+            assertEquals(2, searcher.search(new TrieRangeQuery("p",
+                    PropertyType.LONG, 0, 10, true, true), 10).totalHits);
+            assertEquals(1, searcher.search(new TrieRangeQuery("p",
+                    PropertyType.LONG, 5, 10, false, true), 10).totalHits);
+            assertEquals(1, searcher.search(new TrieRangeQuery("p",
+                    PropertyType.DOUBLE, NumericUtils.doubleToSortableLong(5.0),
+                    Long.MAX_VALUE, true, true), 10).totalHits);
+            assertEquals(1, searcher.search(new TrieRangeQuery("p",
+                    PropertyType.DATE, 5, 5, true, true), 10).totalHits);
+        } finally {
+            reader.close();
+            idx.close();
+            dirMgr.dispose();
+            FileUtils.deleteDirectory(path);
+        }
+    }
+
+    public void testAncestorMigration() throws Exception {
+        final Map<NodeId, NodeState> states = new HashMap<NodeId, NodeState>();
+        NodeId root = NodeId.randomId();
+        NodeId a = NodeId.randomId();
+        NodeId b = NodeId.randomId();
+        NodeId removed = NodeId.randomId();
+        NodeId deleted = NodeId.randomId();
+        addNodeState(states, root, null);
+        addNodeState(states, a, root);
+        addNodeState(states, b, a);
+        addNodeState(states, deleted, a);
+
+        File path = new File("target", "index-migration-v5");
+        FileUtils.deleteDirectory(path);
+        SearchIndex handler = new SearchIndex();
+        handler.setPath(path.getPath());
+        DirectoryManager dirMgr = new FSDirectoryManager();
+        dirMgr.init(handler);
+
+        PersistentIndex idx = new PersistentIndex("index",
+                new StandardAnalyzer(Version.LUCENE_36), Similarity.getDefault(),
+                new IndexingQueue(new IndexingQueueStore(new RAMDirectory())),
+                dirMgr, 0);
+        idx.addDocuments(new Document[]{
+                createDocumentV4(root), createDocumentV4(a),
+                createDocumentV4(deleted), createDocumentV4(b),
+                createDocumentV4(removed)});
+        idx.removeDocument(TermFactory.createUUIDTerm(deleted.toString()));
+        idx.commit();
+
+        ItemStateManager stateMgr = new ItemStateManager() {
+            public ItemState getItemState(ItemId id)
+                    throws NoSuchItemStateException {
+                ItemState state = states.get(id);
+                if (state == null) {
+                    throw new NoSuchItemStateException(id.toString());
+                }
+                return state;
+            }
+            public boolean hasItemState(ItemId id) {
+                return states.containsKey(id);
+            }
+            public NodeReferences getNodeReferences(NodeId id) {
+                throw new UnsupportedOperationException();
+            }
+            public boolean hasNodeReferences(NodeId id) {
+                return false;
+            }
+        };
+        IndexMigration.migrateAncestors(idx, dirMgr, stateMgr);
+
+        IndexReader reader = IndexReader.open(dirMgr.getDirectory("index"));
+        try {
+            assertEquals(IndexFormatVersion.V5.getVersion(),
+                    IndexFormatVersion.getVersion(reader).getVersion());
+            assertEquals(4, reader.numDocs());
+            IndexSearcher searcher = new IndexSearcher(reader);
+            assertEquals(3, searcher.search(new TermQuery(new Term(
+                    FieldNames.ANCESTORS, root.toString())), 10).totalHits);
+            assertEquals(2, searcher.search(new TermQuery(new Term(
+                    FieldNames.ANCESTORS, a.toString())), 10).totalHits);
+            assertEquals(1, searcher.search(new TermQuery(new Term(
+                    FieldNames.ANCESTORS, removed.toString())), 10).totalHits);
+            assertEquals(0, searcher.search(new TermQuery(new Term(
+                    FieldNames.ANCESTORS, deleted.toString())), 10).totalHits);
+        } finally {
+            reader.close();
+            idx.close();
+            dirMgr.dispose();
+            FileUtils.deleteDirectory(path);
+        }
+    }
+
+    private static void addNodeState(Map<NodeId, NodeState> states,
+                                     NodeId id, NodeId parentId) {
+        states.put(id, new NodeState(id, NameConstants.NT_UNSTRUCTURED,
+                parentId, ItemState.STATUS_EXISTING, false));
+    }
+
+    protected static Document createDocumentV4(NodeId id) {
+        Document doc = new Document();
+        doc.add(new Field(FieldNames.UUID, false, id.toString(),
+                Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS,
+                Field.TermVector.NO));
+        doc.add(new Field(FieldNames.INDEX_FORMAT_VERSION, false,
+                IndexFormatVersion.V4.toString(), Field.Store.NO,
+                Field.Index.NOT_ANALYZED_NO_NORMS, Field.TermVector.NO));
+        return doc;
+    }
+
+    protected static Document createDocumentV3(String name,
+                                               String value,
+                                               int type) {
+        Document doc = new Document();
+        doc.add(new Field(FieldNames.UUID, false, UUID.randomUUID().toString(),
+                Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS,
+                Field.TermVector.NO));
+        doc.add(new Field(FieldNames.LOCAL_NAME, false, "node",
+                Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS,
+                Field.TermVector.NO));
+        doc.add(new Field(FieldNames.PROPERTIES, new SingletonTokenStream(
+                FieldNames.createNamedValue(name, value), type)));
+        return doc;
+    }
+
     protected static String createNamedValue14(String name, String value) {
         return name + SEP_CHAR + value;
     }
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Iterator;
+
+import javax.jcr.Node;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.query.AbstractIndexingTest;
+import org.apache.jackrabbit.core.query.lucene.directory.RAMDirectoryManager;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.search.Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+
+/**
+ * <code>IndexSnapshotTest</code> checks that a snapshot of the search index
+ * contains the current index infos and the documents of all saved nodes.
+ */
+public class IndexSnapshotTest extends AbstractIndexingTest {
+
+    private static final File DIR = new File("target", "indexsnapshot");
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        FileUtils.deleteQuietly(DIR);
+    }
+
+    protected void tearDown() throws Exception {
+        FileUtils.deleteQuietly(DIR);
+        super.tearDown();
+    }
+
+    public void testSnapshot() throws Exception {
+        Node n1 = testRootNode.addNode("node1");
+        n1.addMixin(mixReferenceable);
+        Node n2 = testRootNode.addNode("node2");
+        n2.addMixin(mixReferenceable);
+        session.save();
+        // remains in the volatile index until the snapshot flushes it
+        Node n3 = testRootNode.addNode("node3");
+        n3.addMixin(mixReferenceable);
+        session.save();
+
+        getSearchIndex().createSnapshot(DIR);
+
+        Directory dir = FSDirectory.open(DIR);
+        try {
+            IndexInfos infos = new IndexInfos(dir, "indexes");
+            assertTrue(infos.size() > 0);
+            assertEquals(1, countDocs(infos, n1.getIdentifier()));
+            assertEquals(1, countDocs(infos, n2.getIdentifier()));
+            assertEquals(1, countDocs(infos, n3.getIdentifier()));
+        } finally {
+            dir.close();
+        }
+    }
+
+    public void testPinnedCommit() throws Exception {
+        PersistentIndex index = new PersistentIndex("index",
+                new StandardAnalyzer(Version.LUCENE_36), Similarity.getDefault(),
+                new IndexingQueue(new IndexingQueueStore(new RAMDirectory())),
+                new RAMDirectoryManager(), 0);
+        try {
+            index.addDocuments(new Document[]{createDocument("uuid0")});
+            index.commit();
+            String commit = index.pinCommit();
+            Collection<String> files = index.getCommitFiles(commit);
+            assertTrue(files.contains(commit));
+
+            // a later commit keeps the files of the pinned commit
+            index.addDocuments(new Document[]{createDocument("uuid1")});
+            index.commit();
+            for (String file : files) {
+                assertTrue(file, index.getDirectory().fileExists(file));
+            }
+
+            // and deletes them with the next commit after the release
+            index.releaseCommit(commit);
+            // commits are only deleted once they are older than the max age
+            Thread.sleep(10);
+            index.addDocuments(new Document[]{createDocument("uuid2")});
+            index.commit();
+            assertFalse(index.getDirectory().fileExists(commit));
+        } finally {
+            index.close();
+        }
+    }
+
+    private static Document createDocument(String uuid) {
+        Document doc = new Document();
+        doc.add(new Field(FieldNames.UUID, uuid,
+                Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+        return doc;
+    }
+
+    private static int countDocs(IndexInfos infos, String uuid)
+            throws Exception {
+        int count = 0;
+        for (Iterator<IndexInfo> it = infos.iterator(); it.hasNext(); ) {
+            Directory segment = FSDirectory.open(
+                    new File(DIR, it.next().getName()));
+            IndexReader reader = IndexReader.open(segment);
+            try {
+                TermDocs tDocs = reader.termDocs(new Term(FieldNames.UUID, uuid));
+                try {
+                    while (tDocs.next()) {
+                        count++;
+                    }
+                } finally {
+                    tDocs.close();
+                }
+            } finally {
+                reader.close();
+                segment.close();
+            }
+        }
+        return count;
+    }
+}
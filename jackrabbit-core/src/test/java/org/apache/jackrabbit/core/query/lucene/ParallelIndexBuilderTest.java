@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.jcr.Node;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.persistence.IterablePersistenceManager;
+import org.apache.jackrabbit.core.query.AbstractIndexingTest;
+import org.apache.jackrabbit.core.query.QueryHandlerContext;
+import org.apache.jackrabbit.core.query.lucene.directory.RAMDirectoryManager;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.TermDocs;
+
+/**
+ * <code>ParallelIndexBuilderTest</code> checks the creation of an initial
+ * workspace index with multiple threads.
+ */
+public class ParallelIndexBuilderTest extends AbstractIndexingTest {
+
+    private static final File INDEX_DIR = new File("target", "parallel-index");
+
+    private List<Node> nodes = new ArrayList<Node>();
+
+    private SearchIndex index;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        for (int i = 0; i < 20; i++) {
+            Node n = testRootNode.addNode("node" + i);
+            nodes.add(n);
+            nodes.add(n.addNode("child"));
+        }
+        session.save();
+        FileUtils.deleteQuietly(INDEX_DIR);
+        index = new SearchIndex();
+        index.setPath(INDEX_DIR.getPath());
+        index.setDirectoryManagerClass(RAMDirectoryManager.class.getName());
+        index.setInitialIndexThreads(3);
+        index.setInitialIndexBatchSize(4);
+        index.init(null, getSearchIndex().getContext());
+    }
+
+    protected void tearDown() throws Exception {
+        if (index != null) {
+            index.close();
+            index = null;
+        }
+        FileUtils.deleteQuietly(INDEX_DIR);
+        nodes.clear();
+        super.tearDown();
+    }
+
+    public void testInitialIndex() throws Exception {
+        assertFalse(ParallelIndexBuilder.hasCheckpoint(
+                index.getIndex().getDirectory()));
+        CachingMultiIndexReader reader = index.getIndex().getIndexReader();
+        try {
+            assertEquals(1, getDocCount(reader, testRootNode.getIdentifier()));
+            for (Node n : nodes) {
+                assertEquals(1, getDocCount(reader, n.getIdentifier()));
+            }
+            // jcr:system is in the system index
+            assertEquals(0, getDocCount(reader,
+                    session.getRootNode().getNode("jcr:system").getIdentifier()));
+        } finally {
+            reader.release();
+        }
+    }
+
+    public void testResume() throws Exception {
+        MultiIndex multiIndex = index.getIndex();
+        QueryHandlerContext context = index.getContext();
+        ParallelIndexBuilder builder = createBuilder(multiIndex, context);
+        List<PersistentIndex> segments = builder.build();
+        assertTrue(ParallelIndexBuilder.hasCheckpoint(multiIndex.getDirectory()));
+        assertTrue(builder.getNodeCount() >= nodes.size());
+
+        // an interrupted build continues with the same segments
+        ParallelIndexBuilder resumed = createBuilder(multiIndex, context);
+        List<String> names = new ArrayList<String>();
+        for (PersistentIndex segment : segments) {
+            names.add(segment.getName());
+        }
+        List<String> resumedNames = new ArrayList<String>();
+        for (PersistentIndex segment : resumed.build()) {
+            resumedNames.add(segment.getName());
+        }
+        assertEquals(names, resumedNames);
+        assertTrue(resumed.getNodeCount() >= builder.getNodeCount());
+        resumed.deleteCheckpoint();
+        assertFalse(ParallelIndexBuilder.hasCheckpoint(multiIndex.getDirectory()));
+    }
+
+    private ParallelIndexBuilder createBuilder(MultiIndex multiIndex,
+                                               QueryHandlerContext context) {
+        return new ParallelIndexBuilder(multiIndex,
+                (IterablePersistenceManager) context.getPersistenceManager(),
+                context.getItemStateManager(), context.getRootId(),
+                Collections.singleton(context.getExcludedNodeId()),
+                2, 5);
+    }
+
+    private static int getDocCount(IndexReader reader, String uuid)
+            throws IOException {
+        int count = 0;
+        TermDocs tDocs = reader.termDocs(TermFactory.createUUIDTerm(uuid));
+        try {
+            while (tDocs.next()) {
+                count++;
+            }
+        } finally {
+            tDocs.close();
+        }
+        return count;
+    }
+}
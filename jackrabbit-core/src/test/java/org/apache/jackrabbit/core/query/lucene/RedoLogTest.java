@@ -0,0 +1,247 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jcr.Node;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.query.AbstractIndexingTest;
+import org.apache.jackrabbit.core.query.lucene.directory.DirectoryManager;
+import org.apache.jackrabbit.core.query.lucene.directory.FSDirectoryManager;
+import org.apache.jackrabbit.core.query.lucene.directory.RAMDirectoryManager;
+import org.apache.jackrabbit.core.state.NodeState;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.TermDocs;
+
+/**
+ * <code>RedoLogTest</code> checks the group commit of the redo log, the
+ * recovery from a redo log that is synced to disk and a synced redo log in
+ * a directory that is not stored in the file system.
+ */
+public class RedoLogTest extends AbstractIndexingTest {
+
+    private static final File INDEX_DIR = new File("target", "redo-log-index");
+
+    private static final File COPY_DIR = new File("target", "redo-log-copy");
+
+    private static final int THREADS = 8;
+
+    private SearchIndex index;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        FileUtils.deleteQuietly(INDEX_DIR);
+        FileUtils.deleteQuietly(COPY_DIR);
+        CountingRedoLogFactory.FLUSHES.set(0);
+        CountingRedoLogFactory.flushDelay = 0;
+        index = createIndex(INDEX_DIR);
+    }
+
+    protected void tearDown() throws Exception {
+        if (index != null) {
+            index.close();
+            index = null;
+        }
+        FileUtils.deleteQuietly(INDEX_DIR);
+        FileUtils.deleteQuietly(COPY_DIR);
+        super.tearDown();
+    }
+
+    public void testGroupCommit() throws Exception {
+        final List<NodeState> states = createNodes(THREADS);
+        CountingRedoLogFactory.FLUSHES.set(0);
+        CountingRedoLogFactory.flushDelay = 200;
+
+        final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        final List<Exception> exceptions =
+            Collections.synchronizedList(new ArrayList<Exception>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < THREADS; i++) {
+            final NodeState state = states.get(i);
+            Thread t = new Thread() {
+                public void run() {
+                    try {
+                        barrier.await();
+                        index.updateNodes(
+                                Collections.<NodeId>emptyList().iterator(),
+                                Collections.singletonList(state).iterator());
+                    } catch (Exception e) {
+                        exceptions.add(e);
+                    }
+                }
+            };
+            t.start();
+            threads.add(t);
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(Collections.emptyList(), exceptions);
+
+        // concurrent updates share a flush
+        int flushes = CountingRedoLogFactory.FLUSHES.get();
+        assertTrue("expected less than " + THREADS + " flushes, got " + flushes,
+                flushes > 0 && flushes < THREADS);
+        assertIndexed(index, states);
+    }
+
+    public void testRecovery() throws Exception {
+        List<NodeState> states = createNodes(3);
+        for (NodeState state : states) {
+            index.updateNodes(Collections.<NodeId>emptyList().iterator(),
+                    Collections.singletonList(state).iterator());
+        }
+        long length = 0;
+        for (File f : INDEX_DIR.listFiles()) {
+            if (f.getName().startsWith(DefaultRedoLog.REDO_LOG_PREFIX)
+                    || f.getName().equals(DefaultRedoLog.REDO_LOG)) {
+                length += f.length();
+            }
+        }
+        assertTrue("redo log not written", length > 0);
+
+        // simulate a crash: copy the index while it is still open, the
+        // changes are only in the volatile index and the redo log
+        FileUtils.copyDirectory(INDEX_DIR, COPY_DIR);
+        SearchIndex recovered = createIndex(COPY_DIR);
+        try {
+            assertIndexed(recovered, states);
+        } finally {
+            recovered.close();
+        }
+    }
+
+    public void testRAMDirectory() throws Exception {
+        List<NodeState> states = createNodes(3);
+        SearchIndex ramIndex = createIndex(COPY_DIR, RAMDirectoryManager.class);
+        try {
+            ramIndex.updateNodes(Collections.<NodeId>emptyList().iterator(),
+                    states.iterator());
+            assertIndexed(ramIndex, states);
+        } finally {
+            ramIndex.close();
+        }
+    }
+
+    private SearchIndex createIndex(File dir) throws Exception {
+        return createIndex(dir, FSDirectoryManager.class);
+    }
+
+    private SearchIndex createIndex(File dir, Class<? extends DirectoryManager> dirMgr)
+            throws Exception {
+        SearchIndex index = new SearchIndex();
+        index.setPath(dir.getPath());
+        index.setDirectoryManagerClass(dirMgr.getName());
+        index.setSyncRedoLog(true);
+        index.setRedoLogFactoryClass(CountingRedoLogFactory.class.getName());
+        index.init(null, getSearchIndex().getContext());
+        return index;
+    }
+
+    /**
+     * Creates nodes that are not yet in the test index.
+     */
+    private List<NodeState> createNodes(int count) throws Exception {
+        List<Node> nodes = new ArrayList<Node>();
+        for (int i = 0; i < count; i++) {
+            nodes.add(testRootNode.addNode("node" + i));
+        }
+        session.save();
+        List<NodeState> states = new ArrayList<NodeState>();
+        for (Node n : nodes) {
+            states.add((NodeState) index.getContext().getItemStateManager()
+                    .getItemState(new NodeId(n.getIdentifier())));
+        }
+        return states;
+    }
+
+    private static void assertIndexed(SearchIndex index, List<NodeState> states)
+            throws IOException {
+        CachingMultiIndexReader reader = index.getIndex().getIndexReader();
+        try {
+            for (NodeState state : states) {
+                assertEquals(1, getDocCount(reader, state.getNodeId().toString()));
+            }
+        } finally {
+            reader.release();
+        }
+    }
+
+    private static int getDocCount(IndexReader reader, String uuid)
+            throws IOException {
+        int count = 0;
+        TermDocs tDocs = reader.termDocs(TermFactory.createUUIDTerm(uuid));
+        try {
+            while (tDocs.next()) {
+                count++;
+            }
+        } finally {
+            tDocs.close();
+        }
+        return count;
+    }
+
+    /**
+     * Creates default redo logs that count their flushes and delay them, so
+     * that concurrent updates pile up.
+     */
+    public static class CountingRedoLogFactory extends DefaultRedoLogFactory {
+
+        static final AtomicInteger FLUSHES = new AtomicInteger();
+
+        static volatile long flushDelay;
+
+        public RedoLog createRedoLog(MultiIndex index) throws IOException {
+            final RedoLog log = super.createRedoLog(index);
+            return new RedoLog() {
+                public boolean hasEntries() {
+                    return log.hasEntries();
+                }
+                public int getSize() {
+                    return log.getSize();
+                }
+                public List<MultiIndex.Action> getActions() throws IOException {
+                    return log.getActions();
+                }
+                public void append(MultiIndex.Action action) throws IOException {
+                    log.append(action);
+                }
+                public void flush() throws IOException {
+                    FLUSHES.incrementAndGet();
+                    try {
+                        Thread.sleep(flushDelay);
+                    } catch (InterruptedException e) {
+                        throw new IOException("interrupted");
+                    }
+                    log.flush();
+                }
+                public void close() throws IOException {
+                    log.close();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.Calendar;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.core.query.AbstractIndexingTest;
+
+/**
+ * <code>SortColumnTest</code> checks that ordering on the sort columns of the
+ * index segments returns the same result as ordering on the
+ * {@link SharedFieldCache}.
+ */
+public class SortColumnTest extends AbstractIndexingTest {
+
+    private Node n1;
+
+    private Node n2;
+
+    private Node n3;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        n1 = testRootNode.addNode("node1");
+        n2 = testRootNode.addNode("node2");
+        n3 = testRootNode.addNode("node3");
+        n1.setProperty("long", 3);
+        n2.setProperty("long", -1);
+        n3.setProperty("long", 10);
+        n1.setProperty("double", 1.5);
+        n2.setProperty("double", 0.5);
+        n3.setProperty("double", -2.0);
+        n1.setProperty("string", "b");
+        n2.setProperty("string", "c");
+        n3.setProperty("string", "a");
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(1000000L);
+        n1.setProperty("date", cal);
+        cal.setTimeInMillis(3000000L);
+        n2.setProperty("date", cal);
+        cal.setTimeInMillis(2000000L);
+        n3.setProperty("date", cal);
+        // n3 does not have a value
+        n1.setProperty("multi", new String[]{"z", "a"});
+        n2.setProperty("multi", new String[]{"b"});
+        session.save();
+    }
+
+    protected void tearDown() throws Exception {
+        n1 = null;
+        n2 = null;
+        n3 = null;
+        super.tearDown();
+    }
+
+    public void testLong() throws RepositoryException {
+        checkOrder("long", new Node[]{n2, n1, n3});
+    }
+
+    public void testDouble() throws RepositoryException {
+        checkOrder("double", new Node[]{n3, n2, n1});
+    }
+
+    public void testString() throws RepositoryException {
+        checkOrder("string", new Node[]{n3, n1, n2});
+    }
+
+    public void testStringRepeatedValues() throws RepositoryException {
+        Node n4 = testRootNode.addNode("node4");
+        Node n5 = testRootNode.addNode("node5");
+        n4.setProperty("string", "b");
+        n5.setProperty("string", "a");
+        session.save();
+        // decoded values are reused by the second query
+        for (int i = 0; i < 2; i++) {
+            String xpath = testPath + "/* order by @string, @long";
+            checkResultSequence(executeQuery(xpath).getRows(),
+                    new Node[]{n5, n3, n4, n1, n2});
+        }
+    }
+
+    public void testDate() throws RepositoryException {
+        checkOrder("date", new Node[]{n1, n3, n2});
+    }
+
+    public void testMixedTypes() throws RepositoryException {
+        n1.setProperty("mixed", 10);
+        n2.setProperty("mixed", "a");
+        n3.setProperty("mixed", 3);
+        session.save();
+        // values of differing types are ordered by class name
+        checkOrder("mixed", new Node[]{n3, n1, n2});
+    }
+
+    public void testMultiValued() throws RepositoryException {
+        checkOrder("multi", new Node[]{n3, n2, n1});
+    }
+
+    public void testColumnPersisted() throws RepositoryException {
+        checkOrder("long", new Node[]{n2, n1, n3});
+        File[] segments = new File(getSearchIndex().getPath()).listFiles(
+                new FileFilter() {
+                    public boolean accept(File f) {
+                        return f.isDirectory() && f.getName().startsWith("_");
+                    }
+                });
+        assertNotNull(segments);
+        boolean found = false;
+        for (File segment : segments) {
+            String[] names = segment.list();
+            for (int i = 0; names != null && i < names.length; i++) {
+                found |= names[i].startsWith(SortColumn.FILE_PREFIX);
+            }
+        }
+        assertTrue("no sort column persisted", found);
+    }
+
+    private void checkOrder(String property, Node[] expected)
+            throws RepositoryException {
+        String xpath = testPath + "/* order by @" + property;
+        checkResultSequence(executeQuery(xpath).getRows(), expected);
+        Node[] reversed = new Node[expected.length];
+        for (int i = 0; i < expected.length; i++) {
+            reversed[i] = expected[expected.length - 1 - i];
+        }
+        xpath = testPath + "/* order by @" + property + " descending";
+        checkResultSequence(executeQuery(xpath).getRows(), reversed);
+    }
+}
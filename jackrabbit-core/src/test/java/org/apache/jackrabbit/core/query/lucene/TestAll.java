@@ -53,6 +53,17 @@ public class TestAll extends TestCase {
         suite.addTestSuite(ArrayHitsTest.class);
         suite.addTestSuite(IndexFormatVersionTest.class);
         suite.addTestSuite(SynonymProviderTest.class);
+        suite.addTestSuite(SortColumnTest.class);
+        suite.addTestSuite(TrieRangeQueryTest.class);
+        suite.addTestSuite(ParallelIndexBuilderTest.class);
+        suite.addTestSuite(ExtractedTextCacheTest.class);
+        suite.addTestSuite(AncestorTermsTest.class);
+        suite.addTestSuite(AsyncIndexingTest.class);
+        suite.addTestSuite(IncrementalSpellCheckerTest.class);
+        suite.addTestSuite(IndexSnapshotTest.class);
+        suite.addTestSuite(TieredMergeTest.class);
+        suite.addTestSuite(DocNumberTableTest.class);
+        suite.addTestSuite(RedoLogTest.class);
 
         return suite;
     }
@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.jackrabbit.core.query.lucene.directory.RAMDirectoryManager;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+
+/**
+ * <code>TieredMergeTest</code> checks the selection of tiered merges, the
+ * index statistics they are based on and the rate limit for merges.
+ */
+public class TieredMergeTest extends TestCase {
+
+    private static final long MB = 1024 * 1024;
+
+    public void testNoMerge() {
+        TieredMergeSelector selector = new TieredMergeSelector(10, 10, Integer.MAX_VALUE);
+        List<TieredMergeSelector.Segment> segments = createSegments(9, MB, 100);
+        assertNull(selector.select(segments));
+    }
+
+    public void testMergeSmallSegments() {
+        TieredMergeSelector selector = new TieredMergeSelector(10, 10, Integer.MAX_VALUE);
+        List<TieredMergeSelector.Segment> segments = createSegments(5, 20 * MB, 2000);
+        segments.addAll(createSegments(15, MB, 100));
+        List<TieredMergeSelector.Segment> merge = selector.select(segments);
+        assertNotNull(merge);
+        assertEquals(10, merge.size());
+        for (TieredMergeSelector.Segment s : merge) {
+            assertEquals(MB, s.sizeInBytes);
+        }
+    }
+
+    public void testMaxMergeDocs() {
+        TieredMergeSelector selector = new TieredMergeSelector(10, 10, 1000);
+        List<TieredMergeSelector.Segment> segments = createSegments(20, MB, 300);
+        List<TieredMergeSelector.Segment> merge = selector.select(segments);
+        assertNotNull(merge);
+        assertEquals(3, merge.size());
+    }
+
+    public void testReclaimDeletes() {
+        TieredMergeSelector selector = new TieredMergeSelector(10, 10, Integer.MAX_VALUE);
+        List<TieredMergeSelector.Segment> segments = createSegments(3, MB, 100);
+        segments.add(new TieredMergeSelector.Segment("deleted", 10 * MB, 400, 600));
+        List<TieredMergeSelector.Segment> merge = selector.select(segments);
+        assertNotNull(merge);
+        assertEquals(1, merge.size());
+        assertEquals("deleted", merge.get(0).name);
+    }
+
+    public void testPreferDeletes() {
+        TieredMergeSelector selector = new TieredMergeSelector(2, 2, Integer.MAX_VALUE);
+        List<TieredMergeSelector.Segment> segments = new ArrayList<TieredMergeSelector.Segment>();
+        segments.add(new TieredMergeSelector.Segment("a", 10 * MB, 1000, 0));
+        segments.add(new TieredMergeSelector.Segment("b", 10 * MB, 1000, 0));
+        segments.add(new TieredMergeSelector.Segment("c", 20 * MB, 1000, 1000));
+        segments.add(new TieredMergeSelector.Segment("d", 20 * MB, 1000, 1000));
+        List<TieredMergeSelector.Segment> merge = selector.select(segments);
+        assertNotNull(merge);
+        assertEquals(2, merge.size());
+        for (TieredMergeSelector.Segment s : merge) {
+            assertTrue(s.name.equals("c") || s.name.equals("d"));
+        }
+    }
+
+    public void testRateLimit() throws Exception {
+        IORateLimiter limiter = new IORateLimiter(4);
+        Directory dir = new RateLimitedDirectory(new RAMDirectory(), limiter);
+        byte[] data = new byte[64 * 1024];
+        long time = System.currentTimeMillis();
+        IndexOutput out = dir.createOutput("test");
+        try {
+            // 1 MB at 4 MB/s
+            for (int i = 0; i < 16; i++) {
+                out.writeBytes(data, data.length);
+            }
+        } finally {
+            out.close();
+        }
+        time = System.currentTimeMillis() - time;
+        assertTrue("write took only " + time + " ms", time >= 200);
+        assertEquals(MB, dir.fileLength("test"));
+    }
+
+    public void testSegmentStatistics() throws Exception {
+        PersistentIndex index = new PersistentIndex("index",
+                new StandardAnalyzer(Version.LUCENE_36), Similarity.getDefault(),
+                new IndexingQueue(new IndexingQueueStore(new RAMDirectory())),
+                new RAMDirectoryManager(), 0);
+        try {
+            Document[] docs = new Document[3];
+            for (int i = 0; i < docs.length; i++) {
+                docs[i] = new Document();
+                docs[i].add(new Field(FieldNames.UUID, "uuid" + i,
+                        Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+            }
+            index.addDocuments(docs);
+            index.commit();
+            index.removeDocument(new Term(FieldNames.UUID, "uuid0"));
+            index.commit();
+
+            PersistentIndex.SegmentStatistics stats = index.getSegmentStatistics();
+            assertEquals(2, stats.getNumDocuments());
+            assertEquals(1, stats.getNumDeletedDocuments());
+            long size = stats.getSizeInBytes();
+            assertTrue(size > 0);
+
+            // files other than Lucene files are not counted
+            IndexOutput out = index.getDirectory().createOutput(DocNumberTable.FILE_NAME);
+            try {
+                out.writeBytes(new byte[1024], 1024);
+            } finally {
+                out.close();
+            }
+            assertEquals(size, index.getSizeInBytes());
+            assertSame(stats, index.getSegmentStatistics());
+        } finally {
+            index.close();
+        }
+    }
+
+    private static List<TieredMergeSelector.Segment> createSegments(
+            int count, long size, int numDocs) {
+        List<TieredMergeSelector.Segment> segments = new ArrayList<TieredMergeSelector.Segment>();
+        for (int i = 0; i < count; i++) {
+            segments.add(new TieredMergeSelector.Segment(
+                    "_" + size + "_" + i, size, numDocs, 0));
+        }
+        return segments;
+    }
+}
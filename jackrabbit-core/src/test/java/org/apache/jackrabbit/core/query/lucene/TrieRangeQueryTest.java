@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.util.Calendar;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.core.query.AbstractIndexingTest;
+import org.apache.jackrabbit.util.ISO8601;
+
+/**
+ * <code>TrieRangeQueryTest</code> checks range constraints on long, double
+ * and date properties, which are executed on the trie encoded values.
+ */
+public class TrieRangeQueryTest extends AbstractIndexingTest {
+
+    private Node n1;
+
+    private Node n2;
+
+    private Node n3;
+
+    private Calendar date;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        n1 = testRootNode.addNode("node1");
+        n2 = testRootNode.addNode("node2");
+        n3 = testRootNode.addNode("node3");
+        n1.setProperty("long", -300);
+        n2.setProperty("long", 0);
+        n3.setProperty("long", 70000);
+        n1.setProperty("double", -1.5);
+        n2.setProperty("double", 0.25);
+        n3.setProperty("double", 1e10);
+        date = Calendar.getInstance();
+        date.setTimeInMillis(1000000000000L);
+        n1.setProperty("date", date);
+        date.setTimeInMillis(1000000001000L);
+        n2.setProperty("date", date);
+        date.setTimeInMillis(1200000000000L);
+        n3.setProperty("date", date);
+        // not a long value
+        n3.setProperty("string", "5");
+        session.save();
+    }
+
+    protected void tearDown() throws Exception {
+        n1 = null;
+        n2 = null;
+        n3 = null;
+        date = null;
+        super.tearDown();
+    }
+
+    public void testIndexFormatVersion() {
+        assertTrue(getSearchIndex().getIndexFormatVersion().isAtLeast(
+                IndexFormatVersion.V4));
+    }
+
+    public void testLong() throws RepositoryException {
+        check("@long > -300", new Node[]{n2, n3});
+        check("@long >= -300", new Node[]{n1, n2, n3});
+        check("@long < 0", new Node[]{n1});
+        check("@long <= 0", new Node[]{n1, n2});
+        check("@long > 70000", new Node[]{});
+        check("@long > -1 and @long < 70001", new Node[]{n2, n3});
+    }
+
+    public void testDouble() throws RepositoryException {
+        check("@double > -1.5", new Node[]{n2, n3});
+        check("@double >= -1.5", new Node[]{n1, n2, n3});
+        check("@double < 0.25", new Node[]{n1});
+        check("@double <= 1.0E10", new Node[]{n1, n2, n3});
+        check("@double > 0.0 and @double < 2.0", new Node[]{n2});
+    }
+
+    public void testDate() throws RepositoryException {
+        date.setTimeInMillis(1000000001000L);
+        String literal = "xs:dateTime('" + ISO8601.format(date) + "')";
+        check("@date > " + literal, new Node[]{n3});
+        check("@date >= " + literal, new Node[]{n2, n3});
+        check("@date < " + literal, new Node[]{n1});
+        check("@date <= " + literal, new Node[]{n1, n2});
+    }
+
+    public void testValueComparison() throws RepositoryException {
+        check("@long gt -300", new Node[]{n2, n3});
+        check("@double le 0.25", new Node[]{n1, n2});
+    }
+
+    public void testTypeMismatch() throws RepositoryException {
+        check("@string > 1", new Node[]{});
+    }
+
+    private void check(String constraint, Node[] expected)
+            throws RepositoryException {
+        executeXPathQuery(testPath + "/*[" + constraint + "]", expected);
+    }
+}
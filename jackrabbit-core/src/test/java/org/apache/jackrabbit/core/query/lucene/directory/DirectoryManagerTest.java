@@ -20,9 +20,12 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.io.File;
+import java.io.IOException;
 
 import org.apache.jackrabbit.core.query.lucene.SearchIndex;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
 
 import junit.framework.TestCase;
 
@@ -33,7 +36,8 @@ import junit.framework.TestCase;
 public class DirectoryManagerTest extends TestCase {
 
     private static final Collection IMPLEMENTATIONS = Arrays.asList(
-            new Class[]{FSDirectoryManager.class, RAMDirectoryManager.class});
+            new Class[]{FSDirectoryManager.class, RAMDirectoryManager.class,
+                    MMapDirectoryManager.class});
 
     private static final SearchIndex INDEX = new SearchIndex();
 
@@ -90,6 +94,55 @@ public class DirectoryManagerTest extends TestCase {
         });
     }
 
+    public void testMMapDeleteWithOpenInput() throws Exception {
+        DirectoryManager dirMgr = new MMapDirectoryManager();
+        dirMgr.init(INDEX);
+        try {
+            Directory dir = dirMgr.getDirectory(TEST);
+            writeFile(dir, "_0.tis");
+            IndexInput in = dir.openInput("_0.tis");
+            IndexInput clone = (IndexInput) in.clone();
+            assertEquals(42, clone.readInt());
+            clone.close();
+            assertFalse("must not delete mapped files", dirMgr.delete(TEST));
+            in.close();
+            dir.close();
+            assertTrue(dirMgr.delete(TEST));
+            assertFalse(dirMgr.hasDirectory(TEST));
+        } finally {
+            dirMgr.dispose();
+        }
+    }
+
+    public void testMMapTermsAndPostingsOnly() throws Exception {
+        SearchIndex index = new SearchIndex();
+        index.setPath(INDEX.getPath());
+        index.setMmapTermsAndPostingsOnly(true);
+        DirectoryManager dirMgr = new MMapDirectoryManager();
+        dirMgr.init(index);
+        try {
+            Directory dir = dirMgr.getDirectory(TEST);
+            writeFile(dir, "_0.fdt");
+            IndexInput in = dir.openInput("_0.fdt");
+            assertEquals(42, in.readInt());
+            // stored fields are not mapped
+            assertTrue(dirMgr.delete(TEST));
+            in.close();
+            dir.close();
+        } finally {
+            dirMgr.dispose();
+        }
+    }
+
+    private static void writeFile(Directory dir, String name) throws IOException {
+        IndexOutput out = dir.createOutput(name);
+        try {
+            out.writeInt(42);
+        } finally {
+            out.close();
+        }
+    }
+
     private void execute(Callable callable) throws Exception {
         for (Iterator it = IMPLEMENTATIONS.iterator(); it.hasNext(); ) {
             Class clazz = (Class) it.next();
@@ -59,11 +59,22 @@ public class QueryStatDtoImpl implements QueryStatDto {
      */
     private int occurrenceCount = 1;
 
+    /**
+     * execution plan, or <code>null</code> if not recorded
+     */
+    private final String plan;
+
     public QueryStatDtoImpl(final String language, final String statement,
             long durationMs) {
+        this(language, statement, durationMs, null);
+    }
+
+    public QueryStatDtoImpl(final String language, final String statement,
+            long durationMs, String plan) {
         this.durationMs = durationMs;
         this.language = language;
         this.statement = statement;
+        this.plan = plan;
 
         Calendar c = Calendar.getInstance();
         c.setTimeInMillis(System.currentTimeMillis() - durationMs);
@@ -101,6 +112,14 @@ public class QueryStatDtoImpl implements QueryStatDto {
                 + language + ", statement=" + statement + "]";
     }
 
+    /**
+     * @return the execution plan with per-phase timings, or
+     *         <code>null</code> if the plan was not recorded
+     */
+    public String getPlan() {
+        return plan;
+    }
+
     public int getOccurrenceCount() {
         return occurrenceCount;
     }
@@ -112,11 +112,30 @@ public class QueryStatImpl implements QueryStatCore {
 
     public void logQuery(final String language, final String statement,
             long durationMs) {
+        logQuery(language, statement, durationMs, null);
+    }
+
+    /**
+     * Logs the call of a query together with its execution plan. The plan
+     * is kept with the slow queries and reported through JMX.
+     * 
+     * @param language
+     *            the query language
+     * @param statement
+     *            the query
+     * @param durationMs
+     *            time in ms
+     * @param plan
+     *            the execution plan with per-phase timings, may be
+     *            <code>null</code>
+     */
+    public void logQuery(final String language, final String statement,
+            long durationMs, String plan) {
         if (!enabled) {
             return;
         }
         final QueryStatDtoImpl qs = new QueryStatDtoImpl(language, statement,
-                durationMs);
+                durationMs, plan);
         slowQueries.offer(qs);
 
         synchronized (popularQueries) {
@@ -53,6 +53,12 @@ public class RepositoryStatisticsImpl implements
                 Type.QUERY_AVERAGE);
         createAvg(Type.OBSERVATION_EVENT_COUNTER, Type.OBSERVATION_EVENT_DURATION,
                 Type.OBSERVATION_EVENT_AVERAGE);
+        createAvg(Type.CLUSTER_RECORD_COUNTER, Type.CLUSTER_RECORD_DURATION,
+                Type.CLUSTER_RECORD_AVERAGE);
+        createAvg(Type.CLUSTER_SYNC_COUNTER, Type.CLUSTER_SYNC_DURATION,
+                Type.CLUSTER_SYNC_AVERAGE);
+        createAvg(Type.CLUSTER_LOCK_WAIT_COUNTER, Type.CLUSTER_LOCK_WAIT_DURATION,
+                Type.CLUSTER_LOCK_WAIT_AVERAGE);
     }
 
     private void createAvg(Type count, Type duration, Type avgTs) {
@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.performance;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.core.RepositoryImpl;
+import org.apache.jackrabbit.core.cluster.ClusterNode;
+import org.apache.jackrabbit.core.config.RepositoryConfig;
+
+/**
+ * A clustered repository that gives access to its cluster node.
+ */
+public class ClusterNodeRepository extends RepositoryImpl {
+
+    /**
+     * The cluster node. Set by {@link #createClusterNode()} while the
+     * repository is started in the constructor of the super class, so this
+     * field must not have an initializer.
+     */
+    private ClusterNode clusterNode;
+
+    public ClusterNodeRepository(RepositoryConfig config)
+            throws RepositoryException {
+        super(config);
+    }
+
+    @Override
+    protected ClusterNode createClusterNode() throws RepositoryException {
+        clusterNode = super.createClusterNode();
+        return clusterNode;
+    }
+
+    public ClusterNode getClusterNode() {
+        return clusterNode;
+    }
+
+}
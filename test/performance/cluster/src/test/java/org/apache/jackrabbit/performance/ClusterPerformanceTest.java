@@ -0,0 +1,414 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.performance;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+import javax.jcr.Credentials;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.FileWriterWithEncoding;
+import org.apache.commons.math.stat.descriptive.DescriptiveStatistics;
+import org.apache.jackrabbit.core.cluster.ClusterStatistics;
+import org.apache.jackrabbit.core.config.RepositoryConfig;
+import org.testng.annotations.Test;
+import org.xml.sax.InputSource;
+
+/**
+ * Runs the performance tests against clusters of several repositories in
+ * one JVM, that share either a memory journal or a database journal in an
+ * embedded Derby database. Use the following system properties to
+ * configure the clusters:
+ * <ul>
+ * <li><code>journal</code>: regexp that selects the journals,
+ *     <code>memory</code> or <code>database</code>
+ * <li><code>nodes</code>: comma separated numbers of cluster nodes,
+ *     default <code>1,2,4</code>
+ * <li><code>journalDelay</code>: milliseconds to wait when reading or
+ *     appending journal records, default <code>0</code>
+ * <li><code>pmDelay</code>: milliseconds to wait when loading or storing
+ *     bundles, default <code>0</code>
+ * <li><code>syncDelay</code>: sync delay of the cluster nodes in
+ *     milliseconds, default <code>5000</code>
+ * <li><code>writeInterval</code>: milliseconds between the saves of the
+ *     background writer on each additional cluster node, <code>0</code>
+ *     disables the writers, default <code>10</code>
+ * </ul>
+ * The sessions of a test are distributed among the cluster nodes. Besides
+ * the execution times, the reports contain the throughput of the test and
+ * the journal, the replication lag and the waits for the journal lock.
+ */
+public class ClusterPerformanceTest {
+
+    private final int warmup = 10;
+
+    private final int runtime = 50;
+
+    private final Credentials credentials =
+        new SimpleCredentials("admin", "admin".toCharArray());
+
+    private final long journalDelay = Long.getLong("journalDelay", 0);
+
+    private final long pmDelay = Long.getLong("pmDelay", 0);
+
+    private final long syncDelay = Long.getLong("syncDelay", 5000);
+
+    private final long writeInterval = Long.getLong("writeInterval", 10);
+
+    private Pattern testPattern;
+
+    @Test
+    public void testPerformance() throws Exception {
+        testPattern = Pattern.compile(System.getProperty("only", ".*"));
+        Pattern journalPattern =
+            Pattern.compile(System.getProperty("journal", ".*"));
+
+        for (String journal : new String[] { "memory", "database" }) {
+            if (journalPattern.matcher(journal).matches()) {
+                for (String nodes
+                        : System.getProperty("nodes", "1,2,4").split(",")) {
+                    testPerformance(journal, Integer.parseInt(nodes.trim()));
+                }
+            }
+        }
+    }
+
+    protected void testPerformance(String journal, int nodes) {
+        String name = journal + "-" + nodes;
+        runTest(new LoginTest(), name, journal, nodes);
+        runTest(new ReadPropertyTest(), name, journal, nodes);
+        runTest(new SetPropertyTest(), name, journal, nodes);
+        runTest(new SmallFileWriteTest(), name, journal, nodes);
+        runTest(new ConcurrentReadTest(), name, journal, nodes);
+        runTest(new ConcurrentReadWriteTest(), name, journal, nodes);
+        runTest(new CreateManyChildNodesTest(), name, journal, nodes);
+        runTest(new UpdateManyChildNodesTest(), name, journal, nodes);
+    }
+
+    private void runTest(AbstractTest test, String name, String journal, int count) {
+        if (testPattern.matcher(test.toString()).matches()) {
+            File dir = new File(
+                    new File("target", "cluster"), name + "-" + test);
+            dir.mkdirs();
+            String journalName = dir.getName();
+
+            List<ClusterNodeRepository> nodes =
+                new ArrayList<ClusterNodeRepository>();
+            try {
+                for (int i = 0; i < count; i++) {
+                    nodes.add(createClusterNode(dir, journal, journalName, i));
+                }
+                runTest(test, name, new ClusterRepository(nodes));
+            } catch (Throwable t) {
+                System.out.println(
+                        "Unable to run " + test + ": " + t.getMessage());
+            } finally {
+                Collections.reverse(nodes);
+                for (ClusterNodeRepository node : nodes) {
+                    node.shutdown();
+                }
+                SharedMemoryJournal.release(journalName);
+                shutdownDatabase(dir);
+                FileUtils.deleteQuietly(dir);
+            }
+        }
+    }
+
+    private void runTest(
+            AbstractTest test, String name, ClusterRepository repository)
+            throws Exception {
+        DescriptiveStatistics statistics = new DescriptiveStatistics();
+        LagSampler sampler = new LagSampler(repository);
+        List<Writer> writers = new ArrayList<Writer>();
+
+        test.setUp(repository, credentials);
+        try {
+            List<ClusterNodeRepository> nodes = repository.getNodes();
+            if (writeInterval > 0) {
+                for (ClusterNodeRepository node : nodes.subList(1, nodes.size())) {
+                    writers.add(new Writer(node));
+                }
+            }
+
+            // Run a few iterations to warm up the system
+            long warmupEnd = System.currentTimeMillis() + warmup * 1000;
+            while (System.currentTimeMillis() < warmupEnd) {
+                test.execute();
+            }
+
+            // Run test iterations, and capture the execution times
+            for (ClusterNodeRepository node : nodes) {
+                node.getClusterNode().getStatistics().reset();
+            }
+            long revision = getGlobalRevision(repository);
+            sampler.start();
+            long start = System.currentTimeMillis();
+            long runtimeEnd = start + runtime * 1000;
+            while (System.currentTimeMillis() < runtimeEnd) {
+                statistics.addValue(test.execute());
+            }
+            double seconds = (System.currentTimeMillis() - start) / 1000.0;
+            sampler.stop();
+
+            if (statistics.getN() > 0) {
+                writeReport(test.toString(), name, statistics,
+                        statistics.getN() / seconds,
+                        (getGlobalRevision(repository) - revision) / seconds,
+                        sampler.getStatistics(),
+                        getLockWaits(repository, false),
+                        getLockWaits(repository, true));
+            }
+        } finally {
+            for (Writer writer : writers) {
+                writer.stop();
+            }
+            test.tearDown();
+        }
+    }
+
+    private ClusterNodeRepository createClusterNode(
+            File dir, String journal, String journalName, int index)
+            throws RepositoryException {
+        Properties variables = new Properties(System.getProperties());
+        variables.setProperty(
+                "rep.home", new File(dir, "node" + index).getPath());
+        variables.setProperty("cluster.home", dir.getPath());
+        variables.setProperty("cluster.id", "node" + index);
+        variables.setProperty("cluster.syncDelay", String.valueOf(syncDelay));
+        variables.setProperty("journal.name", journalName);
+        variables.setProperty("journal.delay", String.valueOf(journalDelay));
+        variables.setProperty("pm.delay", String.valueOf(pmDelay));
+
+        InputStream xml = ClusterPerformanceTest.class.getResourceAsStream(
+                journal + "-journal-repository.xml");
+        try {
+            return new ClusterNodeRepository(RepositoryConfig.create(
+                    new InputSource(xml), variables));
+        } finally {
+            try {
+                xml.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private void shutdownDatabase(File dir) {
+        try {
+            DriverManager.getConnection(
+                    "jdbc:derby:" + new File(dir, "db").getPath()
+                    + ";shutdown=true");
+        } catch (SQLException e) {
+            // expected, Derby signals a shutdown with an exception
+        }
+    }
+
+    private long getGlobalRevision(ClusterRepository repository) {
+        long revision = 0;
+        for (ClusterNodeRepository node : repository.getNodes()) {
+            revision = Math.max(revision,
+                    node.getClusterNode().getStatistics().getGlobalRevision());
+        }
+        return revision;
+    }
+
+    /**
+     * Returns the number of waits for the journal lock of all cluster nodes.
+     *
+     * @param repository the cluster
+     * @param slow whether to count only the waits of 10 ms and more
+     * @return number of waits
+     */
+    private long getLockWaits(ClusterRepository repository, boolean slow) {
+        long waits = 0;
+        for (ClusterNodeRepository node : repository.getNodes()) {
+            TabularData histogram =
+                node.getClusterNode().getStatistics().getLockWaitHistogram();
+            if (histogram != null) {
+                for (Object row : histogram.values()) {
+                    CompositeData data = (CompositeData) row;
+                    String duration = (String) data.get("duration");
+                    if (!slow || !(duration.equals("< 1 ms")
+                            || duration.equals("< 10 ms"))) {
+                        waits += (Long) data.get("count");
+                    }
+                }
+            }
+        }
+        return waits;
+    }
+
+    private void writeReport(
+            String test, String name, DescriptiveStatistics statistics,
+            double throughput, double records, DescriptiveStatistics lag,
+            long waits, long slowWaits)
+            throws IOException {
+        File report = new File("target", test + "-cluster.txt");
+
+        boolean needsPrefix = !report.exists();
+        PrintWriter writer = new PrintWriter(
+                new FileWriterWithEncoding(report, "UTF-8", true));
+        try {
+            if (needsPrefix) {
+                writer.format(
+                        "# %-34.34s     min     10%%     50%%     90%%     max"
+                        + "   ops/s   rec/s  lag50%%  lagmax   waits  >=10ms%n",
+                        test);
+            }
+
+            writer.format(
+                    "%-36.36s  %6.0f  %6.0f  %6.0f  %6.0f  %6.0f"
+                    + "  %6.1f  %6.1f  %6.0f  %6.0f  %6d  %6d%n",
+                    name,
+                    statistics.getMin(),
+                    statistics.getPercentile(10.0),
+                    statistics.getPercentile(50.0),
+                    statistics.getPercentile(90.0),
+                    statistics.getMax(),
+                    throughput,
+                    records,
+                    lag.getN() > 0 ? lag.getPercentile(50.0) : 0.0,
+                    lag.getN() > 0 ? lag.getMax() : 0.0,
+                    waits,
+                    slowWaits);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Samples the largest replication lag of the cluster nodes.
+     */
+    private static class LagSampler implements Runnable {
+
+        private final ClusterRepository repository;
+
+        private final DescriptiveStatistics statistics =
+            new DescriptiveStatistics();
+
+        private volatile boolean running;
+
+        private Thread thread;
+
+        public LagSampler(ClusterRepository repository) {
+            this.repository = repository;
+        }
+
+        public void start() {
+            running = true;
+            thread = new Thread(this, "ClusterLagSampler");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        public void stop() throws InterruptedException {
+            running = false;
+            thread.join();
+        }
+
+        public synchronized DescriptiveStatistics getStatistics() {
+            return statistics;
+        }
+
+        public void run() {
+            while (running) {
+                long lag = 0;
+                for (ClusterNodeRepository node : repository.getNodes()) {
+                    ClusterStatistics stats =
+                        node.getClusterNode().getStatistics();
+                    lag = Math.max(lag, stats.getReplicationLag());
+                }
+                synchronized (this) {
+                    statistics.addValue(lag);
+                }
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Saves changes on a cluster node in the background, so that the test
+     * competes with the other cluster nodes for the journal lock.
+     */
+    private class Writer implements Runnable {
+
+        private final Session session;
+
+        private final Node node;
+
+        private final Thread thread;
+
+        private volatile boolean running = true;
+
+        public Writer(ClusterNodeRepository repository)
+                throws RepositoryException {
+            session = repository.login(credentials);
+            node = session.getRootNode().addNode(
+                    "writer-" + repository.getClusterNode().getClusterNodeId(),
+                    "nt:unstructured");
+            session.save();
+            thread = new Thread(this, "ClusterWriter-" + node.getName());
+            thread.start();
+        }
+
+        public void stop() throws RepositoryException, InterruptedException {
+            running = false;
+            thread.join();
+            node.remove();
+            session.save();
+            session.logout();
+        }
+
+        public void run() {
+            long count = 0;
+            while (running) {
+                try {
+                    node.setProperty("count", count++);
+                    session.save();
+                    Thread.sleep(writeInterval);
+                } catch (RepositoryException e) {
+                    throw new RuntimeException(e);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.performance;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jcr.Credentials;
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+
+import org.apache.jackrabbit.core.cluster.ClusterException;
+
+/**
+ * A repository that distributes its sessions among the nodes of a cluster in
+ * round-robin fashion. Before a session is returned, its cluster node is
+ * synchronized with the journal, so that a session sees all the changes
+ * that were saved before it was created, no matter on which node.
+ */
+public class ClusterRepository implements Repository {
+
+    private final List<ClusterNodeRepository> nodes;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    public ClusterRepository(List<ClusterNodeRepository> nodes) {
+        this.nodes = nodes;
+    }
+
+    public List<ClusterNodeRepository> getNodes() {
+        return nodes;
+    }
+
+    private ClusterNodeRepository nextNode() throws RepositoryException {
+        int index = (next.getAndIncrement() & Integer.MAX_VALUE) % nodes.size();
+        ClusterNodeRepository node = nodes.get(index);
+        try {
+            node.getClusterNode().sync();
+        } catch (ClusterException e) {
+            throw new RepositoryException(
+                    "Unable to synchronize cluster node", e);
+        }
+        return node;
+    }
+
+    //-----------------------------------------------------------< Repository >
+
+    public String[] getDescriptorKeys() {
+        return nodes.get(0).getDescriptorKeys();
+    }
+
+    public boolean isStandardDescriptor(String key) {
+        return nodes.get(0).isStandardDescriptor(key);
+    }
+
+    public boolean isSingleValueDescriptor(String key) {
+        return nodes.get(0).isSingleValueDescriptor(key);
+    }
+
+    public Value getDescriptorValue(String key) {
+        return nodes.get(0).getDescriptorValue(key);
+    }
+
+    public Value[] getDescriptorValues(String key) {
+        return nodes.get(0).getDescriptorValues(key);
+    }
+
+    public String getDescriptor(String key) {
+        return nodes.get(0).getDescriptor(key);
+    }
+
+    public Session login(Credentials credentials, String workspaceName)
+            throws RepositoryException {
+        return nextNode().login(credentials, workspaceName);
+    }
+
+    public Session login(Credentials credentials) throws RepositoryException {
+        return nextNode().login(credentials);
+    }
+
+    public Session login(String workspaceName) throws RepositoryException {
+        return nextNode().login(workspaceName);
+    }
+
+    public Session login() throws RepositoryException {
+        return nextNode().login();
+    }
+
+}
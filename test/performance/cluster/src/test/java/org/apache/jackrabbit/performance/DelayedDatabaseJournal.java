@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.performance;
+
+import java.io.InputStream;
+
+import org.apache.jackrabbit.core.journal.AppendRecord;
+import org.apache.jackrabbit.core.journal.DatabaseJournal;
+import org.apache.jackrabbit.core.journal.JournalException;
+import org.apache.jackrabbit.core.journal.RecordIterator;
+
+/**
+ * A {@link DatabaseJournal} that waits before reading and appending records,
+ * to simulate the latency of a remote database with an embedded one. The
+ * delays are configured with the <code>readDelay</code> and
+ * <code>writeDelay</code> parameters in milliseconds, like the ones of the
+ * memory journal.
+ */
+public class DelayedDatabaseJournal extends DatabaseJournal {
+
+    private long readDelay;
+
+    private long writeDelay;
+
+    public long getReadDelay() {
+        return readDelay;
+    }
+
+    public void setReadDelay(long readDelay) {
+        this.readDelay = readDelay;
+    }
+
+    public long getWriteDelay() {
+        return writeDelay;
+    }
+
+    public void setWriteDelay(long writeDelay) {
+        this.writeDelay = writeDelay;
+    }
+
+    @Override
+    public RecordIterator getRecords(long startRevision)
+            throws JournalException {
+        delay(readDelay);
+        return super.getRecords(startRevision);
+    }
+
+    @Override
+    protected void append(AppendRecord record, InputStream in, int length)
+            throws JournalException {
+        delay(writeDelay);
+        super.append(record, in, length);
+    }
+
+    private static void delay(long millis) throws JournalException {
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                throw new JournalException("Interrupted while waiting.");
+            }
+        }
+    }
+
+}
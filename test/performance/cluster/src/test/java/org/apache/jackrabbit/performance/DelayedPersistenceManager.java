@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.performance;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.persistence.pool.BundleDbPersistenceManager;
+import org.apache.jackrabbit.core.persistence.util.NodePropBundle;
+import org.apache.jackrabbit.core.state.ItemStateException;
+
+/**
+ * A {@link BundleDbPersistenceManager} that waits before loading and storing
+ * bundles, to simulate the latency of a remote database with an embedded
+ * one. The delay is configured with the <code>delay</code> parameter in
+ * milliseconds.
+ * <p>
+ * Unlike the Derby persistence manager, this one does not shut down the
+ * embedded database when it is closed, so that several cluster nodes in one
+ * JVM can share it.
+ */
+public class DelayedPersistenceManager extends BundleDbPersistenceManager {
+
+    private long delay;
+
+    public long getDelay() {
+        return delay;
+    }
+
+    public void setDelay(long delay) {
+        this.delay = delay;
+    }
+
+    /**
+     * Uses the storage model of the Derby schema.
+     */
+    @Override
+    public int getStorageModel() {
+        return SM_LONGLONG_KEYS;
+    }
+
+    @Override
+    protected NodePropBundle loadBundle(NodeId id) throws ItemStateException {
+        delay();
+        return super.loadBundle(id);
+    }
+
+    @Override
+    protected void storeBundle(NodePropBundle bundle)
+            throws ItemStateException {
+        delay();
+        super.storeBundle(bundle);
+    }
+
+    private void delay() throws ItemStateException {
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                throw new ItemStateException("Interrupted while waiting.", e);
+            }
+        }
+    }
+
+}
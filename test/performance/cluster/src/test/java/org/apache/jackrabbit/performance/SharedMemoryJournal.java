@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.performance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+import org.apache.jackrabbit.core.journal.JournalException;
+import org.apache.jackrabbit.core.journal.MemoryJournal;
+import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
+
+/**
+ * A {@link MemoryJournal} whose records are shared by all instances with the
+ * same <code>journalName</code>, so that several cluster nodes in one JVM
+ * can use it. Appending records is serialized by a lock that is shared as
+ * well, like the global lock of a database journal. The
+ * <code>readDelay</code> and <code>writeDelay</code> parameters of the
+ * memory journal can be used to simulate a remote journal.
+ */
+public class SharedMemoryJournal extends MemoryJournal {
+
+    /**
+     * The records of the shared journals, by journal name.
+     */
+    private static final Map<String, List<MemoryRecord>> RECORDS =
+        new HashMap<String, List<MemoryRecord>>();
+
+    /**
+     * The locks of the shared journals, by journal name. A semaphore is used
+     * because the lock is not necessarily released by the locking thread.
+     */
+    private static final Map<String, Semaphore> LOCKS =
+        new HashMap<String, Semaphore>();
+
+    /**
+     * The name of the shared journal.
+     */
+    private String journalName = "default";
+
+    /**
+     * The lock of the shared journal.
+     */
+    private Semaphore lock;
+
+    /**
+     * Releases the records of a shared journal. Instances that are still
+     * open keep their records.
+     *
+     * @param journalName the name of the shared journal
+     */
+    public static synchronized void release(String journalName) {
+        RECORDS.remove(journalName);
+        LOCKS.remove(journalName);
+    }
+
+    /**
+     * Returns the records of a shared journal, creating them if needed.
+     *
+     * @param journalName the name of the shared journal
+     * @return the records
+     */
+    private static synchronized List<MemoryRecord> getRecords(
+            String journalName) {
+        List<MemoryRecord> records = RECORDS.get(journalName);
+        if (records == null) {
+            records = Collections.synchronizedList(
+                    new ArrayList<MemoryRecord>());
+            RECORDS.put(journalName, records);
+        }
+        return records;
+    }
+
+    /**
+     * Returns the lock of a shared journal, creating it if needed.
+     *
+     * @param journalName the name of the shared journal
+     * @return the lock
+     */
+    private static synchronized Semaphore getLock(String journalName) {
+        Semaphore lock = LOCKS.get(journalName);
+        if (lock == null) {
+            lock = new Semaphore(1, true);
+            LOCKS.put(journalName, lock);
+        }
+        return lock;
+    }
+
+    public String getJournalName() {
+        return journalName;
+    }
+
+    public void setJournalName(String journalName) {
+        this.journalName = journalName;
+    }
+
+    @Override
+    public void init(String id, NamespaceResolver resolver)
+            throws JournalException {
+        super.init(id, resolver);
+        setRecords(getRecords(journalName));
+        lock = getLock(journalName);
+    }
+
+    @Override
+    protected void doLock() throws JournalException {
+        try {
+            lock.acquire();
+        } catch (InterruptedException e) {
+            throw new JournalException("Interrupted while locking journal.");
+        }
+        boolean succeeded = false;
+        try {
+            super.doLock();
+            succeeded = true;
+        } finally {
+            if (!succeeded) {
+                lock.release();
+            }
+        }
+    }
+
+    @Override
+    protected void doUnlock(boolean successful) {
+        try {
+            super.doUnlock(successful);
+        } finally {
+            lock.release();
+        }
+    }
+
+}